@@ -0,0 +1,269 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Friend sets of a VTConnect kept as compressed bitmaps next to the
+ * graph, for the queries that are set algebra on friend sets: mutual
+ * friends are an AND, friends of friends an OR of the friend sets of
+ * the friends ANDNOT the own friends.
+ *
+ * The graph keeps its ArrayList of edges per vertex, which stays the
+ * source of truth for traversals. The bitmaps are built from it once,
+ * with runOptimize, and then follow the friendships created and removed
+ * through the network. When the ids are compacted they are built again.
+ *
+ * The sets handed out are the ones kept here and must not be changed;
+ * the results of the set operations are new sets.
+ *
+ * The index is not thread-safe and is updated by the thread that changes
+ * the network, like the graph itself.
+ *
+ * @author Kerem Bozgan kerembozgan
+ * @version 2022-11-11
+ */
+class BitmapAdjacency implements IdRemapListener {
+
+    /** Friend set of ids without friends, never changed */
+    private static final RoaringBitmap NONE = new RoaringBitmap();
+
+    /** Graph the friend sets are built from */
+    private final GraphInterface<Integer> graph;
+    /** Friend set of each id, null if it has no friends */
+    private RoaringBitmap[] friends;
+
+    /**
+     * Builds the friend sets of every vertex of a graph.
+     *
+     * @param graph
+     *            graph of the network
+     * @param bound
+     *            every vertex label is smaller than this bound
+     */
+    BitmapAdjacency(GraphInterface<Integer> graph, int bound) {
+        this.graph = graph;
+        build(bound);
+    }
+
+
+    /**
+     * Returns the friend set of an id.
+     *
+     * @param id
+     *            vertex label
+     * @return friend ids, not to be changed
+     */
+    public RoaringBitmap getFriends(int id) {
+        return id < friends.length && friends[id] != null
+            ? friends[id]
+            : NONE;
+    }
+
+
+    /**
+     * Returns the friends two ids have in common.
+     *
+     * @param a
+     *            first id
+     * @param b
+     *            second id
+     * @return new set of the mutual friends
+     */
+    public RoaringBitmap mutualFriends(int a, int b) {
+        return RoaringBitmap.and(getFriends(a), getFriends(b));
+    }
+
+
+    /**
+     * Returns the number of friends two ids have in common, without
+     * making the set.
+     *
+     * @param a
+     *            first id
+     * @param b
+     *            second id
+     * @return number of mutual friends
+     */
+    public int countMutualFriends(int a, int b) {
+        return RoaringBitmap.andCardinality(getFriends(a), getFriends(b));
+    }
+
+
+    /**
+     * Returns the ids two hops away from an id: friends of its friends
+     * that are neither the id nor one of its friends.
+     *
+     * @param id
+     *            vertex label
+     * @return new set of the friends of friends
+     */
+    public RoaringBitmap friendsOfFriends(int id) {
+        RoaringBitmap own = getFriends(id);
+        List<RoaringBitmap> sets = new ArrayList<RoaringBitmap>();
+        own.forEach(friend -> sets.add(getFriends(friend)));
+        RoaringBitmap result = RoaringBitmap.andNot(RoaringBitmap.or(sets),
+            own);
+        result.remove(id);
+        return result;
+    }
+
+
+    /**
+     * Adds each side of a new friendship to the set of the other.
+     *
+     * @param a
+     *            id of the first profile
+     * @param b
+     *            id of the second profile
+     */
+    public void friendshipCreated(int a, int b) {
+        ensureCapacity(Math.max(a, b) + 1);
+        add(a, b);
+        add(b, a);
+    }
+
+
+    /**
+     * Takes each side of a removed friendship out of the set of the
+     * other.
+     *
+     * @param a
+     *            id of the first profile
+     * @param b
+     *            id of the second profile
+     */
+    public void friendshipRemoved(int a, int b) {
+        remove(a, b);
+        remove(b, a);
+    }
+
+
+    /**
+     * Drops the set of a removed profile and takes it out of the sets of
+     * its friends.
+     *
+     * @param id
+     *            id of the removed profile
+     * @param removedFriends
+     *            ids of its friends
+     */
+    public void profileRemoved(int id, int[] removedFriends) {
+        for (int friend : removedFriends) {
+            remove(friend, id);
+        }
+        if (id < friends.length) {
+            friends[id] = null;
+        }
+    }
+
+
+    /**
+     * Builds the sets again, the ids in them have changed.
+     *
+     * @param oldToNew
+     *            array mapping each old id to its new id
+     * @param newBound
+     *            number of ids in use
+     */
+    @Override
+    public void idsRemapped(int[] oldToNew, int newBound) {
+        build(newBound);
+    }
+
+
+    /**
+     * Returns the bytes taken by the values of all sets.
+     *
+     * @return size in bytes, without object headers
+     */
+    public long getSizeInBytes() {
+        long bytes = 0;
+        for (RoaringBitmap set : friends) {
+            if (set != null) {
+                bytes += set.getSizeInBytes();
+            }
+        }
+        return bytes;
+    }
+
+
+    /**
+     * Returns the number of containers of each kind over all sets.
+     *
+     * @return counts indexed by RoaringBitmap.ARRAY, BITMAP and RUN
+     */
+    public int[] getContainerCounts() {
+        int[] counts = new int[3];
+        for (RoaringBitmap set : friends) {
+            if (set != null) {
+                int[] setCounts = set.getContainerCounts();
+                for (int k = 0; k < counts.length; k++) {
+                    counts[k] += setCounts[k];
+                }
+            }
+        }
+        return counts;
+    }
+
+
+    /**
+     * Returns the size and the containers of the sets.
+     *
+     * @return statistics as text
+     */
+    public String getStatistics() {
+        int[] counts = getContainerCounts();
+        return String.format("%d bytes, containers: %d array, %d bitmap, "
+            + "%d run", getSizeInBytes(), counts[RoaringBitmap.ARRAY],
+            counts[RoaringBitmap.BITMAP], counts[RoaringBitmap.RUN]);
+    }
+
+
+    private void build(int bound) {
+        friends = new RoaringBitmap[bound];
+        for (int id = 0; id < bound; id++) {
+            VertexInterface<Integer> vertex = graph.getVertex(id);
+            if (vertex == null || !vertex.hasNeighbor()) {
+                continue;
+            }
+            int[] ids = new int[vertex.getNumberOfNeighbors()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = vertex.getNeighbor(i).getLabel();
+            }
+            // in order, every value is appended to the last container
+            Arrays.sort(ids);
+            RoaringBitmap set = new RoaringBitmap();
+            for (int friend : ids) {
+                set.add(friend);
+            }
+            set.runOptimize();
+            friends[id] = set;
+        }
+    }
+
+
+    private void add(int id, int friend) {
+        if (friends[id] == null) {
+            friends[id] = new RoaringBitmap();
+        }
+        friends[id].add(friend);
+    }
+
+
+    private void remove(int id, int friend) {
+        if (id < friends.length && friends[id] != null) {
+            friends[id].remove(friend);
+            if (friends[id].isEmpty()) {
+                friends[id] = null;
+            }
+        }
+    }
+
+
+    private void ensureCapacity(int bound) {
+        if (friends.length < bound) {
+            friends = Arrays.copyOf(friends, Math.max(bound, friends.length
+                * 2));
+        }
+    }
+}
@@ -0,0 +1,199 @@
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares set algebra on friend sets done with the ArrayList of edges
+ * of each Vertex, with sorted friend ids, and with the compressed
+ * bitmaps of BitmapAdjacency, on a Barabasi-Albert network.
+ *
+ * Three workloads are timed over the same pairs of friends:
+ *
+ * <pre>
+ * mutual    number of common friends of a and b
+ * audience  friends of a who are not friends of b
+ * fof       friends of friends of a, without a and its friends
+ * </pre>
+ *
+ * The edge list scans check each friend of a with hasEdge on b, which
+ * walks the edge list of b, and friends of friends come from
+ * friendSuggestion, which marks vertices as visited. Every method has
+ * to give the same checksum.
+ *
+ * Usage: java BitmapBenchmark [users] [degree] [pairs]
+ *
+ * @author Kerem Bozgan kerembozgan
+ * @version 2022-11-11
+ */
+class BitmapBenchmark {
+
+    /** Number of timed rounds per workload, the best one is reported */
+    private static final int ROUNDS = 5;
+    /** Bytes of an edge: its reference in the ArrayList and the object */
+    private static final int EDGE_BYTES = 4 + 32;
+    /** Checksums of the timed workloads, in the order they ran */
+    private static StringBuilder checksums = new StringBuilder();
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int degree = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int pairs = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+
+        int[] ends = GraphGenerator.generate(GraphGenerator.BARABASI_ALBERT,
+            n, degree, new Random(42));
+        Graph<Integer> grph = new Graph<Integer>();
+        GraphGenerator.populate(grph, n, ends);
+        VTConnect network = new VTConnect();
+        Profile[] profiles = GraphGenerator.populate(network, n, ends);
+        System.out.println("Users: " + n + ", friendships: " + grph
+            .getNumberOfEdges());
+
+        // pairs of friends, so they have friends in common
+        Random random = new Random(7);
+        int[] a = new int[pairs];
+        int[] b = new int[pairs];
+        for (int i = 0; i < pairs; i++) {
+            int e = 2 * random.nextInt(ends.length / 2);
+            if (ends[e] == ends[e + 1]) {
+                e = 0;
+            }
+            a[i] = ends[e];
+            b[i] = ends[e + 1];
+        }
+
+        long start = System.nanoTime();
+        BitmapAdjacency bitmaps = network.enableBitmapAdjacency();
+        System.out.printf("Bitmaps built in %.1f ms: %s%n", (System
+            .nanoTime() - start) / 1e6, bitmaps.getStatistics());
+        System.out.printf("Edge lists: about %d bytes%n", 2L * grph
+            .getNumberOfEdges() * EDGE_BYTES);
+        network.disableBitmapAdjacency();
+
+        System.out.printf("%-9s %14s %14s %14s%n", "workload", "edge list",
+            "sorted ids", "bitmap");
+        System.out.printf("%-9s %11.2f us %11.2f us %11.2f us%n", "mutual",
+            time(() -> {
+                long sum = 0;
+                for (int i = 0; i < pairs; i++) {
+                    sum += scanMutual(grph, a[i], b[i]);
+                }
+                return sum;
+            }, pairs), time(() -> {
+                long sum = 0;
+                for (int i = 0; i < pairs; i++) {
+                    sum += network.getNumberOfMutualFriends(profiles[a[i]],
+                        profiles[b[i]]);
+                }
+                return sum;
+            }, pairs), timeBitmaps(network, () -> {
+                long sum = 0;
+                for (int i = 0; i < pairs; i++) {
+                    sum += network.getNumberOfMutualFriends(profiles[a[i]],
+                        profiles[b[i]]);
+                }
+                return sum;
+            }, pairs));
+
+        System.out.printf("%-9s %11.2f us %14s %11.2f us%n", "audience",
+            time(() -> {
+                long sum = 0;
+                for (int i = 0; i < pairs; i++) {
+                    sum += network.getNumberOfFriends(profiles[a[i]])
+                        - scanMutual(grph, a[i], b[i]);
+                }
+                return sum;
+            }, pairs), "", timeBitmaps(network, () -> {
+                BitmapAdjacency adjacency = network.getBitmapAdjacency();
+                long sum = 0;
+                for (int i = 0; i < pairs; i++) {
+                    sum += RoaringBitmap.andNot(adjacency.getFriends(a[i]),
+                        adjacency.getFriends(b[i])).cardinality();
+                }
+                return sum;
+            }, pairs));
+
+        int sources = Math.max(1, pairs / 20);
+        System.out.printf("%-9s %11.2f us %11.2f us %11.2f us%n", "fof",
+            time(() -> {
+                long sum = 0;
+                for (int i = 0; i < sources; i++) {
+                    List<Profile> found = network.friendSuggestion(
+                        profiles[a[i]]);
+                    sum += found == null ? 0 : found.size();
+                }
+                return sum;
+            }, sources), time(() -> {
+                long sum = 0;
+                for (int i = 0; i < sources; i++) {
+                    sum += network.friendsOfFriends(profiles[a[i]]).size();
+                }
+                return sum;
+            }, sources), timeBitmaps(network, () -> {
+                long sum = 0;
+                for (int i = 0; i < sources; i++) {
+                    sum += network.friendsOfFriends(profiles[a[i]]).size();
+                }
+                return sum;
+            }, sources));
+        System.out.println("Checksums: " + checksums);
+    }
+
+
+    /**
+     * Work of one workload that returns a checksum.
+     */
+    private interface Workload {
+        long run();
+    }
+
+
+    /**
+     * Runs a workload ROUNDS times and returns the best time per
+     * operation in microseconds.
+     */
+    private static double time(Workload workload, int operations) {
+        long best = Long.MAX_VALUE;
+        long checksum = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            checksum = workload.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        checksums.append(checksums.length() == 0 ? "" : " ").append(
+            checksum);
+        return best / 1e3 / operations;
+    }
+
+
+    /**
+     * Times a workload with the friend bitmaps of the network kept.
+     */
+    private static double timeBitmaps(
+        VTConnect network,
+        Workload workload,
+        int operations) {
+        network.enableBitmapAdjacency();
+        try {
+            return time(workload, operations);
+        }
+        finally {
+            network.disableBitmapAdjacency();
+        }
+    }
+
+
+    /**
+     * Counts the common friends of two vertices by walking the edge
+     * list of the first and looking up each friend in the edge list of
+     * the second.
+     */
+    private static int scanMutual(Graph<Integer> grph, int a, int b) {
+        VertexInterface<Integer> vertex = grph.getVertex(a);
+        int count = 0;
+        for (int i = 0; i < vertex.getNumberOfNeighbors(); i++) {
+            if (grph.hasEdge(b, vertex.getNeighbor(i).getLabel())) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,471 @@
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Lazy breadth first traversal of a graph with Integer labels, such as
+ * the graph of a VTConnect. Unlike getBreadthFirstTraversal of the graph,
+ * which visits the whole component before it returns, the cursor finds
+ * the next vertex only when it is asked for, so taking the first k
+ * vertices costs the edges of about k vertices instead of the whole
+ * component.
+ *
+ * The vertices come in the order of getBreadthFirstTraversal, the origin
+ * first, and getDepth tells the hops from the origin of the last one. The
+ * neighbors of a vertex are only scanned when hasNext asks for the
+ * vertex after it. The traversal ends early at a maximum depth, after a number
+ * of vertices, or after a vertex that satisfies a stop predicate.
+ *
+ * The cursor keeps its own state in a ring buffer of ints and an open
+ * addressing set of ints, and does not touch the visit marks of the
+ * vertices, so several cursors may be open at once. Its memory grows with
+ * the vertices it has found, not with the graph. The graph must not be
+ * changed while a cursor is in use.
+ *
+ * A TraversalBudget may also cap the adjacency entries scanned and set a
+ * deadline; getStopReason then tells which limit ended the traversal.
+ *
+ * @author Kerem Bozgan kerembozgan
+ * @version 2022-11-11
+ */
+class BreadthFirstCursor implements PrimitiveIterator.OfInt {
+
+    /** Graph being traversed */
+    private final GraphInterface<Integer> graph;
+    /** Vertices found but not yet returned, with their depths */
+    private final IntRingQueue queue = new IntRingQueue();
+    /** Every vertex found so far */
+    private final IntHashSet found = new IntHashSet();
+
+    /** Vertices deeper than this are not returned */
+    private int maxDepth = Integer.MAX_VALUE;
+    /** Vertices left to return */
+    private long remaining = Long.MAX_VALUE;
+    /** Ends the traversal after a vertex that satisfies it, may be null */
+    private IntPredicate stop;
+    /** Adjacency entries that may be scanned */
+    private long maxScanned = Long.MAX_VALUE;
+    /** System.nanoTime after which the traversal stops, if hasDeadline */
+    private long deadline;
+    private boolean hasDeadline;
+
+    /** Last returned vertex, whose neighbors are not scanned yet, or -1 */
+    private int pending = -1;
+    private int pendingDepth;
+    /** Depth of the last returned vertex */
+    private int depth = -1;
+    /** True once nothing more will be returned */
+    private boolean done;
+    /** Limit that ended the traversal, a constant of TraversalBudget */
+    private int stopReason = TraversalBudget.COMPLETE;
+    /** True once a vertex at maxDepth was left unexpanded */
+    private boolean depthCut;
+    /** Depth that may miss vertices because scanning stopped early */
+    private int cutDepth = Integer.MAX_VALUE;
+    /** Vertices returned and adjacency entries scanned so far */
+    private int visited;
+    private long scanned;
+
+    /**
+     * Initializes a cursor starting from a vertex. A vertex that is not
+     * in the graph gives an empty traversal.
+     *
+     * @param graph
+     *            graph to traverse
+     * @param origin
+     *            label of the first vertex
+     */
+    BreadthFirstCursor(GraphInterface<Integer> graph, int origin) {
+        this.graph = graph;
+        if (graph.getVertex(origin) == null) {
+            done = true;
+        }
+        else {
+            found.add(origin);
+            queue.add(origin, 0);
+        }
+    }
+
+
+    /**
+     * Stops the traversal at a number of hops from the origin. A depth of
+     * 0 returns only the origin, 1 the origin and its neighbors.
+     *
+     * @param depthLimit
+     *            largest depth that is returned
+     * @return this cursor
+     */
+    public BreadthFirstCursor maxDepth(int depthLimit) {
+        maxDepth = depthLimit;
+        return this;
+    }
+
+
+    /**
+     * Stops the traversal after a number of further vertices.
+     *
+     * @param count
+     *            vertices that may still be returned
+     * @return this cursor
+     */
+    public BreadthFirstCursor limit(long count) {
+        remaining = count;
+        return this;
+    }
+
+
+    /**
+     * Stops the traversal after the first vertex that satisfies a
+     * predicate. That vertex is still returned.
+     *
+     * @param predicate
+     *            test of the label of each returned vertex
+     * @return this cursor
+     */
+    public BreadthFirstCursor stopAfter(IntPredicate predicate) {
+        stop = predicate;
+        return this;
+    }
+
+
+    /**
+     * Stops the traversal once a number of adjacency entries have been
+     * scanned, even in the middle of the neighbors of a vertex.
+     *
+     * @param count
+     *            adjacency entries that may be scanned in total
+     * @return this cursor
+     */
+    public BreadthFirstCursor maxScanned(long count) {
+        maxScanned = count;
+        return this;
+    }
+
+
+    /**
+     * Stops the traversal once System.nanoTime passes a deadline.
+     *
+     * @param nanoTime
+     *            deadline in the time of System.nanoTime
+     * @return this cursor
+     */
+    public BreadthFirstCursor deadline(long nanoTime) {
+        deadline = nanoTime;
+        hasDeadline = true;
+        return this;
+    }
+
+
+    /**
+     * Returns true if there is another vertex. This scans the neighbors of
+     * the last returned vertex when needed.
+     *
+     * @return true if nextInt will return a vertex
+     */
+    public boolean hasNext() {
+        if (done) {
+            return false;
+        }
+        if (remaining <= 0) {
+            return finish(TraversalBudget.MAX_VISITED);
+        }
+        if (hasDeadline && System.nanoTime() - deadline > 0) {
+            return finish(TraversalBudget.DEADLINE);
+        }
+        // the neighbors of the previous vertex go behind everything that
+        // is queued, so scanning them could wait longer, but a budget that
+        // runs out while scanning must be known here
+        if (pending >= 0) {
+            expandPending();
+            if (done) {
+                return false;
+            }
+        }
+        if (queue.isEmpty()) {
+            return finish(depthCut
+                ? TraversalBudget.MAX_DEPTH
+                : TraversalBudget.COMPLETE);
+        }
+        return true;
+    }
+
+
+    /**
+     * Returns the label of the next vertex.
+     *
+     * @return label of the next vertex
+     */
+    public int nextInt() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        depth = queue.peekDepth();
+        int label = queue.remove();
+        visited++;
+        remaining--;
+        if (depth < maxDepth) {
+            pending = label;
+            pendingDepth = depth;
+        }
+        else {
+            depthCut = true;
+        }
+        if (stop != null && stop.test(label)) {
+            done = true;
+        }
+        return label;
+    }
+
+
+    /**
+     * Returns the number of hops from the origin to the vertex last
+     * returned by nextInt, -1 before the first call.
+     *
+     * @return depth of the last vertex
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+
+    /**
+     * Returns the largest depth all of whose vertices have been returned,
+     * -1 before the first call of nextInt. A vertex that was not returned
+     * is farther from the origin than this.
+     *
+     * @return depth of the last complete level
+     */
+    public int getCompletedDepth() {
+        if (depth < 0) {
+            return -1;
+        }
+        // once a vertex of a depth is returned, the rest of that depth is
+        // queued, unless an expansion was cut short
+        int completed = queue.isEmpty() || queue.peekDepth() > depth
+            ? depth
+            : depth - 1;
+        return Math.min(completed, cutDepth - 1);
+    }
+
+
+    /**
+     * Returns the limit that ended the traversal, a constant of
+     * TraversalBudget: COMPLETE if it ran out of vertices or stopped at
+     * the stop predicate, or the budget that ran out.
+     *
+     * @return reason the traversal ended
+     */
+    public int getStopReason() {
+        return stopReason;
+    }
+
+
+    /**
+     * Returns the number of vertices returned so far.
+     *
+     * @return vertices visited
+     */
+    public int getVisitedCount() {
+        return visited;
+    }
+
+
+    /**
+     * Returns the number of adjacency entries scanned so far.
+     *
+     * @return edges scanned
+     */
+    public long getScannedEdgeCount() {
+        return scanned;
+    }
+
+
+    /**
+     * Returns the remaining vertices as a sequential stream. The stream
+     * pulls vertices from this cursor one at a time, so limit and
+     * takeWhile on the stream end the traversal as well.
+     *
+     * @return stream of labels
+     */
+    public IntStream stream() {
+        return StreamSupport.intStream(Spliterators.spliteratorUnknownSize(
+            this, Spliterator.ORDERED | Spliterator.DISTINCT
+                | Spliterator.NONNULL), false);
+    }
+
+
+    /**
+     * Adds the neighbors of the pending vertex that were not found yet.
+     * Running out of scanned edges or time ends the traversal.
+     */
+    private void expandPending() {
+        VertexInterface<Integer> vertex = graph.getVertex(pending);
+        pending = -1;
+        if (vertex == null) {
+            return;
+        }
+        int count = vertex.getNumberOfNeighbors();
+        for (int i = 0; i < count; i++) {
+            if (scanned >= maxScanned) {
+                cutDepth = pendingDepth + 1;
+                finish(TraversalBudget.MAX_SCANNED);
+                return;
+            }
+            // a hub can take long on its own, so look at the clock as well
+            if (hasDeadline && (scanned & 1023) == 1023 && System.nanoTime()
+                - deadline > 0) {
+                cutDepth = pendingDepth + 1;
+                finish(TraversalBudget.DEADLINE);
+                return;
+            }
+            int neighbor = vertex.getNeighbor(i).getLabel();
+            scanned++;
+            if (found.add(neighbor)) {
+                queue.add(neighbor, pendingDepth + 1);
+            }
+        }
+    }
+
+
+    /**
+     * Ends the traversal for a reason and returns false.
+     */
+    private boolean finish(int reason) {
+        done = true;
+        stopReason = reason;
+        return false;
+    }
+
+
+    /**
+     * Queue of labels with their depths in a growing ring buffer.
+     */
+    static class IntRingQueue {
+        private int[] labels = new int[16];
+        private int[] depths = new int[16];
+        private int head;
+        private int size;
+
+        /**
+         * Adds a label with its depth at the tail.
+         */
+        void add(int label, int labelDepth) {
+            if (size == labels.length) {
+                grow();
+            }
+            int tail = (head + size) & (labels.length - 1);
+            labels[tail] = label;
+            depths[tail] = labelDepth;
+            size++;
+        }
+
+
+        /**
+         * Removes and returns the label at the head.
+         */
+        int remove() {
+            int label = labels[head];
+            head = (head + 1) & (labels.length - 1);
+            size--;
+            return label;
+        }
+
+
+        /**
+         * Returns the depth of the label at the head.
+         */
+        int peekDepth() {
+            return depths[head];
+        }
+
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+
+        /**
+         * Doubles the buffer, unwrapping the entries to its start.
+         */
+        private void grow() {
+            int[] newLabels = new int[labels.length * 2];
+            int[] newDepths = new int[labels.length * 2];
+            for (int i = 0; i < size; i++) {
+                newLabels[i] = labels[(head + i) & (labels.length - 1)];
+                newDepths[i] = depths[(head + i) & (labels.length - 1)];
+            }
+            labels = newLabels;
+            depths = newDepths;
+            head = 0;
+        }
+    }
+
+
+    /**
+     * Set of non-negative ints with linear probing, -1 marks free slots.
+     */
+    static class IntHashSet {
+        private int[] slots = newSlots(16);
+        private int size;
+
+        /**
+         * Adds a value, returns false if it was already in the set.
+         */
+        boolean add(int value) {
+            if (2 * (size + 1) > slots.length) {
+                rehash();
+            }
+            int mask = slots.length - 1;
+            int i = mix(value) & mask;
+            while (slots[i] != -1) {
+                if (slots[i] == value) {
+                    return false;
+                }
+                i = (i + 1) & mask;
+            }
+            slots[i] = value;
+            size++;
+            return true;
+        }
+
+
+        /**
+         * Doubles the table and inserts the values again.
+         */
+        private void rehash() {
+            int[] old = slots;
+            slots = newSlots(old.length * 2);
+            int mask = slots.length - 1;
+            for (int value : old) {
+                if (value != -1) {
+                    int i = mix(value) & mask;
+                    while (slots[i] != -1) {
+                        i = (i + 1) & mask;
+                    }
+                    slots[i] = value;
+                }
+            }
+        }
+
+
+        private static int[] newSlots(int length) {
+            int[] slots = new int[length];
+            Arrays.fill(slots, -1);
+            return slots;
+        }
+
+
+        /**
+         * Spreads dense ids over the table.
+         */
+        private static int mix(int value) {
+            int h = value * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/**
+ * Result of a traversal that ran under a TraversalBudget, with what it
+ * cost. When the traversal stopped at a limit the value is partial: a
+ * list holds the vertices found until then, and a distance that was not
+ * found is -1 with the knowledge that the profiles are more than
+ * getCompletedDepth hops apart ("beyond N hops").
+ *
+ * The cost counters tell how close a call came to its budget, so the
+ * budgets can be tuned from what typical calls use.
+ *
+ * @param <T>
+ *            type of the value
+ *
+ * @author Kerem Bozgan kerembozgan
+ * @version 2022-11-11
+ */
+class BudgetedResult<T> {
+
+    private final T value;
+    /** Constant of TraversalBudget */
+    private final int stopReason;
+    private final int completedDepth;
+    private final int visited;
+    private final long scanned;
+    private final long elapsedNanos;
+
+    /**
+     * Initializes a result.
+     *
+     * @param value
+     *            complete or partial value
+     * @param stopReason
+     *            constant of TraversalBudget
+     * @param completedDepth
+     *            largest depth that was visited completely
+     * @param visited
+     *            vertices visited
+     * @param scanned
+     *            adjacency entries scanned
+     * @param elapsedNanos
+     *            time the call took
+     */
+    BudgetedResult(
+        T value,
+        int stopReason,
+        int completedDepth,
+        int visited,
+        long scanned,
+        long elapsedNanos) {
+        this.value = value;
+        this.stopReason = stopReason;
+        this.completedDepth = completedDepth;
+        this.visited = visited;
+        this.scanned = scanned;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+
+    /**
+     * Returns the value, partial unless isComplete.
+     *
+     * @return value of the call
+     */
+    public T getValue() {
+        return value;
+    }
+
+
+    /**
+     * Returns true if no limit of the budget was reached, so the value is
+     * the same as without a budget.
+     *
+     * @return true for a complete result
+     */
+    public boolean isComplete() {
+        return stopReason == TraversalBudget.COMPLETE;
+    }
+
+
+    /**
+     * Returns the limit that stopped the traversal, a constant of
+     * TraversalBudget.
+     *
+     * @return reason the traversal stopped
+     */
+    public int getStopReason() {
+        return stopReason;
+    }
+
+
+    /**
+     * Returns the largest number of hops from the origin up to which
+     * every profile was visited. For an incomplete distance, the profiles
+     * are farther apart than this.
+     *
+     * @return depth of the last complete level, -1 if there is none
+     */
+    public int getCompletedDepth() {
+        return completedDepth;
+    }
+
+
+    /**
+     * Returns the number of vertices the call visited.
+     *
+     * @return vertices visited
+     */
+    public int getVisitedCount() {
+        return visited;
+    }
+
+
+    /**
+     * Returns the number of adjacency entries the call scanned.
+     *
+     * @return edges scanned
+     */
+    public long getScannedEdgeCount() {
+        return scanned;
+    }
+
+
+    /**
+     * Returns the time the call took.
+     *
+     * @return elapsed nanoseconds
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+
+    /**
+     * Returns the value, or why it is partial, with the cost.
+     */
+    public String toString() {
+        String result;
+        if (isComplete()) {
+            result = String.valueOf(value);
+        }
+        else if (value instanceof Integer && (Integer)value < 0) {
+            result = "beyond " + completedDepth + " hops ("
+                + TraversalBudget.REASONS[stopReason] + ")";
+        }
+        else {
+            result = value + " (partial, "
+                + TraversalBudget.REASONS[stopReason] + ")";
+        }
+        return String.format("%s, visited %d, scanned %d, %.3f ms", result,
+            visited, scanned, elapsedNanos / 1e6);
+    }
+}
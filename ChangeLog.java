@@ -0,0 +1,391 @@
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Change data capture of a VTConnect: every mutation of the network is
+ * written to this log as a record with a sequence number, 1 for the
+ * first one, and the records are handed to the subscribers in batches.
+ * A batch is sent when it holds maxBatch records and whenever flush is
+ * called, which a primary does on a timer; a flush without records sends
+ * an empty batch, so subscribers learn that they are up to date.
+ *
+ * Frames use the varints of VTConnectServer:
+ *
+ * <pre>
+ * BATCH     first sequence, record count, records
+ * SNAPSHOT  sequence, profile count, (id, name, status) per profile,
+ *           friendship count, (id, id) per friendship,
+ *           arc count, (follower, followee) per follow arc
+ *
+ * record                arguments
+ * 1 ADD_USER            id, name, status
+ * 2 REMOVE_USER         id
+ * 3 CREATE_FRIENDSHIP   id, id
+ * 4 REMOVE_FRIENDSHIP   id, id
+ * 5 SET_STATUS          id, status
+ * 6 COMPACT_IDS         -
+ * 7 SET_NAME            id, first name, last name
+ * 8 FOLLOW              follower id, followee id
+ * 9 UNFOLLOW            follower id, followee id
+ * </pre>
+ *
+ * Records carry the ids of the primary, and a replica adds its profiles
+ * under the same ids, so the records apply to it unchanged. Ids are
+ * compacted by the same rule on both sides, so COMPACT_IDS needs no map.
+ *
+ * A new subscriber first gets a snapshot of the network at the last
+ * sequence and then every later batch, in order. The snapshot is read
+ * from the network, so subscribe must be called while nothing changes
+ * the network, like the mutations themselves. The log itself is
+ * synchronized, so a timer thread may flush it.
+ *
+ * @author Kerem Bozgan kerembozgan
+ * @version 2022-11-11
+ */
+class ChangeLog {
+
+    /** Kinds of frames */
+    static final int BATCH = 1;
+    static final int SNAPSHOT = 2;
+
+    /** Kinds of records */
+    static final int ADD_USER = 1;
+    static final int REMOVE_USER = 2;
+    static final int CREATE_FRIENDSHIP = 3;
+    static final int REMOVE_FRIENDSHIP = 4;
+    static final int SET_STATUS = 5;
+    static final int COMPACT_IDS = 6;
+    static final int SET_NAME = 7;
+    static final int FOLLOW = 8;
+    static final int UNFOLLOW = 9;
+
+    /** Records in a full batch */
+    private final int maxBatch;
+    /** Records not yet sent */
+    private final VTConnectServer.Encoder pending =
+        new VTConnectServer.Encoder();
+    private int pendingCount;
+    /** Sequence of the last record */
+    private long lastSequence;
+    /** Receivers of the frames */
+    private final List<Consumer<byte[]>> subscribers =
+        new CopyOnWriteArrayList<Consumer<byte[]>>();
+
+    /** Frames and records sent, for the statistics */
+    private long batches;
+    private long records;
+
+    /**
+     * Initializes an empty log.
+     *
+     * @param maxBatch
+     *            largest number of records in one batch
+     */
+    ChangeLog(int maxBatch) {
+        if (maxBatch < 1) {
+            throw new IllegalArgumentException("Batch must hold a record");
+        }
+        this.maxBatch = maxBatch;
+    }
+
+
+    /**
+     * Records an added profile.
+     *
+     * @param id
+     *            id of the profile
+     * @param name
+     *            name of the profile
+     * @param status
+     *            status of the profile
+     */
+    public synchronized void userAdded(int id, String name, String status) {
+        begin(ADD_USER);
+        pending.writeVarint(id);
+        pending.writeString(name);
+        pending.writeString(status);
+        end();
+    }
+
+
+    /**
+     * Records a removed profile, together with its friendships.
+     *
+     * @param id
+     *            id of the profile
+     */
+    public synchronized void userRemoved(int id) {
+        begin(REMOVE_USER);
+        pending.writeVarint(id);
+        end();
+    }
+
+
+    /**
+     * Records a new friendship.
+     *
+     * @param a
+     *            id of the first profile
+     * @param b
+     *            id of the second profile
+     */
+    public synchronized void friendshipCreated(int a, int b) {
+        begin(CREATE_FRIENDSHIP);
+        pending.writeVarint(a);
+        pending.writeVarint(b);
+        end();
+    }
+
+
+    /**
+     * Records a removed friendship.
+     *
+     * @param a
+     *            id of the first profile
+     * @param b
+     *            id of the second profile
+     */
+    public synchronized void friendshipRemoved(int a, int b) {
+        begin(REMOVE_FRIENDSHIP);
+        pending.writeVarint(a);
+        pending.writeVarint(b);
+        end();
+    }
+
+
+    /**
+     * Records a new status.
+     *
+     * @param id
+     *            id of the profile
+     * @param status
+     *            new status
+     */
+    public synchronized void statusChanged(int id, String status) {
+        begin(SET_STATUS);
+        pending.writeVarint(id);
+        pending.writeString(status);
+        end();
+    }
+
+
+    /**
+     * Records a new name.
+     *
+     * @param id
+     *            id of the profile
+     * @param firstName
+     *            new first name
+     * @param lastName
+     *            new last name
+     */
+    public synchronized void nameChanged(
+        int id,
+        String firstName,
+        String lastName) {
+        begin(SET_NAME);
+        pending.writeVarint(id);
+        pending.writeString(firstName);
+        pending.writeString(lastName);
+        end();
+    }
+
+
+    /**
+     * Records a new follow arc.
+     *
+     * @param follower
+     *            id of the profile that follows
+     * @param followee
+     *            id of the profile that is followed
+     */
+    public synchronized void followed(int follower, int followee) {
+        begin(FOLLOW);
+        pending.writeVarint(follower);
+        pending.writeVarint(followee);
+        end();
+    }
+
+
+    /**
+     * Records a removed follow arc.
+     *
+     * @param follower
+     *            id of the profile that followed
+     * @param followee
+     *            id of the profile that was followed
+     */
+    public synchronized void unfollowed(int follower, int followee) {
+        begin(UNFOLLOW);
+        pending.writeVarint(follower);
+        pending.writeVarint(followee);
+        end();
+    }
+
+
+    /**
+     * Records that the ids were compacted.
+     */
+    public synchronized void idsCompacted() {
+        begin(COMPACT_IDS);
+        end();
+    }
+
+
+    /**
+     * Returns the sequence of the last record. A client that made a
+     * mutation can take it as a token: a replica that has applied this
+     * sequence shows the mutation.
+     *
+     * @return sequence of the last record, 0 if there is none
+     */
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+
+    /**
+     * Sends the records not yet sent as a batch, or an empty batch if
+     * there are none.
+     */
+    public synchronized void flush() {
+        VTConnectServer.Encoder frame = new VTConnectServer.Encoder();
+        frame.writeByte(BATCH);
+        frame.writeVarlong(lastSequence - pendingCount + 1);
+        frame.writeVarint(pendingCount);
+        byte[] bytes = pending.buffer();
+        for (int i = 0; i < pending.size(); i++) {
+            frame.writeByte(bytes[i]);
+        }
+        pending.reset();
+        records += pendingCount;
+        pendingCount = 0;
+        batches++;
+        byte[] encoded = frame.toByteArray();
+        for (Consumer<byte[]> subscriber : subscribers) {
+            subscriber.accept(encoded);
+        }
+    }
+
+
+    /**
+     * Sends a snapshot of a network to a new subscriber and then every
+     * later batch. Must be called while nothing changes the network.
+     *
+     * @param subscriber
+     *            receiver of the frames; it is called by the thread that
+     *            sends a batch and should not block
+     * @param network
+     *            network whose mutations this log records
+     */
+    public synchronized void subscribe(
+        Consumer<byte[]> subscriber,
+        VTConnect network) {
+        flush();
+        subscriber.accept(snapshot(network, lastSequence));
+        subscribers.add(subscriber);
+    }
+
+
+    /**
+     * Stops sending frames to a subscriber.
+     *
+     * @param subscriber
+     *            receiver given to subscribe
+     */
+    public void unsubscribe(Consumer<byte[]> subscriber) {
+        subscribers.remove(subscriber);
+    }
+
+
+    /**
+     * Returns the number of batches and records sent and of subscribers.
+     *
+     * @return statistics as text
+     */
+    public synchronized String getStatistics() {
+        return String.format("sequence %d, batches %d, records %d, "
+            + "subscribers %d", lastSequence, batches, records, subscribers
+                .size());
+    }
+
+
+    /**
+     * Encodes every profile, friendship and follow arc of a network.
+     */
+    static byte[] snapshot(VTConnect network, long sequence) {
+        VTConnectServer.Encoder frame = new VTConnectServer.Encoder();
+        frame.writeByte(SNAPSHOT);
+        frame.writeVarlong(sequence);
+        int bound = network.getIdBound();
+        int count = 0;
+        for (int id = 0; id < bound; id++) {
+            if (network.getProfile(id) != null) {
+                count++;
+            }
+        }
+        frame.writeVarint(count);
+        long ends = 0;
+        int arcs = 0;
+        for (int id = 0; id < bound; id++) {
+            Profile p = network.getProfile(id);
+            if (p != null) {
+                frame.writeVarint(id);
+                frame.writeString(p.getName());
+                frame.writeString(p.getStatus());
+                ends += network.getNumberOfFriends(p);
+                arcs += network.getNumberOfFollowing(p);
+            }
+        }
+        frame.writeVarint((int)(ends / 2));
+        for (int id = 0; id < bound; id++) {
+            Profile p = network.getProfile(id);
+            if (p == null) {
+                continue;
+            }
+            List<Profile> friends = network.getFriends(p);
+            for (int i = 0; i < friends.size(); i++) {
+                // each friendship once, from its lower id
+                if (friends.get(i).id > id) {
+                    frame.writeVarint(id);
+                    frame.writeVarint(friends.get(i).id);
+                }
+            }
+        }
+        frame.writeVarint(arcs);
+        for (int id = 0; id < bound; id++) {
+            Profile p = network.getProfile(id);
+            if (p == null) {
+                continue;
+            }
+            List<Profile> followees = network.following(p, 0, network
+                .getNumberOfFollowing(p));
+            for (int i = 0; i < followees.size(); i++) {
+                frame.writeVarint(id);
+                frame.writeVarint(followees.get(i).id);
+            }
+        }
+        return frame.toByteArray();
+    }
+
+
+    /**
+     * Starts a record with the next sequence.
+     */
+    private void begin(int kind) {
+        lastSequence++;
+        pendingCount++;
+        pending.writeByte(kind);
+    }
+
+
+    /**
+     * Sends the batch once it is full.
+     */
+    private void end() {
+        if (pendingCount >= maxBatch) {
+            flush();
+        }
+    }
+}
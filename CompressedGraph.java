@@ -0,0 +1,751 @@
+import java.util.Arrays;
+
+/**
+ * Read-only, compressed adjacency for unweighted graphs, in the style of
+ * WebGraph. It is built from a CsrGraph, so the neighbors of every vertex
+ * are sorted and stored as gaps in variable length bytes (varints). On a
+ * graph reordered for locality most gaps fit in one byte.
+ *
+ * The list of a vertex is laid out as:
+ *
+ * <pre>
+ * varint length of the rest of the list in bytes
+ * varint degree
+ * varint reference        (only if degree > 0)
+ * copy mask               (only if reference > 0)
+ * varint residual count   (only if reference > 0, else it is the degree)
+ * skip table              (only if more than one block)
+ * residual gaps
+ * </pre>
+ *
+ * A reference r > 0 means the list copies some neighbors of vertex v - r:
+ * bit i of the copy mask tells if the i-th neighbor of that vertex is
+ * copied. The remaining neighbors are the residuals. A referenced vertex
+ * never has a reference of its own, so a lookup follows at most one
+ * reference. Residuals are split in blocks of BLOCK_SIZE; the skip table
+ * holds the first value and byte position of every block after the first
+ * as fixed 4-byte integers, so hasEdge can binary search the blocks and
+ * decode a single block.
+ *
+ * The first residual is stored as the zig-zag encoded difference to the
+ * vertex itself and every following one as the gap to the previous one
+ * minus one. Only the start of every LIST_STRIDE-th list is kept in an
+ * int table; the lists in between are reached by skipping over their
+ * lengths. The total compressed size is limited to 2 GB.
+ *
+ * @author Kerem Bozgan kerembozgan
+ * @version 2022-11-11
+ */
+class CompressedGraph {
+
+    /** Number of residuals per skip block */
+    public static final int BLOCK_SIZE = 64;
+
+    /** How many previous vertices are tried as reference */
+    public static final int REFERENCE_WINDOW = 7;
+
+    /** Every how many vertices the start of a list is stored */
+    public static final int LIST_STRIDE = 8;
+
+    /** Encoded lists of all vertices */
+    private byte[] data;
+
+    /** Start of the list of every LIST_STRIDE-th vertex in data */
+    private int[] listStart;
+
+    /** Number of vertices */
+    private int numVertices;
+
+    /** Number of undirected edges */
+    private int numEdges;
+
+    /** Label of the original vertex at each index */
+    private int[] indexToLabel;
+
+    /** Index of each label, -1 for labels not in the graph */
+    private int[] labelToIndex;
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        Graph<Integer> grph = ReorderBenchmark.buildGraph(n, 64, 16,
+            new java.util.Random(42));
+        CsrGraph signup = CsrGraph.fromGraph(grph);
+        CsrGraph rcm = signup.permute(GraphReorder
+            .reverseCuthillMcKeeOrder(signup));
+
+        System.out.println("Edges: " + signup.getNumberOfEdges());
+        System.out.printf("CSR int arrays:          %.2f bytes/edge%n",
+            (signup.getOffsets().length + signup.getTargets().length) * 4.0
+                / signup.getNumberOfEdges());
+        CompressedGraph plain = fromCsr(signup, false);
+        System.out.printf("signup order:            %.2f bytes/edge%n",
+            plain.getBytesPerEdge());
+        CompressedGraph reordered = fromCsr(rcm, false);
+        System.out.printf("rcm order:               %.2f bytes/edge%n",
+            reordered.getBytesPerEdge());
+        CompressedGraph referenced = fromCsr(rcm, true);
+        System.out.printf("rcm order + references:  %.2f bytes/edge%n",
+            referenced.getBytesPerEdge());
+
+        int[] distance = new int[n];
+        int[] expected = new int[n];
+        int origin = rcm.toIndex(0);
+        rcm.getBreadthFirstTraversal(origin, expected);
+        referenced.getBreadthFirstTraversal(origin, distance);
+        System.out.println("Same distances as CSR: " + Arrays.equals(
+            expected, distance));
+    }
+
+
+    /**
+     * Initializes a compressed graph from its arrays.
+     */
+    private CompressedGraph(
+        byte[] data,
+        int[] listStart,
+        int numVertices,
+        int numEdges,
+        int[] indexToLabel,
+        int[] labelToIndex) {
+        this.data = data;
+        this.listStart = listStart;
+        this.numVertices = numVertices;
+        this.numEdges = numEdges;
+        this.indexToLabel = indexToLabel;
+        this.labelToIndex = labelToIndex;
+    }
+
+
+    /**
+     * Compresses a snapshot. Reorder the snapshot first (see GraphReorder)
+     * for small gaps. The translation table of the snapshot is kept.
+     *
+     * @param csr
+     *            snapshot to compress
+     * @param useReferences
+     *            true to let lists copy neighbors from a similar list of
+     *            one of the previous REFERENCE_WINDOW vertices
+     * @return compressed graph
+     */
+    public static CompressedGraph fromCsr(CsrGraph csr, boolean useReferences) {
+        int n = csr.getNumberOfVertices();
+        int[] offsets = csr.getOffsets();
+        int[] targets = csr.getTargets();
+        ByteSink out = new ByteSink(targets.length + 4 * n + 16);
+        ByteSink list = new ByteSink(64);
+        int[] listStart = new int[(n + LIST_STRIDE - 1) / LIST_STRIDE];
+        boolean[] hasReference = new boolean[n];
+        int[] residuals = new int[16];
+        byte[] mask = new byte[16];
+
+        for (int v = 0; v < n; v++) {
+            if (v % LIST_STRIDE == 0) {
+                listStart[v / LIST_STRIDE] = out.size;
+            }
+            int begin = offsets[v];
+            int end = offsets[v + 1];
+            list.size = 0;
+            list.writeVarint(end - begin);
+            if (begin == end) {
+                out.writeVarint(list.size);
+                out.write(list.bytes, list.size);
+                continue;
+            }
+
+            int reference = useReferences ? chooseReference(csr, v,
+                hasReference) : -1;
+            int residualCount = 0;
+            if (residuals.length < end - begin) {
+                residuals = new int[end - begin];
+            }
+            if (reference < 0) {
+                list.writeVarint(0);
+                System.arraycopy(targets, begin, residuals, 0, end - begin);
+                residualCount = end - begin;
+            }
+            else {
+                hasReference[v] = true;
+                list.writeVarint(v - reference);
+                int refBegin = offsets[reference];
+                int refEnd = offsets[reference + 1];
+                int maskBytes = (refEnd - refBegin + 7) >>> 3;
+                if (mask.length < maskBytes) {
+                    mask = new byte[maskBytes];
+                }
+                Arrays.fill(mask, 0, maskBytes, (byte)0);
+                // merge the two sorted lists
+                int i = begin;
+                int j = refBegin;
+                while (i < end) {
+                    if (j < refEnd && targets[j] < targets[i]) {
+                        j++;
+                    }
+                    else if (j < refEnd && targets[j] == targets[i]) {
+                        mask[(j - refBegin) >>> 3] |= (byte)(1 << ((j
+                            - refBegin) & 7));
+                        i++;
+                        j++;
+                    }
+                    else {
+                        residuals[residualCount++] = targets[i++];
+                    }
+                }
+                list.write(mask, maskBytes);
+                list.writeVarint(residualCount);
+            }
+            writeResiduals(list, v, residuals, residualCount);
+            out.writeVarint(list.size);
+            out.write(list.bytes, list.size);
+        }
+
+        int[] indexToLabel = new int[n];
+        int maxLabel = -1;
+        for (int v = 0; v < n; v++) {
+            indexToLabel[v] = csr.toLabel(v);
+            maxLabel = Math.max(maxLabel, indexToLabel[v]);
+        }
+        int[] labelToIndex = new int[maxLabel + 1];
+        Arrays.fill(labelToIndex, -1);
+        for (int v = 0; v < n; v++) {
+            labelToIndex[indexToLabel[v]] = v;
+        }
+        return new CompressedGraph(Arrays.copyOf(out.bytes, out.size),
+            listStart, n, csr.getNumberOfEdges(), indexToLabel,
+            labelToIndex);
+    }
+
+
+    /**
+     * Picks the previous vertex whose list shares the most neighbors with
+     * the list of v, if copying them is cheaper than storing them.
+     *
+     * @return index of the reference vertex, -1 for none
+     */
+    private static int chooseReference(
+        CsrGraph csr,
+        int v,
+        boolean[] hasReference) {
+        int[] offsets = csr.getOffsets();
+        int[] targets = csr.getTargets();
+        int best = -1;
+        int bestSaving = 0;
+        for (int r = Math.max(0, v - REFERENCE_WINDOW); r < v; r++) {
+            if (hasReference[r] || offsets[r] == offsets[r + 1]) {
+                continue;
+            }
+            int common = 0;
+            int i = offsets[v];
+            int j = offsets[r];
+            while (i < offsets[v + 1] && j < offsets[r + 1]) {
+                if (targets[i] < targets[j]) {
+                    i++;
+                }
+                else if (targets[i] > targets[j]) {
+                    j++;
+                }
+                else {
+                    common++;
+                    i++;
+                    j++;
+                }
+            }
+            // a copied neighbor saves at least one byte, the mask costs
+            // one bit per neighbor of the reference
+            int saving = common - ((offsets[r + 1] - offsets[r] + 7) >>> 3);
+            if (saving > bestSaving) {
+                best = r;
+                bestSaving = saving;
+            }
+        }
+        return best;
+    }
+
+
+    /**
+     * Writes the skip table and the gaps of the residuals.
+     */
+    private static void writeResiduals(
+        ByteSink out,
+        int v,
+        int[] residuals,
+        int count) {
+        if (count == 0) {
+            return;
+        }
+        int blocks = blockCount(count);
+        int table = out.size;
+        out.skip(8 * (blocks - 1));
+        int gapStart = out.size;
+        long first = residuals[0] - (long)v;
+        out.writeVarint((int)((first << 1) ^ (first >> 63)));
+        for (int i = 1; i < count; i++) {
+            if (i % BLOCK_SIZE == 0) {
+                int entry = table + 8 * (i / BLOCK_SIZE - 1);
+                out.putInt(entry, residuals[i]);
+                out.writeVarint(residuals[i] - residuals[i - 1] - 1);
+                // decoding of the block continues after its first value
+                out.putInt(entry + 4, out.size - gapStart);
+            }
+            else {
+                out.writeVarint(residuals[i] - residuals[i - 1] - 1);
+            }
+        }
+    }
+
+
+    /**
+     * Returns the number of vertices.
+     *
+     * @return number of vertices
+     */
+    public int getNumberOfVertices() {
+        return numVertices;
+    }
+
+
+    /**
+     * Returns the number of undirected edges.
+     *
+     * @return number of edges
+     */
+    public int getNumberOfEdges() {
+        return numEdges;
+    }
+
+
+    /**
+     * Returns the size of the encoded lists in bytes, without the
+     * list start table and the translation table.
+     *
+     * @return size of the adjacency data
+     */
+    public long getDataSize() {
+        return data.length;
+    }
+
+
+    /**
+     * Returns the number of bytes used per undirected edge, counting the
+     * encoded lists and the list start table.
+     *
+     * @return bytes per edge
+     */
+    public double getBytesPerEdge() {
+        if (numEdges == 0) {
+            return 0.0;
+        }
+        return (data.length + 4.0 * listStart.length) / numEdges;
+    }
+
+
+    /**
+     * Returns the label of the original vertex at the given index.
+     *
+     * @param index
+     *            index of the vertex
+     * @return label of the vertex
+     */
+    public int toLabel(int index) {
+        return indexToLabel[index];
+    }
+
+
+    /**
+     * Returns the index of the vertex with the given label, -1 if the
+     * label is not in the graph.
+     *
+     * @param label
+     *            label of the vertex
+     * @return index of the vertex
+     */
+    public int toIndex(int label) {
+        if (label < 0 || label >= labelToIndex.length) {
+            return -1;
+        }
+        return labelToIndex[label];
+    }
+
+
+    /**
+     * Returns the number of neighbors of the vertex at the given index.
+     *
+     * @param index
+     *            index of the vertex
+     * @return number of neighbors
+     */
+    public int getNumberOfNeighbors(int index) {
+        return openList(index).readVarint();
+    }
+
+
+    /**
+     * Returns a reading position just after the length of the list of a
+     * vertex, skipping the lists before it since the last stored start.
+     */
+    private ByteSource openList(int index) {
+        ByteSource in = new ByteSource(data, listStart[index / LIST_STRIDE]);
+        for (int k = index % LIST_STRIDE; k > 0; k--) {
+            int length = in.readVarint();
+            in.pos += length;
+        }
+        in.readVarint();
+        return in;
+    }
+
+
+    /**
+     * Decodes the sorted neighbors of a vertex into the given buffer,
+     * which must be able to hold getNumberOfNeighbors(index) entries.
+     * Copied neighbors and residuals are merged as they are decoded.
+     *
+     * @param index
+     *            index of the vertex
+     * @param buffer
+     *            receives the neighbor indices
+     * @return number of neighbors
+     */
+    public int getNeighbors(int index, int[] buffer) {
+        ByteSource in = openList(index);
+        int degree = in.readVarint();
+        if (degree == 0) {
+            return 0;
+        }
+        int reference = in.readVarint();
+        if (reference == 0) {
+            decodeResiduals(in, index, buffer, degree);
+            return degree;
+        }
+
+        CopyCursor copied = new CopyCursor(index - reference, in.pos);
+        in.pos += (copied.count + 7) >>> 3;
+        int count = in.readVarint();
+        in.pos += 8 * Math.max(0, blockCount(count) - 1);
+        int residual = Integer.MAX_VALUE;
+        if (count > 0) {
+            residual = index + unzigzag(in.readVarint());
+        }
+        int copiedValue = copied.next();
+        int read = 0;
+        for (int k = 0; k < degree; k++) {
+            if (copiedValue < residual) {
+                buffer[k] = copiedValue;
+                copiedValue = copied.next();
+            }
+            else {
+                buffer[k] = residual;
+                read++;
+                residual = read < count
+                    ? residual + in.readVarint() + 1
+                    : Integer.MAX_VALUE;
+            }
+        }
+        return degree;
+    }
+
+
+    /**
+     * Decodes the residuals at the current position.
+     */
+    private void decodeResiduals(
+        ByteSource in,
+        int index,
+        int[] buffer,
+        int count) {
+        in.pos += 8 * (blockCount(count) - 1);
+        int value = index + unzigzag(in.readVarint());
+        buffer[0] = value;
+        for (int i = 1; i < count; i++) {
+            value += in.readVarint() + 1;
+            buffer[i] = value;
+        }
+    }
+
+
+    /**
+     * Returns the number of skip blocks for the given residual count.
+     */
+    private static int blockCount(int count) {
+        return (count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    }
+
+
+    /**
+     * Decodes a zig-zag encoded value.
+     */
+    private static int unzigzag(int zigzag) {
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+
+    /**
+     * Sees whether an edge exists between two indices. The residuals are
+     * searched through the skip table, so at most one block is decoded;
+     * copied neighbors are found by the same search in the reference list
+     * and a test of the copy mask.
+     *
+     * @param begin
+     *            index of the first vertex
+     * @param end
+     *            index of the second vertex
+     * @return true if there is an edge
+     */
+    public boolean hasEdge(int begin, int end) {
+        ByteSource in = openList(begin);
+        int degree = in.readVarint();
+        if (degree == 0) {
+            return false;
+        }
+        int reference = in.readVarint();
+        if (reference == 0) {
+            return searchResiduals(in, begin, end, degree) >= 0;
+        }
+        int refIndex = begin - reference;
+        ByteSource refIn = openList(refIndex);
+        int refDegree = refIn.readVarint();
+        // a referenced list never has a reference itself
+        refIn.readVarint();
+        int position = searchResiduals(refIn, refIndex, end, refDegree);
+        if (position >= 0 && (data[in.pos + (position >>> 3)]
+            & (1 << (position & 7))) != 0) {
+            return true;
+        }
+        in.pos += (refDegree + 7) >>> 3;
+        int count = in.readVarint();
+        return searchResiduals(in, begin, end, count) >= 0;
+    }
+
+
+    /**
+     * Searches the residuals at the current position for a value.
+     *
+     * @return position of the value among the residuals, -1 if absent
+     */
+    private int searchResiduals(
+        ByteSource in,
+        int index,
+        int target,
+        int count) {
+        if (count == 0) {
+            return -1;
+        }
+        int blocks = blockCount(count);
+        int table = in.pos;
+        int gapStart = table + 8 * (blocks - 1);
+
+        // last block whose first value is not above the target
+        int low = 1;
+        int high = blocks - 1;
+        int block = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (getInt(table + 8 * (mid - 1)) <= target) {
+                block = mid;
+                low = mid + 1;
+            }
+            else {
+                high = mid - 1;
+            }
+        }
+
+        int value;
+        in.pos = gapStart;
+        if (block == 0) {
+            value = index + unzigzag(in.readVarint());
+        }
+        else {
+            value = getInt(table + 8 * (block - 1));
+            in.pos = gapStart + getInt(table + 8 * (block - 1) + 4);
+        }
+        int i = block * BLOCK_SIZE;
+        int blockEnd = Math.min(count, i + BLOCK_SIZE);
+        while (true) {
+            if (value == target) {
+                return i;
+            }
+            if (value > target || ++i == blockEnd) {
+                return -1;
+            }
+            value += in.readVarint() + 1;
+        }
+    }
+
+
+    /**
+     * Performs a breadth first traversal from the given index, decoding
+     * each list once into a reused buffer.
+     *
+     * @param origin
+     *            index of the starting vertex
+     * @param distance
+     *            filled with the hop count of every visited vertex and -1
+     *            for the others; must have one slot per vertex
+     * @return indices of the visited vertices in visitation order
+     */
+    public int[] getBreadthFirstTraversal(int origin, int[] distance) {
+        Arrays.fill(distance, -1);
+        int[] queue = new int[getNumberOfVertices()];
+        int[] buffer = new int[16];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = origin;
+        distance[origin] = 0;
+        while (head < tail) {
+            int front = queue[head++];
+            int degree = getNumberOfNeighbors(front);
+            if (buffer.length < degree) {
+                buffer = new int[degree];
+            }
+            getNeighbors(front, buffer);
+            for (int i = 0; i < degree; i++) {
+                int next = buffer[i];
+                if (distance[next] < 0) {
+                    distance[next] = distance[front] + 1;
+                    queue[tail++] = next;
+                }
+            }
+        }
+        return Arrays.copyOf(queue, tail);
+    }
+
+
+    /**
+     * Reads a big-endian integer from the data.
+     */
+    private int getInt(int pos) {
+        return ((data[pos] & 0xff) << 24) | ((data[pos + 1] & 0xff) << 16)
+            | ((data[pos + 2] & 0xff) << 8) | (data[pos + 3] & 0xff);
+    }
+
+    /**
+     * Walks the list of a referenced vertex and returns the neighbors
+     * whose bit is set in a copy mask, in increasing order.
+     */
+    private class CopyCursor {
+        private ByteSource in;
+        private int maskPos;
+        private int refIndex;
+        private int count;
+        private int position;
+        private int value;
+
+        private CopyCursor(int refIndex, int maskPos) {
+            this.refIndex = refIndex;
+            this.maskPos = maskPos;
+            in = openList(refIndex);
+            count = in.readVarint();
+            // a referenced list never has a reference itself
+            in.readVarint();
+            in.pos += 8 * (blockCount(count) - 1);
+        }
+
+
+        /**
+         * Returns the next copied neighbor, or Integer.MAX_VALUE after
+         * the last one.
+         */
+        private int next() {
+            while (position < count) {
+                if (position == 0) {
+                    value = refIndex + unzigzag(in.readVarint());
+                }
+                else {
+                    value += in.readVarint() + 1;
+                }
+                int bit = position++;
+                if ((data[maskPos + (bit >>> 3)] & (1 << (bit & 7))) != 0) {
+                    return value;
+                }
+            }
+            return Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Reading position over the encoded data.
+     */
+    private static class ByteSource {
+        private byte[] bytes;
+        private int pos;
+
+        private ByteSource(byte[] bytes, int pos) {
+            this.bytes = bytes;
+            this.pos = pos;
+        }
+
+
+        /**
+         * Reads an unsigned varint, 7 bits per byte, low bits first.
+         */
+        private int readVarint() {
+            int b = bytes[pos++];
+            if (b >= 0) {
+                return b;
+            }
+            int value = b & 0x7f;
+            int shift = 7;
+            do {
+                b = bytes[pos++];
+                value |= (b & 0x7f) << shift;
+                shift += 7;
+            }
+            while (b < 0);
+            return value;
+        }
+    }
+
+    /**
+     * Growable byte array the lists are encoded into.
+     */
+    private static class ByteSink {
+        private byte[] bytes;
+        private int size;
+
+        private ByteSink(int capacity) {
+            bytes = new byte[Math.max(16, capacity)];
+        }
+
+
+        private void ensure(int extra) {
+            if (size + extra > bytes.length) {
+                long grown = Math.max((long)bytes.length * 3 / 2, size
+                    + extra);
+                if (grown > Integer.MAX_VALUE - 8) {
+                    throw new IllegalStateException(
+                        "Compressed adjacency exceeds 2 GB");
+                }
+                bytes = Arrays.copyOf(bytes, (int)grown);
+            }
+        }
+
+
+        private void writeVarint(int value) {
+            ensure(5);
+            while ((value & ~0x7f) != 0) {
+                bytes[size++] = (byte)((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte)value;
+        }
+
+
+        private void write(byte[] source, int length) {
+            ensure(length);
+            System.arraycopy(source, 0, bytes, size, length);
+            size += length;
+        }
+
+
+        private void skip(int length) {
+            ensure(length);
+            size += length;
+        }
+
+
+        private void putInt(int pos, int value) {
+            bytes[pos] = (byte)(value >>> 24);
+            bytes[pos + 1] = (byte)(value >>> 16);
+            bytes[pos + 2] = (byte)(value >>> 8);
+            bytes[pos + 3] = (byte)value;
+        }
+    }
+}
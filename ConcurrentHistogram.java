@@ -0,0 +1,74 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram with the buckets of LatencyHistogram that any number of
+ * threads may record into without locking. Recording increments one
+ * atomic bucket and updates the sum, and only writes the minimum or
+ * maximum when the value is a new one. It never allocates.
+ *
+ * A snapshot copies the buckets into a LatencyHistogram for reading the
+ * percentiles. A resetting snapshot takes every bucket with getAndSet, so
+ * each recorded value lands in exactly one snapshot. The sum, minimum and
+ * maximum are taken separately and may include a value recorded while
+ * the snapshot was being taken.
+ *
+ * @author Kerem Bozgan kerembozgan
+ * @version 2022-11-11
+ */
+class ConcurrentHistogram {
+
+    /** Count of recorded values per bucket */
+    private final AtomicLongArray counts = new AtomicLongArray(
+        LatencyHistogram.BUCKETS);
+    /** Sum, smallest and largest of the recorded values */
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records one value. Negative values are recorded as zero.
+     *
+     * @param value
+     *            value to record
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(LatencyHistogram.bucketOf(value));
+        sum.addAndGet(value);
+        long current = min.get();
+        while (value < current && !min.compareAndSet(current, value)) {
+            current = min.get();
+        }
+        current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+
+    /**
+     * Copies the recorded values into a new histogram.
+     *
+     * @param reset
+     *            true to start over with an empty histogram
+     * @return histogram of the values recorded since the last reset
+     */
+    public LatencyHistogram snapshot(boolean reset) {
+        long[] copy = new long[LatencyHistogram.BUCKETS];
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = reset ? counts.getAndSet(i, 0) : counts.get(i);
+        }
+        LatencyHistogram histogram = new LatencyHistogram();
+        if (reset) {
+            histogram.addRecorded(copy, sum.getAndSet(0), min.getAndSet(
+                Long.MAX_VALUE), max.getAndSet(0));
+        }
+        else {
+            histogram.addRecorded(copy, sum.get(), min.get(), max.get());
+        }
+        return histogram;
+    }
+}
@@ -0,0 +1,327 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Read-only snapshot of a Graph with Integer labels in compressed sparse
+ * row form. The vertices are numbered 0 to n - 1 and the neighbors of
+ * vertex v are targets[offsets[v]] to targets[offsets[v + 1] - 1], sorted
+ * in increasing order. A translation table maps between these indices and
+ * the labels of the original graph, so the snapshot can be renumbered for
+ * better cache locality (see GraphReorder) without losing the labels.
+ *
+ * Labels must be non-negative, like the ids handed out by VTConnect.
+ *
+ * @author Kerem Bozgan kerembozgan
+ * @version 2022-11-11
+ */
+class CsrGraph {
+
+    /** Start of the neighbors of each vertex, with one extra entry */
+    private int[] offsets;
+
+    /** Neighbor indices of all vertices, one after another */
+    private int[] targets;
+
+    /** Label of the original vertex at each index */
+    private int[] indexToLabel;
+
+    /** Index of each label, -1 for labels not in the snapshot */
+    private int[] labelToIndex;
+
+    /**
+     * Initializes a snapshot from its arrays.
+     *
+     * @param offsets
+     *            start of the neighbors of each vertex
+     * @param targets
+     *            neighbor indices
+     * @param indexToLabel
+     *            label of each index
+     * @param labelToIndex
+     *            index of each label
+     */
+    CsrGraph(
+        int[] offsets,
+        int[] targets,
+        int[] indexToLabel,
+        int[] labelToIndex) {
+        this.offsets = offsets;
+        this.targets = targets;
+        this.indexToLabel = indexToLabel;
+        this.labelToIndex = labelToIndex;
+    }
+
+
+    /**
+     * Builds a snapshot of the given graph. Vertices get indices in
+     * increasing label order, which is the signup order for the graph of
+     * a VTConnect.
+     *
+     * @param graph
+     *            graph to copy
+     * @return snapshot of the graph
+     */
+    public static CsrGraph fromGraph(Graph<Integer> graph) {
+        return fromGraph((GraphInterface<Integer>)graph);
+    }
+
+
+    /**
+     * Builds a snapshot of any graph with non-negative Integer labels,
+     * such as an OffHeapGraph, through getVertices. Vertices get indices
+     * in increasing label order.
+     *
+     * @param graph
+     *            graph to copy
+     * @return snapshot of the graph
+     */
+    public static CsrGraph fromGraph(GraphInterface<Integer> graph) {
+        // getVertices returns null for an empty graph
+        List<VertexInterface<Integer>> present = graph.getVertices();
+        List<VertexInterface<Integer>> vertices = present == null
+            ? new ArrayList<VertexInterface<Integer>>()
+            : new ArrayList<VertexInterface<Integer>>(present);
+        int n = vertices.size();
+        vertices.sort((a, b) -> Integer.compare(a.getLabel(), b.getLabel()));
+        int[] indexToLabel = new int[n];
+        for (int i = 0; i < n; i++) {
+            indexToLabel[i] = vertices.get(i).getLabel();
+        }
+        int[] labelToIndex = new int[n == 0 ? 0 : indexToLabel[n - 1] + 1];
+        Arrays.fill(labelToIndex, -1);
+        for (int i = 0; i < n; i++) {
+            labelToIndex[indexToLabel[i]] = i;
+        }
+
+        int[] offsets = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            offsets[i + 1] = offsets[i] + vertices.get(i)
+                .getNumberOfNeighbors();
+        }
+        int[] targets = new int[offsets[n]];
+        for (int i = 0; i < n; i++) {
+            VertexInterface<Integer> vertex = vertices.get(i);
+            int pos = offsets[i];
+            for (int k = 0; k < vertex.getNumberOfNeighbors(); k++) {
+                targets[pos++] = labelToIndex[vertex.getNeighbor(k)
+                    .getLabel()];
+            }
+            Arrays.sort(targets, offsets[i], pos);
+        }
+        return new CsrGraph(offsets, targets, indexToLabel, labelToIndex);
+    }
+
+
+    /**
+     * Returns a copy of this snapshot with the vertices renumbered. The
+     * vertex at index order[k] of this snapshot gets index k in the copy.
+     * The translation table of the copy still maps to the original
+     * labels.
+     *
+     * @param order
+     *            permutation of the indices of this snapshot
+     * @return renumbered snapshot
+     */
+    public CsrGraph permute(int[] order) {
+        int n = getNumberOfVertices();
+        if (order.length != n) {
+            throw new IllegalArgumentException("order has " + order.length
+                + " entries, expected " + n);
+        }
+        int[] oldToNew = new int[n];
+        Arrays.fill(oldToNew, -1);
+        for (int k = 0; k < n; k++) {
+            if (oldToNew[order[k]] != -1) {
+                throw new IllegalArgumentException("index " + order[k]
+                    + " appears twice in order");
+            }
+            oldToNew[order[k]] = k;
+        }
+
+        int[] newOffsets = new int[n + 1];
+        int[] newTargets = new int[targets.length];
+        int[] newIndexToLabel = new int[n];
+        int[] newLabelToIndex = new int[labelToIndex.length];
+        Arrays.fill(newLabelToIndex, -1);
+        for (int k = 0; k < n; k++) {
+            int old = order[k];
+            int pos = newOffsets[k];
+            for (int e = offsets[old]; e < offsets[old + 1]; e++) {
+                newTargets[pos++] = oldToNew[targets[e]];
+            }
+            Arrays.sort(newTargets, newOffsets[k], pos);
+            newOffsets[k + 1] = pos;
+            newIndexToLabel[k] = indexToLabel[old];
+            newLabelToIndex[indexToLabel[old]] = k;
+        }
+        return new CsrGraph(newOffsets, newTargets, newIndexToLabel,
+            newLabelToIndex);
+    }
+
+
+    /**
+     * Returns the number of vertices.
+     *
+     * @return number of vertices
+     */
+    public int getNumberOfVertices() {
+        return offsets.length - 1;
+    }
+
+
+    /**
+     * Returns the number of undirected edges.
+     *
+     * @return number of edges
+     */
+    public int getNumberOfEdges() {
+        return targets.length / 2;
+    }
+
+
+    /**
+     * Returns the number of neighbors of the vertex at the given index.
+     *
+     * @param index
+     *            index of the vertex
+     * @return number of neighbors
+     */
+    public int getNumberOfNeighbors(int index) {
+        return offsets[index + 1] - offsets[index];
+    }
+
+
+    /**
+     * Returns the start of the neighbors of each vertex. The array is
+     * shared, not copied, and must not be modified.
+     *
+     * @return offsets array with one entry more than the vertex count
+     */
+    public int[] getOffsets() {
+        return offsets;
+    }
+
+
+    /**
+     * Returns the neighbor indices of all vertices. The array is shared,
+     * not copied, and must not be modified.
+     *
+     * @return targets array
+     */
+    public int[] getTargets() {
+        return targets;
+    }
+
+
+    /**
+     * Returns the label of the original vertex at the given index.
+     *
+     * @param index
+     *            index of the vertex
+     * @return label of the vertex
+     */
+    public int toLabel(int index) {
+        return indexToLabel[index];
+    }
+
+
+    /**
+     * Returns the index of the vertex with the given label, -1 if the
+     * label is not in the snapshot.
+     *
+     * @param label
+     *            label of the vertex
+     * @return index of the vertex
+     */
+    public int toIndex(int label) {
+        if (label < 0 || label >= labelToIndex.length) {
+            return -1;
+        }
+        return labelToIndex[label];
+    }
+
+
+    /**
+     * Sees whether an edge exists between two indices, by binary search
+     * in the sorted neighbors of begin.
+     *
+     * @param begin
+     *            index of the first vertex
+     * @param end
+     *            index of the second vertex
+     * @return true if there is an edge
+     */
+    public boolean hasEdge(int begin, int end) {
+        return Arrays.binarySearch(targets, offsets[begin],
+            offsets[begin + 1], end) >= 0;
+    }
+
+
+    /**
+     * Returns an iterator over the neighbor indices of a vertex.
+     *
+     * @param index
+     *            index of the vertex
+     * @return iterator of neighbor indices
+     */
+    public Iterator<Integer> getNeighborIterator(int index) {
+        return Arrays.stream(targets, offsets[index], offsets[index + 1])
+            .iterator();
+    }
+
+
+    /**
+     * Performs a breadth first traversal from the given index. The array
+     * used as queue is also the visitation order, so the traversal does
+     * not allocate anything else than the two arrays.
+     *
+     * @param origin
+     *            index of the starting vertex
+     * @param distance
+     *            filled with the hop count of every visited vertex and -1
+     *            for the others; must have one slot per vertex
+     * @return indices of the visited vertices in visitation order
+     */
+    public int[] getBreadthFirstTraversal(int origin, int[] distance) {
+        Arrays.fill(distance, -1);
+        int[] queue = new int[getNumberOfVertices()];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = origin;
+        distance[origin] = 0;
+        while (head < tail) {
+            int front = queue[head++];
+            for (int e = offsets[front]; e < offsets[front + 1]; e++) {
+                int next = targets[e];
+                if (distance[next] < 0) {
+                    distance[next] = distance[front] + 1;
+                    queue[tail++] = next;
+                }
+            }
+        }
+        return Arrays.copyOf(queue, tail);
+    }
+
+
+    /**
+     * Returns the mean distance between the indices of the two ends of an
+     * edge. Smaller values mean neighbors are stored closer together,
+     * which is what reordering tries to achieve.
+     *
+     * @return average index gap over all edges
+     */
+    public double getAverageEdgeGap() {
+        if (targets.length == 0) {
+            return 0.0;
+        }
+        long sum = 0;
+        for (int v = 0; v < getNumberOfVertices(); v++) {
+            for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                sum += Math.abs(targets[e] - v);
+            }
+        }
+        return (double)sum / targets.length;
+    }
+}
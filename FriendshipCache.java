@@ -0,0 +1,366 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of the results of friendshipDistance and friendSuggestion of a
+ * VTConnect. Every mutation of the network advances a global version,
+ * and every profile whose friend list changed is stamped with it. A
+ * cached result remembers the version it was computed at and the
+ * profiles its computation depends on, and is valid as long as none of
+ * those profiles has a newer stamp:
+ *
+ * <pre>
+ * friendSuggestion(u)         u and the friends of u
+ * friendshipDistance 1 or 2   both endpoints
+ * friendshipDistance 3        both endpoints and the friends of the
+ *                             endpoint with fewer friends
+ * other distances             the whole network, any mutation
+ * </pre>
+ *
+ * A suggestion only changes when a friend list of u or of a friend of u
+ * changes. A distance of 2 or less stays as long as the friend lists of
+ * the endpoints stay; for 3, a new shorter path would have to change a
+ * friend list of a friend of either endpoint. Longer or missing paths
+ * depend on the whole network and are only valid until the next
+ * mutation.
+ *
+ * Entries are kept in a WeightedLruCache weighed by their approximate
+ * heap size in bytes. Lookups do not touch the graph, so they can run on
+ * any thread; stamps are written by the thread that mutates the network.
+ *
+ * @author Kerem Bozgan kerembozgan
+ * @version 2022-11-11
+ */
+class FriendshipCache implements IdRemapListener {
+
+    /** Returned by getDistance when the distance is not cached */
+    static final int MISS = Integer.MIN_VALUE;
+
+    /** Largest dependency list of a distance of 3 that is cached */
+    static final int MAX_DEPENDENCIES = 4096;
+
+    /** Approximate heap bytes of an entry without its arrays */
+    private static final int ENTRY_BYTES = 96;
+
+    /** Cached results by key */
+    private final WeightedLruCache<Long, Entry> entries;
+
+    /** Version of the network, advanced by every mutation */
+    private final AtomicLong version = new AtomicLong();
+    /** Version at which the friend list of each id last changed */
+    private volatile AtomicLongArray stamps = new AtomicLongArray(1024);
+
+    /** Statistics per kind of result */
+    private final LongAdder distanceHits = new LongAdder();
+    private final LongAdder distanceMisses = new LongAdder();
+    private final LongAdder suggestionHits = new LongAdder();
+    private final LongAdder suggestionMisses = new LongAdder();
+    /** Entries found but no longer valid */
+    private final LongAdder stale = new LongAdder();
+
+    /**
+     * Initializes an empty cache.
+     *
+     * @param maxBytes
+     *            approximate heap bytes the entries may take
+     */
+    FriendshipCache(long maxBytes) {
+        entries = new WeightedLruCache<Long, Entry>(maxBytes, 16);
+    }
+
+
+    /**
+     * Returns the cached distance between two ids, or MISS.
+     *
+     * @param a
+     *            id of the first profile
+     * @param b
+     *            id of the second profile
+     * @return distance or MISS
+     */
+    public int getDistance(int a, int b) {
+        Entry entry = lookup(distanceKey(a, b));
+        if (entry == null) {
+            distanceMisses.increment();
+            return MISS;
+        }
+        distanceHits.increment();
+        return entry.distance;
+    }
+
+
+    /**
+     * Caches the distance between two ids.
+     *
+     * @param a
+     *            id of the first profile
+     * @param b
+     *            id of the second profile
+     * @param distance
+     *            distance computed at computedAt
+     * @param computedAt
+     *            value of getVersion() before the computation
+     * @param dependencies
+     *            ids the distance depends on, null if it depends on the
+     *            whole network
+     */
+    public void putDistance(
+        int a,
+        int b,
+        int distance,
+        long computedAt,
+        int[] dependencies) {
+        store(distanceKey(a, b), new Entry(computedAt, dependencies, distance,
+            null));
+    }
+
+
+    /**
+     * Returns the cached suggestions of an id, null if they are not
+     * cached. An empty array means there are no suggestions.
+     *
+     * @param id
+     *            id of the profile
+     * @return suggestions or null
+     */
+    public Profile[] getSuggestions(int id) {
+        Entry entry = lookup(suggestionKey(id));
+        if (entry == null) {
+            suggestionMisses.increment();
+            return null;
+        }
+        suggestionHits.increment();
+        return entry.suggestions;
+    }
+
+
+    /**
+     * Caches the suggestions of an id.
+     *
+     * @param id
+     *            id of the profile
+     * @param suggestions
+     *            suggestions computed at computedAt
+     * @param computedAt
+     *            value of getVersion() before the computation
+     * @param dependencies
+     *            the id and the ids of its friends
+     */
+    public void putSuggestions(
+        int id,
+        Profile[] suggestions,
+        long computedAt,
+        int[] dependencies) {
+        store(suggestionKey(id), new Entry(computedAt, dependencies, 0,
+            suggestions));
+    }
+
+
+    /**
+     * Returns the current version of the network, to be taken before a
+     * result is computed.
+     *
+     * @return version
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+
+    /**
+     * Records that the friend lists of two ids changed, as by creating or
+     * removing their friendship.
+     *
+     * @param a
+     *            first id
+     * @param b
+     *            second id
+     */
+    public void friendshipChanged(int a, int b) {
+        long now = version.incrementAndGet();
+        stamp(a, now);
+        stamp(b, now);
+    }
+
+
+    /**
+     * Records that an id was added or removed, together with the friends
+     * it had, whose friend lists lose it.
+     *
+     * @param id
+     *            added or removed id
+     * @param friends
+     *            ids of its friends, may be empty
+     * @param count
+     *            number of entries of friends to use
+     */
+    public void profileChanged(int id, int[] friends, int count) {
+        long now = version.incrementAndGet();
+        stamp(id, now);
+        for (int i = 0; i < count; i++) {
+            stamp(friends[i], now);
+        }
+    }
+
+
+    /**
+     * Forgets every entry, since the ids they use are renumbered.
+     *
+     * @param oldToNew
+     *            array mapping each old id to its new id
+     * @param newBound
+     *            number of ids in use
+     */
+    public void idsRemapped(int[] oldToNew, int newBound) {
+        entries.clear();
+        version.incrementAndGet();
+        stamps = new AtomicLongArray(Math.max(1024, newBound));
+    }
+
+
+    /**
+     * Returns the hit and miss counts and the size of the cache.
+     *
+     * @return statistics as text
+     */
+    public String getStatistics() {
+        return String.format("distance hits %d misses %d, suggestion hits %d"
+            + " misses %d, stale %d, evicted %d, rejected %d, entries %d, "
+            + "%.1f MB", distanceHits.sum(), distanceMisses.sum(),
+            suggestionHits.sum(), suggestionMisses.sum(), stale.sum(), entries
+                .getEvictions(), entries.getRejections(), entries.size(),
+            entries.getWeight() / 1048576.0);
+    }
+
+
+    /**
+     * Returns the number of lookups that found a valid entry.
+     *
+     * @return number of hits
+     */
+    public long getHits() {
+        return distanceHits.sum() + suggestionHits.sum();
+    }
+
+
+    /**
+     * Returns the number of lookups that found no valid entry.
+     *
+     * @return number of misses
+     */
+    public long getMisses() {
+        return distanceMisses.sum() + suggestionMisses.sum();
+    }
+
+
+    /**
+     * Returns the entry of a key if it is still valid, and drops it if it
+     * is not.
+     */
+    private Entry lookup(long key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (!isValid(entry)) {
+            stale.increment();
+            entries.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+
+    /**
+     * Caches an entry unless the network changed under its computation in
+     * a way that concerns it.
+     */
+    private void store(long key, Entry entry) {
+        if (isValid(entry)) {
+            long bytes = ENTRY_BYTES + 4L * (entry.dependencies == null
+                ? 0
+                : entry.dependencies.length) + 4L * (entry.suggestions == null
+                    ? 0
+                    : entry.suggestions.length);
+            entries.put(key, entry, bytes);
+        }
+    }
+
+
+    /**
+     * Returns true if nothing an entry depends on changed since it was
+     * computed.
+     */
+    private boolean isValid(Entry entry) {
+        if (entry.dependencies == null) {
+            return version.get() == entry.computedAt;
+        }
+        AtomicLongArray current = stamps;
+        for (int id : entry.dependencies) {
+            if (id < current.length() && current.get(id) > entry.computedAt) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Stamps an id with a version, growing the stamps if needed.
+     */
+    private void stamp(int id, long now) {
+        AtomicLongArray current = stamps;
+        if (id >= current.length()) {
+            AtomicLongArray grown = new AtomicLongArray(Math.max(id + 1,
+                current.length() * 2));
+            for (int i = 0; i < current.length(); i++) {
+                grown.set(i, current.get(i));
+            }
+            stamps = grown;
+            current = grown;
+        }
+        current.set(id, now);
+    }
+
+
+    /**
+     * Returns the key of a distance, the same for both orders of the ids.
+     */
+    private static long distanceKey(int a, int b) {
+        return ((long)Math.min(a, b) << 32) | Math.max(a, b);
+    }
+
+
+    /**
+     * Returns the key of suggestions, negative so it never equals a
+     * distance key.
+     */
+    private static long suggestionKey(int id) {
+        return -1L - id;
+    }
+
+
+    /**
+     * Cached result with what it depends on.
+     */
+    private static class Entry {
+        /** Version the result was computed at */
+        final long computedAt;
+        /** Ids the result depends on, null for the whole network */
+        final int[] dependencies;
+        final int distance;
+        final Profile[] suggestions;
+
+        Entry(
+            long computedAt,
+            int[] dependencies,
+            int distance,
+            Profile[] suggestions) {
+            this.computedAt = computedAt;
+            this.dependencies = dependencies;
+            this.distance = distance;
+            this.suggestions = suggestions;
+        }
+    }
+}
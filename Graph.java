@@ -1,10 +1,14 @@
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
 import java.util.Queue;
 import java.util.Stack;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.Map;
 
 /**
  * Implementation of Vertex interface.
@@ -111,6 +115,11 @@ class Graph<T> implements GraphInterface<T> {
     protected HashMap<T, Vertex<T>> vertices;
     /** Number of edges */
     private int numEdges;
+    /** Number of directed arcs */
+    private int numArcs;
+    /** Vertices visited and edges scanned by the last traversal */
+    private int lastVisited;
+    private long lastScanned;
 
     /**
      * Initializes the graph with an empty graph
@@ -153,18 +162,18 @@ class Graph<T> implements GraphInterface<T> {
      */
     public VertexInterface<T> removeVertex(T vertexLabel) {
         if (vertices.containsKey(vertexLabel)) {
-            VertexInterface<T> vertexRemoved = vertices.remove(vertexLabel);
-            Iterator<VertexInterface<T>> itr = vertexRemoved
-                .getNeighborIterator();
-
-            VertexInterface<T> neighbor;
-
-            while (itr.hasNext()) {
-                neighbor = itr.next();
-                boolean res = neighbor.disconnect(vertexRemoved);
-                if (res) {
-                    numEdges--;
-                }
+            GraphEvents.VertexRemoval event = new GraphEvents.VertexRemoval();
+            event.begin();
+            Vertex<T> vertexRemoved = vertices.remove(vertexLabel);
+            // each reverse edge is found through its linked index,
+            // so this is proportional to the degree of the vertex
+            int detached = vertexRemoved.detachFromNeighbors();
+            numEdges -= detached;
+            numArcs -= vertexRemoved.detachArcs();
+            event.end();
+            if (event.shouldCommit()) {
+                event.set(vertexLabel, 1, 1, detached, 1);
+                event.commit();
             }
             return vertexRemoved;
         }
@@ -174,6 +183,101 @@ class Graph<T> implements GraphInterface<T> {
     }
 
 
+    /**
+     * Removes all vertices with the given labels from the Graph. Reverse
+     * edges are grouped by the neighbor they belong to and each neighbor's
+     * edge list is updated in one pass, starting from its highest index,
+     * so every removal is a swap with the last edge. Reverse edges whose
+     * index is not known are searched for and removed after that, so
+     * they do not move edges that are still to be removed by index.
+     * Edges between two removed vertices are simply dropped. Labels that
+     * are not in the graph are ignored.
+     * 
+     * @param vertexLabels
+     *            labels of the vertices to remove
+     * @return list of removed vertices
+     */
+    public List<VertexInterface<T>> removeVertices(
+        Collection<T> vertexLabels) {
+        GraphEvents.VertexRemoval event = new GraphEvents.VertexRemoval();
+        event.begin();
+        IdentityHashMap<Vertex<T>, Boolean> removedSet =
+            new IdentityHashMap<Vertex<T>, Boolean>();
+        List<VertexInterface<T>> removedList =
+            new ArrayList<VertexInterface<T>>();
+        for (T label : vertexLabels) {
+            Vertex<T> vertex = vertices.remove(label);
+            if (vertex != null && removedSet.put(vertex, true) == null) {
+                removedList.add(vertex);
+                numArcs -= vertex.detachArcs();
+            }
+        }
+
+        // group the indices of reverse edges by neighbor
+        IdentityHashMap<Vertex<T>, int[]> pending =
+            new IdentityHashMap<Vertex<T>, int[]>();
+        // neighbor and removed vertex of each reverse edge whose index is
+        // not known, taken out after the indexed ones
+        List<Vertex<T>> unlinked = new ArrayList<Vertex<T>>();
+        int removedEdges = 0;
+        int internalEdgeEnds = 0;
+        long scanned = 0;
+        for (VertexInterface<T> removed : removedList) {
+            Vertex<T> vertex = (Vertex<T>)removed;
+            scanned += vertex.getNumberOfNeighbors();
+            for (int i = 0; i < vertex.getNumberOfNeighbors(); i++) {
+                Vertex<T> neighbor = (Vertex<T>)vertex.getNeighbor(i);
+                int mirror = vertex.getMirrorIndex(i);
+                if (removedSet.containsKey(neighbor)) {
+                    internalEdgeEnds++;
+                }
+                else if (mirror < 0) {
+                    // disconnecting now would move edges of the neighbor
+                    // whose indices are already pending
+                    unlinked.add(neighbor);
+                    unlinked.add(vertex);
+                }
+                else {
+                    // first slot holds the number of used slots
+                    int[] indices = pending.get(neighbor);
+                    if (indices == null) {
+                        indices = new int[5];
+                    }
+                    else if (indices[0] + 1 == indices.length) {
+                        indices = Arrays.copyOf(indices, indices.length * 2);
+                    }
+                    indices[++indices[0]] = mirror;
+                    pending.put(neighbor, indices);
+                    removedEdges++;
+                }
+            }
+        }
+
+        for (Vertex<T> neighbor : pending.keySet()) {
+            int[] indices = pending.get(neighbor);
+            Arrays.sort(indices, 1, indices[0] + 1);
+            // highest index first, so the edge moved into a freed slot
+            // is never one that still has to be removed
+            for (int i = indices[0]; i >= 1; i--) {
+                neighbor.removeEdgeAt(indices[i]);
+            }
+        }
+        for (int i = 0; i < unlinked.size(); i += 2) {
+            if (unlinked.get(i).disconnect(unlinked.get(i + 1))) {
+                removedEdges++;
+            }
+        }
+        numEdges -= removedEdges + internalEdgeEnds / 2;
+        event.end();
+        if (event.shouldCommit()) {
+            event.set(vertexLabels.size(), 1, removedList.size(), scanned,
+                removedList.size());
+            event.commit();
+        }
+        return removedList;
+    }
+
+
     /**
      * Adds a weighted
      * edge between two given distinct vertices that are currently in this
@@ -203,6 +307,7 @@ class Graph<T> implements GraphInterface<T> {
         boolean res2 = targetVertex.connect(originVertex, edgeWeight);
 
         if (res1 && res2) {
+            Vertex.pairLastEdges(vertices.get(begin), vertices.get(end));
             numEdges++;
             return true;
         }
@@ -239,6 +344,7 @@ class Graph<T> implements GraphInterface<T> {
         boolean res2 = targetVertex.connect(originVertex);
 
         if (res1 && res2) {
+            Vertex.pairLastEdges(vertices.get(begin), vertices.get(end));
             numEdges++;
             return true;
         }
@@ -408,12 +514,52 @@ class Graph<T> implements GraphInterface<T> {
     }
 
 
+    /**
+     * Returns the vertex with the given label, or null if there is no such
+     * vertex in the graph.
+     * 
+     * @param vertexLabel
+     *            label of the vertex
+     * @return vertex with the label
+     */
+    public VertexInterface<T> getVertex(T vertexLabel) {
+        return vertices.get(vertexLabel);
+    }
+
+
+    /**
+     * Gives new labels to vertices of the graph. All given vertices are
+     * taken out of the dictionary before any of them is put back, so a
+     * new label may be the old label of another relabeled vertex. Edges
+     * are kept since they refer to vertices, not labels. Labels that are
+     * not in the graph are ignored.
+     * 
+     * @param newLabels
+     *            map from old label to new label
+     */
+    public void relabelVertices(Map<T, T> newLabels) {
+        List<Vertex<T>> moved = new ArrayList<Vertex<T>>(newLabels.size());
+        for (T oldLabel : newLabels.keySet()) {
+            Vertex<T> vertex = vertices.remove(oldLabel);
+            if (vertex != null) {
+                moved.add(vertex);
+            }
+        }
+        for (int i = 0; i < moved.size(); i++) {
+            Vertex<T> vertex = moved.get(i);
+            vertex.setLabel(newLabels.get(vertex.getLabel()));
+            vertices.put(vertex.getLabel(), vertex);
+        }
+    }
+
+
     /**
      * Clears the graph.
      */
     public void clear() {
         vertices.clear();
         numEdges = 0;
+        numArcs = 0;
     }
 
 
@@ -431,6 +577,9 @@ class Graph<T> implements GraphInterface<T> {
         if (!vertices.containsKey(origin)) {
             return null;
         }
+        GraphEvents.BreadthFirstTraversal event =
+            new GraphEvents.BreadthFirstTraversal();
+        event.begin();
         resetVertices();
         VertexInterface<T> originVertex = vertices.get(origin);
 
@@ -441,8 +590,19 @@ class Graph<T> implements GraphInterface<T> {
         originVertex.visit();
         traversalOrder.add(origin);
         vertexQueue.add(originVertex);
+        long scanned = 0;
+        // vertices left in the current level and found for the next one
+        int levelLeft = 1;
+        int nextLevel = 0;
+        int depth = 0;
 
         while (!vertexQueue.isEmpty()) {
+            if (levelLeft == 0) {
+                depth++;
+                levelLeft = nextLevel;
+                nextLevel = 0;
+            }
+            levelLeft--;
             VertexInterface<T> frontVertex = vertexQueue.remove();
             Iterator<VertexInterface<T>> itr = frontVertex
                 .getNeighborIterator();
@@ -450,13 +610,22 @@ class Graph<T> implements GraphInterface<T> {
 
             while (itr.hasNext()) {
                 nextNeighbor = itr.next();
+                scanned++;
                 if (!nextNeighbor.isVisited()) {
                     nextNeighbor.visit();
                     traversalOrder.add(nextNeighbor.getLabel());
                     vertexQueue.add(nextNeighbor);
+                    nextLevel++;
                 }
             }
         }
+        lastVisited = traversalOrder.size();
+        lastScanned = scanned;
+        event.end();
+        if (event.shouldCommit()) {
+            event.set(origin, depth, lastVisited, scanned, lastVisited);
+            event.commit();
+        }
         return traversalOrder;
     }
 
@@ -480,6 +649,8 @@ class Graph<T> implements GraphInterface<T> {
             destination)) {
             return -1;
         }
+        GraphEvents.ShortestPath event = new GraphEvents.ShortestPath();
+        event.begin();
         resetVertices();
         VertexInterface<T> originVertex = vertices.get(origin);
         VertexInterface<T> destVertex = vertices.get(destination);
@@ -491,6 +662,9 @@ class Graph<T> implements GraphInterface<T> {
 
         originVertex.visit();
         vertexQueue.add(originVertex);
+        int visited = 1;
+        long scanned = 0;
+        int depth = 0;
         VertexInterface<T> frontVertex;
         Iterator<VertexInterface<T>> itrFront;
         VertexInterface<T> nextNeighbor;
@@ -500,9 +674,12 @@ class Graph<T> implements GraphInterface<T> {
             itrFront = frontVertex.getNeighborIterator();
             while (!done && itrFront.hasNext()) {
                 nextNeighbor = itrFront.next();
+                scanned++;
                 if (!nextNeighbor.isVisited()) {
                     nextNeighbor.visit();
+                    visited++;
                     nextNeighbor.setCost(frontVertex.getCost() + 1);
+                    depth = (int)nextNeighbor.getCost();
                     nextNeighbor.setPredecessor(frontVertex);
                     vertexQueue.add(nextNeighbor);
                 }
@@ -512,6 +689,8 @@ class Graph<T> implements GraphInterface<T> {
                 }
             }
         }
+        lastVisited = visited;
+        lastScanned = scanned;
 
         if (destVertex.getPredecessor() == null) {
             pathLength = -1;
@@ -526,11 +705,188 @@ class Graph<T> implements GraphInterface<T> {
                 path.push(vertex.getLabel());
             }
         }
+        event.end();
+        if (event.shouldCommit()) {
+            event.set(origin, depth, visited, scanned, pathLength);
+            event.destination = String.valueOf(destination);
+            event.commit();
+        }
         return pathLength;
 
     }
 
 
+    /**
+     * Adds a directed arc from one vertex to another. The arc is stored in
+     * the out list of the source and the in list of the target, linked to
+     * each other, so both directions can be listed and the arc removed
+     * without a scan of the graph.
+     * 
+     * @param from
+     *            source vertex
+     * @param to
+     *            target vertex
+     * @return true if the arc was added
+     */
+    public boolean addArc(T from, T to) {
+        Vertex<T> source = vertices.get(from);
+        Vertex<T> target = vertices.get(to);
+        if (source == null || target == null || !Vertex.addArc(source,
+            target)) {
+            return false;
+        }
+        numArcs++;
+        return true;
+    }
+
+
+    /**
+     * Removes the directed arc from one vertex to another, searching the
+     * shorter of the out list of the source and the in list of the target.
+     * 
+     * @param from
+     *            source vertex
+     * @param to
+     *            target vertex
+     * @return true if the arc was removed
+     */
+    public boolean removeArc(T from, T to) {
+        Vertex<T> source = vertices.get(from);
+        Vertex<T> target = vertices.get(to);
+        if (source == null || target == null || !Vertex.removeArc(source,
+            target)) {
+            return false;
+        }
+        numArcs--;
+        return true;
+    }
+
+
+    /**
+     * Sees whether there is a directed arc from one vertex to another.
+     * 
+     * @param from
+     *            source vertex
+     * @param to
+     *            target vertex
+     * @return true if there is an arc
+     */
+    public boolean hasArc(T from, T to) {
+        Vertex<T> source = vertices.get(from);
+        Vertex<T> target = vertices.get(to);
+        return source != null && target != null && Vertex.findOutArc(source,
+            target) >= 0;
+    }
+
+
+    /**
+     * Returns the number of arcs that leave a vertex.
+     * 
+     * @param vertexLabel
+     *            label of the vertex
+     * @return out-degree, 0 if the vertex is missing
+     */
+    public int getOutDegree(T vertexLabel) {
+        Vertex<T> vertex = vertices.get(vertexLabel);
+        return vertex == null ? 0 : vertex.getOutDegree();
+    }
+
+
+    /**
+     * Returns the number of arcs that enter a vertex.
+     * 
+     * @param vertexLabel
+     *            label of the vertex
+     * @return in-degree, 0 if the vertex is missing
+     */
+    public int getInDegree(T vertexLabel) {
+        Vertex<T> vertex = vertices.get(vertexLabel);
+        return vertex == null ? 0 : vertex.getInDegree();
+    }
+
+
+    /**
+     * Returns a page of the targets of the arcs that leave a vertex.
+     * 
+     * @param vertexLabel
+     *            label of the vertex
+     * @param offset
+     *            index of the first target of the page
+     * @param count
+     *            largest number of targets
+     * @return labels of the targets, empty if the vertex is missing
+     */
+    public List<T> getOutNeighbors(T vertexLabel, int offset, int count) {
+        Vertex<T> vertex = vertices.get(vertexLabel);
+        List<T> page = new ArrayList<T>();
+        if (vertex != null) {
+            int end = (int)Math.min(vertex.getOutDegree(), (long)offset
+                + count);
+            for (int i = Math.max(0, offset); i < end; i++) {
+                page.add(vertex.getOutNeighbor(i).getLabel());
+            }
+        }
+        return page;
+    }
+
+
+    /**
+     * Returns a page of the sources of the arcs that enter a vertex.
+     * 
+     * @param vertexLabel
+     *            label of the vertex
+     * @param offset
+     *            index of the first source of the page
+     * @param count
+     *            largest number of sources
+     * @return labels of the sources, empty if the vertex is missing
+     */
+    public List<T> getInNeighbors(T vertexLabel, int offset, int count) {
+        Vertex<T> vertex = vertices.get(vertexLabel);
+        List<T> page = new ArrayList<T>();
+        if (vertex != null) {
+            int end = (int)Math.min(vertex.getInDegree(), (long)offset
+                + count);
+            for (int i = Math.max(0, offset); i < end; i++) {
+                page.add(vertex.getInNeighbor(i).getLabel());
+            }
+        }
+        return page;
+    }
+
+
+    /**
+     * Returns the number of directed arcs.
+     * 
+     * @return number of arcs
+     */
+    public int getNumberOfArcs() {
+        return numArcs;
+    }
+
+
+    /**
+     * Returns the number of vertices the last call of
+     * getBreadthFirstTraversal or getShortestPath visited.
+     * 
+     * @return vertices visited by the last traversal
+     */
+    public int getLastVisitedCount() {
+        return lastVisited;
+    }
+
+
+    /**
+     * Returns the number of adjacency entries the last call of
+     * getBreadthFirstTraversal or getShortestPath looked at.
+     * 
+     * @return edges scanned by the last traversal
+     */
+    public long getLastScannedEdgeCount() {
+        return lastScanned;
+    }
+
+
     private void resetVertices() {
         List<VertexInterface<T>> vertexList = getVertices();
 
@@ -0,0 +1,591 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Stack;
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * Benchmark suite for the hot paths of Graph, Vertex and VTConnect. Every
+ * benchmark runs for each combination of graph size, degree distribution
+ * and thread count, and reports
+ *
+ * <pre>
+ * ops/s      throughput, summed over the threads
+ * p50 .. max latency of a single call in microseconds
+ * B/op       bytes allocated on the heap per call
+ * gc, gc ms  collections and their time during the measurement
+ * </pre>
+ *
+ * Graph and VTConnect are not thread safe, so every thread works on a
+ * fixture of its own that it builds before the measurement. Only the
+ * call under test is timed and counted for allocation; the work that
+ * picks its arguments or undoes its effect, such as removing an added
+ * edge again, is not. Throughput is derived from the timed calls alone.
+ *
+ * Results can be saved and compared with an earlier run, so a change can
+ * be checked against a baseline:
+ *
+ * <pre>
+ * java GraphBenchmark --save before.csv
+ * java GraphBenchmark --baseline before.csv
+ * </pre>
+ *
+ * Options, each followed by a value, lists separated by commas:
+ *
+ * <pre>
+ * --bench    benchmarks to run, default all of BENCHMARKS
+ * --sizes    numbers of vertices, default 1000,10000
+ * --dist     degree distributions, models of GraphGenerator,
+ *            default uniform,ba
+ * --threads  thread counts, default 1,4
+ * --degree   average degree, default 16
+ * --warmup   seconds of warm up per run, default 1
+ * --time     seconds of measurement per run, default 3
+ * --save     file to write the results to as CSV
+ * --baseline CSV file of an earlier run to compare with
+ * </pre>
+ *
+ * @author Kerem Bozgan kerembozgan
+ * @version 2022-11-11
+ */
+class GraphBenchmark {
+
+    /** Names of the benchmarks */
+    static final String[] BENCHMARKS = { "addVertex", "addEdge", "hasEdge",
+        "removeVertex", "bfs", "shortestPath", "friendSuggestion",
+        "addUser" };
+
+    /** Header of the result table and of saved files */
+    private static final String CSV_HEADER =
+        "benchmark,size,distribution,threads,opsPerSecond,p50,p90,p99,p999,"
+            + "max,bytesPerOp,gcCount,gcMillis";
+
+    /** Source of allocation counts of the current thread */
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        HashMap<String, String> options = new HashMap<String, String>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unknown argument: "
+                    + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        String[] benches = options.getOrDefault("bench", String.join(",",
+            BENCHMARKS)).split(",");
+        int[] sizes = parseInts(options.getOrDefault("sizes", "1000,10000"));
+        String[] dists = options.getOrDefault("dist",
+            GraphGenerator.UNIFORM + "," + GraphGenerator.BARABASI_ALBERT)
+            .split(",");
+        int[] threadCounts = parseInts(options.getOrDefault("threads",
+            "1,4"));
+        int degree = Integer.parseInt(options.getOrDefault("degree", "16"));
+        double warmup = Double.parseDouble(options.getOrDefault("warmup",
+            "1"));
+        double time = Double.parseDouble(options.getOrDefault("time", "3"));
+
+        for (String bench : benches) {
+            if (!Arrays.asList(BENCHMARKS).contains(bench)) {
+                throw new IllegalArgumentException("Unknown benchmark: "
+                    + bench);
+            }
+        }
+
+        System.out.printf("%-16s %8s %-8s %3s %12s %9s %9s %9s %9s %10s "
+            + "%9s %4s %7s%n", "benchmark", "size", "dist", "thr", "ops/s",
+            "p50 us", "p90 us", "p99 us", "p99.9 us", "max us", "B/op", "gc",
+            "gc ms");
+        List<Result> results = new ArrayList<Result>();
+        for (String bench : benches) {
+            for (int size : sizes) {
+                for (String dist : dists) {
+                    for (int threads : threadCounts) {
+                        Result result = run(bench, size, dist, degree,
+                            threads, warmup, time);
+                        result.print();
+                        results.add(result);
+                    }
+                }
+            }
+        }
+
+        if (options.containsKey("save")) {
+            try (PrintWriter out = new PrintWriter(options.get("save"))) {
+                out.println(CSV_HEADER);
+                for (Result result : results) {
+                    out.println(result.toCsv());
+                }
+            }
+        }
+        if (options.containsKey("baseline")) {
+            compare(results, options.get("baseline"));
+        }
+    }
+
+
+    /**
+     * Runs one benchmark in one configuration.
+     *
+     * @param bench
+     *            name of the benchmark
+     * @param size
+     *            number of vertices
+     * @param dist
+     *            degree distribution
+     * @param degree
+     *            average degree
+     * @param threads
+     *            number of threads
+     * @param warmup
+     *            seconds of warm up
+     * @param time
+     *            seconds of measurement
+     * @return the measured result
+     */
+    static Result run(
+        String bench,
+        int size,
+        String dist,
+        int degree,
+        int threads,
+        double warmup,
+        double time)
+        throws InterruptedException {
+        Fixture[] fixtures = new Fixture[threads];
+        Thread[] workers = new Thread[threads];
+        CyclicBarrier ready = new CyclicBarrier(threads + 1);
+        long[] window = new long[2];
+        for (int t = 0; t < threads; t++) {
+            Fixture fixture = new Fixture(bench, size, dist, degree, 1000L
+                * t + size);
+            fixtures[t] = fixture;
+            workers[t] = new Thread(() -> {
+                fixture.build();
+                await(ready);
+                // wait until the main thread has set the time window
+                await(ready);
+                while (System.nanoTime() < window[0]) {
+                    fixture.runOnce();
+                }
+                fixture.measuring = true;
+                do {
+                    fixture.runOnce();
+                }
+                while (System.nanoTime() < window[1]);
+            });
+            workers[t].start();
+        }
+        await(ready);
+        long now = System.nanoTime();
+        window[0] = now + (long)(warmup * 1e9);
+        window[1] = window[0] + (long)(time * 1e9);
+        await(ready);
+
+        Thread.sleep(Math.max(0, (window[0] - System.nanoTime()) / 1000000));
+        long[] gcBefore = gcTotals();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long[] gcAfter = gcTotals();
+
+        Result result = new Result(bench, size, dist, threads);
+        long allocated = 0;
+        long ops = 0;
+        for (Fixture fixture : fixtures) {
+            result.histogram.add(fixture.histogram);
+            if (fixture.timedNanos > 0) {
+                result.opsPerSecond += fixture.ops * 1e9 / fixture.timedNanos;
+            }
+            allocated += fixture.allocated;
+            ops += fixture.ops;
+        }
+        result.bytesPerOp = ops == 0 ? 0 : (double)allocated / ops;
+        result.gcCount = gcAfter[0] - gcBefore[0];
+        result.gcMillis = gcAfter[1] - gcBefore[1];
+        return result;
+    }
+
+
+    /**
+     * Prints the change of throughput and p99 latency against the results
+     * of an earlier run.
+     *
+     * @param results
+     *            results of this run
+     * @param file
+     *            CSV file of the earlier run
+     */
+    private static void compare(List<Result> results, String file)
+        throws IOException {
+        HashMap<String, String[]> baseline = new HashMap<String, String[]>();
+        try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+            String line = in.readLine();
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split(",");
+                baseline.put(fields[0] + "," + fields[1] + "," + fields[2]
+                    + "," + fields[3], fields);
+            }
+        }
+        System.out.println();
+        System.out.println("Compared with " + file);
+        System.out.printf("%-16s %8s %-8s %3s %10s %10s%n", "benchmark",
+            "size", "dist", "thr", "ops/s", "p99");
+        for (Result result : results) {
+            String[] before = baseline.get(result.key());
+            if (before == null) {
+                continue;
+            }
+            double opsBefore = Double.parseDouble(before[4]);
+            double p99Before = Double.parseDouble(before[7]);
+            System.out.printf("%-16s %8d %-8s %3d %+9.1f%% %+9.1f%%%n",
+                result.bench, result.size, result.dist, result.threads,
+                percentChange(opsBefore, result.opsPerSecond), percentChange(
+                    p99Before, result.micros(99)));
+        }
+    }
+
+
+    /**
+     * Returns the change from one value to another in percent.
+     */
+    private static double percentChange(double before, double after) {
+        return before == 0 ? 0 : (after - before) * 100 / before;
+    }
+
+
+    /**
+     * Returns the number and the total time in milliseconds of the
+     * collections so far.
+     */
+    private static long[] gcTotals() {
+        long[] totals = new long[2];
+        for (GarbageCollectorMXBean collector : ManagementFactory
+            .getGarbageCollectorMXBeans()) {
+            totals[0] += Math.max(0, collector.getCollectionCount());
+            totals[1] += Math.max(0, collector.getCollectionTime());
+        }
+        return totals;
+    }
+
+
+    /**
+     * Parses a list of ints separated by commas.
+     */
+    private static int[] parseInts(String list) {
+        String[] parts = list.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }
+
+
+    /**
+     * Waits at a barrier, turning its checked exceptions into an
+     * unchecked one.
+     */
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await();
+        }
+        catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    /**
+     * Graph or network of one thread together with the measurements of
+     * the calls made on it.
+     */
+    static class Fixture {
+
+        private final String bench;
+        private final int size;
+        private final String dist;
+        private final int degree;
+        private final Random random;
+
+        /** Graph for the Graph benchmarks */
+        private Graph<Integer> grph;
+        /** Boxed labels of the graph, so boxing is not measured */
+        private Integer[] labels;
+        /** Label that is never in the graph */
+        private Integer extraLabel;
+        /** Network and its profiles for the VTConnect benchmarks */
+        private VTConnect network;
+        private Profile[] profiles;
+        /** Reused path of getShortestPath */
+        private final Stack<Integer> path = new Stack<Integer>();
+        /** Number of profiles added so far, for unique names */
+        private int added;
+
+        /** Set once the warm up is over */
+        volatile boolean measuring;
+        /** Measurements of the timed calls */
+        final LatencyHistogram histogram = new LatencyHistogram();
+        long ops;
+        long timedNanos;
+        long allocated;
+        /** Sum of results, so the calls cannot be optimized away */
+        long sink;
+
+        /** Start of the current timed call */
+        private long startNanos;
+        private long startBytes;
+
+        /**
+         * Initializes a fixture, the graph is built by build.
+         */
+        Fixture(String bench, int size, String dist, int degree, long seed) {
+            this.bench = bench;
+            this.size = size;
+            this.dist = dist;
+            this.degree = degree;
+            this.random = new Random(seed);
+        }
+
+
+        /**
+         * Builds the graph or network the benchmark works on.
+         */
+        void build() {
+            int[] ends = GraphGenerator.generate(dist, size, degree, random);
+            if (bench.equals("friendSuggestion") || bench.equals("addUser")) {
+                network = new VTConnect();
+                profiles = new Profile[size];
+                for (int i = 0; i < size; i++) {
+                    profiles[i] = new Profile("user" + i, "Hello, I am user "
+                        + i + ".");
+                    network.loadUser(profiles[i]);
+                }
+                for (int e = 0; e < ends.length; e += 2) {
+                    if (ends[e] != ends[e + 1]) {
+                        network.createFriendship(profiles[ends[e]],
+                            profiles[ends[e + 1]]);
+                    }
+                }
+                return;
+            }
+            grph = new Graph<Integer>();
+            labels = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                labels[i] = i;
+                grph.addVertex(labels[i]);
+            }
+            extraLabel = size;
+            for (int e = 0; e < ends.length; e += 2) {
+                if (ends[e] != ends[e + 1]) {
+                    grph.addEdge(labels[ends[e]], labels[ends[e + 1]]);
+                }
+            }
+        }
+
+
+        /**
+         * Makes one call of the benchmark and undoes its effect.
+         */
+        void runOnce() {
+            switch (bench) {
+                case "addVertex":
+                    begin();
+                    grph.addVertex(extraLabel);
+                    end();
+                    grph.removeVertex(extraLabel);
+                    break;
+                case "addEdge": {
+                    Integer a = randomLabel();
+                    Integer b = randomLabel();
+                    if (a.equals(b) || grph.hasEdge(a, b)) {
+                        return;
+                    }
+                    begin();
+                    grph.addEdge(a, b);
+                    end();
+                    grph.removeEdge(a, b);
+                    break;
+                }
+                case "hasEdge": {
+                    Integer a = randomLabel();
+                    Integer b;
+                    VertexInterface<Integer> vertex = grph.getVertex(a);
+                    // half of the lookups are for existing edges
+                    if (random.nextBoolean() && vertex
+                        .getNumberOfNeighbors() > 0) {
+                        b = vertex.getNeighbor(random.nextInt(vertex
+                            .getNumberOfNeighbors())).getLabel();
+                    }
+                    else {
+                        b = randomLabel();
+                    }
+                    begin();
+                    boolean found = grph.hasEdge(a, b);
+                    end();
+                    sink += found ? 1 : 0;
+                    break;
+                }
+                case "removeVertex": {
+                    Integer label = randomLabel();
+                    VertexInterface<Integer> vertex = grph.getVertex(label);
+                    Integer[] neighbors = new Integer[vertex
+                        .getNumberOfNeighbors()];
+                    for (int i = 0; i < neighbors.length; i++) {
+                        neighbors[i] = vertex.getNeighbor(i).getLabel();
+                    }
+                    begin();
+                    grph.removeVertex(label);
+                    end();
+                    grph.addVertex(label);
+                    for (Integer neighbor : neighbors) {
+                        grph.addEdge(label, neighbor);
+                    }
+                    break;
+                }
+                case "bfs": {
+                    Integer origin = randomLabel();
+                    begin();
+                    int visited = grph.getBreadthFirstTraversal(origin)
+                        .size();
+                    end();
+                    sink += visited;
+                    break;
+                }
+                case "shortestPath": {
+                    Integer a = randomLabel();
+                    Integer b = randomLabel();
+                    path.clear();
+                    begin();
+                    int length = grph.getShortestPath(a, b, path);
+                    end();
+                    sink += length;
+                    break;
+                }
+                case "friendSuggestion": {
+                    Profile user = profiles[random.nextInt(size)];
+                    begin();
+                    List<Profile> suggested = network.friendSuggestion(user);
+                    end();
+                    sink += suggested == null ? 0 : suggested.size();
+                    break;
+                }
+                case "addUser": {
+                    Profile user = new Profile("new" + added++, "Hello.");
+                    begin();
+                    network.addUser(user);
+                    end();
+                    network.removeUser(user);
+                    break;
+                }
+                default:
+                    throw new IllegalArgumentException("Unknown benchmark: "
+                        + bench);
+            }
+        }
+
+
+        /**
+         * Returns the boxed label of a random vertex.
+         */
+        private Integer randomLabel() {
+            return labels[random.nextInt(size)];
+        }
+
+
+        /**
+         * Starts timing a call.
+         */
+        private void begin() {
+            startBytes = THREADS.getCurrentThreadAllocatedBytes();
+            startNanos = System.nanoTime();
+        }
+
+
+        /**
+         * Stops timing a call and records it once the warm up is over.
+         */
+        private void end() {
+            long nanos = System.nanoTime() - startNanos;
+            long bytes = THREADS.getCurrentThreadAllocatedBytes() - startBytes;
+            if (measuring) {
+                histogram.record(nanos);
+                ops++;
+                timedNanos += nanos;
+                allocated += bytes;
+            }
+        }
+    }
+
+
+    /**
+     * Measurements of one benchmark in one configuration.
+     */
+    static class Result {
+
+        final String bench;
+        final int size;
+        final String dist;
+        final int threads;
+        final LatencyHistogram histogram = new LatencyHistogram();
+        double opsPerSecond;
+        double bytesPerOp;
+        long gcCount;
+        long gcMillis;
+
+        Result(String bench, int size, String dist, int threads) {
+            this.bench = bench;
+            this.size = size;
+            this.dist = dist;
+            this.threads = threads;
+        }
+
+
+        /**
+         * Returns what identifies the configuration in a saved file.
+         */
+        String key() {
+            return bench + "," + size + "," + dist + "," + threads;
+        }
+
+
+        /**
+         * Prints the result as a row of the table.
+         */
+        void print() {
+            System.out.printf("%-16s %8d %-8s %3d %12.0f %9.2f %9.2f %9.2f "
+                + "%9.2f %10.2f %9.1f %4d %7d%n", bench, size, dist, threads,
+                opsPerSecond, micros(50), micros(90), micros(99), micros(
+                    99.9), histogram.getMax() / 1e3, bytesPerOp, gcCount,
+                gcMillis);
+        }
+
+
+        /**
+         * Returns the result as a line of a saved file.
+         */
+        String toCsv() {
+            return key() + "," + opsPerSecond + "," + micros(50) + ","
+                + micros(90) + "," + micros(99) + "," + micros(99.9) + ","
+                + histogram.getMax() / 1e3 + "," + bytesPerOp + "," + gcCount
+                + "," + gcMillis;
+        }
+
+
+        /**
+         * Returns a latency percentile in microseconds.
+         */
+        private double micros(double percentile) {
+            return histogram.getValueAtPercentile(percentile) / 1e3;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Java Flight Recorder events of Graph, OffHeapGraph and VTConnect. Every
+ * event records the origin of the operation, the depth it reached, the
+ * vertices it visited, the edges it scanned and the size of its result,
+ * so a traversal that suddenly runs into a cluster of hubs shows up in a
+ * recording with its full cost.
+ *
+ * The events are disabled unless a recording enables them. An event is
+ * only recorded when the operation takes longer than the threshold of
+ * the event, 10 ms for the traversals and 1 ms for removals and loads by
+ * default. Thresholds are set like those of the JDK events, in a .jfc
+ * file or on the command line:
+ *
+ * <pre>
+ * java -XX:StartFlightRecording:filename=rec.jfr,vtconnect.BreadthFirstTraversal#threshold=2ms ...
+ * </pre>
+ *
+ * or from code with enable.
+ *
+ * @author Kerem Bozgan kerembozgan
+ * @version 2022-11-11
+ */
+class GraphEvents {
+
+    /** Names of the events */
+    static final String BREADTH_FIRST_TRAVERSAL =
+        "vtconnect.BreadthFirstTraversal";
+    static final String SHORTEST_PATH = "vtconnect.ShortestPath";
+    static final String FRIEND_SUGGESTION = "vtconnect.FriendSuggestion";
+    static final String VERTEX_REMOVAL = "vtconnect.VertexRemoval";
+    static final String BULK_LOAD = "vtconnect.BulkLoad";
+
+    /** All event names */
+    static final String[] NAMES = { BREADTH_FIRST_TRAVERSAL, SHORTEST_PATH,
+        FRIEND_SUGGESTION, VERTEX_REMOVAL, BULK_LOAD };
+
+    /**
+     * Records a generated network with the given threshold and prints the
+     * recorded events.
+     *
+     * Usage: java GraphEvents [users] [thresholdMicros]
+     */
+    public static void main(String[] args) throws Exception {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        long threshold = args.length > 1 ? Long.parseLong(args[1]) : 2000;
+
+        Path file = Files.createTempFile("vtconnect", ".jfr");
+        try (Recording recording = new Recording()) {
+            enable(recording, Duration.ofNanos(threshold * 1000));
+            recording.start();
+
+            VTConnect network = new VTConnect();
+            Profile[] profiles = GraphGenerator.populate(network, n,
+                GraphGenerator.generate(GraphGenerator.RMAT, n, 16,
+                    new Random(42)));
+            Random random = new Random(7);
+            for (int i = 0; i < 50; i++) {
+                network.friendSuggestion(profiles[random.nextInt(n)]);
+                network.friendshipDistance(profiles[random.nextInt(n)],
+                    profiles[random.nextInt(n)]);
+            }
+            for (int i = 0; i < 50; i++) {
+                network.removeUser(profiles[random.nextInt(n)]);
+            }
+            recording.stop();
+            recording.dump(file);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        System.out.printf("%-32s %9s %-8s %6s %9s %10s %9s%n", "event",
+            "ms", "origin", "depth", "visited", "edges", "result");
+        for (RecordedEvent event : events) {
+            System.out.printf("%-32s %9.2f %-8s %6d %9d %10d %9d%n", event
+                .getEventType().getName(), event.getDuration().toNanos()
+                    / 1e6, event.getString("origin"), event.getInt("depth"),
+                event.getInt("visited"), event.getLong("edgesScanned"), event
+                    .getInt("resultSize"));
+        }
+        Files.delete(file);
+    }
+
+
+    /**
+     * Enables all events of this class in a recording with the given
+     * threshold.
+     *
+     * @param recording
+     *            recording to enable the events in
+     * @param threshold
+     *            operations at least this long are recorded
+     */
+    static void enable(Recording recording, Duration threshold) {
+        for (String name : NAMES) {
+            recording.enable(name).withThreshold(threshold);
+        }
+    }
+
+
+    /**
+     * Fields shared by all events.
+     */
+    @Category("VTConnect")
+    @StackTrace(false)
+    abstract static class GraphEvent extends Event {
+
+        @Label("Origin")
+        @Description("Label of the vertex the operation started from")
+        String origin;
+
+        @Label("Depth")
+        @Description("Number of hops from the origin the operation reached")
+        int depth;
+
+        @Label("Visited")
+        @Description("Number of vertices visited")
+        int visited;
+
+        @Label("Edges Scanned")
+        @Description("Number of adjacency entries looked at")
+        long edgesScanned;
+
+        @Label("Result Size")
+        @Description("Number of vertices, profiles or edges in the result")
+        int resultSize;
+
+        /**
+         * Sets all fields at once.
+         */
+        void set(
+            Object originLabel,
+            int reachedDepth,
+            int visitedCount,
+            long scannedCount,
+            int size) {
+            origin = String.valueOf(originLabel);
+            depth = reachedDepth;
+            visited = visitedCount;
+            edgesScanned = scannedCount;
+            resultSize = size;
+        }
+    }
+
+
+    /**
+     * getBreadthFirstTraversal of a graph.
+     */
+    @Name(BREADTH_FIRST_TRAVERSAL)
+    @Label("Breadth First Traversal")
+    @Threshold("10 ms")
+    static class BreadthFirstTraversal extends GraphEvent {
+    }
+
+
+    /**
+     * getShortestPath of a graph, the result size is the path length.
+     */
+    @Name(SHORTEST_PATH)
+    @Label("Shortest Path")
+    @Threshold("10 ms")
+    static class ShortestPath extends GraphEvent {
+
+        @Label("Destination")
+        String destination;
+    }
+
+
+    /**
+     * friendSuggestion of a VTConnect.
+     */
+    @Name(FRIEND_SUGGESTION)
+    @Label("Friend Suggestion")
+    @Threshold("10 ms")
+    static class FriendSuggestion extends GraphEvent {
+    }
+
+
+    /**
+     * removeVertex or removeVertices of a graph. The origin is the removed
+     * label, or the number of labels of a batch; visited counts the
+     * removed vertices and edges scanned their adjacency entries.
+     */
+    @Name(VERTEX_REMOVAL)
+    @Label("Vertex Removal")
+    @Threshold("1 ms")
+    static class VertexRemoval extends GraphEvent {
+    }
+
+
+    /**
+     * Population of a graph or network by GraphGenerator. The origin
+     * names the target; visited counts the added vertices, edges scanned
+     * the edges of the input and the result size the edges added.
+     */
+    @Name(BULK_LOAD)
+    @Label("Bulk Load")
+    @Threshold("1 ms")
+    static class BulkLoad extends GraphEvent {
+    }
+}
@@ -0,0 +1,349 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generates synthetic social graphs of any size. A generator returns the
+ * edges as a flat int array with the two ends of edge i at positions 2i
+ * and 2i + 1, over vertices 0 to n - 1, and populate turns them into a
+ * Graph or a VTConnect. The same seed always gives the same graph.
+ *
+ * <pre>
+ * uniform  both ends of every edge picked at random, degrees close to
+ *          the average
+ * ba       Barabasi-Albert preferential attachment, power law degrees
+ * rmat     R-MAT recursive matrix, skewed degrees and communities
+ * ws       Watts-Strogatz small world, a ring lattice with some edges
+ *          rewired to random vertices
+ * </pre>
+ *
+ * A generated edge list may contain loops and repeated pairs, which
+ * populate skips.
+ *
+ * @author Kerem Bozgan kerembozgan
+ * @version 2022-11-11
+ */
+class GraphGenerator {
+
+    /** Names of the models */
+    static final String UNIFORM = "uniform";
+    static final String BARABASI_ALBERT = "ba";
+    static final String RMAT = "rmat";
+    static final String WATTS_STROGATZ = "ws";
+
+    /** Quadrant probabilities of R-MAT, as used by the Graph500 benchmark */
+    private static final double RMAT_A = 0.57;
+    private static final double RMAT_B = 0.19;
+    private static final double RMAT_C = 0.19;
+
+    /** Probability that Watts-Strogatz rewires an edge */
+    private static final double REWIRE = 0.1;
+
+    public static void main(String[] args) {
+        String model = args.length > 0 ? args[0] : BARABASI_ALBERT;
+        int n = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        int degree = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 42;
+
+        long start = System.nanoTime();
+        int[] ends = generate(model, n, degree, new Random(seed));
+        System.out.printf("Generated %d edges in %.0f ms%n", ends.length / 2,
+            (System.nanoTime() - start) / 1e6);
+
+        start = System.nanoTime();
+        VTConnect network = new VTConnect();
+        Profile[] profiles = populate(network, n, ends);
+        System.out.printf("Populated VTConnect in %.0f ms%n", (System
+            .nanoTime() - start) / 1e6);
+        printDegrees(network, profiles);
+    }
+
+
+    /**
+     * Generates a graph of the given model.
+     *
+     * @param model
+     *            one of UNIFORM, BARABASI_ALBERT, RMAT and WATTS_STROGATZ
+     * @param n
+     *            number of vertices
+     * @param degree
+     *            average degree
+     * @param random
+     *            source of randomness
+     * @return the ends of the edges, two entries per edge
+     */
+    static int[] generate(String model, int n, int degree, Random random) {
+        switch (model) {
+            case UNIFORM:
+                return uniform(n, (long)n * degree / 2, random);
+            case BARABASI_ALBERT:
+                return barabasiAlbert(n, Math.max(1, degree / 2), random);
+            case RMAT:
+                return rmat(n, (long)n * degree / 2, random);
+            case WATTS_STROGATZ:
+                return wattsStrogatz(n, degree, REWIRE, random);
+            default:
+                throw new IllegalArgumentException("Unknown model: " + model);
+        }
+    }
+
+
+    /**
+     * Generates edges between uniformly random pairs of vertices.
+     *
+     * @param n
+     *            number of vertices
+     * @param edges
+     *            number of edges
+     * @param random
+     *            source of randomness
+     * @return the ends of the edges
+     */
+    static int[] uniform(int n, long edges, Random random) {
+        int[] ends = new int[edgeArrayLength(edges)];
+        for (int i = 0; i < ends.length; i++) {
+            ends[i] = random.nextInt(n);
+        }
+        return ends;
+    }
+
+
+    /**
+     * Generates a Barabasi-Albert graph. Vertices arrive one at a time
+     * and each links to m earlier vertices picked in proportion to their
+     * degree, so early vertices become hubs and the degrees follow a
+     * power law with exponent 3.
+     *
+     * @param n
+     *            number of vertices
+     * @param m
+     *            links of each new vertex
+     * @param random
+     *            source of randomness
+     * @return the ends of the edges
+     */
+    static int[] barabasiAlbert(int n, int m, Random random) {
+        int[] ends = new int[edgeArrayLength((long)n * m)];
+        int count = 0;
+        for (int v = 1; v < n; v++) {
+            int links = Math.min(m, v);
+            for (int k = 0; k < links; k++) {
+                // an end of a random earlier edge is a vertex picked in
+                // proportion to its degree
+                int target = count == 0 ? 0 : ends[random.nextInt(count)];
+                ends[count++] = v;
+                ends[count++] = target;
+            }
+        }
+        return Arrays.copyOf(ends, count);
+    }
+
+
+    /**
+     * Generates an R-MAT graph. Each edge is placed by descending the
+     * adjacency matrix one level per bit, choosing a quadrant with the
+     * probabilities a, b, c and d. Vertex numbers are shuffled afterwards
+     * so the hubs are not all at small ids. Edges falling outside n when
+     * n is not a power of two are drawn again.
+     *
+     * @param n
+     *            number of vertices
+     * @param edges
+     *            number of edges
+     * @param random
+     *            source of randomness
+     * @return the ends of the edges
+     */
+    static int[] rmat(int n, long edges, Random random) {
+        int scale = 32 - Integer.numberOfLeadingZeros(Math.max(1, n - 1));
+        int[] permutation = shuffledIdentity(n, random);
+        int[] ends = new int[edgeArrayLength(edges)];
+        int count = 0;
+        while (count < ends.length) {
+            int row = 0;
+            int col = 0;
+            for (int bit = 0; bit < scale; bit++) {
+                double r = random.nextDouble();
+                row <<= 1;
+                col <<= 1;
+                if (r < RMAT_A) {
+                    // top left, no bits set
+                }
+                else if (r < RMAT_A + RMAT_B) {
+                    col |= 1;
+                }
+                else if (r < RMAT_A + RMAT_B + RMAT_C) {
+                    row |= 1;
+                }
+                else {
+                    row |= 1;
+                    col |= 1;
+                }
+            }
+            if (row < n && col < n) {
+                ends[count++] = permutation[row];
+                ends[count++] = permutation[col];
+            }
+        }
+        return ends;
+    }
+
+
+    /**
+     * Generates a Watts-Strogatz graph. Every vertex starts linked to its
+     * degree / 2 successors on a ring, then the far end of each link is
+     * moved to a random vertex with probability beta. The result keeps
+     * the many triangles of the ring but has short paths.
+     *
+     * @param n
+     *            number of vertices
+     * @param degree
+     *            average degree, rounded down to an even number
+     * @param beta
+     *            probability of rewiring a link
+     * @param random
+     *            source of randomness
+     * @return the ends of the edges
+     */
+    static int[] wattsStrogatz(int n, int degree, double beta, Random random) {
+        int half = Math.max(1, degree / 2);
+        int[] ends = new int[edgeArrayLength((long)n * half)];
+        int count = 0;
+        for (int v = 0; v < n; v++) {
+            for (int k = 1; k <= half; k++) {
+                int target = (v + k) % n;
+                if (random.nextDouble() < beta) {
+                    target = random.nextInt(n);
+                }
+                ends[count++] = v;
+                ends[count++] = target;
+            }
+        }
+        return ends;
+    }
+
+
+    /**
+     * Adds n vertices labeled 0 to n - 1 and the generated edges to a
+     * graph.
+     *
+     * @param grph
+     *            empty graph
+     * @param n
+     *            number of vertices
+     * @param ends
+     *            generated edges
+     */
+    static void populate(GraphInterface<Integer> grph, int n, int[] ends) {
+        GraphEvents.BulkLoad event = new GraphEvents.BulkLoad();
+        event.begin();
+        for (int i = 0; i < n; i++) {
+            grph.addVertex(i);
+        }
+        int added = 0;
+        for (int e = 0; e + 1 < ends.length; e += 2) {
+            if (ends[e] != ends[e + 1] && grph.addEdge(ends[e], ends[e
+                + 1])) {
+                added++;
+            }
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.set(grph.getClass().getSimpleName(), 0, n, ends.length / 2,
+                added);
+            event.commit();
+        }
+    }
+
+
+    /**
+     * Adds n profiles named user0 to user(n - 1) and a friendship for
+     * every generated edge to an empty network. The profiles are loaded
+     * without the duplicate check of addUser, they are all distinct.
+     *
+     * @param network
+     *            empty network
+     * @param n
+     *            number of profiles
+     * @param ends
+     *            generated edges
+     * @return the profiles, indexed like the vertices of the edges
+     */
+    static Profile[] populate(VTConnect network, int n, int[] ends) {
+        GraphEvents.BulkLoad event = new GraphEvents.BulkLoad();
+        event.begin();
+        Profile[] profiles = new Profile[n];
+        for (int i = 0; i < n; i++) {
+            profiles[i] = new Profile("user" + i, "Hello, I am user " + i
+                + ".");
+            network.loadUser(profiles[i]);
+        }
+        int added = 0;
+        for (int e = 0; e + 1 < ends.length; e += 2) {
+            if (ends[e] != ends[e + 1] && network.createFriendship(
+                profiles[ends[e]], profiles[ends[e + 1]])) {
+                added++;
+            }
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.set("VTConnect", 0, n, ends.length / 2, added);
+            event.commit();
+        }
+        return profiles;
+    }
+
+
+    /**
+     * Prints the number of friendships and the spread of the degrees of
+     * a populated network.
+     *
+     * @param network
+     *            populated network
+     * @param profiles
+     *            profiles of the network
+     */
+    private static void printDegrees(VTConnect network, Profile[] profiles) {
+        int n = profiles.length;
+        int[] degrees = new int[n];
+        long edges = 0;
+        for (int i = 0; i < n; i++) {
+            degrees[i] = network.getNumberOfFriends(profiles[i]);
+            edges += degrees[i];
+        }
+        Arrays.sort(degrees);
+        System.out.printf("Friendships: %d, average degree %.1f%n", edges / 2,
+            (double)edges / n);
+        System.out.printf("Degree p50 %d, p90 %d, p99 %d, p99.9 %d, max %d%n",
+            degrees[n / 2], degrees[(int)(n * 0.9)], degrees[(int)(n * 0.99)],
+            degrees[(int)(n * 0.999)], degrees[n - 1]);
+    }
+
+
+    /**
+     * Returns the length of an edge array, which must fit in an int.
+     */
+    private static int edgeArrayLength(long edges) {
+        if (2 * edges > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Too many edges: " + edges);
+        }
+        return (int)(2 * edges);
+    }
+
+
+    /**
+     * Returns a random permutation of 0 to n - 1.
+     */
+    private static int[] shuffledIdentity(int n, Random random) {
+        int[] permutation = new int[n];
+        for (int i = 0; i < n; i++) {
+            permutation[i] = i;
+        }
+        for (int i = n - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int temp = permutation[i];
+            permutation[i] = permutation[j];
+            permutation[j] = temp;
+        }
+        return permutation;
+    }
+}
@@ -1,4 +1,6 @@
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 import java.util.Stack;
 
@@ -38,6 +40,19 @@ public interface GraphInterface<T> {
     public VertexInterface<T> removeVertex(T vertexLabel);
 
 
+    /**
+     * Removes all vertices with the given labels from this graph and
+     * returns the removed vertices. Labels that are not in the graph are
+     * ignored.
+     * 
+     * @param vertexLabels
+     *            labels of the vertices to remove
+     * @return list of removed vertices
+     */
+    public List<VertexInterface<T>> removeVertices(
+        Collection<T> vertexLabels);
+
+
     /**
      * Adds a weighted
      * edge between two given distinct vertices that are currently in this
@@ -148,6 +163,28 @@ public interface GraphInterface<T> {
     public List<VertexInterface<T>> getVertices();
 
 
+    /**
+     * Returns the vertex with the given label, or null if there is no such
+     * vertex in this graph.
+     * 
+     * @param vertexLabel
+     *            label of the vertex
+     * @return vertex with the label
+     */
+    public VertexInterface<T> getVertex(T vertexLabel);
+
+
+    /**
+     * Gives new labels to vertices of this graph, keeping their edges. A
+     * new label may be the old label of another relabeled vertex. Labels
+     * that are not in the graph are ignored.
+     * 
+     * @param newLabels
+     *            map from old label to new label
+     */
+    public void relabelVertices(Map<T, T> newLabels);
+
+
     /**
      * Clears the graph.
      */
@@ -181,4 +218,122 @@ public interface GraphInterface<T> {
      */
     public int getShortestPath(T origin, T destination, Stack<T> path);
 
+
+    /**
+     * Returns the number of vertices the last call of
+     * getBreadthFirstTraversal or getShortestPath visited.
+     * 
+     * @return vertices visited by the last traversal
+     */
+    public int getLastVisitedCount();
+
+
+    /**
+     * Returns the number of adjacency entries the last call of
+     * getBreadthFirstTraversal or getShortestPath looked at.
+     * 
+     * @return edges scanned by the last traversal
+     */
+    public long getLastScannedEdgeCount();
+
+
+    /**
+     * Adds a directed arc from one vertex to another. Arcs are kept apart
+     * from the undirected edges: they are not seen by the traversals and
+     * do not count as edges.
+     * 
+     * @param from
+     *            source vertex
+     * @param to
+     *            target vertex
+     * @return true if the arc was added, false if a vertex is missing,
+     *         the vertices are the same or the arc exists
+     */
+    public boolean addArc(T from, T to);
+
+
+    /**
+     * Removes the directed arc from one vertex to another.
+     * 
+     * @param from
+     *            source vertex
+     * @param to
+     *            target vertex
+     * @return true if the arc was removed
+     */
+    public boolean removeArc(T from, T to);
+
+
+    /**
+     * Sees whether there is a directed arc from one vertex to another.
+     * 
+     * @param from
+     *            source vertex
+     * @param to
+     *            target vertex
+     * @return true if there is an arc
+     */
+    public boolean hasArc(T from, T to);
+
+
+    /**
+     * Returns the number of arcs that leave a vertex, in O(1).
+     * 
+     * @param vertexLabel
+     *            label of the vertex
+     * @return out-degree, 0 if the vertex is missing
+     */
+    public int getOutDegree(T vertexLabel);
+
+
+    /**
+     * Returns the number of arcs that enter a vertex, in O(1).
+     * 
+     * @param vertexLabel
+     *            label of the vertex
+     * @return in-degree, 0 if the vertex is missing
+     */
+    public int getInDegree(T vertexLabel);
+
+
+    /**
+     * Returns a page of the targets of the arcs that leave a vertex, in
+     * time proportional to the page. Removing an arc moves the last arc
+     * of the vertex into its place, so pages taken across removals may
+     * skip or repeat vertices.
+     * 
+     * @param vertexLabel
+     *            label of the vertex
+     * @param offset
+     *            index of the first target of the page
+     * @param count
+     *            largest number of targets
+     * @return labels of the targets, empty if the vertex is missing
+     */
+    public List<T> getOutNeighbors(T vertexLabel, int offset, int count);
+
+
+    /**
+     * Returns a page of the sources of the arcs that enter a vertex, in
+     * time proportional to the page, with the same caveat as
+     * getOutNeighbors.
+     * 
+     * @param vertexLabel
+     *            label of the vertex
+     * @param offset
+     *            index of the first source of the page
+     * @param count
+     *            largest number of sources
+     * @return labels of the sources, empty if the vertex is missing
+     */
+    public List<T> getInNeighbors(T vertexLabel, int offset, int count);
+
+
+    /**
+     * Returns the number of directed arcs.
+     * 
+     * @return number of arcs
+     */
+    public int getNumberOfArcs();
+
 }
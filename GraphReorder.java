@@ -0,0 +1,187 @@
+import java.util.Arrays;
+
+/**
+ * Computes vertex orders that put neighbors close together in memory.
+ * A graph built with addUser in signup order has friends scattered over
+ * the whole id range, so a traversal jumps around and misses the cache on
+ * almost every neighbor. Each method returns a permutation for
+ * CsrGraph.permute: entry k is the index that should become index k.
+ *
+ * @author Kerem Bozgan kerembozgan
+ * @version 2022-11-11
+ */
+class GraphReorder {
+
+    /** Name of the breadth first order */
+    public static final String BFS = "bfs";
+    /** Name of the reverse Cuthill-McKee order */
+    public static final String RCM = "rcm";
+    /** Name of the decreasing degree order */
+    public static final String DEGREE = "degree";
+
+    /**
+     * Not instantiable, all methods are static.
+     */
+    private GraphReorder() {
+    }
+
+
+    /**
+     * Builds a snapshot of the graph and renumbers it with the named
+     * order. The snapshot keeps the translation table to the labels of
+     * the graph.
+     *
+     * @param graph
+     *            graph to copy
+     * @param strategy
+     *            one of BFS, RCM or DEGREE
+     * @return reordered snapshot
+     */
+    public static CsrGraph reorder(Graph<Integer> graph, String strategy) {
+        CsrGraph csr = CsrGraph.fromGraph(graph);
+        return csr.permute(computeOrder(csr, strategy));
+    }
+
+
+    /**
+     * Computes the named order for a snapshot.
+     *
+     * @param csr
+     *            snapshot to order
+     * @param strategy
+     *            one of BFS, RCM or DEGREE
+     * @return permutation of the indices of the snapshot
+     */
+    public static int[] computeOrder(CsrGraph csr, String strategy) {
+        if (BFS.equals(strategy)) {
+            return breadthFirstOrder(csr);
+        }
+        else if (RCM.equals(strategy)) {
+            return reverseCuthillMcKeeOrder(csr);
+        }
+        else if (DEGREE.equals(strategy)) {
+            return degreeOrder(csr);
+        }
+        throw new IllegalArgumentException("Unknown order: " + strategy);
+    }
+
+
+    /**
+     * Orders the vertices by decreasing degree, so the hubs that most
+     * traversals touch share a few cache lines.
+     *
+     * @param csr
+     *            snapshot to order
+     * @return permutation of the indices of the snapshot
+     */
+    public static int[] degreeOrder(CsrGraph csr) {
+        int n = csr.getNumberOfVertices();
+        // sort (degree, index) pairs packed in a long, highest degree first
+        long[] keys = new long[n];
+        for (int v = 0; v < n; v++) {
+            keys[v] = ((long)(Integer.MAX_VALUE - csr.getNumberOfNeighbors(
+                v)) << 32) | v;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[n];
+        for (int k = 0; k < n; k++) {
+            order[k] = (int)keys[k];
+        }
+        return order;
+    }
+
+
+    /**
+     * Orders the vertices in breadth first order. Each component starts
+     * from its vertex with the highest degree, so a user's friends end up
+     * next to each other.
+     *
+     * @param csr
+     *            snapshot to order
+     * @return permutation of the indices of the snapshot
+     */
+    public static int[] breadthFirstOrder(CsrGraph csr) {
+        int n = csr.getNumberOfVertices();
+        int[] offsets = csr.getOffsets();
+        int[] targets = csr.getTargets();
+        int[] starts = degreeOrder(csr);
+        boolean[] visited = new boolean[n];
+        int[] order = new int[n];
+        int tail = 0;
+        int head = 0;
+        for (int s = 0; s < n; s++) {
+            if (visited[starts[s]]) {
+                continue;
+            }
+            visited[starts[s]] = true;
+            order[tail++] = starts[s];
+            while (head < tail) {
+                int front = order[head++];
+                for (int e = offsets[front]; e < offsets[front + 1]; e++) {
+                    if (!visited[targets[e]]) {
+                        visited[targets[e]] = true;
+                        order[tail++] = targets[e];
+                    }
+                }
+            }
+        }
+        return order;
+    }
+
+
+    /**
+     * Orders the vertices with the reverse Cuthill-McKee heuristic. Each
+     * component is traversed breadth first from a vertex of lowest degree,
+     * visiting the neighbors of a vertex by increasing degree, and the
+     * resulting order is reversed. This keeps the index gap of every edge
+     * small.
+     *
+     * @param csr
+     *            snapshot to order
+     * @return permutation of the indices of the snapshot
+     */
+    public static int[] reverseCuthillMcKeeOrder(CsrGraph csr) {
+        int n = csr.getNumberOfVertices();
+        int[] offsets = csr.getOffsets();
+        int[] targets = csr.getTargets();
+        int[] starts = degreeOrder(csr);
+        boolean[] visited = new boolean[n];
+        int[] order = new int[n];
+        long[] scratch = new long[16];
+        int tail = 0;
+        int head = 0;
+        // lowest degree first, so walk the degree order backwards
+        for (int s = n - 1; s >= 0; s--) {
+            if (visited[starts[s]]) {
+                continue;
+            }
+            visited[starts[s]] = true;
+            order[tail++] = starts[s];
+            while (head < tail) {
+                int front = order[head++];
+                int count = 0;
+                for (int e = offsets[front]; e < offsets[front + 1]; e++) {
+                    int next = targets[e];
+                    if (!visited[next]) {
+                        visited[next] = true;
+                        if (count == scratch.length) {
+                            scratch = Arrays.copyOf(scratch, count * 2);
+                        }
+                        scratch[count++] = ((long)csr.getNumberOfNeighbors(
+                            next) << 32) | next;
+                    }
+                }
+                Arrays.sort(scratch, 0, count);
+                for (int i = 0; i < count; i++) {
+                    order[tail++] = (int)scratch[i];
+                }
+            }
+        }
+        for (int i = 0, j = n - 1; i < j; i++, j--) {
+            int temp = order[i];
+            order[i] = order[j];
+            order[j] = temp;
+        }
+        return order;
+    }
+}
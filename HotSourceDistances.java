@@ -0,0 +1,616 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Maintained distances from a few hot sources, profiles whose
+ * friendshipDistance to everyone is asked all the time, such as support
+ * accounts. For every source the distance to each id is kept in an array
+ * indexed by id, so a query from a source is a lookup.
+ *
+ * The arrays follow the graph:
+ *
+ * <pre>
+ * friendship created  if it shortens the distance of one side, a breadth
+ *                     first search from that side lowers the distances
+ *                     it improves, and stops where they do not change
+ * friendship removed  if the far side still has a neighbor one hop closer
+ *                     to the source nothing changes; otherwise the far
+ *                     side is noted for repair
+ * profile removed     a source that reached it is marked stale and
+ *                     rebuilt by the next query with a full search
+ * </pre>
+ *
+ * Creating friendships only ever shortens paths, so the incremental
+ * search touches only the ids whose distance drops. Removals are
+ * repaired lazily, by the next query or creation from that source,
+ * together for all removals since the last repair. The repair first
+ * finds the affected ids in the order of their old distance: an id is
+ * affected if no neighbor one hop closer is unaffected, and only the
+ * neighbors one hop further of an affected id can be affected. The
+ * affected ids then take their distance from their unaffected neighbors
+ * and pass it on among themselves. If a repair affects more than a
+ * quarter of the ids a full search is cheaper and is done instead.
+ *
+ * The index is not thread-safe and is updated by the thread that changes
+ * the network, like the graph itself.
+ *
+ * @author Kerem Bozgan kerembozgan
+ * @version 2022-11-11
+ */
+class HotSourceDistances implements IdRemapListener {
+
+    /** Returned by distance if the first id is not a source */
+    static final int NOT_SOURCE = -2;
+
+    /** Distance of ids that cannot be reached */
+    private static final int UNREACHED = Integer.MAX_VALUE;
+
+    /** Network whose ids are indexed */
+    private final VTConnect network;
+    /** Graph of the network, read for the searches */
+    private final GraphInterface<Integer> graph;
+    /** Distances of every source, by source id */
+    private final HashMap<Integer, Source> sources =
+        new HashMap<Integer, Source>();
+    /** Queue of the searches, reused */
+    private int[] queue = new int[1024];
+    /** Ids affected by a repair, reused */
+    private int[] affected = new int[1024];
+    /**
+     * State of each id in the current repair: 2 * epoch if affected,
+     * 2 * epoch + 1 if found unaffected, older values mean undecided
+     */
+    private int[] marks = new int[0];
+    private int epoch;
+
+    /** Counters for the statistics */
+    private long lookups;
+    private long incrementalUpdates;
+    private long lowered;
+    private long staleMarks;
+    private long rebuilds;
+    private long repairs;
+    private long repaired;
+
+    /**
+     * Distances of one source. Ids at or above the length of the array
+     * are not reached.
+     */
+    private static class Source {
+        int id;
+        int[] distance = new int[0];
+        boolean stale;
+        /** Ids that lost their last neighbor one hop closer */
+        int[] seeds = new int[8];
+        int seedCount;
+
+        Source(int id) {
+            this.id = id;
+        }
+
+
+        int get(int target) {
+            return target < distance.length ? distance[target] : UNREACHED;
+        }
+    }
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int changes = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        VTConnect network = new VTConnect();
+        Profile[] profiles = GraphGenerator.populate(network, n,
+            GraphGenerator.generate(GraphGenerator.BARABASI_ALBERT, n, 4,
+                new Random(42)));
+        Profile[] hot = { profiles[0], profiles[1], profiles[n / 2] };
+
+        // distances before the index, by breadth first search
+        Random random = new Random(7);
+        int queries = 200;
+        long start = System.nanoTime();
+        for (int i = 0; i < queries; i++) {
+            network.friendshipDistance(hot[i % hot.length], profiles[random
+                .nextInt(n)]);
+        }
+        double searchMicros = (System.nanoTime() - start) / 1e3 / queries;
+
+        HotSourceDistances index = network.enableHotSources();
+        for (Profile p : hot) {
+            network.addHotSource(p);
+        }
+        int mismatches = 0;
+        long lookupNanos = 0;
+        long lookupCount = 0;
+        start = System.nanoTime();
+        for (int c = 0; c < changes; c++) {
+            Profile a = profiles[random.nextInt(n)];
+            List<Profile> friends = network.getFriends(a);
+            if (random.nextInt(4) == 0 && !friends.isEmpty()) {
+                network.removeFriendship(a, friends.get(random.nextInt(
+                    friends.size())));
+            }
+            else {
+                network.createFriendship(a, profiles[random.nextInt(n)]);
+            }
+            for (int q = 0; q < 20; q++) {
+                Profile target = profiles[random.nextInt(n)];
+                long t = System.nanoTime();
+                network.friendshipDistance(hot[q % hot.length], target);
+                lookupNanos += System.nanoTime() - t;
+                lookupCount++;
+            }
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        // compare with searches that do not use the index
+        for (int i = 0; i < 300; i++) {
+            Profile source = hot[i % hot.length];
+            Profile target = profiles[random.nextInt(n)];
+            if (index.distance(source.id, target.id) != network
+                .friendshipDistance(source, target, new TraversalBudget())
+                .getValue()) {
+                mismatches++;
+            }
+        }
+        System.out.printf("%d friendship changes with %d queries in %.2f s"
+            + "%n", changes, lookupCount, elapsed);
+        System.out.printf("Breadth first search %.1f us, maintained lookup "
+            + "%.2f us on average%n", searchMicros, lookupNanos / 1e3
+                / lookupCount);
+        System.out.println(index.getStatistics());
+        System.out.println("Mismatches with breadth first search: "
+            + mismatches);
+    }
+
+
+    /**
+     * Initializes an index without sources.
+     *
+     * @param network
+     *            network whose ids are indexed
+     * @param graph
+     *            graph of the network
+     */
+    HotSourceDistances(VTConnect network, GraphInterface<Integer> graph) {
+        this.network = network;
+        this.graph = graph;
+    }
+
+
+    /**
+     * Starts maintaining the distances from an id, with a full search.
+     *
+     * @param source
+     *            id of a profile in the network
+     * @return false if the id is already a source
+     */
+    public boolean add(int source) {
+        if (sources.containsKey(source)) {
+            return false;
+        }
+        Source s = new Source(source);
+        rebuild(s);
+        sources.put(source, s);
+        return true;
+    }
+
+
+    /**
+     * Stops maintaining the distances from an id.
+     *
+     * @param source
+     *            id of a source
+     * @return false if the id is not a source
+     */
+    public boolean remove(int source) {
+        return sources.remove(source) != null;
+    }
+
+
+    /**
+     * Returns true if the distances from an id are maintained.
+     *
+     * @param id
+     *            id to check
+     * @return true if it is a source
+     */
+    public boolean isSource(int id) {
+        return sources.containsKey(id);
+    }
+
+
+    /**
+     * Returns the number of sources.
+     *
+     * @return number of sources
+     */
+    public int size() {
+        return sources.size();
+    }
+
+
+    /**
+     * Returns the distance from a source to an id, like
+     * VTConnect.friendshipDistance: -1 for the source itself and for ids
+     * that cannot be reached. A stale source is rebuilt and removals
+     * since the last query are repaired first.
+     *
+     * @param source
+     *            id of a source
+     * @param target
+     *            id of any profile
+     * @return distance, -1, or NOT_SOURCE if source is not a source
+     */
+    public int distance(int source, int target) {
+        Source s = sources.get(source);
+        if (s == null) {
+            return NOT_SOURCE;
+        }
+        if (s.stale) {
+            rebuild(s);
+        }
+        else if (s.seedCount > 0) {
+            repair(s, -1, -1);
+        }
+        lookups++;
+        int d = s.get(target);
+        return d == UNREACHED || target == source ? -1 : d;
+    }
+
+
+    /**
+     * Lowers the distances that a new friendship shortens.
+     *
+     * @param a
+     *            id of the first profile
+     * @param b
+     *            id of the second profile
+     */
+    public void friendshipCreated(int a, int b) {
+        for (Source s : sources.values()) {
+            if (s.stale) {
+                continue;
+            }
+            // lowering starts from the distances without the new
+            // friendship, so the repair must not see it yet
+            if (s.seedCount > 0) {
+                repair(s, a, b);
+            }
+            int da = s.get(a);
+            int db = s.get(b);
+            if (da != UNREACHED && da + 1 < db) {
+                lower(s, b, da + 1);
+            }
+            else if (db != UNREACHED && db + 1 < da) {
+                lower(s, a, db + 1);
+            }
+        }
+    }
+
+
+    /**
+     * Notes the ids whose distances a removed friendship may lengthen,
+     * for the next repair. Called after the friendship is taken out of
+     * the graph.
+     *
+     * @param a
+     *            id of the first profile
+     * @param b
+     *            id of the second profile
+     */
+    public void friendshipRemoved(int a, int b) {
+        for (Source s : sources.values()) {
+            if (s.stale) {
+                continue;
+            }
+            int da = s.get(a);
+            int db = s.get(b);
+            if (da == db) {
+                // not on a shortest path, or neither side reached
+                continue;
+            }
+            int far = da < db ? b : a;
+            if (!hasCloserNeighbor(s, far)) {
+                if (s.seedCount == s.seeds.length) {
+                    s.seeds = Arrays.copyOf(s.seeds, s.seedCount * 2);
+                }
+                s.seeds[s.seedCount++] = far;
+            }
+        }
+    }
+
+
+    /**
+     * Drops a removed profile as a source and marks the sources stale
+     * that reached it, since paths through it are gone.
+     *
+     * @param id
+     *            id of the removed profile
+     */
+    public void profileRemoved(int id) {
+        sources.remove(id);
+        for (Source s : sources.values()) {
+            if (!s.stale && s.get(id) != UNREACHED) {
+                s.stale = true;
+                staleMarks++;
+            }
+        }
+    }
+
+
+    /**
+     * Moves the distances to the new ids.
+     *
+     * @param oldToNew
+     *            array mapping each old id to its new id
+     * @param newBound
+     *            number of ids in use
+     */
+    @Override
+    public void idsRemapped(int[] oldToNew, int newBound) {
+        List<Source> all = new ArrayList<Source>(sources.values());
+        sources.clear();
+        for (Source s : all) {
+            int[] moved = new int[newBound];
+            Arrays.fill(moved, UNREACHED);
+            int length = Math.min(s.distance.length, oldToNew.length);
+            for (int old = 0; old < length; old++) {
+                if (oldToNew[old] >= 0) {
+                    moved[oldToNew[old]] = s.distance[old];
+                }
+            }
+            s.distance = moved;
+            for (int i = 0; i < s.seedCount; i++) {
+                s.seeds[i] = oldToNew[s.seeds[i]];
+            }
+            s.id = oldToNew[s.id];
+            sources.put(s.id, s);
+        }
+    }
+
+
+    /**
+     * Returns how often the distances were looked up, lowered, repaired
+     * and rebuilt.
+     *
+     * @return statistics as text
+     */
+    public String getStatistics() {
+        return String.format("sources %d, lookups %d, incremental updates "
+            + "%d, distances lowered %d, repairs %d, ids repaired %d, stale "
+            + "marks %d, rebuilds %d", sources.size(), lookups,
+            incrementalUpdates, lowered, repairs, repaired, staleMarks,
+            rebuilds);
+    }
+
+
+    /**
+     * Sees whether a vertex still has a neighbor one hop closer to the
+     * source than itself.
+     */
+    private boolean hasCloserNeighbor(Source s, int id) {
+        int d = s.get(id);
+        if (d == UNREACHED) {
+            return true;
+        }
+        if (d == 0) {
+            return true;
+        }
+        VertexInterface<Integer> vertex = graph.getVertex(id);
+        if (vertex == null) {
+            return false;
+        }
+        int count = vertex.getNumberOfNeighbors();
+        for (int i = 0; i < count; i++) {
+            if (s.get(vertex.getNeighbor(i).getLabel()) == d - 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Gives an id a smaller distance and searches onwards from it while
+     * the distances keep dropping.
+     */
+    private void lower(Source s, int start, int d) {
+        incrementalUpdates++;
+        ensureCapacity(s, network.getIdBound());
+        s.distance[start] = d;
+        lowered++;
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = start;
+        while (head < tail) {
+            int id = queue[head++];
+            int next = s.distance[id] + 1;
+            VertexInterface<Integer> vertex = graph.getVertex(id);
+            int count = vertex.getNumberOfNeighbors();
+            for (int i = 0; i < count; i++) {
+                int neighbor = vertex.getNeighbor(i).getLabel();
+                if (next < s.distance[neighbor]) {
+                    s.distance[neighbor] = next;
+                    lowered++;
+                    if (tail == queue.length) {
+                        queue = Arrays.copyOf(queue, queue.length * 2);
+                    }
+                    queue[tail++] = neighbor;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Repairs the distances after the removals noted in the seeds, as if
+     * the friendship of a and b, if any, were not there.
+     */
+    private void repair(Source s, int a, int b) {
+        repairs++;
+        int bound = network.getIdBound();
+        ensureCapacity(s, bound);
+        if (marks.length < bound) {
+            marks = new int[Math.max(bound, marks.length * 2)];
+            epoch = 0;
+        }
+        epoch++;
+        int isAffected = 2 * epoch;
+        int limit = Math.max(1024, bound / 4);
+
+        // affected ids, in the order of their old distance, so the
+        // neighbors one hop closer are decided before an id is
+        PriorityQueue<Long> candidates = new PriorityQueue<Long>();
+        for (int i = 0; i < s.seedCount; i++) {
+            candidates.add(key(s.distance[s.seeds[i]], s.seeds[i]));
+        }
+        s.seedCount = 0;
+        int count = 0;
+        while (!candidates.isEmpty()) {
+            int id = (int)(long)candidates.poll();
+            if (marks[id] >= isAffected) {
+                continue;
+            }
+            int d = s.distance[id];
+            VertexInterface<Integer> vertex = graph.getVertex(id);
+            int degree = vertex.getNumberOfNeighbors();
+            boolean kept = false;
+            for (int i = 0; i < degree && !kept; i++) {
+                int neighbor = vertex.getNeighbor(i).getLabel();
+                kept = s.distance[neighbor] == d - 1
+                    && marks[neighbor] != isAffected && !isEdge(id, neighbor,
+                        a, b);
+            }
+            if (kept) {
+                marks[id] = isAffected + 1;
+                continue;
+            }
+            marks[id] = isAffected;
+            if (count == limit) {
+                rebuild(s);
+                return;
+            }
+            if (count == affected.length) {
+                affected = Arrays.copyOf(affected, count * 2);
+            }
+            affected[count++] = id;
+            for (int i = 0; i < degree; i++) {
+                int neighbor = vertex.getNeighbor(i).getLabel();
+                if (s.distance[neighbor] == d + 1
+                    && marks[neighbor] < isAffected && !isEdge(id, neighbor,
+                        a, b)) {
+                    candidates.add(key(d + 1, neighbor));
+                }
+            }
+        }
+        repaired += count;
+
+        // distances from the unaffected neighbors, then passed on among
+        // the affected ids, shortest first
+        PriorityQueue<Long> settle = new PriorityQueue<Long>();
+        for (int k = 0; k < count; k++) {
+            int id = affected[k];
+            VertexInterface<Integer> vertex = graph.getVertex(id);
+            int degree = vertex.getNumberOfNeighbors();
+            int best = UNREACHED;
+            for (int i = 0; i < degree; i++) {
+                int neighbor = vertex.getNeighbor(i).getLabel();
+                if (marks[neighbor] != isAffected && s.distance[neighbor]
+                    < best - 1 && !isEdge(id, neighbor, a, b)) {
+                    best = s.distance[neighbor] + 1;
+                }
+            }
+            s.distance[id] = best;
+            if (best != UNREACHED) {
+                settle.add(key(best, id));
+            }
+        }
+        while (!settle.isEmpty()) {
+            long next = settle.poll();
+            int id = (int)next;
+            int d = (int)(next >>> 32);
+            if (d != s.distance[id]) {
+                continue;
+            }
+            VertexInterface<Integer> vertex = graph.getVertex(id);
+            int degree = vertex.getNumberOfNeighbors();
+            for (int i = 0; i < degree; i++) {
+                int neighbor = vertex.getNeighbor(i).getLabel();
+                if (marks[neighbor] == isAffected && d + 1 < s
+                    .distance[neighbor] && !isEdge(id, neighbor, a, b)) {
+                    s.distance[neighbor] = d + 1;
+                    settle.add(key(d + 1, neighbor));
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Returns true if two ids are the ends of the friendship of a and b.
+     */
+    private static boolean isEdge(int id, int neighbor, int a, int b) {
+        return id == a && neighbor == b || id == b && neighbor == a;
+    }
+
+
+    /**
+     * Orders ids by distance first.
+     */
+    private static long key(int distance, int id) {
+        return (long)distance << 32 | id;
+    }
+
+
+    /**
+     * Finds all distances of a source again.
+     */
+    private void rebuild(Source s) {
+        rebuilds++;
+        s.seedCount = 0;
+        int bound = network.getIdBound();
+        if (s.distance.length < bound) {
+            s.distance = new int[bound];
+        }
+        Arrays.fill(s.distance, UNREACHED);
+        s.stale = false;
+        if (graph.getVertex(s.id) == null) {
+            return;
+        }
+        s.distance[s.id] = 0;
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = s.id;
+        while (head < tail) {
+            int id = queue[head++];
+            int next = s.distance[id] + 1;
+            VertexInterface<Integer> vertex = graph.getVertex(id);
+            int count = vertex.getNumberOfNeighbors();
+            for (int i = 0; i < count; i++) {
+                int neighbor = vertex.getNeighbor(i).getLabel();
+                if (s.distance[neighbor] == UNREACHED) {
+                    s.distance[neighbor] = next;
+                    if (tail == queue.length) {
+                        queue = Arrays.copyOf(queue, queue.length * 2);
+                    }
+                    queue[tail++] = neighbor;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Grows the distances of a source to cover the ids below a bound.
+     */
+    private static void ensureCapacity(Source s, int bound) {
+        if (s.distance.length < bound) {
+            int old = s.distance.length;
+            s.distance = Arrays.copyOf(s.distance, Math.max(bound, old * 2));
+            Arrays.fill(s.distance, old, s.distance.length, UNREACHED);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+import java.util.BitSet;
+
+/**
+ * Hands out integer ids for the vertices of a social network. Ids of
+ * removed users are recycled, lowest id first, so the ids in use stay
+ * close to the range [0, number of users) and structures indexed by id
+ * do not keep growing.
+ *
+ * @author Kerem Bozgan kerembozgan
+ * @version 2022-11-11
+ */
+class IdAllocator {
+
+    /** Ids below the bound that are currently free */
+    private BitSet freeIds;
+
+    /** Every id in use is smaller than this bound */
+    private int bound;
+
+    /**
+     * Initializes an allocator with no ids in use.
+     */
+    IdAllocator() {
+        freeIds = new BitSet();
+        bound = 0;
+    }
+
+
+    /**
+     * Returns the lowest free id and marks it as used.
+     *
+     * @return allocated id
+     */
+    public int allocate() {
+        int id = freeIds.nextSetBit(0);
+        if (id < 0) {
+            return bound++;
+        }
+        freeIds.clear(id);
+        return id;
+    }
+
+
+    /**
+     * Marks a given id as used, as when a copy of a network is rebuilt
+     * with the ids of the original. Ids skipped below it become free.
+     *
+     * @param id
+     *            id to allocate, not negative
+     * @return true if the id was free
+     */
+    public boolean allocate(int id) {
+        if (id >= bound) {
+            freeIds.set(bound, id);
+            bound = id + 1;
+            return true;
+        }
+        if (id < 0 || !freeIds.get(id)) {
+            return false;
+        }
+        freeIds.clear(id);
+        return true;
+    }
+
+
+    /**
+     * Marks the given id as free so that it can be allocated again. If the
+     * id is the highest one in use, the bound shrinks instead.
+     *
+     * @param id
+     *            id to release
+     */
+    public void release(int id) {
+        if (id < 0 || id >= bound || freeIds.get(id)) {
+            return;
+        }
+        if (id == bound - 1) {
+            bound--;
+            // drop free ids that are now at the top of the range
+            while (bound > 0 && freeIds.get(bound - 1)) {
+                freeIds.clear(bound - 1);
+                bound--;
+            }
+        }
+        else {
+            freeIds.set(id);
+        }
+    }
+
+
+    /**
+     * Returns the bound of the ids in use. Arrays indexed by id need this
+     * many slots.
+     *
+     * @return one more than the highest id in use
+     */
+    public int getBound() {
+        return bound;
+    }
+
+
+    /**
+     * Returns the number of ids in use.
+     *
+     * @return number of ids in use
+     */
+    public int size() {
+        return bound - freeIds.cardinality();
+    }
+
+
+    /**
+     * Returns true if the ids in use are exactly [0, bound).
+     *
+     * @return true if there are no free ids below the bound
+     */
+    public boolean isDense() {
+        return freeIds.isEmpty();
+    }
+
+
+    /**
+     * Computes a renumbering that makes the ids in use dense. Ids that are
+     * already below the new bound keep their value and the ids above it
+     * are moved into the free slots, so as few ids as possible change.
+     *
+     * @return array mapping each old id to its new id, -1 for free ids
+     */
+    public int[] compactionMap() {
+        int[] oldToNew = new int[bound];
+        int newBound = size();
+        int hole = freeIds.nextSetBit(0);
+        for (int id = 0; id < bound; id++) {
+            if (freeIds.get(id)) {
+                oldToNew[id] = -1;
+            }
+            else if (id < newBound) {
+                oldToNew[id] = id;
+            }
+            else {
+                oldToNew[id] = hole;
+                hole = freeIds.nextSetBit(hole + 1);
+            }
+        }
+        return oldToNew;
+    }
+
+
+    /**
+     * Marks the ids [0, count) as used and everything else as free. Called
+     * after the ids have been renumbered with compactionMap().
+     *
+     * @param count
+     *            number of ids in use
+     */
+    public void reset(int count) {
+        freeIds.clear();
+        bound = count;
+    }
+}
@@ -0,0 +1,21 @@
+/**
+ * Listener for structures that are indexed by the ids of a VTConnect
+ * network, such as caches and array snapshots of the graph. It is told
+ * when the network renumbers its ids so it can move its entries along.
+ *
+ * @author Kerem Bozgan kerembozgan
+ * @version 2022-11-11
+ */
+interface IdRemapListener {
+
+    /**
+     * Called after the network has renumbered its ids. Entries of old id
+     * i move to id oldToNew[i]; ids mapped to -1 were not in use.
+     *
+     * @param oldToNew
+     *            array mapping each old id to its new id
+     * @param newBound
+     *            number of ids in use, all new ids are below it
+     */
+    public void idsRemapped(int[] oldToNew, int newBound);
+}
@@ -0,0 +1,220 @@
+import java.util.Arrays;
+
+/**
+ * Histogram of latencies in nanoseconds with logarithmic buckets. Values
+ * below 64 have a bucket each; above that every power of two is split in
+ * 32 buckets, so a reported percentile is within about 3% of the real
+ * value. Recording is a few arithmetic operations and an array increment,
+ * and never allocates.
+ *
+ * A histogram is meant to be written by one thread. Histograms of
+ * several threads are combined with add; ConcurrentHistogram records
+ * into the same buckets from any number of threads.
+ *
+ * @author Kerem Bozgan kerembozgan
+ * @version 2022-11-11
+ */
+class LatencyHistogram {
+
+    /** Number of bits below the leading one that select a sub-bucket */
+    private static final int SUB_BITS = 5;
+    /** Number of sub-buckets per power of two */
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    /** Number of buckets, enough for every non-negative long */
+    static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+    /** Count of recorded values per bucket */
+    private final long[] counts = new long[BUCKETS];
+
+    /** Number of recorded values */
+    private long totalCount;
+    /** Sum of recorded values */
+    private long totalSum;
+    /** Smallest and largest recorded value */
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    /**
+     * Records one value. Negative values are recorded as zero.
+     *
+     * @param value
+     *            latency in nanoseconds
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts[bucketOf(value)]++;
+        totalCount++;
+        totalSum += value;
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+    }
+
+
+    /**
+     * Adds all values of another histogram to this one.
+     *
+     * @param other
+     *            histogram to add
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        totalSum += other.totalSum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+
+    /**
+     * Adds values that were recorded elsewhere with the same buckets, as
+     * ConcurrentHistogram does.
+     *
+     * @param bucketCounts
+     *            count per bucket, BUCKETS entries
+     * @param sum
+     *            sum of the values
+     * @param minValue
+     *            smallest value
+     * @param maxValue
+     *            largest value
+     */
+    void addRecorded(
+        long[] bucketCounts,
+        long sum,
+        long minValue,
+        long maxValue) {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += bucketCounts[i];
+            count += bucketCounts[i];
+        }
+        if (count == 0) {
+            return;
+        }
+        totalCount += count;
+        totalSum += sum;
+        min = Math.min(min, minValue);
+        max = Math.max(max, maxValue);
+    }
+
+
+    /**
+     * Forgets all recorded values.
+     */
+    public void reset() {
+        Arrays.fill(counts, 0);
+        totalCount = 0;
+        totalSum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+
+    /**
+     * Returns the number of recorded values.
+     *
+     * @return count of values
+     */
+    public long getCount() {
+        return totalCount;
+    }
+
+
+    /**
+     * Returns the sum of the recorded values.
+     *
+     * @return sum of the values
+     */
+    public long getSum() {
+        return totalSum;
+    }
+
+
+    /**
+     * Returns the mean of the recorded values, 0 if there are none.
+     *
+     * @return mean in nanoseconds
+     */
+    public double getMean() {
+        return totalCount == 0 ? 0 : (double)totalSum / totalCount;
+    }
+
+
+    /**
+     * Returns the largest recorded value, 0 if there are none.
+     *
+     * @return maximum in nanoseconds
+     */
+    public long getMax() {
+        return max;
+    }
+
+
+    /**
+     * Returns the smallest recorded value, 0 if there are none.
+     *
+     * @return minimum in nanoseconds
+     */
+    public long getMin() {
+        return totalCount == 0 ? 0 : min;
+    }
+
+
+    /**
+     * Returns the value below or at which the given percentage of the
+     * recorded values fall. The result is the upper end of the bucket, so
+     * it never understates a latency.
+     *
+     * @param percentile
+     *            percentage between 0 and 100
+     * @return value in nanoseconds, 0 if nothing is recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        long rank = (long)Math.ceil(percentile / 100.0 * totalCount);
+        rank = Math.max(1, Math.min(totalCount, rank));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.max(min, Math.min(max, upperBound(i)));
+            }
+        }
+        return max;
+    }
+
+
+    /**
+     * Returns the bucket of a non-negative value.
+     */
+    static int bucketOf(long value) {
+        if (value < 2 * SUB_COUNT) {
+            return (int)value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB_COUNT + (int)(value >>> shift) - SUB_COUNT;
+    }
+
+
+    /**
+     * Returns the largest value that falls in a bucket.
+     */
+    private static long upperBound(int bucket) {
+        if (bucket < 2 * SUB_COUNT) {
+            return bucket;
+        }
+        int shift = bucket / SUB_COUNT - 1;
+        long sub = bucket % SUB_COUNT + SUB_COUNT;
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,319 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Replays a mix of VTConnect operations against a generated network at a
+ * fixed rate and reports their latencies. The driver is open loop: a
+ * request is started at its scheduled time on a virtual thread of its
+ * own, whether or not the earlier ones have finished, as requests from
+ * independent users would be. So when the network cannot keep up the
+ * requests queue and the response times show it.
+ *
+ * VTConnect is not thread safe, so the requests take turns through one
+ * lock. Two latencies are reported per operation: the response time from
+ * the scheduled start, which includes waiting for the lock, and the
+ * service time, which is the time the operation itself held the lock.
+ *
+ * Options, each followed by a value:
+ *
+ * <pre>
+ * --model       graph model of GraphGenerator, default ba
+ * --users       number of generated profiles, default 100000
+ * --degree      average degree, default 16
+ * --seed        seed of the graph and of the request sequence, default 42
+ * --rate        requests per second, default 200
+ * --duration    seconds of load, default 10
+ * --mix         weights of the operations, default
+ *               addUser=2,createFriendship=18,friendshipDistance=30,
+ *               friendSuggestion=50
+ * --max-in-flight requests that may wait at once, further requests are
+ *               dropped and counted, default 10000
+ * --metrics     file or URL the VTConnect metrics are exported to every
+ *               second, as JSON if it is a URL or ends with .json
+ * --cache       megabytes of the result cache of the network, default 0
+ *               for no cache
+ * </pre>
+ *
+ * After the run the metrics of the network are printed as well, with the
+ * vertices visited and edges scanned per traversal.
+ *
+ * addUser compares the new profile with every existing one, so on large
+ * networks it holds the lock for a long time; keep its weight low.
+ *
+ * @author Kerem Bozgan kerembozgan
+ * @version 2022-11-11
+ */
+class LoadDriver {
+
+    /** Operations in the mix */
+    static final String[] OPERATIONS = { "addUser", "createFriendship",
+        "friendshipDistance", "friendSuggestion" };
+
+    /** Network under load and its profiles, guarded by lock */
+    private final VTConnect network;
+    private final ArrayList<Profile> users;
+    private final ReentrantLock lock = new ReentrantLock();
+    /** Number of profiles added by the driver, for unique names */
+    private int added;
+
+    /** Latencies per operation, guarded by the histogram itself */
+    private final LatencyHistogram[] response =
+        new LatencyHistogram[OPERATIONS.length];
+    private final LatencyHistogram[] service =
+        new LatencyHistogram[OPERATIONS.length];
+    /** Requests dropped per operation */
+    private final AtomicLongArray dropped = new AtomicLongArray(
+        OPERATIONS.length);
+    /** Requests started and not yet finished */
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    public static void main(String[] args) {
+        HashMap<String, String> options = new HashMap<String, String>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unknown argument: "
+                    + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        String model = options.getOrDefault("model",
+            GraphGenerator.BARABASI_ALBERT);
+        int n = Integer.parseInt(options.getOrDefault("users", "100000"));
+        int degree = Integer.parseInt(options.getOrDefault("degree", "16"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "42"));
+        double rate = Double.parseDouble(options.getOrDefault("rate", "200"));
+        double duration = Double.parseDouble(options.getOrDefault("duration",
+            "10"));
+        int[] weights = parseMix(options.getOrDefault("mix",
+            "addUser=2,createFriendship=18,friendshipDistance=30,"
+                + "friendSuggestion=50"));
+        int maxInFlight = Integer.parseInt(options.getOrDefault(
+            "max-in-flight", "10000"));
+
+        long start = System.nanoTime();
+        VTConnect network = new VTConnect();
+        Profile[] profiles = GraphGenerator.populate(network, n,
+            GraphGenerator.generate(model, n, degree, new Random(seed)));
+        System.out.printf("Generated %s network of %d users in %.0f ms%n",
+            model, n, (System.nanoTime() - start) / 1e6);
+
+        int cacheMegabytes = Integer.parseInt(options.getOrDefault("cache",
+            "0"));
+        if (cacheMegabytes > 0) {
+            network.enableResultCache(cacheMegabytes * 1048576L);
+        }
+
+        VTConnectMetrics metrics = network.enableMetrics();
+        String target = options.get("metrics");
+        if (target != null) {
+            metrics.startExport(1000, target, target.endsWith(".json"));
+        }
+
+        LoadDriver driver = new LoadDriver(network, profiles);
+        System.out.printf("Running %.0f requests per second for %.0f s%n",
+            rate, duration);
+        driver.run(rate, duration, weights, maxInFlight, new Random(seed
+            + 1));
+        driver.report(duration);
+        metrics.stopExport();
+        System.out.println();
+        System.out.print(metrics.snapshot(false).toText());
+        if (network.getResultCache() != null) {
+            System.out.println("Result cache: " + network.getResultCache()
+                .getStatistics());
+        }
+    }
+
+
+    /**
+     * Initializes a driver for a populated network.
+     *
+     * @param network
+     *            network under load
+     * @param profiles
+     *            profiles of the network
+     */
+    LoadDriver(VTConnect network, Profile[] profiles) {
+        this.network = network;
+        this.users = new ArrayList<Profile>(Arrays.asList(profiles));
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            response[i] = new LatencyHistogram();
+            service[i] = new LatencyHistogram();
+        }
+    }
+
+
+    /**
+     * Starts requests at the given rate until the duration is over, then
+     * waits for the started ones to finish. The sequence of operations and
+     * of their arguments depends only on the random source.
+     *
+     * @param rate
+     *            requests per second
+     * @param duration
+     *            seconds of load
+     * @param weights
+     *            weight of each operation in OPERATIONS
+     * @param maxInFlight
+     *            requests that may be waiting at once
+     * @param random
+     *            source of the request sequence
+     */
+    void run(
+        double rate,
+        double duration,
+        int[] weights,
+        int maxInFlight,
+        Random random) {
+        int totalWeight = 0;
+        for (int weight : weights) {
+            totalWeight += weight;
+        }
+        long interval = (long)(1e9 / rate);
+        long start = System.nanoTime();
+        long end = start + (long)(duration * 1e9);
+        try (ExecutorService executor = Executors
+            .newVirtualThreadPerTaskExecutor()) {
+            for (long i = 0;; i++) {
+                long scheduled = start + i * interval;
+                if (scheduled >= end) {
+                    break;
+                }
+                int pick = random.nextInt(totalWeight);
+                int operation = 0;
+                while (pick >= weights[operation]) {
+                    pick -= weights[operation++];
+                }
+                long argumentSeed = random.nextLong();
+
+                long wait = scheduled - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                if (inFlight.get() >= maxInFlight) {
+                    dropped.incrementAndGet(operation);
+                    continue;
+                }
+                inFlight.incrementAndGet();
+                int op = operation;
+                executor.execute(() -> request(op, argumentSeed, scheduled));
+            }
+        }
+    }
+
+
+    /**
+     * Performs one request and records its latencies.
+     *
+     * @param operation
+     *            index in OPERATIONS
+     * @param argumentSeed
+     *            seed that picks the profiles of the request
+     * @param scheduled
+     *            time the request was due to start
+     */
+    private void request(int operation, long argumentSeed, long scheduled) {
+        Random random = new Random(argumentSeed);
+        long serviceStart;
+        long done;
+        lock.lock();
+        try {
+            serviceStart = System.nanoTime();
+            perform(operation, random);
+            done = System.nanoTime();
+        }
+        finally {
+            lock.unlock();
+        }
+        synchronized (response[operation]) {
+            response[operation].record(done - scheduled);
+            service[operation].record(done - serviceStart);
+        }
+        inFlight.decrementAndGet();
+    }
+
+
+    /**
+     * Calls the network for one request, with the lock held.
+     */
+    private void perform(int operation, Random random) {
+        Profile a = users.get(random.nextInt(users.size()));
+        Profile b = users.get(random.nextInt(users.size()));
+        switch (OPERATIONS[operation]) {
+            case "addUser":
+                Profile p = new Profile("load" + added++, "Hello.");
+                network.addUser(p);
+                users.add(p);
+                break;
+            case "createFriendship":
+                network.createFriendship(a, b);
+                break;
+            case "friendshipDistance":
+                network.friendshipDistance(a, b);
+                break;
+            case "friendSuggestion":
+                network.friendSuggestion(a);
+                break;
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+
+    /**
+     * Prints the latencies of each operation in milliseconds.
+     *
+     * @param duration
+     *            seconds of load
+     */
+    void report(double duration) {
+        System.out.printf("%-18s %8s %7s %8s %8s %8s %8s %8s %8s %8s%n",
+            "operation", "count", "dropped", "ops/s", "p50 ms", "p90 ms",
+            "p99 ms", "p99.9 ms", "max ms", "svc p99");
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            LatencyHistogram h = response[i];
+            synchronized (h) {
+                System.out.printf("%-18s %8d %7d %8.1f %8.2f %8.2f %8.2f "
+                    + "%8.2f %8.2f %8.2f%n", OPERATIONS[i], h.getCount(),
+                    dropped.get(i), h.getCount() / duration, millis(h, 50),
+                    millis(h, 90), millis(h, 99), millis(h, 99.9), h.getMax()
+                        / 1e6, millis(service[i], 99));
+            }
+        }
+    }
+
+
+    /**
+     * Returns a percentile of a histogram in milliseconds.
+     */
+    private static double millis(LatencyHistogram h, double percentile) {
+        return h.getValueAtPercentile(percentile) / 1e6;
+    }
+
+
+    /**
+     * Parses a mix such as addUser=2,friendSuggestion=50 into a weight
+     * per operation. Operations not named get weight zero.
+     */
+    private static int[] parseMix(String mix) {
+        int[] weights = new int[OPERATIONS.length];
+        for (String part : mix.split(",")) {
+            String[] pair = part.split("=");
+            int index = Arrays.asList(OPERATIONS).indexOf(pair[0].trim());
+            if (index < 0 || pair.length != 2) {
+                throw new IllegalArgumentException("Unknown mix entry: "
+                    + part);
+            }
+            weights[index] = Integer.parseInt(pair[1].trim());
+        }
+        return weights;
+    }
+}
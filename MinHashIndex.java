@@ -0,0 +1,615 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Locality sensitive hashing of the friend sets of a VTConnect, to find
+ * profiles with a similar network, such as duplicate accounts, without
+ * comparing all pairs.
+ *
+ * Every id with friends has a MinHash signature of bands * rows ints:
+ * value i is the smallest hash i of its friend ids. Two profiles agree
+ * on a value with probability equal to the Jaccard similarity s of their
+ * friend sets. The signature is cut into bands of rows values and each
+ * band is a key into a table of its own, so two profiles meet in some
+ * bucket with probability 1 - (1 - s^rows)^bands. That is an S-curve
+ * that rises around (1 / bands)^(1 / rows): more rows make the index
+ * more precise, more bands give it more recall.
+ *
+ * A query collects the profiles that share a bucket with the profile and
+ * estimates their similarity by the fraction of equal signature values,
+ * so its cost depends on the bucket sizes and not on the number of
+ * profiles.
+ *
+ * The signatures are built in parallel, one range of ids per task, and
+ * the tables in parallel, one band per task. After that they follow the
+ * network: the minimum of a union is the smaller of the minima, so a new
+ * friendship lowers the values of both sides in O(bands * rows) and
+ * moves them to new buckets in the bands that changed. A removed
+ * friendship or profile cannot be taken back out of a minimum, so the
+ * signatures of the profiles that lost a friend are computed again from
+ * their friends.
+ *
+ * The index is not thread-safe and is updated by the thread that changes
+ * the network, like the graph itself.
+ *
+ * @author Kerem Bozgan kerembozgan
+ * @version 2022-11-11
+ */
+class MinHashIndex implements IdRemapListener {
+
+    /** Shape used when the index is enabled by similarUsers */
+    static final int DEFAULT_BANDS = 32;
+    static final int DEFAULT_ROWS = 4;
+    /** Value of a signature without friends */
+    private static final int EMPTY = Integer.MAX_VALUE;
+
+    /** Network whose friend sets are indexed */
+    private final VTConnect network;
+    /** Graph of the network, read for the friend sets */
+    private final GraphInterface<Integer> graph;
+    private final int bands;
+    private final int rows;
+    /** Number of values of a signature, bands * rows */
+    private final int length;
+    /** Seed of each hash function */
+    private final int[] seeds;
+    /** Signatures, length values per id */
+    private int[] signatures = new int[0];
+    /** Buckets of each band, by the key of the band */
+    private final List<HashMap<Long, Bucket>> tables;
+
+    /** Counters for the statistics */
+    private long queries;
+    private long candidatesSeen;
+    private long lowered;
+    private long recomputed;
+
+    /**
+     * Ids whose band has the same key.
+     */
+    private static class Bucket {
+        int[] ids = new int[2];
+        int size;
+
+        void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+
+
+        void remove(int id) {
+            for (int i = 0; i < size; i++) {
+                if (ids[i] == id) {
+                    ids[i] = ids[--size];
+                    return;
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int clones = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        int threads = args.length > 2
+            ? Integer.parseInt(args[2])
+            : Runtime.getRuntime().availableProcessors();
+        VTConnect network = new VTConnect();
+        Profile[] profiles = GraphGenerator.populate(network, n,
+            GraphGenerator.generate(GraphGenerator.BARABASI_ALBERT, n, 8,
+                new Random(42)));
+
+        int[][] shapes = { { 16, 8 }, { 32, 4 }, { 64, 2 } };
+        for (int[] shape : shapes) {
+            long start = System.nanoTime();
+            MinHashIndex index = network.enableMinHash(shape[0], shape[1],
+                threads);
+            double buildSeconds = (System.nanoTime() - start) / 1e9;
+
+            // accounts that copy most friends of an original, added
+            // after the build so their signatures are kept up by
+            // createFriendship
+            Random random = new Random(7);
+            Profile[] originals = new Profile[clones];
+            Profile[] copies = new Profile[clones];
+            for (int c = 0; c < clones; c++) {
+                do {
+                    originals[c] = profiles[random.nextInt(n)];
+                }
+                while (network.getNumberOfFriends(originals[c]) < 10);
+                copies[c] = new Profile("clone" + c, "");
+                network.addUser(copies[c]);
+                for (Profile friend : network.getFriends(originals[c])) {
+                    if (random.nextInt(10) > 0) {
+                        network.createFriendship(copies[c], friend);
+                    }
+                }
+                network.createFriendship(copies[c], profiles[random.nextInt(
+                    n)]);
+            }
+
+            int found = 0;
+            start = System.nanoTime();
+            for (int c = 0; c < clones; c++) {
+                List<Profile> similar = network.similarUsers(copies[c], 10,
+                    0.5);
+                if (similar.contains(originals[c])) {
+                    found++;
+                }
+            }
+            double queryMicros = (System.nanoTime() - start) / 1e3 / clones;
+            System.out.printf("%d bands x %d rows (threshold %.2f): build "
+                + "%.2f s, recall %.1f%%, %.1f us and %.1f candidates per "
+                + "query%n", shape[0], shape[1], Math.pow(1.0 / shape[0], 1.0
+                    / shape[1]), buildSeconds, 100.0 * found / clones,
+                queryMicros, (double)index.candidatesSeen / index.queries);
+            if (shape == shapes[1]) {
+                System.out.println("Incremental signatures equal a rebuild: "
+                    + index.matchesRebuild());
+                // the exact scan that the index replaces
+                start = System.nanoTime();
+                List<Profile> everyone = new ArrayList<Profile>(Arrays.asList(
+                    profiles));
+                network.similarities(copies[0], everyone,
+                    NeighborSimilarity.JACCARD);
+                System.out.printf("Exact Jaccard against all %d profiles: "
+                    + "%.1f ms per query%n", n, (System.nanoTime() - start)
+                        / 1e6);
+            }
+            network.removeUsers(Arrays.asList(copies));
+            network.disableMinHash();
+        }
+    }
+
+
+    /**
+     * Builds the signatures and tables of a network.
+     *
+     * @param network
+     *            network to index
+     * @param graph
+     *            graph of the network
+     * @param bands
+     *            number of bands
+     * @param rows
+     *            values per band
+     * @param threads
+     *            number of threads for the build
+     */
+    MinHashIndex(
+        VTConnect network,
+        GraphInterface<Integer> graph,
+        int bands,
+        int rows,
+        int threads) {
+        if (bands < 1 || rows < 1) {
+            throw new IllegalArgumentException("Need a band of a row");
+        }
+        this.network = network;
+        this.graph = graph;
+        this.bands = bands;
+        this.rows = rows;
+        this.length = bands * rows;
+        seeds = new int[length];
+        Random random = new Random(0x5EED);
+        for (int i = 0; i < length; i++) {
+            seeds[i] = random.nextInt();
+        }
+        tables = new ArrayList<HashMap<Long, Bucket>>(bands);
+        for (int band = 0; band < bands; band++) {
+            tables.add(new HashMap<Long, Bucket>());
+        }
+
+        int bound = network.getIdBound();
+        signatures = new int[bound * length];
+        int chunk = 1024;
+        runParallel(threads, (bound + chunk - 1) / chunk, task -> {
+            int end = Math.min(bound, (task + 1) * chunk);
+            for (int id = task * chunk; id < end; id++) {
+                compute(id);
+            }
+        });
+        runParallel(threads, bands, band -> {
+            HashMap<Long, Bucket> table = tables.get(band);
+            for (int id = 0; id < bound; id++) {
+                if (signatures[id * length] != EMPTY) {
+                    table.computeIfAbsent(key(id, band), k -> new Bucket())
+                        .add(id);
+                }
+            }
+        });
+    }
+
+
+    /**
+     * Returns the profiles that share a bucket with an id, most similar
+     * first by the estimate of the signatures.
+     *
+     * @param id
+     *            id of a profile in the network
+     * @param max
+     *            largest number of ids returned
+     * @param minEstimate
+     *            smallest estimated Jaccard similarity returned
+     * @return ids of the candidates
+     */
+    public int[] candidates(int id, int max, double minEstimate) {
+        queries++;
+        if (id >= capacity() || signatures[id * length] == EMPTY) {
+            return new int[0];
+        }
+        BreadthFirstCursor.IntHashSet seen =
+            new BreadthFirstCursor.IntHashSet();
+        seen.add(id);
+        List<long[]> found = new ArrayList<long[]>();
+        for (int band = 0; band < bands; band++) {
+            Bucket bucket = tables.get(band).get(key(id, band));
+            for (int i = 0; bucket != null && i < bucket.size; i++) {
+                int other = bucket.ids[i];
+                if (!seen.add(other)) {
+                    continue;
+                }
+                candidatesSeen++;
+                int equal = equalValues(id, other);
+                if (equal >= minEstimate * length) {
+                    found.add(new long[] { equal, other });
+                }
+            }
+        }
+        found.sort((x, y) -> x[0] != y[0]
+            ? Long.compare(y[0], x[0])
+            : Long.compare(x[1], y[1]));
+        int[] ids = new int[Math.min(max, found.size())];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = (int)found.get(i)[1];
+        }
+        return ids;
+    }
+
+
+    /**
+     * Returns the Jaccard similarity of two ids estimated from their
+     * signatures.
+     *
+     * @param a
+     *            first id
+     * @param b
+     *            second id
+     * @return fraction of equal values, 0 if an id has no friends
+     */
+    public double estimate(int a, int b) {
+        if (a >= capacity() || b >= capacity() || signatures[a
+            * length] == EMPTY || signatures[b * length] == EMPTY) {
+            return 0;
+        }
+        return (double)equalValues(a, b) / length;
+    }
+
+
+    /**
+     * Lowers the signatures of both sides of a new friendship.
+     *
+     * @param a
+     *            id of the first profile
+     * @param b
+     *            id of the second profile
+     */
+    public void friendshipCreated(int a, int b) {
+        ensureCapacity(Math.max(a, b) + 1);
+        lower(a, b);
+        lower(b, a);
+    }
+
+
+    /**
+     * Computes the signatures of both sides of a removed friendship
+     * again. Called after the friendship is taken out of the graph.
+     *
+     * @param a
+     *            id of the first profile
+     * @param b
+     *            id of the second profile
+     */
+    public void friendshipRemoved(int a, int b) {
+        recomputeIndexed(a);
+        recomputeIndexed(b);
+    }
+
+
+    /**
+     * Drops a removed profile and computes the signatures of its friends
+     * again. Called after the profile is taken out of the graph.
+     *
+     * @param id
+     *            id of the removed profile
+     * @param friends
+     *            ids of its friends
+     */
+    public void profileRemoved(int id, int[] friends) {
+        if (id < capacity()) {
+            unindex(id);
+            Arrays.fill(signatures, id * length, (id + 1) * length, EMPTY);
+        }
+        for (int friend : friends) {
+            recomputeIndexed(friend);
+        }
+    }
+
+
+    /**
+     * Computes the signatures and fills the tables again. The values are
+     * hashes of the friend ids, so they change with the ids and cannot
+     * simply be moved.
+     *
+     * @param oldToNew
+     *            array mapping each old id to its new id
+     * @param newBound
+     *            number of ids in use
+     */
+    @Override
+    public void idsRemapped(int[] oldToNew, int newBound) {
+        signatures = new int[newBound * length];
+        for (int band = 0; band < bands; band++) {
+            tables.get(band).clear();
+        }
+        for (int id = 0; id < newBound; id++) {
+            compute(id);
+            index(id);
+        }
+    }
+
+
+    /**
+     * Returns the number of queries, of candidates they looked at and of
+     * signature updates.
+     *
+     * @return statistics as text
+     */
+    public String getStatistics() {
+        long buckets = 0;
+        for (HashMap<Long, Bucket> table : tables) {
+            buckets += table.size();
+        }
+        return String.format("%d bands x %d rows, buckets %d, queries %d, "
+            + "candidates %d, values lowered %d, signatures recomputed %d",
+            bands, rows, buckets, queries, candidatesSeen, lowered,
+            recomputed);
+    }
+
+
+    /**
+     * Sees whether the signatures kept up to date equal the ones
+     * computed from the friends now.
+     *
+     * @return true if every signature is the same
+     */
+    boolean matchesRebuild() {
+        ensureCapacity(network.getIdBound());
+        int[] kept = signatures.clone();
+        for (int id = 0; id < capacity(); id++) {
+            compute(id);
+        }
+        boolean same = Arrays.equals(kept, signatures);
+        signatures = kept;
+        return same;
+    }
+
+
+    /**
+     * Lowers the signature of an id by the hashes of a new friend and
+     * moves it in the bands that changed.
+     */
+    private void lower(int id, int friend) {
+        int base = id * length;
+        boolean wasEmpty = signatures[base] == EMPTY;
+        for (int band = 0; band < bands; band++) {
+            boolean changed = false;
+            long oldKey = wasEmpty ? 0 : key(id, band);
+            for (int r = 0; r < rows; r++) {
+                int i = band * rows + r;
+                int h = hash(friend, seeds[i]);
+                if (h < signatures[base + i]) {
+                    signatures[base + i] = h;
+                    changed = true;
+                    lowered++;
+                }
+            }
+            if (changed) {
+                if (!wasEmpty) {
+                    removeFromBucket(band, oldKey, id);
+                }
+                tables.get(band).computeIfAbsent(key(id, band),
+                    k -> new Bucket()).add(id);
+            }
+        }
+    }
+
+
+    /**
+     * Takes an id out of the tables, computes its signature and puts it
+     * back.
+     */
+    private void recomputeIndexed(int id) {
+        ensureCapacity(id + 1);
+        unindex(id);
+        compute(id);
+        index(id);
+        recomputed++;
+    }
+
+
+    private void index(int id) {
+        if (signatures[id * length] == EMPTY) {
+            return;
+        }
+        for (int band = 0; band < bands; band++) {
+            tables.get(band).computeIfAbsent(key(id, band), k -> new Bucket())
+                .add(id);
+        }
+    }
+
+
+    private void unindex(int id) {
+        if (signatures[id * length] == EMPTY) {
+            return;
+        }
+        for (int band = 0; band < bands; band++) {
+            removeFromBucket(band, key(id, band), id);
+        }
+    }
+
+
+    private void removeFromBucket(int band, long key, int id) {
+        HashMap<Long, Bucket> table = tables.get(band);
+        Bucket bucket = table.get(key);
+        if (bucket != null) {
+            bucket.remove(id);
+            if (bucket.size == 0) {
+                table.remove(key);
+            }
+        }
+    }
+
+
+    /**
+     * Computes the signature of an id from its friends in the graph.
+     */
+    private void compute(int id) {
+        int base = id * length;
+        Arrays.fill(signatures, base, base + length, EMPTY);
+        VertexInterface<Integer> vertex = graph.getVertex(id);
+        if (vertex == null) {
+            return;
+        }
+        int count = vertex.getNumberOfNeighbors();
+        for (int n = 0; n < count; n++) {
+            int friend = vertex.getNeighbor(n).getLabel();
+            for (int i = 0; i < length; i++) {
+                int h = hash(friend, seeds[i]);
+                if (h < signatures[base + i]) {
+                    signatures[base + i] = h;
+                }
+            }
+        }
+    }
+
+
+    private int equalValues(int a, int b) {
+        int equal = 0;
+        int baseA = a * length;
+        int baseB = b * length;
+        for (int i = 0; i < length; i++) {
+            if (signatures[baseA + i] == signatures[baseB + i]) {
+                equal++;
+            }
+        }
+        return equal;
+    }
+
+
+    /**
+     * Combines the values of a band of an id into the key of its bucket.
+     */
+    private long key(int id, int band) {
+        int from = id * length + band * rows;
+        long key = band;
+        for (int r = 0; r < rows; r++) {
+            key = key * 0x9E3779B97F4A7C15L + signatures[from + r];
+        }
+        return key ^ (key >>> 29);
+    }
+
+
+    /**
+     * Hash function number i of a friend id, the finalizer of
+     * MurmurHash3 applied to the id mixed with the seed. EMPTY is never
+     * returned, so an id with friends always has real values.
+     */
+    private static int hash(int friend, int seed) {
+        int h = friend ^ seed;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h == EMPTY ? EMPTY - 1 : h;
+    }
+
+
+    private int capacity() {
+        return signatures.length / length;
+    }
+
+
+    /**
+     * Grows the signatures to cover the ids below a bound.
+     */
+    private void ensureCapacity(int bound) {
+        int old = capacity();
+        if (old < bound) {
+            int grown = Math.max(bound, old * 2);
+            signatures = Arrays.copyOf(signatures, grown * length);
+            Arrays.fill(signatures, old * length, grown * length, EMPTY);
+        }
+    }
+
+
+    /**
+     * Work on one task of a parallel build.
+     */
+    private interface Task {
+        void run(int task);
+    }
+
+
+    /**
+     * Runs tasks 0 to count - 1 on a pool of threads, each thread taking
+     * the next task when it is done.
+     */
+    private static void runParallel(int threads, int count, Task task) {
+        AtomicInteger next = new AtomicInteger();
+        int workers = Math.min(threads, count);
+        if (workers <= 1) {
+            for (int t = 0; t < count; t++) {
+                task.run(t);
+            }
+            return;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            List<Callable<Void>> jobs = new ArrayList<Callable<Void>>();
+            for (int w = 0; w < workers; w++) {
+                jobs.add(() -> {
+                    for (int t = next.getAndIncrement(); t < count; t = next
+                        .getAndIncrement()) {
+                        task.run(t);
+                    }
+                    return null;
+                });
+            }
+            for (Future<Void> job : pool.invokeAll(jobs)) {
+                job.get();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted", e);
+        }
+        catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,414 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hop distances from many sources at once over a CsrGraph, for batches
+ * of distance queries such as friendshipDistance over millions of pairs.
+ *
+ * The sources are processed in batches of 64 times the word count. Every
+ * vertex gets that many bits, one per source of the batch, in three
+ * arrays: the sources that have reached it, the sources whose frontier
+ * it is on, and the sources that reach it in the next level. One level
+ * of all the breadth first searches of a batch is a single pass over the
+ * edges that ORs whole words, so a batch costs about as much as one
+ * traversal instead of one per source (multi-source BFS).
+ *
+ * Batches are independent and run on a pool of threads, each with its
+ * own bit arrays of 24 bytes per vertex and word. The snapshot is only
+ * read, so the graph it was taken from may change in the meantime.
+ *
+ * All vertices are given as indices of the snapshot; a negative index
+ * stands for a vertex that does not exist, whose distances are -1.
+ *
+ * @author Kerem Bozgan kerembozgan
+ * @version 2022-11-11
+ */
+class MultiSourceBfs {
+
+    /** Snapshot to search */
+    private final CsrGraph graph;
+    /** 64-bit words per vertex, so 64 * words sources per batch */
+    private final int words;
+    /** Number of threads the batches are spread over */
+    private final int threads;
+
+    /**
+     * Runs batches of distances on a random network and compares them
+     * with one breadth first search per source.
+     *
+     * Usage: java MultiSourceBfs [users] [pairs] [sources] [threads]
+     */
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int pairs = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        int sourceCount = args.length > 2 ? Integer.parseInt(args[2]) : 2048;
+        int threads = args.length > 3
+            ? Integer.parseInt(args[3])
+            : Runtime.getRuntime().availableProcessors();
+
+        Graph<Integer> g = new Graph<Integer>();
+        GraphGenerator.populate(g, n, GraphGenerator.generate(
+            GraphGenerator.BARABASI_ALBERT, n, 16, new Random(42)));
+        CsrGraph csr = CsrGraph.fromGraph(g);
+        Random random = new Random(7);
+        int[] sources = new int[sourceCount];
+        for (int i = 0; i < sourceCount; i++) {
+            sources[i] = random.nextInt(n);
+        }
+        int[] from = new int[pairs];
+        int[] to = new int[pairs];
+        for (int i = 0; i < pairs; i++) {
+            from[i] = sources[random.nextInt(sourceCount)];
+            to[i] = random.nextInt(n);
+        }
+
+        // one plain breadth first search per distinct source
+        long start = System.nanoTime();
+        int[] expected = new int[pairs];
+        int[] distance = new int[n];
+        Integer[] order = new Integer[pairs];
+        for (int i = 0; i < pairs; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(from[a], from[b]));
+        for (int i = 0; i < pairs; i++) {
+            if (i == 0 || from[order[i]] != from[order[i - 1]]) {
+                csr.getBreadthFirstTraversal(from[order[i]], distance);
+            }
+            expected[order[i]] = distance[to[order[i]]];
+        }
+        double single = (System.nanoTime() - start) / 1e6;
+        System.out.printf("%d pairs from %d sources on %d users%n", pairs,
+            sourceCount, n);
+        System.out.printf("%-28s %10.0f ms%n", "BFS per source", single);
+
+        for (int w : new int[] { 1, 4 }) {
+            for (int t : new int[] { 1, threads }) {
+                MultiSourceBfs bfs = new MultiSourceBfs(csr, w, t);
+                start = System.nanoTime();
+                int[] result = bfs.pairDistances(from, to);
+                double ms = (System.nanoTime() - start) / 1e6;
+                System.out.printf("%-28s %10.0f ms %6.1fx %s%n", String
+                    .format("%d sources x %d threads", 64 * w, t), ms,
+                    single / ms, Arrays.equals(result, expected)
+                        ? "same"
+                        : "DIFFERENT");
+            }
+        }
+    }
+
+
+    /**
+     * Initializes a search over a snapshot.
+     *
+     * @param graph
+     *            snapshot to search
+     * @param words
+     *            64-bit words per vertex, at least 1
+     * @param threads
+     *            number of threads, at least 1
+     */
+    MultiSourceBfs(CsrGraph graph, int words, int threads) {
+        if (words < 1 || threads < 1) {
+            throw new IllegalArgumentException("words and threads must be"
+                + " positive");
+        }
+        this.graph = graph;
+        this.words = words;
+        this.threads = threads;
+    }
+
+
+    /**
+     * Returns the distance from every source to every target, -1 where
+     * there is no path.
+     *
+     * @param sources
+     *            indices of the sources
+     * @param targets
+     *            indices of the targets
+     * @return distances, one row per source and one column per target
+     */
+    public int[][] distanceMatrix(int[] sources, int[] targets) {
+        int[][] matrix = new int[sources.length][targets.length];
+        for (int[] row : matrix) {
+            Arrays.fill(row, -1);
+        }
+        if (targets.length == 0) {
+            return matrix;
+        }
+        int batchSize = 64 * words;
+        int batches = (sources.length + batchSize - 1) / batchSize;
+        runBatches(batches, (bfs, b) -> {
+            int first = b * batchSize;
+            int count = Math.min(batchSize, sources.length - first);
+            bfs.run(sources, first, count, (level, reached) -> {
+                boolean complete = true;
+                for (int t = 0; t < targets.length; t++) {
+                    if (targets[t] < 0) {
+                        continue;
+                    }
+                    int base = targets[t] * words;
+                    for (int w = 0; w < words; w++) {
+                        long bits = reached[base + w];
+                        while (bits != 0) {
+                            int s = 64 * w + Long.numberOfTrailingZeros(bits);
+                            matrix[first + s][t] = level;
+                            bits &= bits - 1;
+                        }
+                    }
+                    complete &= bfs.isReachedByAll(targets[t]);
+                }
+                return complete;
+            });
+        });
+        return matrix;
+    }
+
+
+    /**
+     * Returns the distance of each pair, -1 where there is no path.
+     *
+     * @param from
+     *            index of the first vertex of each pair
+     * @param to
+     *            index of the second vertex of each pair
+     * @return distance of each pair
+     */
+    public int[] pairDistances(int[] from, int[] to) {
+        int[] result = new int[from.length];
+        Arrays.fill(result, -1);
+
+        // group the pairs by source, and number the distinct sources
+        int[] pairsBySource = sortedBySource(from);
+        int[] sources = new int[from.length];
+        int[] sourceStart = new int[from.length + 1];
+        int sourceCount = 0;
+        int start = 0;
+        while (start < pairsBySource.length && from[pairsBySource[start]]
+            < 0) {
+            start++;
+        }
+        for (int i = start; i < pairsBySource.length; i++) {
+            if (i == start || from[pairsBySource[i]] != from[pairsBySource[i
+                - 1]]) {
+                sourceStart[sourceCount] = i;
+                sources[sourceCount++] = from[pairsBySource[i]];
+            }
+        }
+        sourceStart[sourceCount] = pairsBySource.length;
+
+        int batchSize = 64 * words;
+        int batches = (sourceCount + batchSize - 1) / batchSize;
+        int distinct = sourceCount;
+        runBatches(batches, (bfs, b) -> {
+            int first = b * batchSize;
+            int count = Math.min(batchSize, distinct - first);
+            // pairs of the batch still waiting for their distance
+            int[] pending = Arrays.copyOfRange(pairsBySource,
+                sourceStart[first], sourceStart[first + count]);
+            int[] bit = new int[pending.length];
+            int size = 0;
+            for (int s = 0; s < count; s++) {
+                for (int i = sourceStart[first + s]; i < sourceStart[first + s
+                    + 1]; i++) {
+                    if (to[pairsBySource[i]] >= 0) {
+                        pending[size] = pairsBySource[i];
+                        bit[size++] = s;
+                    }
+                }
+            }
+            int[] left = { size };
+            bfs.run(sources, first, count, (level, reached) -> {
+                int kept = 0;
+                for (int i = 0; i < left[0]; i++) {
+                    int pair = pending[i];
+                    int s = bit[i];
+                    if ((reached[to[pair] * words + (s >>> 6)] & 1L << (s
+                        & 63)) != 0) {
+                        result[pair] = level;
+                    }
+                    else {
+                        pending[kept] = pair;
+                        bit[kept++] = s;
+                    }
+                }
+                left[0] = kept;
+                return kept == 0;
+            });
+        });
+        return result;
+    }
+
+
+    /**
+     * Returns the pair indices ordered by their source.
+     */
+    private static int[] sortedBySource(int[] from) {
+        long[] keys = new long[from.length];
+        for (int i = 0; i < from.length; i++) {
+            keys[i] = (long)from[i] << 32 | i;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[from.length];
+        for (int i = 0; i < from.length; i++) {
+            order[i] = (int)keys[i];
+        }
+        return order;
+    }
+
+
+    /**
+     * Runs the batches on the threads, each thread taking the next batch
+     * until none are left.
+     */
+    private void runBatches(int batches, BatchTask task) {
+        AtomicInteger next = new AtomicInteger();
+        int workers = Math.min(threads, batches);
+        if (workers <= 1) {
+            Search bfs = new Search();
+            for (int b = 0; b < batches; b++) {
+                task.run(bfs, b);
+            }
+            return;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            List<Callable<Void>> jobs = new ArrayList<Callable<Void>>();
+            for (int t = 0; t < workers; t++) {
+                jobs.add(() -> {
+                    Search bfs = new Search();
+                    for (int b = next.getAndIncrement(); b < batches; b = next
+                        .getAndIncrement()) {
+                        task.run(bfs, b);
+                    }
+                    return null;
+                });
+            }
+            for (Future<Void> job : pool.invokeAll(jobs)) {
+                job.get();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted", e);
+        }
+        catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Work on one batch.
+     */
+    private interface BatchTask {
+        void run(Search bfs, int batch);
+    }
+
+
+    /**
+     * Receives the sources that reach vertices for the first time at a
+     * level.
+     */
+    private interface LevelVisitor {
+        /**
+         * @param level
+         *            hops from the sources
+         * @param reached
+         *            bits of the sources that reached each vertex at this
+         *            level, words per vertex
+         * @return true if no further levels are needed
+         */
+        boolean visit(int level, long[] reached);
+    }
+
+
+    /**
+     * Bit arrays of one thread, reused for all its batches.
+     */
+    private class Search {
+        private final int n = graph.getNumberOfVertices();
+        /** Sources that reached each vertex so far */
+        private final long[] seen = new long[n * words];
+        /** Sources reaching each vertex at the current level */
+        private long[] frontier = new long[n * words];
+        /** Sources reaching each vertex at the next level */
+        private long[] next = new long[n * words];
+        /** Bits of all sources of the batch, per word */
+        private final long[] all = new long[words];
+
+        /**
+         * Runs the searches of count sources starting at sources[first],
+         * source k of the batch having bit k.
+         */
+        void run(int[] sources, int first, int count, LevelVisitor visitor) {
+            Arrays.fill(seen, 0);
+            Arrays.fill(frontier, 0);
+            Arrays.fill(all, 0);
+            for (int k = 0; k < count; k++) {
+                int source = sources[first + k];
+                if (source >= 0) {
+                    long mask = 1L << (k & 63);
+                    frontier[source * words + (k >>> 6)] |= mask;
+                    seen[source * words + (k >>> 6)] |= mask;
+                    all[k >>> 6] |= mask;
+                }
+            }
+            int[] offsets = graph.getOffsets();
+            int[] targets = graph.getTargets();
+            int level = 0;
+            boolean active = true;
+            while (active && !visitor.visit(level, frontier)) {
+                Arrays.fill(next, 0);
+                for (int v = 0; v < n; v++) {
+                    int base = v * words;
+                    for (int w = 0; w < words; w++) {
+                        long bits = frontier[base + w];
+                        if (bits == 0) {
+                            continue;
+                        }
+                        for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                            next[targets[e] * words + w] |= bits;
+                        }
+                    }
+                }
+                active = false;
+                for (int i = 0; i < next.length; i++) {
+                    long fresh = next[i] & ~seen[i];
+                    next[i] = fresh;
+                    seen[i] |= fresh;
+                    active |= fresh != 0;
+                }
+                long[] swap = frontier;
+                frontier = next;
+                next = swap;
+                level++;
+            }
+        }
+
+
+        /**
+         * Returns true if every source of the batch has reached a vertex.
+         */
+        boolean isReachedByAll(int vertex) {
+            for (int w = 0; w < words; w++) {
+                if ((seen[vertex * words + w] & all[w]) != all[w]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
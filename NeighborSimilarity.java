@@ -0,0 +1,457 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Neighborhood similarity of two profiles for link prediction, computed
+ * from their friend ids as sorted int arrays:
+ *
+ * <pre>
+ * COMMON_NEIGHBORS  |A and B|
+ * JACCARD           |A and B| / |A or B|
+ * COSINE            |A and B| / sqrt(|A| |B|)
+ * ADAMIC_ADAR       sum over the common friends z of 1 / ln(degree(z))
+ * </pre>
+ *
+ * All of them come down to intersecting two sorted arrays, done in one
+ * of three ways:
+ *
+ * <pre>
+ * galloping  if one array is GALLOP_RATIO times longer than the other,
+ *            each id of the short one is searched in the long one,
+ *            doubling the step from the last match and then bisecting,
+ *            so a hub costs O(m log(n / m)) instead of O(m + n)
+ * vector     otherwise, blocks of as many ids as a vector has lanes are
+ *            compared all against all, one id of the second block at a
+ *            time against the whole first block, and the block with the
+ *            smaller last id is replaced
+ * scalar     the plain merge, for the rest of the blocks and when the
+ *            vector module is missing
+ * </pre>
+ *
+ * The vector merge is in VectorMerge, the only class that uses the
+ * incubator Vector API, and is found by reflection. Only VectorMerge.java
+ * has to be compiled with --add-modules jdk.incubator.vector; the rest
+ * of the tree compiles without it. If VectorMerge is missing or the
+ * module is not in the boot layer at run time, the scalar merge is used.
+ *
+ * Usage: java --add-modules jdk.incubator.vector NeighborSimilarity
+ * [users] [candidates]
+ *
+ * @author Kerem Bozgan kerembozgan
+ * @version 2022-11-11
+ */
+class NeighborSimilarity {
+
+    /** Measures */
+    static final int COMMON_NEIGHBORS = 0;
+    static final int JACCARD = 1;
+    static final int COSINE = 2;
+    static final int ADAMIC_ADAR = 3;
+
+    /** Names of the measures, by measure */
+    static final String[] NAMES = { "common neighbors", "Jaccard", "cosine",
+        "Adamic-Adar" };
+
+    /** Length ratio from which the long array is galloped through */
+    static final int GALLOP_RATIO = 32;
+
+    /** VectorMerge.merge, null if the vector merge cannot be used */
+    private static final MethodHandle VECTOR_MERGE;
+    /** Ints in a block of the vector merge, 0 without it */
+    static final int LANES;
+
+    static {
+        MethodHandle merge = null;
+        int lanes = 0;
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector")
+            .isPresent()) {
+            try {
+                Class<?> kernel = Class.forName("VectorMerge");
+                MethodHandles.Lookup lookup = MethodHandles.lookup();
+                merge = lookup.findStatic(kernel, "merge", MethodType
+                    .methodType(int.class, int[].class, int.class,
+                        int[].class, int.class, int[].class));
+                lanes = (int)lookup.findStatic(kernel, "lanes", MethodType
+                    .methodType(int.class)).invokeExact();
+            }
+            catch (Throwable e) {
+                // not compiled, or the module cannot be linked
+                merge = null;
+                lanes = 0;
+            }
+        }
+        VECTOR_MERGE = merge;
+        LANES = lanes;
+    }
+
+    /** True if the vector merge can be used */
+    static final boolean VECTOR = VECTOR_MERGE != null;
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        VTConnect network = new VTConnect();
+        Profile[] profiles = GraphGenerator.populate(network, n,
+            GraphGenerator.generate(GraphGenerator.BARABASI_ALBERT, n, 16,
+                new Random(42)));
+        Random random = new Random(7);
+        List<Profile> candidates = new ArrayList<Profile>();
+        for (int i = 0; i < count; i++) {
+            candidates.add(profiles[random.nextInt(n)]);
+        }
+        // an ordinary user and the largest hub of the generator
+        Profile[] users = { profiles[n / 2], profiles[0] };
+        System.out.println("Vector merge: " + (VECTOR
+            ? LANES + " lanes"
+            : "off"));
+
+        for (Profile user : users) {
+            System.out.printf("User with %d friends against %d candidates"
+                + "%n", network.getNumberOfFriends(user), count);
+            for (int measure = 0; measure < NAMES.length; measure++) {
+                double[] naive = new double[count];
+                long start = System.nanoTime();
+                for (int i = 0; i < count; i++) {
+                    naive[i] = naiveScore(network, measure, user, candidates
+                        .get(i));
+                }
+                long naiveNanos = System.nanoTime() - start;
+                start = System.nanoTime();
+                double[] scores = network.similarities(user, candidates,
+                    measure);
+                long batchNanos = System.nanoTime() - start;
+                int mismatches = 0;
+                for (int i = 0; i < count; i++) {
+                    if (Math.abs(scores[i] - naive[i]) > 1e-9) {
+                        mismatches++;
+                    }
+                }
+                System.out.printf("  %-16s iterators and hash set %6.1f ms,"
+                    + " batch %6.1f ms, mismatches %d%n", NAMES[measure],
+                    naiveNanos / 1e6, batchNanos / 1e6, mismatches);
+            }
+        }
+
+        // the intersections alone, on sorted arrays
+        int[] positions = new int[1 << 16];
+        int[][] shapes = { { 4096, 4096 }, { 64, 1 << 16 } };
+        for (int[] sizes : shapes) {
+            int[] a = randomSet(random, sizes[0], 1 << 18);
+            int[] b = randomSet(random, sizes[1], 1 << 18);
+            int expected = mergeScalar(a, a.length, b, b.length, null);
+            System.out.printf("Intersect %d and %d ids:%n", sizes[0],
+                sizes[1]);
+            for (int way = 0; way < 3; way++) {
+                if (way == 1 && !VECTOR) {
+                    continue;
+                }
+                int rounds = 2000;
+                int found = 0;
+                long start = System.nanoTime();
+                for (int r = 0; r < rounds; r++) {
+                    found = way == 0
+                        ? mergeScalar(a, a.length, b, b.length, positions)
+                        : way == 1
+                            ? vectorMerge(a, a.length, b, b.length,
+                                positions)
+                            : gallop(a, a.length, b, b.length, positions);
+                }
+                System.out.printf("  %-8s %8.2f us, %s%n", new String[] {
+                    "scalar", "vector", "galloping" }[way], (System
+                        .nanoTime() - start) / 1e3 / rounds, found == expected
+                            ? "correct"
+                            : "WRONG");
+            }
+        }
+    }
+
+
+    /**
+     * Scores a pair by walking copies of the friend lists, as without
+     * this class.
+     */
+    private static double naiveScore(
+        VTConnect network,
+        int measure,
+        Profile a,
+        Profile b) {
+        List<Profile> friendsA = network.getFriends(a);
+        HashSet<Profile> set = new HashSet<Profile>(friendsA);
+        int common = 0;
+        double adamicAdar = 0;
+        for (Profile z : network.getFriends(b)) {
+            if (set.contains(z)) {
+                common++;
+                adamicAdar += 1 / Math.log(network.getNumberOfFriends(z));
+            }
+        }
+        return score(measure, friendsA.size(), network.getNumberOfFriends(b),
+            common, adamicAdar);
+    }
+
+
+    /**
+     * Returns a sorted array of distinct random ints below a bound.
+     */
+    private static int[] randomSet(Random random, int size, int bound) {
+        HashSet<Integer> set = new HashSet<Integer>();
+        while (set.size() < size) {
+            set.add(random.nextInt(bound));
+        }
+        int[] values = new int[size];
+        int i = 0;
+        for (int value : set) {
+            values[i++] = value;
+        }
+        Arrays.sort(values);
+        return values;
+    }
+
+
+    /**
+     * Scores one profile against many candidates.
+     *
+     * @param measure
+     *            one of the measures
+     * @param user
+     *            sorted friend ids of the profile
+     * @param candidates
+     *            sorted friend ids of each candidate, null for a
+     *            candidate that scores 0
+     * @param degree
+     *            number of friends of an id, for ADAMIC_ADAR
+     * @return score of each candidate
+     */
+    static double[] scores(
+        int measure,
+        int[] user,
+        int[][] candidates,
+        IntUnaryOperator degree) {
+        if (measure < 0 || measure >= NAMES.length) {
+            throw new IllegalArgumentException("Unknown measure " + measure);
+        }
+        double[] weights = null;
+        int[] positions = null;
+        if (measure == ADAMIC_ADAR) {
+            // the common friends are friends of the user, so their
+            // weights are found once for the whole batch
+            weights = new double[user.length];
+            for (int i = 0; i < user.length; i++) {
+                int d = degree.applyAsInt(user[i]);
+                weights[i] = d > 1 ? 1 / Math.log(d) : 0;
+            }
+            positions = new int[user.length];
+        }
+        double[] scores = new double[candidates.length];
+        for (int c = 0; c < candidates.length; c++) {
+            int[] other = candidates[c];
+            if (other == null) {
+                continue;
+            }
+            int common = intersect(user, user.length, other, other.length,
+                positions);
+            double adamicAdar = 0;
+            for (int k = 0; positions != null && k < common; k++) {
+                adamicAdar += weights[positions[k]];
+            }
+            scores[c] = score(measure, user.length, other.length, common,
+                adamicAdar);
+        }
+        return scores;
+    }
+
+
+    /**
+     * Returns the score of a measure from the sizes of the sets.
+     *
+     * @param measure
+     *            one of the measures
+     * @param degreeA
+     *            size of the first set
+     * @param degreeB
+     *            size of the second set
+     * @param common
+     *            size of their intersection
+     * @param adamicAdar
+     *            sum of the Adamic-Adar weights of the intersection
+     * @return score, 0 if it is not defined
+     */
+    static double score(
+        int measure,
+        int degreeA,
+        int degreeB,
+        int common,
+        double adamicAdar) {
+        switch (measure) {
+            case COMMON_NEIGHBORS:
+                return common;
+            case JACCARD:
+                int union = degreeA + degreeB - common;
+                return union == 0 ? 0 : (double)common / union;
+            case COSINE:
+                return degreeA == 0 || degreeB == 0
+                    ? 0
+                    : common / Math.sqrt((double)degreeA * degreeB);
+            case ADAMIC_ADAR:
+                return adamicAdar;
+            default:
+                throw new IllegalArgumentException("Unknown measure "
+                    + measure);
+        }
+    }
+
+
+    /**
+     * Intersects two sorted arrays of distinct ints, choosing the way by
+     * their lengths.
+     *
+     * @param a
+     *            first array
+     * @param aLength
+     *            number of ints used in a
+     * @param b
+     *            second array
+     * @param bLength
+     *            number of ints used in b
+     * @param positions
+     *            receives the index in a of every common int, in order;
+     *            null to only count them
+     * @return number of common ints
+     */
+    static int intersect(
+        int[] a,
+        int aLength,
+        int[] b,
+        int bLength,
+        int[] positions) {
+        if (aLength == 0 || bLength == 0) {
+            return 0;
+        }
+        if ((long)aLength * GALLOP_RATIO <= bLength || (long)bLength
+            * GALLOP_RATIO <= aLength) {
+            return gallop(a, aLength, b, bLength, positions);
+        }
+        if (VECTOR) {
+            return vectorMerge(a, aLength, b, bLength, positions);
+        }
+        return mergeScalar(a, aLength, b, bLength, positions);
+    }
+
+
+    /**
+     * Intersects by merging, one int at a time.
+     */
+    static int mergeScalar(
+        int[] a,
+        int aLength,
+        int[] b,
+        int bLength,
+        int[] positions) {
+        return mergeTail(a, 0, aLength, b, 0, bLength, positions, 0);
+    }
+
+
+    /**
+     * Intersects with VectorMerge.merge. Only called if VECTOR is true.
+     */
+    private static int vectorMerge(
+        int[] a,
+        int aLength,
+        int[] b,
+        int bLength,
+        int[] positions) {
+        try {
+            return (int)VECTOR_MERGE.invokeExact(a, aLength, b, bLength,
+                positions);
+        }
+        catch (Throwable e) {
+            throw new IllegalStateException("Vector merge failed", e);
+        }
+    }
+
+
+    /**
+     * Merges a[i, aLength) with b[j, bLength), adding to count common
+     * ints found before.
+     */
+    static int mergeTail(
+        int[] a,
+        int i,
+        int aLength,
+        int[] b,
+        int j,
+        int bLength,
+        int[] positions,
+        int count) {
+        while (i < aLength && j < bLength) {
+            int x = a[i];
+            int y = b[j];
+            if (x == y) {
+                if (positions != null) {
+                    positions[count] = i;
+                }
+                count++;
+                i++;
+                j++;
+            }
+            else if (x < y) {
+                i++;
+            }
+            else {
+                j++;
+            }
+        }
+        return count;
+    }
+
+
+    /**
+     * Intersects by searching every int of the shorter array in the
+     * longer one.
+     */
+    static int gallop(
+        int[] a,
+        int aLength,
+        int[] b,
+        int bLength,
+        int[] positions) {
+        boolean aShort = aLength <= bLength;
+        int[] small = aShort ? a : b;
+        int smallLength = aShort ? aLength : bLength;
+        int[] large = aShort ? b : a;
+        int largeLength = aShort ? bLength : aLength;
+        int count = 0;
+        int low = 0;
+        for (int i = 0; i < smallLength && low < largeLength; i++) {
+            int target = small[i];
+            // double the step until it passes the target, then bisect
+            int step = 1;
+            int high = low;
+            while (high < largeLength && large[high] < target) {
+                low = high + 1;
+                high += step;
+                step <<= 1;
+            }
+            int found = Arrays.binarySearch(large, low, Math.min(high + 1,
+                largeLength), target);
+            if (found >= 0) {
+                if (positions != null) {
+                    positions[count] = aShort ? i : found;
+                }
+                count++;
+                low = found + 1;
+            }
+            else {
+                low = -found - 1;
+            }
+        }
+        return count;
+    }
+}
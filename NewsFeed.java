@@ -0,0 +1,594 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * News feed of a VTConnect: the latest statuses posted by the friends of
+ * a profile, newest first. A status is posted whenever Profile.setStatus
+ * is called on a profile of the network.
+ *
+ * Posts of ordinary profiles are fanned out on write: the post is copied
+ * into a bounded ring buffer, the inbox, of every friend, so reading a
+ * feed does not have to look at the friends at all. A profile with many
+ * friends would make every post cost that many copies, so the first time
+ * a profile posts with at least hubThreshold friends it becomes a hub.
+ * Posts of a hub only go into its own ring buffer, the outbox, and are
+ * fanned out on read: each friend of a hub keeps a reference to it, and
+ * reading a feed merges the inbox with the outboxes of the hub friends.
+ * A hub stays a hub even if it loses friends later.
+ *
+ * The merge keeps one cursor per ring in a heap ordered by the newest
+ * post of each ring, so the top n posts of k rings take O(k + n log k).
+ * Posts are ordered by a sequence number given when they are posted,
+ * which follows the time of posting and breaks ties within a
+ * millisecond. A post that reached an inbox before its author became a
+ * hub is also in the outbox; both copies are the same object and come
+ * out of the merge next to each other, so the second one is skipped.
+ *
+ * Each ring keeps the latest capacity posts, so a feed shows at most
+ * capacity posts of ordinary friends and capacity posts of each hub.
+ * When a friendship is created, the newest posts in the outbox of each
+ * side are merged into the inbox of the other, and when it is removed,
+ * the posts of each side are taken out of the inbox of the other.
+ *
+ * The feed is not thread-safe and is updated by the thread that changes
+ * the network, like the graph itself.
+ *
+ * @author Kerem Bozgan kerembozgan
+ * @version 2022-11-11
+ */
+class NewsFeed implements IdRemapListener {
+
+    /** Network whose friendships decide who sees a post */
+    private final VTConnect network;
+    /** Posts kept by each ring, a power of two */
+    private final int capacity;
+    /** Friends at which a posting profile becomes a hub */
+    private final int hubThreshold;
+
+    /** State of each id, null for ids that never posted or read */
+    private FeedState[] states = new FeedState[1024];
+    /** Sequence number of the next post */
+    private long nextSequence;
+    /** Posts made and inbox copies written, for the statistics */
+    private long posts;
+    private long copies;
+    private int hubs;
+
+    public static void main(String[] args) {
+        int n = 20000;
+        VTConnect network = new VTConnect();
+        Profile[] profiles = GraphGenerator.populate(network, n,
+            GraphGenerator.generate(GraphGenerator.BARABASI_ALBERT, n, 20,
+                new Random(42)));
+        NewsFeed feed = network.enableNewsFeed(64, 500);
+
+        Random random = new Random(7);
+        long start = System.nanoTime();
+        int count = 200000;
+        for (int i = 0; i < count; i++) {
+            profiles[random.nextInt(n)].setStatus("Status " + i);
+        }
+        double postNanos = (System.nanoTime() - start) / (double)count;
+
+        // the profile with the most friends has the most rings to merge
+        Profile reader = profiles[0];
+        for (Profile p : profiles) {
+            if (p.getNumberOfFriends() > reader.getNumberOfFriends()) {
+                reader = p;
+            }
+        }
+        start = System.nanoTime();
+        int reads = 2000;
+        for (int i = 0; i < reads; i++) {
+            network.getFeed(profiles[random.nextInt(n)], 20);
+        }
+        double readNanos = (System.nanoTime() - start) / (double)reads;
+
+        System.out.println(feed.getStatistics());
+        System.out.printf("post %.1f us, read of 20 posts %.1f us%n",
+            postNanos / 1000, readNanos / 1000);
+        System.out.println("Feed of " + reader.getName() + " with "
+            + reader.getNumberOfFriends() + " friends:");
+        for (Post post : network.getFeed(reader, 5)) {
+            System.out.println("\t" + post);
+        }
+    }
+
+
+    /**
+     * Initializes an empty feed of a network. Use
+     * VTConnect.enableNewsFeed, which also keeps the feed up to date.
+     *
+     * @param network
+     *            network of the feed
+     * @param capacity
+     *            posts kept per ring, rounded up to a power of two
+     * @param hubThreshold
+     *            friends at which a profile is fanned out on read
+     */
+    NewsFeed(VTConnect network, int capacity, int hubThreshold) {
+        if (capacity < 1 || hubThreshold < 1) {
+            throw new IllegalArgumentException("Capacity and hub threshold "
+                + "must be positive");
+        }
+        this.network = network;
+        this.capacity = capacity == 1
+            ? 1
+            : Integer.highestOneBit(capacity - 1) << 1;
+        this.hubThreshold = hubThreshold;
+    }
+
+
+    /**
+     * Posts the new status of a profile to the feeds of its friends.
+     *
+     * @param author
+     *            profile whose status changed
+     * @param status
+     *            new status
+     */
+    public void statusChanged(Profile author, String status) {
+        FeedState state = state(author.id);
+        List<Profile> friends = network.getFriends(author);
+        if (!state.hub && friends.size() >= hubThreshold) {
+            promote(author, state, friends);
+        }
+        Post post = new Post(nextSequence++, System.currentTimeMillis(),
+            author, status);
+        posts++;
+        state.outbox.add(post);
+        if (state.hub) {
+            return;
+        }
+        for (int i = 0; i < friends.size(); i++) {
+            state(friends.get(i).id).inbox.add(post);
+        }
+        copies += friends.size();
+    }
+
+
+    /**
+     * Shows each side of a new friendship the recent posts of the other.
+     *
+     * @param a
+     *            first profile
+     * @param b
+     *            second profile
+     */
+    public void friendshipCreated(Profile a, Profile b) {
+        connect(a, b);
+        connect(b, a);
+    }
+
+
+    /**
+     * Takes the posts of each side of a removed friendship out of the
+     * feed of the other.
+     *
+     * @param a
+     *            first profile
+     * @param b
+     *            second profile
+     */
+    public void friendshipRemoved(Profile a, Profile b) {
+        disconnect(a, b.id);
+        disconnect(b, a.id);
+    }
+
+
+    /**
+     * Takes the posts of a removed profile out of the feeds of its former
+     * friends and forgets its own feed, since the id may be reused.
+     *
+     * @param p
+     *            removed profile, whose id is still set
+     * @param friends
+     *            ids of the friends it had
+     */
+    public void profileRemoved(Profile p, int[] friends) {
+        for (int friend : friends) {
+            disconnect(p, friend);
+        }
+        if (p.id < states.length) {
+            if (states[p.id] != null && states[p.id].hub) {
+                hubs--;
+            }
+            states[p.id] = null;
+        }
+    }
+
+
+    /**
+     * Returns the latest posts of the friends of a profile, newest first.
+     *
+     * @param reader
+     *            profile whose feed is read
+     * @param n
+     *            largest number of posts returned
+     * @return up to n posts
+     */
+    public List<Post> getFeed(Profile reader, int n) {
+        if (reader.id == null || reader.id >= states.length
+            || states[reader.id] == null || n <= 0) {
+            return Collections.emptyList();
+        }
+        FeedState state = states[reader.id];
+        PriorityQueue<Cursor> heap = new PriorityQueue<Cursor>(1 + state
+            .hubFriends.size());
+        addCursor(heap, state.inbox);
+        for (int i = 0; i < state.hubFriends.size(); i++) {
+            addCursor(heap, states[state.hubFriends.get(i).id].outbox);
+        }
+
+        List<Post> feed = new ArrayList<Post>(Math.min(n, 64));
+        Post last = null;
+        while (feed.size() < n && !heap.isEmpty()) {
+            Cursor cursor = heap.poll();
+            Post post = cursor.current();
+            if (post != last) {
+                feed.add(post);
+                last = post;
+            }
+            if (cursor.advance()) {
+                heap.add(cursor);
+            }
+        }
+        return feed;
+    }
+
+
+    /**
+     * Returns true if posts of a profile are fanned out on read.
+     *
+     * @param p
+     *            profile
+     * @return true if the profile is a hub
+     */
+    public boolean isHub(Profile p) {
+        return p.id != null && p.id < states.length && states[p.id] != null
+            && states[p.id].hub;
+    }
+
+
+    /**
+     * Moves the state of each id to its new id.
+     *
+     * @param oldToNew
+     *            array mapping each old id to its new id
+     * @param newBound
+     *            number of ids in use
+     */
+    public void idsRemapped(int[] oldToNew, int newBound) {
+        FeedState[] moved = new FeedState[Math.max(1024, newBound)];
+        for (int oldId = 0; oldId < oldToNew.length
+            && oldId < states.length; oldId++) {
+            if (oldToNew[oldId] >= 0) {
+                moved[oldToNew[oldId]] = states[oldId];
+            }
+        }
+        states = moved;
+    }
+
+
+    /**
+     * Returns the number of posts, inbox copies and hubs.
+     *
+     * @return statistics as text
+     */
+    public String getStatistics() {
+        return String.format("posts %d, inbox copies %d (%.1f per post), "
+            + "hubs %d, ring capacity %d, hub threshold %d", posts, copies,
+            posts == 0 ? 0.0 : copies / (double)posts, hubs, capacity,
+            hubThreshold);
+    }
+
+
+    /**
+     * Makes a profile a hub and registers it with its friends.
+     */
+    private void promote(
+        Profile author,
+        FeedState state,
+        List<Profile> friends) {
+        state.hub = true;
+        hubs++;
+        for (int i = 0; i < friends.size(); i++) {
+            state(friends.get(i).id).hubFriends.add(author);
+        }
+    }
+
+
+    /**
+     * Lets reader see the posts of author, who just became its friend.
+     */
+    private void connect(Profile author, Profile reader) {
+        FeedState authorState = state(author.id);
+        FeedState readerState = state(reader.id);
+        if (authorState.hub) {
+            readerState.hubFriends.add(author);
+        }
+        else {
+            readerState.inbox.merge(authorState.outbox);
+        }
+    }
+
+
+    /**
+     * Takes the posts of author out of the feed of the reader id.
+     */
+    private void disconnect(Profile author, int reader) {
+        if (reader >= states.length || states[reader] == null) {
+            return;
+        }
+        FeedState readerState = states[reader];
+        readerState.inbox.removeAuthor(author);
+        readerState.hubFriends.remove(author);
+    }
+
+
+    /**
+     * Returns the state of an id, creating it if needed.
+     */
+    private FeedState state(int id) {
+        if (id >= states.length) {
+            FeedState[] grown = new FeedState[Math.max(id + 1, states.length
+                * 2)];
+            System.arraycopy(states, 0, grown, 0, states.length);
+            states = grown;
+        }
+        if (states[id] == null) {
+            states[id] = new FeedState(capacity);
+        }
+        return states[id];
+    }
+
+
+    /**
+     * Adds a cursor over a ring to the heap unless the ring is empty.
+     */
+    private static void addCursor(PriorityQueue<Cursor> heap, PostRing ring) {
+        if (ring.size() > 0) {
+            heap.add(new Cursor(ring));
+        }
+    }
+
+
+    /**
+     * Status posted by a profile.
+     */
+    static class Post {
+        /** Order of posting, higher is newer */
+        private final long sequence;
+        private final long time;
+        private final Profile author;
+        private final String status;
+
+        Post(long sequence, long time, Profile author, String status) {
+            this.sequence = sequence;
+            this.time = time;
+            this.author = author;
+            this.status = status;
+        }
+
+
+        /**
+         * Returns the profile that posted the status.
+         *
+         * @return author
+         */
+        public Profile getAuthor() {
+            return author;
+        }
+
+
+        /**
+         * Returns the status as it was posted.
+         *
+         * @return status
+         */
+        public String getStatus() {
+            return status;
+        }
+
+
+        /**
+         * Returns the time of posting in milliseconds since the epoch.
+         *
+         * @return time of posting
+         */
+        public long getTime() {
+            return time;
+        }
+
+
+        /**
+         * Returns the sequence number, higher for newer posts.
+         *
+         * @return sequence number
+         */
+        public long getSequence() {
+            return sequence;
+        }
+
+
+        /**
+         * Returns the name of the author and the status.
+         *
+         * @return post as text
+         */
+        public String toString() {
+            return author.getName() + ": " + status;
+        }
+    }
+
+
+    /**
+     * Feed of one id: the posts it received, the posts it made and the
+     * hubs among its friends.
+     */
+    private static class FeedState {
+        final PostRing inbox;
+        final PostRing outbox;
+        final List<Profile> hubFriends = new ArrayList<Profile>(0);
+        /** True once the posts of this id are fanned out on read */
+        boolean hub;
+
+        FeedState(int capacity) {
+            inbox = new PostRing(capacity);
+            outbox = new PostRing(capacity);
+        }
+    }
+
+
+    /**
+     * Ring buffer of the latest posts in the order they were posted. The
+     * array is allocated by the first post.
+     */
+    private static class PostRing {
+        private final int capacity;
+        private Post[] posts;
+        /** Slot of the next post */
+        private int head;
+        private int size;
+
+        PostRing(int capacity) {
+            this.capacity = capacity;
+        }
+
+
+        /**
+         * Adds a post newer than every post in the ring, dropping the
+         * oldest one if the ring is full.
+         */
+        void add(Post post) {
+            if (posts == null) {
+                posts = new Post[capacity];
+            }
+            posts[head] = post;
+            head = (head + 1) & (capacity - 1);
+            if (size < capacity) {
+                size++;
+            }
+        }
+
+
+        /**
+         * Returns the post at a position, 0 for the newest.
+         */
+        Post get(int index) {
+            return posts[(head - 1 - index) & (capacity - 1)];
+        }
+
+
+        int size() {
+            return size;
+        }
+
+
+        /**
+         * Removes every post of an author, keeping the order of the rest.
+         */
+        void removeAuthor(Profile author) {
+            if (size == 0) {
+                return;
+            }
+            Post[] kept = new Post[size];
+            int count = 0;
+            for (int i = size - 1; i >= 0; i--) {
+                if (get(i).author != author) {
+                    kept[count++] = get(i);
+                }
+            }
+            if (count < size) {
+                refill(kept, count);
+            }
+        }
+
+
+        /**
+         * Merges the posts of another ring into this one, keeping the
+         * newest capacity posts of both.
+         */
+        void merge(PostRing other) {
+            if (other.size == 0) {
+                return;
+            }
+            int total = Math.min(capacity, size + other.size);
+            // take the newest of both until the ring is full
+            Post[] newestFirst = new Post[total];
+            int i = 0;
+            int j = 0;
+            int count = 0;
+            while (count < total && (i < size || j < other.size)) {
+                Post post;
+                if (j >= other.size || (i < size && get(i).sequence > other
+                    .get(j).sequence)) {
+                    post = get(i++);
+                }
+                else {
+                    post = other.get(j++);
+                }
+                if (count == 0 || newestFirst[count - 1] != post) {
+                    newestFirst[count++] = post;
+                }
+            }
+            Post[] oldestFirst = new Post[count];
+            for (int k = 0; k < count; k++) {
+                oldestFirst[k] = newestFirst[count - 1 - k];
+            }
+            refill(oldestFirst, count);
+        }
+
+
+        /**
+         * Replaces the posts with the first count posts of an array in
+         * order from oldest to newest.
+         */
+        private void refill(Post[] oldestFirst, int count) {
+            if (posts == null) {
+                posts = new Post[capacity];
+            }
+            Arrays.fill(posts, null);
+            head = 0;
+            size = 0;
+            for (int i = 0; i < count; i++) {
+                add(oldestFirst[i]);
+            }
+        }
+    }
+
+
+    /**
+     * Position in a ring during a merge, ordered newest first.
+     */
+    private static class Cursor implements Comparable<Cursor> {
+        private final PostRing ring;
+        private int index;
+
+        Cursor(PostRing ring) {
+            this.ring = ring;
+        }
+
+
+        Post current() {
+            return ring.get(index);
+        }
+
+
+        /**
+         * Moves to the next older post, returns false past the oldest.
+         */
+        boolean advance() {
+            return ++index < ring.size();
+        }
+
+
+        public int compareTo(Cursor other) {
+            return Long.compare(other.current().sequence, current().sequence);
+        }
+    }
+}
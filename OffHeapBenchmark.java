@@ -0,0 +1,152 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the on-heap Graph with the off-heap storage engine. For each
+ * storage it builds the same random friendship graph together with a
+ * name and status per user, then reports the heap still in use after a
+ * full collection, the native memory, the pause of a full collection and
+ * the time of a breadth first traversal. The pause is what grows with the
+ * number of long-lived objects the collector has to trace.
+ *
+ * Run with the heap sized for the on-heap graph, e.g.
+ * java --enable-preview -Xmx8g OffHeapBenchmark 2000000 20
+ *
+ * Usage: java OffHeapBenchmark [users] [degree] [fullCollections]
+ *
+ * @author Kerem Bozgan kerembozgan
+ * @version 2022-11-11
+ */
+class OffHeapBenchmark {
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        int degree = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int collections = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        System.out.println("Users: " + n + ", degree: " + degree);
+        System.out.printf("%-9s %10s %10s %12s %12s %10s%n", "storage",
+            "build ms", "heap MB", "native MB", "full gc ms", "bfs ms");
+        run("on-heap", n, degree, collections, false);
+        run("off-heap", n, degree, collections, true);
+    }
+
+
+    /**
+     * Builds one storage, measures it and prints one row.
+     *
+     * @param name
+     *            name of the storage
+     * @param n
+     *            number of users
+     * @param degree
+     *            average number of friends
+     * @param collections
+     *            number of full collections to average
+     * @param offHeap
+     *            true for the off-heap storage
+     */
+    private static void run(
+        String name,
+        int n,
+        int degree,
+        int collections,
+        boolean offHeap) {
+        fullCollection();
+        long heapBefore = usedHeap();
+
+        long start = System.nanoTime();
+        GraphInterface<Integer> grph;
+        HashMap<Integer, Profile> profiles = null;
+        OffHeapProfileStore store = null;
+        if (offHeap) {
+            grph = new OffHeapGraph();
+            store = new OffHeapProfileStore();
+        }
+        else {
+            grph = new Graph<Integer>();
+            profiles = new HashMap<Integer, Profile>(101);
+        }
+        for (int i = 0; i < n; i++) {
+            grph.addVertex(i);
+            String userName = "user" + i;
+            String status = "Hello, I am user number " + i + ".";
+            if (offHeap) {
+                store.put(i, userName, status);
+            }
+            else {
+                profiles.put(i, new Profile(userName, status));
+            }
+        }
+        Random random = new Random(42);
+        for (long k = 0; k < (long)n * degree / 2; k++) {
+            grph.addEdge(random.nextInt(n), random.nextInt(n));
+        }
+        double buildMs = (System.nanoTime() - start) / 1e6;
+
+        long gcTime = 0;
+        for (int i = 0; i < collections; i++) {
+            gcTime += fullCollection();
+        }
+        long heapUsed = Math.max(0, usedHeap() - heapBefore);
+        long nativeBytes = 0;
+        if (offHeap) {
+            nativeBytes = ((OffHeapGraph)grph).getNativeMemory() + store
+                .getNativeMemory();
+        }
+
+        start = System.nanoTime();
+        int visited = grph.getBreadthFirstTraversal(0).size();
+        double bfsMs = (System.nanoTime() - start) / 1e6;
+
+        System.out.printf("%-9s %10.0f %10.1f %12.1f %12.1f %10.1f%n", name,
+            buildMs, heapUsed / 1048576.0, nativeBytes / 1048576.0,
+            (double)gcTime / collections, bfsMs);
+        if (visited < 0 || (profiles != null && profiles.isEmpty())) {
+            System.out.println();
+        }
+        if (offHeap) {
+            ((OffHeapGraph)grph).close();
+            store.close();
+        }
+    }
+
+
+    /**
+     * Runs a full collection and returns the time the collectors report
+     * for it, or the wall time if they report nothing.
+     *
+     * @return pause in milliseconds
+     */
+    private static long fullCollection() {
+        List<GarbageCollectorMXBean> collectors = ManagementFactory
+            .getGarbageCollectorMXBeans();
+        long before = 0;
+        for (GarbageCollectorMXBean collector : collectors) {
+            before += Math.max(0, collector.getCollectionTime());
+        }
+        long start = System.nanoTime();
+        System.gc();
+        long wall = (System.nanoTime() - start) / 1000000;
+        long after = 0;
+        for (GarbageCollectorMXBean collector : collectors) {
+            after += Math.max(0, collector.getCollectionTime());
+        }
+        return after > before ? after - before : wall;
+    }
+
+
+    /**
+     * Returns the heap in use in bytes.
+     *
+     * @return used heap
+     */
+    private static long usedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
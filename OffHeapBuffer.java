@@ -0,0 +1,237 @@
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+/**
+ * Growable block of native memory for the off-heap storage engine. The
+ * memory lives outside the Java heap, so the garbage collector never has
+ * to trace it. Each block has its own arena; growing allocates a larger
+ * segment, copies the contents and frees the old segment right away.
+ *
+ * Offsets are in bytes. Values are stored unaligned so records of mixed
+ * field sizes can be packed.
+ *
+ * @author Kerem Bozgan kerembozgan
+ * @version 2022-11-11
+ */
+class OffHeapBuffer implements AutoCloseable {
+
+    /** Layouts used for access, without alignment constraints */
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT
+        .withByteAlignment(1);
+    private static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG
+        .withByteAlignment(1);
+    private static final ValueLayout.OfDouble DOUBLE = ValueLayout.JAVA_DOUBLE
+        .withByteAlignment(1);
+
+    /** Arena that owns the current segment */
+    private Arena arena;
+
+    /** Current segment */
+    private MemorySegment segment;
+
+    /**
+     * Allocates a zero-filled buffer of the given size.
+     *
+     * @param initialBytes
+     *            initial size in bytes
+     */
+    OffHeapBuffer(long initialBytes) {
+        arena = Arena.ofShared();
+        segment = arena.allocate(Math.max(64, initialBytes), 8);
+        segment.fill((byte)0);
+    }
+
+
+    /**
+     * Grows the buffer so that it holds at least the given number of
+     * bytes. The buffer at least doubles, and new bytes are zero.
+     *
+     * @param bytes
+     *            required size in bytes
+     */
+    public void ensureCapacity(long bytes) {
+        long size = segment.byteSize();
+        if (bytes <= size) {
+            return;
+        }
+        long newSize = Math.max(bytes, size * 2);
+        Arena newArena = Arena.ofShared();
+        MemorySegment newSegment = newArena.allocate(newSize, 8);
+        MemorySegment.copy(segment, 0, newSegment, 0, size);
+        newSegment.asSlice(size).fill((byte)0);
+        arena.close();
+        arena = newArena;
+        segment = newSegment;
+    }
+
+
+    /**
+     * Returns the size of the buffer in bytes.
+     *
+     * @return capacity in bytes
+     */
+    public long capacity() {
+        return segment.byteSize();
+    }
+
+
+    /**
+     * Reads an int.
+     *
+     * @param offset
+     *            position in bytes
+     * @return value at the position
+     */
+    public int getInt(long offset) {
+        return segment.get(INT, offset);
+    }
+
+
+    /**
+     * Writes an int.
+     *
+     * @param offset
+     *            position in bytes
+     * @param value
+     *            value to write
+     */
+    public void setInt(long offset, int value) {
+        segment.set(INT, offset, value);
+    }
+
+
+    /**
+     * Reads a long.
+     *
+     * @param offset
+     *            position in bytes
+     * @return value at the position
+     */
+    public long getLong(long offset) {
+        return segment.get(LONG, offset);
+    }
+
+
+    /**
+     * Writes a long.
+     *
+     * @param offset
+     *            position in bytes
+     * @param value
+     *            value to write
+     */
+    public void setLong(long offset, long value) {
+        segment.set(LONG, offset, value);
+    }
+
+
+    /**
+     * Reads a double.
+     *
+     * @param offset
+     *            position in bytes
+     * @return value at the position
+     */
+    public double getDouble(long offset) {
+        return segment.get(DOUBLE, offset);
+    }
+
+
+    /**
+     * Writes a double.
+     *
+     * @param offset
+     *            position in bytes
+     * @param value
+     *            value to write
+     */
+    public void setDouble(long offset, double value) {
+        segment.set(DOUBLE, offset, value);
+    }
+
+
+    /**
+     * Copies bytes out of the buffer.
+     *
+     * @param offset
+     *            position in the buffer
+     * @param length
+     *            number of bytes
+     * @return copied bytes
+     */
+    public byte[] getBytes(long offset, int length) {
+        byte[] bytes = new byte[length];
+        MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, offset, bytes, 0,
+            length);
+        return bytes;
+    }
+
+
+    /**
+     * Copies bytes into the buffer, which must be large enough.
+     *
+     * @param offset
+     *            position in the buffer
+     * @param bytes
+     *            bytes to copy
+     */
+    public void setBytes(long offset, byte[] bytes) {
+        MemorySegment.copy(bytes, 0, segment, ValueLayout.JAVA_BYTE, offset,
+            bytes.length);
+    }
+
+
+    /**
+     * Copies a range of this buffer to another position, which may
+     * overlap.
+     *
+     * @param from
+     *            source position
+     * @param to
+     *            destination position
+     * @param length
+     *            number of bytes
+     */
+    public void move(long from, long to, long length) {
+        MemorySegment.copy(segment, from, segment, to, length);
+    }
+
+
+    /**
+     * Copies a range of this buffer into another buffer.
+     *
+     * @param from
+     *            source position
+     * @param target
+     *            destination buffer, which must be large enough
+     * @param to
+     *            destination position
+     * @param length
+     *            number of bytes
+     */
+    public void copyTo(long from, OffHeapBuffer target, long to, long length) {
+        MemorySegment.copy(segment, from, target.segment, to, length);
+    }
+
+
+    /**
+     * Sets a range of bytes to zero.
+     *
+     * @param offset
+     *            start of the range
+     * @param length
+     *            number of bytes
+     */
+    public void clear(long offset, long length) {
+        segment.asSlice(offset, length).fill((byte)0);
+    }
+
+
+    /**
+     * Frees the native memory. The buffer must not be used afterwards.
+     */
+    public void close() {
+        arena.close();
+    }
+}
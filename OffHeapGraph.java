@@ -0,0 +1,1289 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Stack;
+
+/**
+ * Implementation of Graph interface that keeps all vertices and edges in
+ * native memory (see OffHeapBuffer). A Graph holds a Vertex, an ArrayList
+ * and two Edge objects per friendship, all long-lived, which the garbage
+ * collector has to trace on every full collection. Here the only heap
+ * objects are the two or three buffers, whatever the size of the graph.
+ *
+ * Labels are the non-negative ints handed out by VTConnect and index a
+ * table of fixed size records:
+ *
+ * <pre>
+ * long   start of the adjacency of the vertex, in slots
+ * int    degree
+ * int    capacity of the adjacency, in slots
+ * int    flags (present, visited)
+ * int    predecessor label, -1 for none
+ * double cost
+ * long   start, int out-degree, int capacity of the out list of arcs
+ * long   start, int in-degree, int capacity of the in list of arcs
+ * </pre>
+ *
+ * Every adjacency slot holds the neighbor label and the index of the
+ * reverse edge in the neighbor's adjacency, so edges and vertices are
+ * removed like in Graph, by swapping with the last slot. An adjacency
+ * that is full moves to the end of the slot buffer with twice the
+ * capacity; the buffer is compacted when more than half of it is unused.
+ * Edge weights are kept in a separate buffer that is only created once a
+ * weighted edge is added.
+ *
+ * Directed arcs are kept the same way, in two more lists of slots in the
+ * same buffer: an arc is a slot in the out list of its source, holding
+ * the target and the index of the arc in the in list of the target, and
+ * a slot in that in list, holding the source and the index back. Arcs
+ * have no weight and are not seen by the traversals.
+ *
+ * The VertexInterface objects handed out by this graph are views: they
+ * are created on request and read and write the records, so two views of
+ * the same label are equal and share the visited mark, cost and
+ * predecessor.
+ *
+ * @author Kerem Bozgan kerembozgan
+ * @version 2022-11-11
+ */
+class OffHeapGraph implements GraphInterface<Integer>, AutoCloseable {
+
+    public static void main(String[] args) {
+        OffHeapGraph grph = new OffHeapGraph();
+        for (int i = 0; i < 9; i++) {
+            grph.addVertex(i);
+        }
+        grph.addEdge(0, 1);
+        grph.addEdge(0, 3);
+        grph.addEdge(0, 4);
+        grph.addEdge(1, 2);
+        grph.addEdge(1, 4);
+        grph.addEdge(2, 5);
+        grph.addEdge(3, 6);
+        grph.addEdge(4, 7);
+        grph.addEdge(4, 5);
+        grph.addEdge(5, 8);
+        grph.addEdge(5, 7);
+        grph.addEdge(6, 7);
+        grph.addEdge(7, 8);
+        System.out.println(grph.getNumberOfEdges());
+        System.out.println(grph.getNumberOfVertices());
+
+        Stack<Integer> path = new Stack<Integer>();
+        System.out.println(grph.getShortestPath(0, 8, path));
+        System.out.println(path);
+        System.out.println(grph.getBreadthFirstTraversal(0));
+        grph.removeVertex(4);
+        System.out.println(grph.getNumberOfEdges());
+        System.out.println(grph.getBreadthFirstTraversal(0));
+        grph.close();
+    }
+
+    /** Size of a vertex record in bytes */
+    private static final int RECORD = 64;
+    /** Offsets of the fields of a vertex record */
+    private static final int START = 0;
+    private static final int DEGREE = 8;
+    private static final int CAPACITY = 12;
+    private static final int FLAGS = 16;
+    private static final int PREDECESSOR = 20;
+    private static final int COST = 24;
+
+    /**
+     * Offsets of the start, degree and capacity of each list of slots of
+     * a record: the friends, the out arcs and the in arcs. The degree is
+     * 8 bytes after the start and the capacity 12.
+     */
+    private static final int FRIENDS = START;
+    private static final int OUT = 32;
+    private static final int IN = 48;
+    private static final int[] LISTS = { FRIENDS, OUT, IN };
+
+    /** Flag bits */
+    private static final int PRESENT = 1;
+    private static final int VISITED = 2;
+
+    /** Size of an adjacency slot in bytes: neighbor and reverse index */
+    private static final int SLOT = 8;
+
+    /** Vertex records, indexed by label */
+    private OffHeapBuffer table;
+    /** Adjacency slots of all vertices */
+    private OffHeapBuffer adjacency;
+    /** Edge weights, 8 bytes per slot, null until a weight is used */
+    private OffHeapBuffer weights;
+
+    /** First slot that is not part of any adjacency */
+    private long slotTop;
+    /** Slots left behind by adjacencies that moved or were removed */
+    private long wastedSlots;
+    /** Every label with a record is smaller than this bound */
+    private int labelBound;
+    /** Number of vertices */
+    private int numVertices;
+    /** Number of edges */
+    private int numEdges;
+    /** Number of directed arcs */
+    private int numArcs;
+    /** Vertices visited and edges scanned by the last traversal */
+    private int lastVisited;
+    private long lastScanned;
+
+    /**
+     * Initializes an empty graph.
+     */
+    OffHeapGraph() {
+        table = new OffHeapBuffer(RECORD * 1024L);
+        adjacency = new OffHeapBuffer(SLOT * 4096L);
+        weights = null;
+    }
+
+
+    /**
+     * Adds a vertex with the given label. Labels must not be negative.
+     *
+     * @param vertexLabel
+     *            label of the vertex
+     * @return true if added, false if null, negative or already present
+     */
+    public boolean addVertex(Integer vertexLabel) {
+        if (vertexLabel == null || vertexLabel < 0 || isPresent(
+            vertexLabel)) {
+            return false;
+        }
+        int v = vertexLabel;
+        if (v >= labelBound) {
+            table.ensureCapacity((v + 1L) * RECORD);
+            labelBound = v + 1;
+        }
+        long rec = (long)v * RECORD;
+        table.clear(rec, RECORD);
+        table.setInt(rec + FLAGS, PRESENT);
+        table.setInt(rec + PREDECESSOR, -1);
+        table.setDouble(rec + COST, 0.0);
+        numVertices++;
+        return true;
+    }
+
+
+    /**
+     * Removes the vertex with the given label and every edge to it, in
+     * time proportional to its degree.
+     *
+     * @param vertexLabel
+     *            label of the vertex to remove
+     * @return detached copy of the removed vertex, null if not present
+     */
+    public VertexInterface<Integer> removeVertex(Integer vertexLabel) {
+        if (vertexLabel == null || !isPresent(vertexLabel)) {
+            return null;
+        }
+        GraphEvents.VertexRemoval event = new GraphEvents.VertexRemoval();
+        event.begin();
+        int v = vertexLabel;
+        // the caller gets an on-heap copy, since the record is reused
+        Vertex<Integer> removed = new Vertex<Integer>(vertexLabel);
+        int degree = getDegree(v);
+        for (int i = 0; i < degree; i++) {
+            int neighbor = getSlotNeighbor(v, i);
+            removed.connect(new OffHeapVertex(neighbor), getWeight(v, i));
+            removeSlot(neighbor, getSlotMirror(v, i));
+        }
+        numEdges -= degree;
+        int outDegree = getDegree(v, OUT);
+        for (int i = 0; i < outDegree; i++) {
+            removeSlot(getSlotNeighbor(v, OUT, i), IN, getSlotMirror(v, OUT,
+                i));
+        }
+        int inDegree = getDegree(v, IN);
+        for (int i = 0; i < inDegree; i++) {
+            removeSlot(getSlotNeighbor(v, IN, i), OUT, getSlotMirror(v, IN,
+                i));
+        }
+        numArcs -= outDegree + inDegree;
+        long rec = (long)v * RECORD;
+        wastedSlots += table.getInt(rec + FRIENDS + CAPACITY) + table.getInt(
+            rec + OUT + CAPACITY) + table.getInt(rec + IN + CAPACITY);
+        table.clear(rec, RECORD);
+        numVertices--;
+        event.end();
+        if (event.shouldCommit()) {
+            event.set(vertexLabel, 1, 1, degree, 1);
+            event.commit();
+        }
+        return removed;
+    }
+
+
+    /**
+     * Removes all vertices with the given labels, each in time
+     * proportional to its degree.
+     *
+     * @param vertexLabels
+     *            labels of the vertices to remove
+     * @return list of removed vertices
+     */
+    public List<VertexInterface<Integer>> removeVertices(
+        Collection<Integer> vertexLabels) {
+        List<VertexInterface<Integer>> removedList =
+            new ArrayList<VertexInterface<Integer>>();
+        for (Integer label : vertexLabels) {
+            VertexInterface<Integer> removed = removeVertex(label);
+            if (removed != null) {
+                removedList.add(removed);
+            }
+        }
+        return removedList;
+    }
+
+
+    /**
+     * Adds a weighted edge between two distinct vertices. An edge with the
+     * same weight must not already exist.
+     *
+     * @param begin
+     *            beginning vertex
+     * @param end
+     *            end vertex
+     * @param edgeWeight
+     *            weight of the edge to be added
+     * @return true if added
+     */
+    public boolean addEdge(Integer begin, Integer end, double edgeWeight) {
+        if (!isPresent(begin) || !isPresent(end) || begin.equals(end)
+            || findSlot(begin, end, true, edgeWeight) >= 0) {
+            return false;
+        }
+        if (weights == null) {
+            weights = new OffHeapBuffer(Math.max(1, adjacency.capacity()
+                / SLOT) * 8);
+        }
+        link(begin, end, edgeWeight);
+        return true;
+    }
+
+
+    /**
+     * Adds an unweighted edge between two distinct vertices. No edge may
+     * already exist between them.
+     *
+     * @param begin
+     *            beginning vertex
+     * @param end
+     *            end vertex
+     * @return true if added
+     */
+    public boolean addEdge(Integer begin, Integer end) {
+        if (!isPresent(begin) || !isPresent(end) || begin.equals(end)
+            || findSlot(begin, end, false, 0.0) >= 0) {
+            return false;
+        }
+        link(begin, end, 0.0);
+        return true;
+    }
+
+
+    /**
+     * Removes a weighted edge between two vertices.
+     *
+     * @param begin
+     *            beginning vertex label
+     * @param end
+     *            end vertex label
+     * @param edgeWeight
+     *            weight of the edge to be removed
+     * @return true if successful
+     */
+    public boolean removeEdge(Integer begin, Integer end, double edgeWeight) {
+        if (!isPresent(begin) || !isPresent(end)) {
+            return false;
+        }
+        return unlink(begin, findSlot(begin, end, true, edgeWeight));
+    }
+
+
+    /**
+     * Removes an unweighted edge between two vertices.
+     *
+     * @param begin
+     *            beginning vertex
+     * @param end
+     *            end vertex
+     * @return true if successfully removed
+     */
+    public boolean removeEdge(Integer begin, Integer end) {
+        if (!isPresent(begin) || !isPresent(end)) {
+            return false;
+        }
+        return unlink(begin, findSlot(begin, end, false, 0.0));
+    }
+
+
+    /**
+     * Sees whether an edge exists between two given vertices.
+     *
+     * @param begin
+     *            beginning vertex
+     * @param end
+     *            end vertex
+     * @return true if there is an edge
+     */
+    public boolean hasEdge(Integer begin, Integer end) {
+        if (!isPresent(begin) || !isPresent(end)) {
+            return false;
+        }
+        return findSlot(begin, end, false, 0.0) >= 0;
+    }
+
+
+    /**
+     * Returns the number of vertices in this graph.
+     *
+     * @return number of vertices
+     */
+    public int getNumberOfVertices() {
+        return numVertices;
+    }
+
+
+    /**
+     * Returns the number of undirected edges in this graph.
+     *
+     * @return number of edges in the graph
+     */
+    public int getNumberOfEdges() {
+        return numEdges;
+    }
+
+
+    /**
+     * Returns true, if this graph is empty, false otherwise.
+     *
+     * @return true if the graph is empty
+     */
+    public boolean isEmpty() {
+        return numVertices == 0;
+    }
+
+
+    /**
+     * Returns views of all vertices in the graph, null if the graph is
+     * empty.
+     *
+     * @return list of vertices in the graph
+     */
+    public List<VertexInterface<Integer>> getVertices() {
+        if (numVertices == 0) {
+            return null;
+        }
+        List<VertexInterface<Integer>> vertexList =
+            new ArrayList<VertexInterface<Integer>>(numVertices);
+        for (int v = 0; v < labelBound; v++) {
+            if (isPresent(v)) {
+                vertexList.add(new OffHeapVertex(v));
+            }
+        }
+        return vertexList;
+    }
+
+
+    /**
+     * Returns a view of the vertex with the given label, or null if there
+     * is no such vertex.
+     *
+     * @param vertexLabel
+     *            label of the vertex
+     * @return vertex with the label
+     */
+    public VertexInterface<Integer> getVertex(Integer vertexLabel) {
+        if (vertexLabel == null || !isPresent(vertexLabel)) {
+            return null;
+        }
+        return new OffHeapVertex(vertexLabel);
+    }
+
+
+    /**
+     * Gives new labels to vertices, keeping their edges. The labels stored
+     * in the adjacency of their neighbors are rewritten first, through the
+     * reverse indices, then the records are moved.
+     *
+     * @param newLabels
+     *            map from old label to new label
+     */
+    public void relabelVertices(Map<Integer, Integer> newLabels) {
+        int count = 0;
+        int[] oldLabels = new int[newLabels.size()];
+        int maxLabel = labelBound - 1;
+        for (Integer oldLabel : newLabels.keySet()) {
+            if (oldLabel != null && isPresent(oldLabel)) {
+                oldLabels[count++] = oldLabel;
+                maxLabel = Math.max(maxLabel, newLabels.get(oldLabel));
+            }
+        }
+        // find every reverse slot before writing any, since two relabeled
+        // vertices may be neighbors
+        int slots = 0;
+        for (int k = 0; k < count; k++) {
+            for (int list : LISTS) {
+                slots += getDegree(oldLabels[k], list);
+            }
+        }
+        long[] reverseOffsets = new long[slots];
+        int[] reverseLabels = new int[slots];
+        slots = 0;
+        for (int k = 0; k < count; k++) {
+            int v = oldLabels[k];
+            int newLabel = newLabels.get(v);
+            for (int list : LISTS) {
+                for (int i = 0; i < getDegree(v, list); i++) {
+                    reverseOffsets[slots] = slotOffset(getSlotNeighbor(v,
+                        list, i), reverse(list), getSlotMirror(v, list, i));
+                    reverseLabels[slots++] = newLabel;
+                }
+            }
+        }
+        for (int i = 0; i < slots; i++) {
+            adjacency.setInt(reverseOffsets[i], reverseLabels[i]);
+        }
+
+        byte[][] records = new byte[count][];
+        for (int k = 0; k < count; k++) {
+            long rec = (long)oldLabels[k] * RECORD;
+            records[k] = table.getBytes(rec, RECORD);
+            table.clear(rec, RECORD);
+        }
+        table.ensureCapacity((maxLabel + 1L) * RECORD);
+        labelBound = maxLabel + 1;
+        for (int k = 0; k < count; k++) {
+            table.setBytes((long)newLabels.get(oldLabels[k]) * RECORD,
+                records[k]);
+        }
+    }
+
+
+    /**
+     * Removes all vertices and edges. The native memory is kept for
+     * reuse.
+     */
+    public void clear() {
+        table.clear(0, (long)labelBound * RECORD);
+        labelBound = 0;
+        slotTop = 0;
+        wastedSlots = 0;
+        numVertices = 0;
+        numEdges = 0;
+        numArcs = 0;
+    }
+
+
+    /**
+     * Performs a breadth first traversal from origin. The visited labels
+     * are tracked in a temporary array rather than in the records, so the
+     * visited marks of the vertices are left alone.
+     *
+     * @param origin
+     *            starting node of the traversal
+     * @return a queue of vertices, according to order visitation
+     */
+    public Queue<Integer> getBreadthFirstTraversal(Integer origin) {
+        if (origin == null || !isPresent(origin)) {
+            return null;
+        }
+        GraphEvents.BreadthFirstTraversal event =
+            new GraphEvents.BreadthFirstTraversal();
+        event.begin();
+        boolean[] visited = new boolean[labelBound];
+        int[] queue = new int[numVertices];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = origin;
+        visited[origin] = true;
+        long scanned = 0;
+        // the current level ends before levelEnd in the queue
+        int levelEnd = 1;
+        int depth = 0;
+        while (head < tail) {
+            if (head == levelEnd) {
+                depth++;
+                levelEnd = tail;
+            }
+            int front = queue[head++];
+            int degree = getDegree(front);
+            scanned += degree;
+            for (int i = 0; i < degree; i++) {
+                int next = getSlotNeighbor(front, i);
+                if (!visited[next]) {
+                    visited[next] = true;
+                    queue[tail++] = next;
+                }
+            }
+        }
+        lastVisited = tail;
+        lastScanned = scanned;
+        Queue<Integer> traversalOrder = new ArrayDeque<Integer>(tail);
+        for (int i = 0; i < tail; i++) {
+            traversalOrder.add(queue[i]);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.set(origin, depth, tail, scanned, tail);
+            event.commit();
+        }
+        return traversalOrder;
+    }
+
+
+    /**
+     * Returns the length of the shortest path between origin and
+     * destination, -1 if there is none, and pushes the path on the given
+     * stack with origin on top, like Graph does.
+     *
+     * @param origin
+     *            origin vertex
+     * @param destination
+     *            target vertex
+     * @param path
+     *            shortest path between origin and destination
+     * @return length of the shortest path
+     */
+    public int getShortestPath(
+        Integer origin,
+        Integer destination,
+        Stack<Integer> path) {
+        if (origin == null || destination == null || !isPresent(origin)
+            || !isPresent(destination) || origin.equals(destination)) {
+            return -1;
+        }
+        GraphEvents.ShortestPath event = new GraphEvents.ShortestPath();
+        event.begin();
+        int[] predecessor = new int[labelBound];
+        Arrays.fill(predecessor, -1);
+        int[] queue = new int[numVertices];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = origin;
+        predecessor[origin] = origin;
+        int target = destination;
+        long scanned = 0;
+        while (head < tail && predecessor[target] < 0) {
+            int front = queue[head++];
+            int degree = getDegree(front);
+            scanned += degree;
+            for (int i = 0; i < degree; i++) {
+                int next = getSlotNeighbor(front, i);
+                if (predecessor[next] < 0) {
+                    predecessor[next] = front;
+                    queue[tail++] = next;
+                }
+            }
+        }
+        lastVisited = tail;
+        lastScanned = scanned;
+        int length = -1;
+        if (predecessor[target] >= 0) {
+            length = 0;
+            path.push(target);
+            int vertex = target;
+            while (vertex != origin) {
+                vertex = predecessor[vertex];
+                path.push(vertex);
+                length++;
+            }
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            // without a path, the depth of the last vertex taken from
+            // the queue is the deepest level reached
+            int depth = length;
+            if (length < 0) {
+                depth = 0;
+                for (int v = queue[head - 1]; v != origin; v =
+                    predecessor[v]) {
+                    depth++;
+                }
+            }
+            event.set(origin, depth, tail, scanned, length);
+            event.destination = String.valueOf(destination);
+            event.commit();
+        }
+        return length;
+    }
+
+
+    /**
+     * Adds a directed arc from one vertex to another, as a slot in the
+     * out list of the source and one in the in list of the target.
+     *
+     * @param from
+     *            source vertex
+     * @param to
+     *            target vertex
+     * @return true if the arc was added
+     */
+    public boolean addArc(Integer from, Integer to) {
+        if (from == null || to == null || !isPresent(from) || !isPresent(to)
+            || from.equals(to) || findArc(from, to) >= 0) {
+            return false;
+        }
+        int i = appendSlot(from, OUT);
+        int j = appendSlot(to, IN);
+        long out = slotOffset(from, OUT, i);
+        long in = slotOffset(to, IN, j);
+        adjacency.setInt(out, to);
+        adjacency.setInt(out + 4, j);
+        adjacency.setInt(in, from);
+        adjacency.setInt(in + 4, i);
+        numArcs++;
+        return true;
+    }
+
+
+    /**
+     * Removes the directed arc from one vertex to another, searching the
+     * shorter of the out list of the source and the in list of the
+     * target.
+     *
+     * @param from
+     *            source vertex
+     * @param to
+     *            target vertex
+     * @return true if the arc was removed
+     */
+    public boolean removeArc(Integer from, Integer to) {
+        if (from == null || to == null || !isPresent(from) || !isPresent(
+            to)) {
+            return false;
+        }
+        int i = findArc(from, to);
+        if (i < 0) {
+            return false;
+        }
+        removeSlot(to, IN, getSlotMirror(from, OUT, i));
+        removeSlot(from, OUT, i);
+        numArcs--;
+        return true;
+    }
+
+
+    /**
+     * Sees whether there is a directed arc from one vertex to another.
+     *
+     * @param from
+     *            source vertex
+     * @param to
+     *            target vertex
+     * @return true if there is an arc
+     */
+    public boolean hasArc(Integer from, Integer to) {
+        return from != null && to != null && isPresent(from) && isPresent(
+            to) && findArc(from, to) >= 0;
+    }
+
+
+    /**
+     * Returns the number of arcs that leave a vertex.
+     *
+     * @param vertexLabel
+     *            label of the vertex
+     * @return out-degree, 0 if the vertex is missing
+     */
+    public int getOutDegree(Integer vertexLabel) {
+        return vertexLabel == null || !isPresent(vertexLabel)
+            ? 0
+            : getDegree(vertexLabel, OUT);
+    }
+
+
+    /**
+     * Returns the number of arcs that enter a vertex.
+     *
+     * @param vertexLabel
+     *            label of the vertex
+     * @return in-degree, 0 if the vertex is missing
+     */
+    public int getInDegree(Integer vertexLabel) {
+        return vertexLabel == null || !isPresent(vertexLabel)
+            ? 0
+            : getDegree(vertexLabel, IN);
+    }
+
+
+    /**
+     * Returns a page of the targets of the arcs that leave a vertex.
+     *
+     * @param vertexLabel
+     *            label of the vertex
+     * @param offset
+     *            index of the first target of the page
+     * @param count
+     *            largest number of targets
+     * @return labels of the targets, empty if the vertex is missing
+     */
+    public List<Integer> getOutNeighbors(
+        Integer vertexLabel,
+        int offset,
+        int count) {
+        return page(vertexLabel, OUT, offset, count);
+    }
+
+
+    /**
+     * Returns a page of the sources of the arcs that enter a vertex.
+     *
+     * @param vertexLabel
+     *            label of the vertex
+     * @param offset
+     *            index of the first source of the page
+     * @param count
+     *            largest number of sources
+     * @return labels of the sources, empty if the vertex is missing
+     */
+    public List<Integer> getInNeighbors(
+        Integer vertexLabel,
+        int offset,
+        int count) {
+        return page(vertexLabel, IN, offset, count);
+    }
+
+
+    /**
+     * Returns the number of directed arcs.
+     *
+     * @return number of arcs
+     */
+    public int getNumberOfArcs() {
+        return numArcs;
+    }
+
+
+    /**
+     * Returns the number of vertices the last call of
+     * getBreadthFirstTraversal or getShortestPath visited.
+     *
+     * @return vertices visited by the last traversal
+     */
+    public int getLastVisitedCount() {
+        return lastVisited;
+    }
+
+
+    /**
+     * Returns the number of adjacency entries the last call of
+     * getBreadthFirstTraversal or getShortestPath looked at.
+     *
+     * @return edges scanned by the last traversal
+     */
+    public long getLastScannedEdgeCount() {
+        return lastScanned;
+    }
+
+
+    /**
+     * Returns the number of bytes of native memory held by this graph.
+     *
+     * @return native memory in bytes
+     */
+    public long getNativeMemory() {
+        return table.capacity() + adjacency.capacity() + (weights == null
+            ? 0
+            : weights.capacity());
+    }
+
+
+    /**
+     * Frees the native memory. The graph must not be used afterwards.
+     */
+    public void close() {
+        table.close();
+        adjacency.close();
+        if (weights != null) {
+            weights.close();
+        }
+    }
+
+
+    /**
+     * Returns true if a vertex with the given label exists.
+     */
+    private boolean isPresent(int v) {
+        return v >= 0 && v < labelBound && (table.getInt((long)v * RECORD
+            + FLAGS) & PRESENT) != 0;
+    }
+
+
+    /**
+     * Returns the degree of a present vertex.
+     */
+    private int getDegree(int v) {
+        return getDegree(v, FRIENDS);
+    }
+
+
+    /**
+     * Returns the number of slots in a list of a present vertex.
+     */
+    private int getDegree(int v, int list) {
+        return table.getInt((long)v * RECORD + list + DEGREE);
+    }
+
+
+    /**
+     * Returns the byte offset of slot i of vertex v.
+     */
+    private long slotOffset(int v, int i) {
+        return slotOffset(v, FRIENDS, i);
+    }
+
+
+    /**
+     * Returns the byte offset of slot i of a list of vertex v.
+     */
+    private long slotOffset(int v, int list, int i) {
+        return (table.getLong((long)v * RECORD + list + START) + i) * SLOT;
+    }
+
+
+    /**
+     * Returns the neighbor label in slot i of v.
+     */
+    private int getSlotNeighbor(int v, int i) {
+        return adjacency.getInt(slotOffset(v, i));
+    }
+
+
+    private int getSlotNeighbor(int v, int list, int i) {
+        return adjacency.getInt(slotOffset(v, list, i));
+    }
+
+
+    /**
+     * Returns the reverse edge index in slot i of v.
+     */
+    private int getSlotMirror(int v, int i) {
+        return adjacency.getInt(slotOffset(v, i) + 4);
+    }
+
+
+    private int getSlotMirror(int v, int list, int i) {
+        return adjacency.getInt(slotOffset(v, list, i) + 4);
+    }
+
+
+    /**
+     * Returns the list that holds the other slot of an edge or arc: the
+     * friends for friends, the in list for the out list and back.
+     */
+    private static int reverse(int list) {
+        return list == OUT ? IN : list == IN ? OUT : FRIENDS;
+    }
+
+
+    /**
+     * Returns the index of the arc from one present vertex to another in
+     * the out list of the source, -1 if there is none. The shorter of
+     * that out list and the in list of the target is searched.
+     */
+    private int findArc(int from, int to) {
+        if (getDegree(from, OUT) <= getDegree(to, IN)) {
+            long offset = slotOffset(from, OUT, 0);
+            for (int i = 0; i < getDegree(from, OUT); i++, offset += SLOT) {
+                if (adjacency.getInt(offset) == to) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        long offset = slotOffset(to, IN, 0);
+        for (int j = 0; j < getDegree(to, IN); j++, offset += SLOT) {
+            if (adjacency.getInt(offset) == from) {
+                return adjacency.getInt(offset + 4);
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     * Returns the labels in a page of a list of a vertex.
+     */
+    private List<Integer> page(Integer label, int list, int offset, int count) {
+        List<Integer> page = new ArrayList<Integer>();
+        if (label != null && isPresent(label)) {
+            int end = (int)Math.min(getDegree(label, list), (long)offset
+                + count);
+            for (int i = Math.max(0, offset); i < end; i++) {
+                page.add(getSlotNeighbor(label, list, i));
+            }
+        }
+        return page;
+    }
+
+
+    /**
+     * Returns the weight of slot i of v, 0 for unweighted graphs.
+     */
+    private double getWeight(int v, int i) {
+        if (weights == null) {
+            return 0.0;
+        }
+        return weights.getDouble(slotOffset(v, i));
+    }
+
+
+    /**
+     * Returns the slot of v that points at end, -1 if there is none. If
+     * weighted is true the weight must match as well.
+     */
+    private int findSlot(int v, int end, boolean weighted, double weight) {
+        long offset = slotOffset(v, 0);
+        int degree = getDegree(v);
+        for (int i = 0; i < degree; i++, offset += SLOT) {
+            if (adjacency.getInt(offset) == end && (!weighted
+                || getWeight(v, i) == weight)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     * Adds the two halves of an edge and points them at each other.
+     */
+    private void link(int begin, int end, double weight) {
+        int i = appendSlot(begin);
+        int j = appendSlot(end);
+        long first = slotOffset(begin, i);
+        long second = slotOffset(end, j);
+        adjacency.setInt(first, end);
+        adjacency.setInt(first + 4, j);
+        adjacency.setInt(second, begin);
+        adjacency.setInt(second + 4, i);
+        if (weights != null) {
+            weights.setDouble(first, weight);
+            weights.setDouble(second, weight);
+        }
+        numEdges++;
+    }
+
+
+    /**
+     * Removes the edge at slot i of begin and its reverse edge.
+     */
+    private boolean unlink(int begin, int i) {
+        if (i < 0) {
+            return false;
+        }
+        int end = getSlotNeighbor(begin, i);
+        removeSlot(end, getSlotMirror(begin, i));
+        removeSlot(begin, i);
+        numEdges--;
+        return true;
+    }
+
+
+    /**
+     * Removes slot i of v by moving the last slot into it and pointing
+     * the reverse edge of the moved slot at its new index.
+     */
+    private void removeSlot(int v, int i) {
+        removeSlot(v, FRIENDS, i);
+    }
+
+
+    /**
+     * Removes slot i of a list of v the same way, pointing the other slot
+     * of the moved edge or arc at the new index.
+     */
+    private void removeSlot(int v, int list, int i) {
+        long rec = (long)v * RECORD + list;
+        int last = table.getInt(rec + DEGREE) - 1;
+        if (i != last) {
+            long from = slotOffset(v, list, last);
+            long to = slotOffset(v, list, i);
+            adjacency.move(from, to, SLOT);
+            if (weights != null && list == FRIENDS) {
+                weights.setDouble(to, weights.getDouble(from));
+            }
+            int neighbor = adjacency.getInt(to);
+            adjacency.setInt(slotOffset(neighbor, reverse(list), adjacency
+                .getInt(to + 4)) + 4, i);
+        }
+        table.setInt(rec + DEGREE, last);
+    }
+
+
+    /**
+     * Makes room for one more slot in the adjacency of v and returns its
+     * index. A full adjacency moves to the end of the slot buffer with
+     * twice the capacity.
+     */
+    private int appendSlot(int v) {
+        return appendSlot(v, FRIENDS);
+    }
+
+
+    /**
+     * Makes room for one more slot in a list of v the same way and
+     * returns its index.
+     */
+    private int appendSlot(int v, int list) {
+        long rec = (long)v * RECORD + list;
+        int degree = table.getInt(rec + DEGREE);
+        int capacity = table.getInt(rec + CAPACITY);
+        if (degree == capacity) {
+            if (wastedSlots > slotTop / 2 && wastedSlots > 4096) {
+                compact();
+            }
+            int newCapacity = Math.max(4, capacity * 2);
+            long oldStart = table.getLong(rec + START);
+            long newStart = slotTop;
+            slotTop += newCapacity;
+            adjacency.ensureCapacity(slotTop * SLOT);
+            adjacency.move(oldStart * SLOT, newStart * SLOT, (long)degree
+                * SLOT);
+            if (weights != null) {
+                // weights are indexed like the slots, arcs leave theirs
+                // unused
+                weights.ensureCapacity(slotTop * 8);
+                if (list == FRIENDS) {
+                    weights.move(oldStart * 8, newStart * 8, (long)degree
+                        * 8);
+                }
+            }
+            table.setLong(rec + START, newStart);
+            table.setInt(rec + CAPACITY, newCapacity);
+            wastedSlots += capacity;
+        }
+        table.setInt(rec + DEGREE, degree + 1);
+        return degree;
+    }
+
+
+    /**
+     * Copies every adjacency to a new slot buffer, back to back with no
+     * unused capacity, and frees the old buffer.
+     */
+    private void compact() {
+        long used = slotTop - wastedSlots;
+        OffHeapBuffer newAdjacency = new OffHeapBuffer(Math.max(used, 4096)
+            * SLOT);
+        OffHeapBuffer newWeights = weights == null
+            ? null
+            : new OffHeapBuffer(Math.max(used, 4096) * 8);
+        long top = 0;
+        for (int v = 0; v < labelBound; v++) {
+            if (!isPresent(v)) {
+                continue;
+            }
+            for (int list : LISTS) {
+                long rec = (long)v * RECORD + list;
+                long start = table.getLong(rec + START);
+                int degree = table.getInt(rec + DEGREE);
+                adjacency.copyTo(start * SLOT, newAdjacency, top * SLOT,
+                    (long)degree * SLOT);
+                if (weights != null && list == FRIENDS) {
+                    weights.copyTo(start * 8, newWeights, top * 8,
+                        (long)degree * 8);
+                }
+                table.setLong(rec + START, top);
+                table.setInt(rec + CAPACITY, degree);
+                top += degree;
+            }
+        }
+        adjacency.close();
+        adjacency = newAdjacency;
+        if (weights != null) {
+            weights.close();
+            weights = newWeights;
+        }
+        slotTop = top;
+        wastedSlots = 0;
+    }
+
+    /**
+     * View of a vertex record. Traversal state is kept in the record, so
+     * all views of a label share it.
+     */
+    private class OffHeapVertex implements VertexInterface<Integer> {
+        /** label of the vertex */
+        private int label;
+
+        private OffHeapVertex(int label) {
+            this.label = label;
+        }
+
+
+        public Integer getLabel() {
+            return label;
+        }
+
+
+        public int getNumberOfNeighbors() {
+            return getDegree(label);
+        }
+
+
+        public void visit() {
+            long rec = (long)label * RECORD + FLAGS;
+            table.setInt(rec, table.getInt(rec) | VISITED);
+        }
+
+
+        public void unvisit() {
+            long rec = (long)label * RECORD + FLAGS;
+            table.setInt(rec, table.getInt(rec) & ~VISITED);
+        }
+
+
+        public boolean isVisited() {
+            return (table.getInt((long)label * RECORD + FLAGS)
+                & VISITED) != 0;
+        }
+
+
+        /**
+         * Connects both directions, since edges of this graph are always
+         * stored in pairs.
+         */
+        public boolean connect(
+            VertexInterface<Integer> endVertex,
+            double edgeWeight) {
+            return addEdge(label, endVertex.getLabel(), edgeWeight);
+        }
+
+
+        public boolean connect(VertexInterface<Integer> endVertex) {
+            return addEdge(label, endVertex.getLabel());
+        }
+
+
+        public boolean disconnect(
+            VertexInterface<Integer> endVertex,
+            double edgeWeight) {
+            return removeEdge(label, endVertex.getLabel(), edgeWeight);
+        }
+
+
+        public boolean disconnect(VertexInterface<Integer> endVertex) {
+            return removeEdge(label, endVertex.getLabel());
+        }
+
+
+        /**
+         * Returns an iterator over a copy of the neighbor labels, so the
+         * graph may change while iterating.
+         */
+        public Iterator<VertexInterface<Integer>> getNeighborIterator() {
+            final int[] neighbors = new int[getDegree(label)];
+            for (int i = 0; i < neighbors.length; i++) {
+                neighbors[i] = getSlotNeighbor(label, i);
+            }
+            return new Iterator<VertexInterface<Integer>>() {
+                private int next = 0;
+
+                public boolean hasNext() {
+                    return next < neighbors.length;
+                }
+
+
+                public VertexInterface<Integer> next() {
+                    if (next == neighbors.length) {
+                        throw new NoSuchElementException();
+                    }
+                    return new OffHeapVertex(neighbors[next++]);
+                }
+            };
+        }
+
+
+        public VertexInterface<Integer> getNeighbor(int index) {
+            if (index < 0 || index >= getDegree(label)) {
+                throw new IndexOutOfBoundsException("Index: " + index
+                    + ", Size: " + getDegree(label));
+            }
+            return new OffHeapVertex(getSlotNeighbor(label, index));
+        }
+
+
+        public boolean hasNeighbor() {
+            return getDegree(label) > 0;
+        }
+
+
+        public VertexInterface<Integer> getUnvisitedNeighbor() {
+            int degree = getDegree(label);
+            for (int i = 0; i < degree; i++) {
+                int neighbor = getSlotNeighbor(label, i);
+                if ((table.getInt((long)neighbor * RECORD + FLAGS)
+                    & VISITED) == 0) {
+                    return new OffHeapVertex(neighbor);
+                }
+            }
+            return null;
+        }
+
+
+        public void setPredecessor(VertexInterface<Integer> predecessor) {
+            table.setInt((long)label * RECORD + PREDECESSOR,
+                predecessor == null ? -1 : predecessor.getLabel());
+        }
+
+
+        public VertexInterface<Integer> getPredecessor() {
+            int predecessor = table.getInt((long)label * RECORD
+                + PREDECESSOR);
+            return predecessor < 0 ? null : new OffHeapVertex(predecessor);
+        }
+
+
+        public boolean hasPredecessor() {
+            return table.getInt((long)label * RECORD + PREDECESSOR) >= 0;
+        }
+
+
+        public void setCost(double newCost) {
+            table.setDouble((long)label * RECORD + COST, newCost);
+        }
+
+
+        public double getCost() {
+            return table.getDouble((long)label * RECORD + COST);
+        }
+
+
+        /**
+         * Two views are equal if they show the same label of the same
+         * graph.
+         */
+        public boolean equals(Object other) {
+            if (!(other instanceof OffHeapVertex)) {
+                return false;
+            }
+            OffHeapVertex vertex = (OffHeapVertex)other;
+            return vertex.label == label && vertex.owner() == owner();
+        }
+
+
+        public int hashCode() {
+            return label;
+        }
+
+
+        public String toString() {
+            return "OffHeapVertex(" + label + ")";
+        }
+
+
+        private OffHeapGraph owner() {
+            return OffHeapGraph.this;
+        }
+    }
+}
@@ -0,0 +1,298 @@
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Keeps the name and status of the profiles of a VTConnect in native
+ * memory. The strings are stored as UTF-8 in one slab, and a table
+ * indexed by profile id holds where each one starts and how long it is:
+ *
+ * <pre>
+ * long start of the name in the slab
+ * long start of the status in the slab
+ * int  length of the name in bytes, -1 if the id is not in use
+ * int  length of the status in bytes
+ * </pre>
+ *
+ * A new value is appended to the slab and the old bytes become unused.
+ * The slab is compacted when more than half of it is unused. The store
+ * follows id compaction of its network through IdRemapListener.
+ *
+ * @author Kerem Bozgan kerembozgan
+ * @version 2022-11-11
+ */
+class OffHeapProfileStore implements IdRemapListener, AutoCloseable {
+
+    /** Size of a table record in bytes */
+    private static final int RECORD = 24;
+    /** Offsets of the fields of a table record */
+    private static final int NAME_START = 0;
+    private static final int STATUS_START = 8;
+    private static final int NAME_LENGTH = 16;
+    private static final int STATUS_LENGTH = 20;
+
+    /** Records indexed by profile id */
+    private OffHeapBuffer table;
+    /** UTF-8 bytes of all names and statuses */
+    private OffHeapBuffer slab;
+
+    /** First unused byte of the slab */
+    private long slabTop;
+    /** Bytes of the slab that belong to replaced or removed values */
+    private long wastedBytes;
+    /** Every id with a record is smaller than this bound */
+    private int idBound;
+
+    /**
+     * Initializes an empty store.
+     */
+    OffHeapProfileStore() {
+        table = new OffHeapBuffer(RECORD * 1024L);
+        slab = new OffHeapBuffer(64 * 1024L);
+    }
+
+
+    /**
+     * Stores the name and status of a profile id, replacing any previous
+     * values.
+     *
+     * @param id
+     *            profile id, not negative
+     * @param name
+     *            name of the profile
+     * @param status
+     *            status of the profile
+     */
+    public void put(int id, String name, String status) {
+        if (id >= idBound) {
+            table.ensureCapacity((id + 1L) * RECORD);
+            // ids between the old and the new bound are not in use
+            for (int i = idBound; i <= id; i++) {
+                table.setInt((long)i * RECORD + NAME_LENGTH, -1);
+            }
+            idBound = id + 1;
+        }
+        remove(id);
+        long rec = (long)id * RECORD;
+        // empty values first, the slab may be compacted while appending
+        table.setLong(rec + NAME_START, 0);
+        table.setInt(rec + NAME_LENGTH, 0);
+        table.setLong(rec + STATUS_START, 0);
+        table.setInt(rec + STATUS_LENGTH, 0);
+        table.setLong(rec + NAME_START, append(name));
+        table.setInt(rec + NAME_LENGTH, utf8Length(name));
+        table.setLong(rec + STATUS_START, append(status));
+        table.setInt(rec + STATUS_LENGTH, utf8Length(status));
+    }
+
+
+    /**
+     * Returns true if the id has a record.
+     *
+     * @param id
+     *            profile id
+     * @return true if the id is in use
+     */
+    public boolean contains(int id) {
+        return id >= 0 && id < idBound && table.getInt((long)id * RECORD
+            + NAME_LENGTH) >= 0;
+    }
+
+
+    /**
+     * Returns the name of a profile id, null if the id is not in use.
+     *
+     * @param id
+     *            profile id
+     * @return name of the profile
+     */
+    public String getName(int id) {
+        if (!contains(id)) {
+            return null;
+        }
+        long rec = (long)id * RECORD;
+        return read(table.getLong(rec + NAME_START), table.getInt(rec
+            + NAME_LENGTH));
+    }
+
+
+    /**
+     * Returns the status of a profile id, null if the id is not in use.
+     *
+     * @param id
+     *            profile id
+     * @return status of the profile
+     */
+    public String getStatus(int id) {
+        if (!contains(id)) {
+            return null;
+        }
+        long rec = (long)id * RECORD;
+        return read(table.getLong(rec + STATUS_START), table.getInt(rec
+            + STATUS_LENGTH));
+    }
+
+
+    /**
+     * Replaces the name of a profile id that is in use.
+     *
+     * @param id
+     *            profile id
+     * @param name
+     *            new name
+     */
+    public void setName(int id, String name) {
+        if (!contains(id)) {
+            return;
+        }
+        long rec = (long)id * RECORD;
+        wastedBytes += table.getInt(rec + NAME_LENGTH);
+        table.setLong(rec + NAME_START, append(name));
+        table.setInt(rec + NAME_LENGTH, utf8Length(name));
+    }
+
+
+    /**
+     * Replaces the status of a profile id that is in use.
+     *
+     * @param id
+     *            profile id
+     * @param status
+     *            new status
+     */
+    public void setStatus(int id, String status) {
+        if (!contains(id)) {
+            return;
+        }
+        long rec = (long)id * RECORD;
+        wastedBytes += table.getInt(rec + STATUS_LENGTH);
+        table.setLong(rec + STATUS_START, append(status));
+        table.setInt(rec + STATUS_LENGTH, utf8Length(status));
+    }
+
+
+    /**
+     * Forgets the values of a profile id.
+     *
+     * @param id
+     *            profile id
+     */
+    public void remove(int id) {
+        if (!contains(id)) {
+            return;
+        }
+        long rec = (long)id * RECORD;
+        wastedBytes += table.getInt(rec + NAME_LENGTH) + table.getInt(rec
+            + STATUS_LENGTH);
+        table.setInt(rec + NAME_LENGTH, -1);
+    }
+
+
+    /**
+     * Moves the records to the renumbered ids. Strings stay where they
+     * are in the slab, only the table changes.
+     *
+     * @param oldToNew
+     *            array mapping each old id to its new id
+     * @param newBound
+     *            number of ids in use
+     */
+    public void idsRemapped(int[] oldToNew, int newBound) {
+        OffHeapBuffer newTable = new OffHeapBuffer(Math.max(1024,
+            newBound) * (long)RECORD);
+        for (int i = 0; i < newBound; i++) {
+            newTable.setInt((long)i * RECORD + NAME_LENGTH, -1);
+        }
+        for (int id = 0; id < Math.min(idBound, oldToNew.length); id++) {
+            if (contains(id) && oldToNew[id] >= 0) {
+                table.copyTo((long)id * RECORD, newTable, (long)oldToNew[id]
+                    * RECORD, RECORD);
+            }
+        }
+        table.close();
+        table = newTable;
+        idBound = newBound;
+    }
+
+
+    /**
+     * Returns the number of bytes of native memory held by this store.
+     *
+     * @return native memory in bytes
+     */
+    public long getNativeMemory() {
+        return table.capacity() + slab.capacity();
+    }
+
+
+    /**
+     * Frees the native memory. The store must not be used afterwards.
+     */
+    public void close() {
+        table.close();
+        slab.close();
+    }
+
+
+    /**
+     * Appends the UTF-8 bytes of a string to the slab and returns where
+     * they start.
+     */
+    private long append(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (wastedBytes > slabTop / 2 && wastedBytes > 64 * 1024) {
+            compact();
+        }
+        slab.ensureCapacity(slabTop + bytes.length);
+        long start = slabTop;
+        slab.setBytes(start, bytes);
+        slabTop += bytes.length;
+        return start;
+    }
+
+
+    /**
+     * Decodes a string from the slab.
+     */
+    private String read(long start, int length) {
+        return new String(slab.getBytes(start, length),
+            StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * Returns the length of a string in UTF-8 bytes.
+     */
+    private static int utf8Length(String value) {
+        return value.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+
+    /**
+     * Copies the values in use to a new slab, back to back, and frees the
+     * old slab.
+     */
+    private void compact() {
+        OffHeapBuffer newSlab = new OffHeapBuffer(Math.max(64 * 1024,
+            slabTop - wastedBytes));
+        long top = 0;
+        for (int id = 0; id < idBound; id++) {
+            if (!contains(id)) {
+                continue;
+            }
+            long rec = (long)id * RECORD;
+            int nameLength = table.getInt(rec + NAME_LENGTH);
+            int statusLength = table.getInt(rec + STATUS_LENGTH);
+            slab.copyTo(table.getLong(rec + NAME_START), newSlab, top,
+                nameLength);
+            table.setLong(rec + NAME_START, top);
+            top += nameLength;
+            slab.copyTo(table.getLong(rec + STATUS_START), newSlab, top,
+                statusLength);
+            table.setLong(rec + STATUS_START, top);
+            top += statusLength;
+        }
+        slab.close();
+        slab = newSlab;
+        slabTop = top;
+        wastedBytes = 0;
+    }
+}
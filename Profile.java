@@ -1,4 +1,6 @@
-import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 
 /**
  * Implementation of Vertex interface.
@@ -13,51 +15,38 @@ class Profile {
 
     /** Unique, unmutable identifier for profile */
     protected Integer id;
-    /** A String value that represents the full name of the user */
+    /**
+     * A String value that represents the full name of the user, null
+     * while the name is kept in the off-heap store of the network
+     */
     protected String name;
 
-    /** A String that the user uses to specify their status. */
+    /**
+     * A String that the user uses to specify their status, null while
+     * the status is kept in the off-heap store of the network
+     */
     protected String status;
 
-    /** An arraylist of profiles that stores friends of the user. */
-    protected ArrayList<Profile> friendProfiles;
+    /**
+     * The network this profile was added to, null if it is not part of
+     * any network. Friends are read from the network's graph, so the
+     * profile does not keep its own copy of the friend list.
+     */
+    protected VTConnect network;
 
     /**
      * Initializes all the String attributes to
-     * empty strings and a default arraylist.
+     * empty strings.
      */
     public Profile() {
         name = "";
         status = "";
-        friendProfiles = new ArrayList<Profile>();
-    }
-
-
-    /**
-     * Initializes attributes to the given values.
-     * 
-     * @param name
-     *            user name
-     * @param status
-     *            user status
-     * @param friendProfiles
-     *            list of friend profiles
-     */
-    public Profile(
-        String name,
-        String status,
-        ArrayList<Profile> friendProfiles) {
-        this.name = name;
-        this.status = status;
-        this.friendProfiles = friendProfiles;
-
     }
 
 
     /**
      * Initializes the attributes with
-     * the accepted valued and the last attribute with a default arraylist
-     * object.
+     * the accepted values.
      * 
      * @param name
      *            user name
@@ -67,7 +56,6 @@ class Profile {
     public Profile(String name, String status) {
         this.name = name;
         this.status = status;
-        this.friendProfiles = new ArrayList<Profile>();
     }
 
 
@@ -82,7 +70,15 @@ class Profile {
      *            lastname
      */
     public void setName(String firstName, String lastName) {
-        name = firstName + " " + lastName;
+        if (isStoredOffHeap()) {
+            network.profileStore.setName(id, firstName + " " + lastName);
+        }
+        else {
+            name = firstName + " " + lastName;
+        }
+        if (network != null) {
+            network.nameChanged(this, firstName, lastName);
+        }
     }
 
 
@@ -92,18 +88,30 @@ class Profile {
      * @return user name
      */
     public String getName() {
+        if (isStoredOffHeap()) {
+            return network.profileStore.getName(id);
+        }
         return name;
     }
 
 
     /**
-     * The setter method for status
+     * The setter method for status. If the profile is part of a network,
+     * the new status is also posted to the news feed of its friends.
      * 
      * @param status
      *            status
      */
     public void setStatus(String status) {
-        this.status = status;
+        if (isStoredOffHeap()) {
+            network.profileStore.setStatus(id, status);
+        }
+        else {
+            this.status = status;
+        }
+        if (network != null) {
+            network.statusChanged(this, status);
+        }
     }
 
 
@@ -113,10 +121,24 @@ class Profile {
      * @return status
      */
     public String getStatus() {
+        if (isStoredOffHeap()) {
+            return network.profileStore.getStatus(id);
+        }
         return status;
     }
 
 
+    /**
+     * Returns true if the name and status of this profile are kept in the
+     * off-heap store of its network instead of in this object.
+     * 
+     * @return true if stored off-heap
+     */
+    boolean isStoredOffHeap() {
+        return network != null && network.profileStore != null;
+    }
+
+
     /**
      * Returns the a string that represents the profile
      * of the user.
@@ -124,8 +146,8 @@ class Profile {
      * @return user info
      */
     public String toString() {
-        return "Name: " + name + "\n\tStatus: " + status
-            + "\n\tNumber of friend profiles: " + friendProfiles.size() + "\n";
+        return "Name: " + getName() + "\n\tStatus: " + getStatus()
+            + "\n\tNumber of friend profiles: " + getNumberOfFriends() + "\n";
     }
 
 
@@ -134,41 +156,63 @@ class Profile {
      */
     public void display() {
 
-        System.out.println("Name: " + name + "\n\tStatus: " + status
-            + "\n\tNumber of friend profiles: " + friendProfiles.size());
+        System.out.println("Name: " + getName() + "\n\tStatus: "
+            + getStatus() + "\n\tNumber of friend profiles: "
+            + getNumberOfFriends());
 
         System.out.println("Friends:");
-        Profile friend;
-        for (int i = 0; i < friendProfiles.size(); i++) {
-            friend = friendProfiles.get(i);
-            System.out.println("\t" + friend.name);
+        // walk the view directly, friends are resolved one at a time
+        Iterator<Profile> itr = getFriendProfiles().iterator();
+        while (itr.hasNext()) {
+            System.out.println("\t" + itr.next().getName());
         }
     }
 
 
     /**
-     * Getter method for attribute friendProfiles
+     * Returns a read-only view of the friends of this profile. The view
+     * is backed by the adjacency of the network graph, so it always
+     * reflects the current friendships. Returns an empty list if the
+     * profile is not part of a network.
      * 
-     * @return friendProfiles
+     * @return friend profiles
      */
-    public ArrayList<Profile> getFriendProfiles() {
-        return friendProfiles;
+    public List<Profile> getFriendProfiles() {
+        if (network == null) {
+            return Collections.emptyList();
+        }
+        return network.getFriends(this);
     }
 
 
     /**
-     * Add a new friend to the friends list.
+     * Returns the number of friends of this profile in O(1).
+     * 
+     * @return number of friends
+     */
+    public int getNumberOfFriends() {
+        if (network == null) {
+            return 0;
+        }
+        return network.getNumberOfFriends(this);
+    }
+
+
+    /**
+     * Add a new friend to the friends list. The friendship is created
+     * in the network graph, so both profiles must belong to the same
+     * network.
      * 
      * @param user
      *            user name to add as friend
      */
     public void addFriend(Profile user) {
         // check if user is trying to friend itself
-        if (name.compareTo(user.name) == 0) {
+        if (getName().compareTo(user.getName()) == 0) {
             return;
         }
-        if (!friendProfiles.contains(user)) {
-            friendProfiles.add(user);
+        if (network != null && user.network == network) {
+            network.createFriendship(this, user);
         }
     }
 
@@ -182,16 +226,9 @@ class Profile {
      * @return true if removed successfully
      */
     public boolean unFriend(Profile user) {
-
-        Profile friend;
-        for (int i = 0; i < friendProfiles.size(); i++) {
-            friend = friendProfiles.get(i);
-            if (friend.name.compareTo(user.name) == 0) {
-                friendProfiles.remove(i);
-                return true;
-            }
+        if (network == null || user.network != network) {
+            return false;
         }
-        return false;
-
+        return network.removeFriendship(this, user);
     }
 }
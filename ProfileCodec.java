@@ -0,0 +1,988 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compact binary encoding of profiles and of a whole VTConnect, for
+ * export and import. A stream is a magic number followed by chunks of
+ * profiles and an empty chunk at the end:
+ *
+ * <pre>
+ * int MAGIC
+ * chunk     int length in bytes, int profile count, profiles
+ * ...
+ * end       int 0, int 0
+ * </pre>
+ *
+ * and a profile is encoded in varints, 7-bit groups with the low group
+ * first, as:
+ *
+ * <pre>
+ * varint zig-zag of id - previous id - 1   (previous id is -1 at the
+ *                                           start of a chunk)
+ * varint length, UTF-8 bytes of the name
+ * varint length, UTF-8 bytes of the status
+ * varint friend count, friend ids
+ * varint followee count, followee ids
+ * </pre>
+ *
+ * Ids in a list are sorted; the first is stored as the zig-zag encoded
+ * difference to the id of the profile and every following one as the
+ * gap to the previous one minus one, like the residuals of
+ * CompressedGraph. A friendship is in the lists of both of its profiles
+ * and a follow arc only in the list of the follower.
+ *
+ * Writer and Reader stream over any channel and reuse their buffers, so
+ * they do not allocate per profile beyond the strings. Chunks are
+ * independent, so a file can also be decoded by several threads, each
+ * reading whole chunks with positional reads of a FileChannel.
+ *
+ * main exports a generated network, reads the file back both ways,
+ * imports it into a new network and checks that the new network
+ * exports to the same bytes:
+ *
+ * <pre>
+ * java ProfileCodec --users 1000000 --degree 8 --threads 4
+ * </pre>
+ *
+ * @author Kerem Bozgan kerembozgan
+ * @version 2022-11-11
+ */
+class ProfileCodec {
+
+    /** First int of every stream, "VTC1" */
+    static final int MAGIC = 0x56544331;
+
+    /** Default number of profiles in a chunk */
+    static final int CHUNK_PROFILES = 4096;
+
+    /** Largest chunk the readers accept */
+    static final int MAX_CHUNK = 1 << 30;
+
+    /** Bytes of the length and count in front of a chunk */
+    private static final int CHUNK_HEADER = 8;
+
+    public static void main(String[] args) throws IOException {
+        HashMap<String, String> options = VTConnectServer.parseOptions(args);
+        int n = Integer.parseInt(options.getOrDefault("users", "1000000"));
+        int degree = Integer.parseInt(options.getOrDefault("degree", "8"));
+        int threads = Integer.parseInt(options.getOrDefault("threads", String
+            .valueOf(Runtime.getRuntime().availableProcessors())));
+        Path file = options.containsKey("file")
+            ? Paths.get(options.get("file"))
+            : Files.createTempFile("vtconnect", ".bin");
+        Path copy = Files.createTempFile("vtconnect", ".bin");
+
+        try {
+            long start = System.nanoTime();
+            VTConnect network = new VTConnect();
+            Profile[] profiles = GraphGenerator.populate(network, n,
+                GraphGenerator.generate(GraphGenerator.BARABASI_ALBERT, n,
+                    degree, new Random(42)));
+            Random random = new Random(7);
+            for (int i = 0; i < n; i += 100) {
+                profiles[i].setStatus("Grüße von user " + i + " ✓");
+            }
+            for (int i = 0; i < n / 10; i++) {
+                network.follow(profiles[random.nextInt(n)], profiles[random
+                    .nextInt(n)]);
+            }
+            System.out.printf("Generated %d profiles in %.1f s%n", n,
+                (System.nanoTime() - start) / 1e9);
+
+            start = System.nanoTime();
+            long bytes = write(network, file);
+            report("Export", bytes, n, System.nanoTime() - start);
+            System.out.printf("%.1f bytes per profile%n", (double)bytes / n);
+
+            start = System.nanoTime();
+            int mismatches = verify(network, file);
+            report("Streaming decode and compare", bytes, n, System
+                .nanoTime() - start);
+            System.out.println("Mismatched profiles: " + mismatches);
+
+            try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ)) {
+                // the first pass warms up the decoder
+                decode(channel, 1);
+                for (int t : threads > 1
+                    ? new int[] { 1, threads }
+                    : new int[] { 1 }) {
+                    start = System.nanoTime();
+                    decode(channel, t);
+                    report("Chunked decode on " + t + " threads", bytes, n,
+                        System.nanoTime() - start);
+                }
+            }
+
+            // only one network at a time, for the heap
+            network = null;
+            profiles = null;
+            start = System.nanoTime();
+            VTConnect imported = new VTConnect();
+            read(file, imported, threads);
+            report("Import", bytes, n, System.nanoTime() - start);
+            write(imported, copy);
+            System.out.println("Round trip identical: " + (Files.mismatch(
+                file, copy) == -1));
+        }
+        finally {
+            if (!options.containsKey("file")) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(copy);
+        }
+    }
+
+
+    /**
+     * Prints the rate of a step.
+     */
+    private static void report(String step, long bytes, int n, long nanos) {
+        double seconds = nanos / 1e9;
+        System.out.printf("%s: %.2f s, %.0f MB/s, %.0f profiles/s%n", step,
+            seconds, bytes / 1e6 / seconds, n / seconds);
+    }
+
+
+    /**
+     * Counts the profiles of a file that differ from a network.
+     */
+    private static int verify(VTConnect network, Path file)
+        throws IOException {
+        int mismatches = 0;
+        Entry expected = new Entry();
+        Entry actual = new Entry();
+        try (Reader reader = new Reader(FileChannel.open(file,
+            StandardOpenOption.READ))) {
+            while (reader.next(actual)) {
+                Profile p = network.getProfile(actual.id);
+                if (p == null) {
+                    mismatches++;
+                    continue;
+                }
+                expected.set(network, p);
+                Arrays.sort(expected.friends, 0, expected.friendCount);
+                Arrays.sort(expected.followees, 0, expected.followeeCount);
+                if (!expected.equals(actual)) {
+                    mismatches++;
+                }
+            }
+        }
+        return mismatches;
+    }
+
+
+    /**
+     * Writes every profile of a network to a file, replacing it.
+     *
+     * @param network
+     *            network to export
+     * @param file
+     *            file to write
+     * @return number of bytes written
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    public static long write(VTConnect network, Path file)
+        throws IOException {
+        return write(network, FileChannel.open(file,
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING));
+    }
+
+
+    /**
+     * Writes every profile of a network to a channel, in the order of the
+     * ids, and closes the channel.
+     *
+     * @param network
+     *            network to export
+     * @param channel
+     *            channel to write to
+     * @return number of bytes written
+     * @throws IOException
+     *             if the channel fails
+     */
+    public static long write(VTConnect network, WritableByteChannel channel)
+        throws IOException {
+        Entry entry = new Entry();
+        try (Writer writer = new Writer(channel, CHUNK_PROFILES)) {
+            int bound = network.getIdBound();
+            for (int id = 0; id < bound; id++) {
+                Profile p = network.getProfile(id);
+                if (p != null) {
+                    entry.set(network, p);
+                    writer.write(entry);
+                }
+            }
+            writer.finish();
+            return writer.getBytesWritten();
+        }
+    }
+
+
+    /**
+     * Adds the profiles, friendships and follow arcs of a stream to a
+     * network, one profile after the other. Profiles keep the ids they
+     * had when they were written.
+     *
+     * @param channel
+     *            channel to read; it is closed at the end
+     * @param network
+     *            network without profiles
+     * @throws IOException
+     *             if the channel fails, the stream is malformed or an id
+     *             is taken
+     */
+    public static void read(ReadableByteChannel channel, VTConnect network)
+        throws IOException {
+        Entry entry = new Entry();
+        // followees may come later than their followers
+        int[] arcs = new int[16];
+        int arcEnds = 0;
+        try (Reader reader = new Reader(channel)) {
+            while (reader.next(entry)) {
+                Profile p = new Profile(entry.name, entry.status);
+                if (!network.loadUser(p, entry.id)) {
+                    throw new IOException("Id " + entry.id + " is taken");
+                }
+                // the second profile of a friendship creates it
+                for (int i = 0; i < entry.friendCount; i++) {
+                    Profile friend = network.getProfile(entry.friends[i]);
+                    if (friend != null) {
+                        network.createFriendship(p, friend);
+                    }
+                }
+                for (int i = 0; i < entry.followeeCount; i++) {
+                    if (arcEnds + 2 > arcs.length) {
+                        arcs = Arrays.copyOf(arcs, arcs.length * 2);
+                    }
+                    arcs[arcEnds++] = entry.id;
+                    arcs[arcEnds++] = entry.followees[i];
+                }
+            }
+        }
+        follow(network, arcs, arcEnds);
+    }
+
+
+    /**
+     * Adds the profiles, friendships and follow arcs of a file to a
+     * network. The chunks are decoded on several threads and then added
+     * in order.
+     *
+     * @param file
+     *            file to read
+     * @param network
+     *            network without profiles
+     * @param threads
+     *            number of threads that decode
+     * @throws IOException
+     *             if the file cannot be read, is malformed or an id is
+     *             taken
+     */
+    public static void read(Path file, VTConnect network, int threads)
+        throws IOException {
+        Chunk[] chunks;
+        try (FileChannel channel = FileChannel.open(file,
+            StandardOpenOption.READ)) {
+            chunks = decode(channel, threads);
+        }
+        for (Chunk chunk : chunks) {
+            for (int i = 0; i < chunk.count; i++) {
+                Profile p = new Profile(chunk.names[i], chunk.statuses[i]);
+                if (!network.loadUser(p, chunk.ids[i])) {
+                    throw new IOException("Id " + chunk.ids[i] + " is taken");
+                }
+            }
+        }
+        int arcEnds = 0;
+        for (Chunk chunk : chunks) {
+            for (int i = 0; i < chunk.count; i++) {
+                Profile p = network.getProfile(chunk.ids[i]);
+                for (int j = chunk.friendStart[i]; j < chunk.friendStart[i
+                    + 1]; j++) {
+                    // every friendship once, from its lower id
+                    if (chunk.friends[j] > chunk.ids[i]) {
+                        Profile friend = network.getProfile(chunk.friends[j]);
+                        if (friend != null) {
+                            network.createFriendship(p, friend);
+                        }
+                    }
+                }
+                arcEnds += 2 * (chunk.followeeStart[i + 1]
+                    - chunk.followeeStart[i]);
+            }
+        }
+        int[] arcs = new int[arcEnds];
+        arcEnds = 0;
+        for (Chunk chunk : chunks) {
+            for (int i = 0; i < chunk.count; i++) {
+                for (int j = chunk.followeeStart[i]; j < chunk.followeeStart[i
+                    + 1]; j++) {
+                    arcs[arcEnds++] = chunk.ids[i];
+                    arcs[arcEnds++] = chunk.followees[j];
+                }
+            }
+        }
+        follow(network, arcs, arcEnds);
+    }
+
+
+    /**
+     * Adds follow arcs given as pairs of follower and followee ids.
+     */
+    private static void follow(VTConnect network, int[] arcs, int arcEnds) {
+        for (int i = 0; i < arcEnds; i += 2) {
+            Profile follower = network.getProfile(arcs[i]);
+            Profile followee = network.getProfile(arcs[i + 1]);
+            if (follower != null && followee != null) {
+                network.follow(follower, followee);
+            }
+        }
+    }
+
+
+    /**
+     * Decodes every chunk of a file on several threads. The chunks are
+     * found by skipping from header to header and then handed out to the
+     * threads one at a time.
+     *
+     * @param channel
+     *            file to decode
+     * @param threads
+     *            number of threads, at least 1
+     * @return decoded chunks in the order of the file
+     * @throws IOException
+     *             if the file cannot be read or is malformed
+     */
+    static Chunk[] decode(FileChannel channel, int threads)
+        throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(CHUNK_HEADER);
+        header.limit(4);
+        readFully(channel, header, 0);
+        if (header.getInt(0) != MAGIC) {
+            throw new IOException("Not a profile stream");
+        }
+        List<Chunk> found = new ArrayList<Chunk>();
+        long position = 4;
+        while (true) {
+            header.clear();
+            readFully(channel, header, position);
+            int length = header.getInt(0);
+            int count = header.getInt(4);
+            if (length == 0 && count == 0) {
+                break;
+            }
+            checkChunk(length, count);
+            found.add(new Chunk(position + CHUNK_HEADER, length, count));
+            position += CHUNK_HEADER + length;
+        }
+        Chunk[] chunks = found.toArray(new Chunk[found.size()]);
+
+        AtomicInteger next = new AtomicInteger();
+        int workers = Math.max(1, Math.min(threads, chunks.length));
+        Callable<Void> job = () -> {
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+            Entry entry = new Entry();
+            for (int c = next.getAndIncrement(); c < chunks.length; c = next
+                .getAndIncrement()) {
+                if (buffer.capacity() < chunks[c].length) {
+                    buffer = ByteBuffer.allocate(chunks[c].length);
+                }
+                buffer.clear().limit(chunks[c].length);
+                readFully(channel, buffer, chunks[c].position);
+                buffer.flip();
+                chunks[c].decode(buffer, entry);
+            }
+            return null;
+        };
+        if (workers == 1) {
+            try {
+                job.call();
+            }
+            catch (IOException | RuntimeException e) {
+                throw e;
+            }
+            catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+            return chunks;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            List<Callable<Void>> jobs = new ArrayList<Callable<Void>>();
+            for (int t = 0; t < workers; t++) {
+                jobs.add(job);
+            }
+            for (Future<Void> result : pool.invokeAll(jobs)) {
+                result.get();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted", e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException)e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+        finally {
+            pool.shutdownNow();
+        }
+        return chunks;
+    }
+
+
+    private static void checkChunk(int length, int count) throws IOException {
+        // every profile takes at least five bytes
+        if (length <= 0 || length > MAX_CHUNK || count <= 0
+            || count > length / 5) {
+            throw new IOException("Bad chunk of " + count + " profiles in "
+                + length + " bytes");
+        }
+    }
+
+
+    /**
+     * Fills a buffer from a position of a file.
+     */
+    private static void readFully(
+        FileChannel channel,
+        ByteBuffer buffer,
+        long position)
+        throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Truncated profile stream");
+            }
+            position += read;
+        }
+    }
+
+
+    private static void readFully(
+        ReadableByteChannel channel,
+        ByteBuffer buffer)
+        throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Truncated profile stream");
+            }
+        }
+    }
+
+
+    private static void writeFully(
+        WritableByteChannel channel,
+        ByteBuffer buffer)
+        throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+
+    private static void putVarint(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte)((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte)value);
+    }
+
+
+    private static int getVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+
+    private static int unzigzag(int zigzag) {
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+
+    /**
+     * Writes a string as its UTF-8 length and bytes. ASCII strings, the
+     * common case, are copied without an intermediate array.
+     */
+    private static void putString(ByteBuffer out, String value) {
+        int length = value.length();
+        int ascii = 0;
+        while (ascii < length && value.charAt(ascii) < 0x80) {
+            ascii++;
+        }
+        if (ascii == length) {
+            putVarint(out, length);
+            for (int i = 0; i < length; i++) {
+                out.put((byte)value.charAt(i));
+            }
+        }
+        else {
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            putVarint(out, utf8.length);
+            out.put(utf8);
+        }
+    }
+
+
+    private static String getString(ByteBuffer in) {
+        int length = getVarint(in);
+        if (length < 0 || length > in.remaining()) {
+            throw new IllegalArgumentException("Truncated string");
+        }
+        String value = new String(in.array(), in.arrayOffset() + in
+            .position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+
+
+    /**
+     * Writes a sorted list of ids as gaps.
+     */
+    private static void putIds(ByteBuffer out, int id, int[] ids, int count) {
+        putVarint(out, count);
+        int previous = id;
+        for (int i = 0; i < count; i++) {
+            putVarint(out, i == 0
+                ? zigzag(ids[0] - id)
+                : ids[i] - previous - 1);
+            previous = ids[i];
+        }
+    }
+
+
+    /**
+     * Reads a list of ids written by putIds into an array, which grows if
+     * needed.
+     *
+     * @return the array
+     */
+    private static int[] getIds(ByteBuffer in, int id, int[] ids, int count) {
+        if (count < 0 || count > in.remaining()) {
+            throw new IllegalArgumentException("Bad id count " + count);
+        }
+        if (ids.length < count) {
+            ids = new int[Math.max(count, ids.length * 2)];
+        }
+        int previous = id;
+        for (int i = 0; i < count; i++) {
+            previous = i == 0
+                ? id + unzigzag(getVarint(in))
+                : previous + getVarint(in) + 1;
+            ids[i] = previous;
+        }
+        return ids;
+    }
+
+
+    /**
+     * Reads one profile.
+     */
+    private static void getEntry(ByteBuffer in, int previousId, Entry entry) {
+        entry.id = previousId + 1 + unzigzag(getVarint(in));
+        entry.name = getString(in);
+        entry.status = getString(in);
+        entry.friendCount = getVarint(in);
+        entry.friends = getIds(in, entry.id, entry.friends,
+            entry.friendCount);
+        entry.followeeCount = getVarint(in);
+        entry.followees = getIds(in, entry.id, entry.followees,
+            entry.followeeCount);
+    }
+
+
+    /**
+     * A profile as it is encoded. Writers and readers take an entry that
+     * the caller reuses from profile to profile.
+     */
+    static class Entry {
+        int id;
+        String name = "";
+        String status = "";
+        int[] friends = new int[16];
+        int friendCount;
+        int[] followees = new int[4];
+        int followeeCount;
+
+        /**
+         * Copies a profile of a network and its friend and followee ids.
+         *
+         * @param network
+         *            network of the profile
+         * @param p
+         *            profile in the network
+         */
+        void set(VTConnect network, Profile p) {
+            id = p.id;
+            name = p.getName();
+            status = p.getStatus();
+            int[] ids = network.friendIds(p.id);
+            if (friends.length < ids.length) {
+                friends = new int[Math.max(ids.length, friends.length * 2)];
+            }
+            System.arraycopy(ids, 0, friends, 0, ids.length);
+            friendCount = ids.length;
+            followeeCount = network.getNumberOfFollowing(p);
+            if (followees.length < followeeCount) {
+                followees = new int[followeeCount];
+            }
+            if (followeeCount > 0) {
+                List<Profile> following = network.following(p, 0,
+                    followeeCount);
+                for (int i = 0; i < followeeCount; i++) {
+                    followees[i] = following.get(i).id;
+                }
+            }
+        }
+
+
+        /**
+         * Returns true if another entry has the same id, strings and
+         * lists.
+         */
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Entry)) {
+                return false;
+            }
+            Entry e = (Entry)other;
+            return id == e.id && name.equals(e.name) && status.equals(
+                e.status) && Arrays.equals(friends, 0, friendCount,
+                    e.friends, 0, e.friendCount) && Arrays.equals(followees,
+                        0, followeeCount, e.followees, 0, e.followeeCount);
+        }
+
+
+        @Override
+        public int hashCode() {
+            return id;
+        }
+    }
+
+
+    /**
+     * Encoder of a stream. Profiles are encoded into a chunk buffer that
+     * is reused and written to the channel whenever it holds a chunk.
+     */
+    static class Writer implements Closeable {
+        private final WritableByteChannel channel;
+        private final int profilesPerChunk;
+        private ByteBuffer chunk = ByteBuffer.allocate(1 << 20);
+        private int count;
+        private int previousId = -1;
+        private long bytesWritten;
+        private boolean finished;
+
+        /**
+         * Starts a stream on a channel.
+         *
+         * @param channel
+         *            channel to write to
+         * @param profilesPerChunk
+         *            profiles in a chunk
+         * @throws IOException
+         *             if the channel fails
+         */
+        Writer(WritableByteChannel channel, int profilesPerChunk)
+            throws IOException {
+            if (profilesPerChunk < 1) {
+                throw new IllegalArgumentException(
+                    "Chunk must hold a profile");
+            }
+            this.channel = channel;
+            this.profilesPerChunk = profilesPerChunk;
+            chunk.putInt(MAGIC).flip();
+            writeFully(channel, chunk);
+            bytesWritten = 4;
+            chunk.clear().position(CHUNK_HEADER);
+        }
+
+
+        /**
+         * Encodes a profile. Its lists are sorted in place.
+         *
+         * @param entry
+         *            profile to encode
+         * @throws IOException
+         *             if the channel fails
+         */
+        void write(Entry entry) throws IOException {
+            Arrays.sort(entry.friends, 0, entry.friendCount);
+            Arrays.sort(entry.followees, 0, entry.followeeCount);
+            String name = entry.name == null ? "" : entry.name;
+            String status = entry.status == null ? "" : entry.status;
+            long bound = 25 + 3L * (name.length() + status.length()) + 5L
+                * (entry.friendCount + entry.followeeCount);
+            if (chunk.remaining() < bound) {
+                if (count > 0) {
+                    writeChunk();
+                }
+                if (chunk.remaining() < bound) {
+                    if (bound > MAX_CHUNK) {
+                        throw new IllegalArgumentException(
+                            "Profile too large: " + entry.id);
+                    }
+                    chunk = ByteBuffer.allocate((int)bound + CHUNK_HEADER);
+                    chunk.position(CHUNK_HEADER);
+                }
+            }
+            putVarint(chunk, zigzag(entry.id - previousId - 1));
+            putString(chunk, name);
+            putString(chunk, status);
+            putIds(chunk, entry.id, entry.friends, entry.friendCount);
+            putIds(chunk, entry.id, entry.followees, entry.followeeCount);
+            previousId = entry.id;
+            if (++count == profilesPerChunk) {
+                writeChunk();
+            }
+        }
+
+
+        /**
+         * Returns the number of bytes written to the channel so far.
+         *
+         * @return bytes written
+         */
+        long getBytesWritten() {
+            return bytesWritten;
+        }
+
+
+        /**
+         * Writes the last chunk and the end of the stream. Nothing can be
+         * written after it.
+         *
+         * @throws IOException
+         *             if the channel fails
+         */
+        void finish() throws IOException {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            if (count > 0) {
+                writeChunk();
+            }
+            // a chunk without profiles ends the stream
+            writeChunk();
+        }
+
+
+        /**
+         * Closes the channel. A stream that was not finished has no end
+         * and is rejected by the reader.
+         *
+         * @throws IOException
+         *             if the channel fails
+         */
+        public void close() throws IOException {
+            channel.close();
+        }
+
+
+        private void writeChunk() throws IOException {
+            chunk.putInt(0, chunk.position() - CHUNK_HEADER);
+            chunk.putInt(4, count);
+            chunk.flip();
+            bytesWritten += chunk.remaining();
+            writeFully(channel, chunk);
+            chunk.clear().position(CHUNK_HEADER);
+            count = 0;
+            previousId = -1;
+        }
+    }
+
+
+    /**
+     * Decoder of a stream, one chunk at a time into a buffer that is
+     * reused.
+     */
+    static class Reader implements Closeable {
+        private final ReadableByteChannel channel;
+        private final ByteBuffer header = ByteBuffer.allocate(CHUNK_HEADER);
+        private ByteBuffer chunk = ByteBuffer.allocate(1 << 16);
+        private int left;
+        private int previousId;
+        private boolean ended;
+
+        /**
+         * Starts reading a stream from a channel.
+         *
+         * @param channel
+         *            channel to read from
+         * @throws IOException
+         *             if the channel fails or does not hold a stream
+         */
+        Reader(ReadableByteChannel channel) throws IOException {
+            this.channel = channel;
+            header.limit(4);
+            readFully(channel, header);
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException("Not a profile stream");
+            }
+        }
+
+
+        /**
+         * Decodes the next profile into an entry.
+         *
+         * @param entry
+         *            entry to fill
+         * @return false at the end of the stream
+         * @throws IOException
+         *             if the channel fails or the stream is malformed
+         */
+        boolean next(Entry entry) throws IOException {
+            while (left == 0) {
+                if (ended) {
+                    return false;
+                }
+                readChunk();
+            }
+            try {
+                getEntry(chunk, previousId, entry);
+            }
+            catch (BufferUnderflowException | IllegalArgumentException e) {
+                throw new IOException("Malformed profile", e);
+            }
+            previousId = entry.id;
+            left--;
+            return true;
+        }
+
+
+        public void close() throws IOException {
+            channel.close();
+        }
+
+
+        private void readChunk() throws IOException {
+            header.clear();
+            readFully(channel, header);
+            int length = header.getInt(0);
+            int count = header.getInt(4);
+            if (length == 0 && count == 0) {
+                ended = true;
+                return;
+            }
+            checkChunk(length, count);
+            if (chunk.capacity() < length) {
+                chunk = ByteBuffer.allocate(length);
+            }
+            chunk.clear().limit(length);
+            readFully(channel, chunk);
+            chunk.flip();
+            left = count;
+            previousId = -1;
+        }
+    }
+
+
+    /**
+     * A chunk of a file and, once decoded, its profiles as arrays. The
+     * lists of profile i are friends[friendStart[i], friendStart[i + 1])
+     * and followees[followeeStart[i], followeeStart[i + 1]).
+     */
+    static class Chunk {
+        final long position;
+        final int length;
+        final int count;
+        int[] ids;
+        String[] names;
+        String[] statuses;
+        int[] friendStart;
+        int[] friends;
+        int[] followeeStart;
+        int[] followees;
+
+        Chunk(long position, int length, int count) {
+            this.position = position;
+            this.length = length;
+            this.count = count;
+        }
+
+
+        /**
+         * Decodes the profiles of the chunk from a buffer that holds it.
+         */
+        void decode(ByteBuffer in, Entry entry) throws IOException {
+            ids = new int[count];
+            names = new String[count];
+            statuses = new String[count];
+            friendStart = new int[count + 1];
+            followeeStart = new int[count + 1];
+            friends = new int[Math.max(16, length / 2)];
+            followees = new int[16];
+            int previousId = -1;
+            try {
+                for (int i = 0; i < count; i++) {
+                    getEntry(in, previousId, entry);
+                    previousId = entry.id;
+                    ids[i] = entry.id;
+                    names[i] = entry.name;
+                    statuses[i] = entry.status;
+                    friends = append(friends, friendStart[i], entry.friends,
+                        entry.friendCount);
+                    friendStart[i + 1] = friendStart[i] + entry.friendCount;
+                    followees = append(followees, followeeStart[i],
+                        entry.followees, entry.followeeCount);
+                    followeeStart[i + 1] = followeeStart[i]
+                        + entry.followeeCount;
+                }
+            }
+            catch (BufferUnderflowException | IllegalArgumentException e) {
+                throw new IOException("Malformed chunk at " + position, e);
+            }
+            friends = Arrays.copyOf(friends, friendStart[count]);
+            followees = Arrays.copyOf(followees, followeeStart[count]);
+        }
+
+
+        private static int[] append(int[] to, int size, int[] ids, int count) {
+            if (size + count > to.length) {
+                to = Arrays.copyOf(to, Math.max(size + count, to.length * 2));
+            }
+            System.arraycopy(ids, 0, to, size, count);
+            return to;
+        }
+    }
+}
@@ -0,0 +1,562 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Read replica of a VTConnect. The replica receives the frames of the
+ * ChangeLog of a primary, a snapshot and then batches of mutations, and
+ * applies them to its own VTConnect with its own Graph, under the same
+ * ids as the primary. It serves hasFriendship, friendshipDistance and
+ * friendSuggestion while frames keep being applied: reads share a read
+ * lock and use the traversals of BreadthFirstCursor, which keep their
+ * state to themselves, so any number of them run at once.
+ *
+ * Every read may carry a token, the sequence the primary gave back for
+ * a mutation (ChangeLog.getLastSequence). The read waits until the
+ * replica has applied that sequence, so a client always reads its own
+ * writes. Every read also waits while the replica is stale, which is
+ * when no frame has arrived for maxStalenessMillis; the primary flushes
+ * its log on a timer, so a replica that keeps up gets a frame at least
+ * that often. A read that cannot be served within waitMillis throws
+ * IllegalStateException, or answers STALE over the socket.
+ *
+ * Run on its own, the replica connects to the replication port of a
+ * ReplicationPrimary on this machine and serves reads on a loopback
+ * port:
+ *
+ * <pre>
+ * java ReadReplica --primary-port 7001 --port 0 --max-staleness 500
+ *     --wait 1000
+ * </pre>
+ *
+ * It prints the port it listens on. Requests are frames of an int
+ * length and the bytes: an opcode of VTConnectServer or HAS_FRIENDSHIP,
+ * the ids, and the token as a varint; replies start with OK, NO, BAD or
+ * STALE, followed by the result as in VTConnectServer, a byte 0 or 1 for
+ * HAS_FRIENDSHIP.
+ *
+ * @author Kerem Bozgan kerembozgan
+ * @version 2022-11-11
+ */
+class ReadReplica implements Consumer<byte[]> {
+
+    /** Opcodes that VTConnectServer does not have */
+    static final int HAS_FRIENDSHIP = 9;
+    static final int SET_STATUS = 10;
+    static final int SET_NAME = 11;
+    static final int FOLLOW = 12;
+    static final int UNFOLLOW = 13;
+    /** Status of a read that was not served in time */
+    static final int STALE = 3;
+
+    /** Budget of the reads, which has no limits */
+    private static final TraversalBudget UNLIMITED = new TraversalBudget();
+
+    /** Copy of the network of the primary */
+    private VTConnect network = new VTConnect();
+    /** Reads share it, applying a frame takes it alone */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    /** Time without frames after which the replica is stale */
+    private final long maxStalenessNanos;
+    /** Time a read may wait for the replica */
+    private final long waitNanos;
+
+    /** Last sequence applied, -1 before the snapshot */
+    private volatile long appliedSequence = -1;
+    /** System.nanoTime when the last frame was applied */
+    private volatile long freshAt;
+    /** Notified whenever a frame has been applied */
+    private final Object progress = new Object();
+
+    /** Counters of the replica */
+    private final LongAdder frames = new LongAdder();
+    private final LongAdder records = new LongAdder();
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder waits = new LongAdder();
+    private final LongAdder staleReads = new LongAdder();
+
+    public static void main(String[] args) throws IOException {
+        HashMap<String, String> options = VTConnectServer.parseOptions(args);
+        int primaryPort = Integer.parseInt(options.get("primary-port"));
+        int port = Integer.parseInt(options.getOrDefault("port", "0"));
+        ReadReplica replica = new ReadReplica(Long.parseLong(options
+            .getOrDefault("max-staleness", "500")), Long.parseLong(options
+                .getOrDefault("wait", "1000")));
+
+        Socket primary = new Socket(InetAddress.getLoopbackAddress(),
+            primaryPort);
+        DataInputStream stream = new DataInputStream(new BufferedInputStream(
+            primary.getInputStream(), 65536));
+        // the snapshot comes first; serve only once it is applied
+        replica.apply(readFrame(stream));
+        Thread.ofPlatform().name("replica-applier").daemon(true).start(
+            () -> {
+                try {
+                    while (true) {
+                        replica.apply(readFrame(stream));
+                    }
+                }
+                catch (IOException e) {
+                    // without frames the replica turns stale and stops
+                    // serving reads
+                }
+            });
+
+        try (ServerSocket server = new ServerSocket(port, 50, InetAddress
+            .getLoopbackAddress());
+            ExecutorService executor = Executors
+                .newVirtualThreadPerTaskExecutor()) {
+            System.out.println("ReadReplica listening on port " + server
+                .getLocalPort());
+            System.out.flush();
+            while (true) {
+                Socket client = server.accept();
+                executor.execute(() -> replica.serve(client));
+            }
+        }
+    }
+
+
+    /**
+     * Initializes an empty replica that waits for a snapshot.
+     *
+     * @param maxStalenessMillis
+     *            time without frames after which reads wait
+     * @param waitMillis
+     *            time a read may wait for the replica
+     */
+    ReadReplica(long maxStalenessMillis, long waitMillis) {
+        this.maxStalenessNanos = maxStalenessMillis * 1000000;
+        this.waitNanos = waitMillis * 1000000;
+    }
+
+
+    /**
+     * Applies a frame of a ChangeLog.
+     *
+     * @param frame
+     *            encoded snapshot or batch
+     */
+    public void accept(byte[] frame) {
+        apply(frame);
+    }
+
+
+    /**
+     * Applies a frame of a ChangeLog.
+     *
+     * @param frame
+     *            encoded snapshot or batch
+     * @throws IllegalStateException
+     *             if a batch does not follow the last applied sequence
+     */
+    public void apply(byte[] frame) {
+        VTConnectServer.Decoder in = new VTConnectServer.Decoder(frame, 0,
+            frame.length);
+        int kind = in.readByte();
+        lock.writeLock().lock();
+        try {
+            if (kind == ChangeLog.SNAPSHOT) {
+                applySnapshot(in);
+            }
+            else if (kind == ChangeLog.BATCH) {
+                applyBatch(in);
+            }
+            else {
+                throw new IllegalArgumentException("Unknown frame " + kind);
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+        frames.increment();
+        synchronized (progress) {
+            freshAt = System.nanoTime();
+            progress.notifyAll();
+        }
+    }
+
+
+    /**
+     * Returns true if two profiles are friends.
+     *
+     * @param a
+     *            id of the first profile
+     * @param b
+     *            id of the second profile
+     * @param token
+     *            sequence that must be applied first, 0 for none
+     * @return true if they are friends
+     */
+    public boolean hasFriendship(int a, int b, long token) {
+        awaitReadable(token);
+        lock.readLock().lock();
+        try {
+            Profile first = network.getProfile(a);
+            Profile second = network.getProfile(b);
+            return first != null && second != null && network.hasFriendship(
+                first, second);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Returns the number of hops between two profiles, -1 if there is no
+     * path, like VTConnect.friendshipDistance.
+     *
+     * @param a
+     *            id of the first profile
+     * @param b
+     *            id of the second profile
+     * @param token
+     *            sequence that must be applied first, 0 for none
+     * @return distance or -1
+     */
+    public int friendshipDistance(int a, int b, long token) {
+        awaitReadable(token);
+        lock.readLock().lock();
+        try {
+            Profile first = network.getProfile(a);
+            Profile second = network.getProfile(b);
+            if (first == null || second == null) {
+                return -1;
+            }
+            return network.friendshipDistance(first, second, UNLIMITED)
+                .getValue();
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Returns the friends of the friends of a profile that are not its
+     * friends, null if there are none, like VTConnect.friendSuggestion.
+     * The profiles belong to the replica.
+     *
+     * @param id
+     *            id of the profile
+     * @param token
+     *            sequence that must be applied first, 0 for none
+     * @return suggested profiles or null
+     */
+    public List<Profile> friendSuggestion(int id, long token) {
+        awaitReadable(token);
+        lock.readLock().lock();
+        try {
+            Profile user = network.getProfile(id);
+            if (user == null) {
+                return null;
+            }
+            List<Profile> suggestions = network.friendSuggestion(user,
+                UNLIMITED).getValue();
+            return suggestions.isEmpty() ? null : suggestions;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Returns the last sequence applied, -1 before the snapshot.
+     *
+     * @return applied sequence
+     */
+    public long getAppliedSequence() {
+        return appliedSequence;
+    }
+
+
+    /**
+     * Returns the time since the last frame was applied.
+     *
+     * @return staleness in milliseconds, -1 before the snapshot
+     */
+    public long getStalenessMillis() {
+        if (appliedSequence < 0) {
+            return -1;
+        }
+        return (System.nanoTime() - freshAt) / 1000000;
+    }
+
+
+    /**
+     * Returns the counters of the replica.
+     *
+     * @return statistics as text
+     */
+    public String getStatistics() {
+        return String.format("applied sequence %d, frames %d, records %d, "
+            + "reads %d, waited %d, stale %d", appliedSequence, frames.sum(),
+            records.sum(), reads.sum(), waits.sum(), staleReads.sum());
+    }
+
+
+    /**
+     * Waits until the replica has applied a token and is not stale.
+     *
+     * @throws IllegalStateException
+     *             if that takes longer than waitMillis
+     */
+    private void awaitReadable(long token) {
+        reads.increment();
+        if (isReadable(token)) {
+            return;
+        }
+        waits.increment();
+        long deadline = System.nanoTime() + waitNanos;
+        synchronized (progress) {
+            while (!isReadable(token)) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    staleReads.increment();
+                    throw new IllegalStateException("Replica at sequence "
+                        + appliedSequence + " is behind " + token
+                        + " or stale");
+                }
+                try {
+                    progress.wait(Math.max(1, left / 1000000));
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted", e);
+                }
+            }
+        }
+    }
+
+
+    private boolean isReadable(long token) {
+        return appliedSequence >= Math.max(0, token) && System.nanoTime()
+            - freshAt <= maxStalenessNanos;
+    }
+
+
+    /**
+     * Replaces the network with the one of a snapshot.
+     */
+    private void applySnapshot(VTConnectServer.Decoder in) {
+        long sequence = in.readVarlong();
+        VTConnect copy = new VTConnect();
+        int count = in.readVarint();
+        for (int i = 0; i < count; i++) {
+            int id = in.readVarint();
+            copy.loadUser(new Profile(in.readString(), in.readString()), id);
+        }
+        int friendships = in.readVarint();
+        for (int i = 0; i < friendships; i++) {
+            copy.createFriendship(copy.getProfile(in.readVarint()), copy
+                .getProfile(in.readVarint()));
+        }
+        int arcs = in.readVarint();
+        for (int i = 0; i < arcs; i++) {
+            copy.follow(copy.getProfile(in.readVarint()), copy.getProfile(in
+                .readVarint()));
+        }
+        network = copy;
+        appliedSequence = sequence;
+    }
+
+
+    /**
+     * Applies the records of a batch in order.
+     */
+    private void applyBatch(VTConnectServer.Decoder in) {
+        long first = in.readVarlong();
+        int count = in.readVarint();
+        if (appliedSequence < 0) {
+            throw new IllegalStateException("Batch before the snapshot");
+        }
+        if (first != appliedSequence + 1) {
+            throw new IllegalStateException("Batch from " + first
+                + " does not follow " + appliedSequence);
+        }
+        for (int i = 0; i < count; i++) {
+            int kind = in.readByte();
+            switch (kind) {
+                case ChangeLog.ADD_USER:
+                    int id = in.readVarint();
+                    network.loadUser(new Profile(in.readString(), in
+                        .readString()), id);
+                    break;
+                case ChangeLog.REMOVE_USER:
+                    Profile removed = network.getProfile(in.readVarint());
+                    if (removed != null) {
+                        network.removeUser(removed);
+                    }
+                    break;
+                case ChangeLog.CREATE_FRIENDSHIP:
+                    network.createFriendship(network.getProfile(in
+                        .readVarint()), network.getProfile(in.readVarint()));
+                    break;
+                case ChangeLog.REMOVE_FRIENDSHIP:
+                    network.removeFriendship(network.getProfile(in
+                        .readVarint()), network.getProfile(in.readVarint()));
+                    break;
+                case ChangeLog.SET_STATUS:
+                    Profile p = network.getProfile(in.readVarint());
+                    String status = in.readString();
+                    if (p != null) {
+                        p.setStatus(status);
+                    }
+                    break;
+                case ChangeLog.SET_NAME:
+                    Profile named = network.getProfile(in.readVarint());
+                    String firstName = in.readString();
+                    String lastName = in.readString();
+                    if (named != null) {
+                        named.setName(firstName, lastName);
+                    }
+                    break;
+                case ChangeLog.FOLLOW:
+                    network.follow(network.getProfile(in.readVarint()),
+                        network.getProfile(in.readVarint()));
+                    break;
+                case ChangeLog.UNFOLLOW:
+                    network.unfollow(network.getProfile(in.readVarint()),
+                        network.getProfile(in.readVarint()));
+                    break;
+                case ChangeLog.COMPACT_IDS:
+                    network.compactIds();
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown record "
+                        + kind);
+            }
+            appliedSequence = first + i;
+        }
+        records.add(count);
+    }
+
+
+    /**
+     * Serves the read requests of one client connection.
+     */
+    private void serve(Socket client) {
+        try (client) {
+            client.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                client.getInputStream()));
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(client.getOutputStream()));
+            while (true) {
+                byte[] request;
+                try {
+                    request = readFrame(in);
+                }
+                catch (EOFException e) {
+                    return;
+                }
+                writeFrame(out, answer(request));
+            }
+        }
+        catch (IOException e) {
+            // the client went away
+        }
+    }
+
+
+    /**
+     * Answers one read request.
+     */
+    private byte[] answer(byte[] request) {
+        VTConnectServer.Decoder in = new VTConnectServer.Decoder(request, 0,
+            request.length);
+        VTConnectServer.Encoder out = new VTConnectServer.Encoder();
+        try {
+            int op = in.readByte();
+            switch (op) {
+                case HAS_FRIENDSHIP:
+                    int a = in.readVarint();
+                    int b = in.readVarint();
+                    boolean friends = hasFriendship(a, b, in.readVarlong());
+                    out.writeByte(VTConnectServer.OK);
+                    out.writeByte(friends ? 1 : 0);
+                    break;
+                case VTConnectServer.DISTANCE:
+                    int from = in.readVarint();
+                    int to = in.readVarint();
+                    int distance = friendshipDistance(from, to, in
+                        .readVarlong());
+                    if (distance < 0) {
+                        out.writeByte(VTConnectServer.NO);
+                    }
+                    else {
+                        out.writeByte(VTConnectServer.OK);
+                        out.writeVarint(distance);
+                    }
+                    break;
+                case VTConnectServer.SUGGESTIONS:
+                    int id = in.readVarint();
+                    List<Profile> suggestions = friendSuggestion(id, in
+                        .readVarlong());
+                    if (suggestions == null) {
+                        out.writeByte(VTConnectServer.NO);
+                    }
+                    else {
+                        out.writeByte(VTConnectServer.OK);
+                        out.writeVarint(suggestions.size());
+                        for (Profile p : suggestions) {
+                            out.writeVarint(p.id);
+                        }
+                    }
+                    break;
+                default:
+                    out.writeByte(VTConnectServer.BAD);
+                    break;
+            }
+        }
+        catch (IllegalArgumentException e) {
+            out.reset();
+            out.writeByte(VTConnectServer.BAD);
+        }
+        catch (IllegalStateException e) {
+            out.reset();
+            out.writeByte(STALE);
+        }
+        return out.toByteArray();
+    }
+
+
+    /**
+     * Reads a frame of an int length and the bytes.
+     */
+    static byte[] readFrame(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > VTConnectServer.MAX_BODY * 64) {
+            throw new IOException("Bad frame length " + length);
+        }
+        byte[] frame = new byte[length];
+        in.readFully(frame);
+        return frame;
+    }
+
+
+    /**
+     * Writes a frame of an int length and the bytes and flushes it.
+     */
+    static void writeFrame(DataOutputStream out, byte[] frame)
+        throws IOException {
+        out.writeInt(frame.length);
+        out.write(frame);
+        out.flush();
+    }
+}
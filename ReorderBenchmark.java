@@ -0,0 +1,178 @@
+import java.util.Random;
+
+/**
+ * Measures how vertex reordering affects traversal speed. It builds a
+ * graph of friend groups whose members signed up at random times, so in
+ * signup order the friends of a user are scattered over the whole id
+ * range, then times the same work on a CSR snapshot in signup order and
+ * in each order of GraphReorder.
+ *
+ * Two workloads are timed. Breadth first traversals from a fixed set of
+ * sources, and a gather pass that reads a value of every neighbor of
+ * every vertex. Both are dominated by cache misses on the neighbor
+ * accesses, so they show the effect of the layout directly.
+ *
+ * Usage: java ReorderBenchmark [vertices] [groupSize] [degree] [sources]
+ *
+ * @author Kerem Bozgan kerembozgan
+ * @version 2022-11-11
+ */
+class ReorderBenchmark {
+
+    /** Number of timed rounds per workload, the best one is reported */
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int groupSize = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int degree = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+        int sources = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+
+        System.out.println("Building graph: " + n + " vertices, groups of "
+            + groupSize + ", degree " + degree);
+        Graph<Integer> grph = buildGraph(n, groupSize, degree, new Random(
+            42));
+        System.out.println("Edges: " + grph.getNumberOfEdges());
+
+        long start = System.nanoTime();
+        CsrGraph signup = CsrGraph.fromGraph(grph);
+        System.out.printf("Snapshot built in %.1f ms%n", (System.nanoTime()
+            - start) / 1e6);
+
+        int[] sourceLabels = new int[sources];
+        Random random = new Random(7);
+        for (int i = 0; i < sources; i++) {
+            sourceLabels[i] = random.nextInt(n);
+        }
+
+        System.out.printf("%-8s %10s %12s %14s %12s%n", "order", "edge gap",
+            "reorder ms", "bfs ms/source", "gather ms");
+        report("signup", signup, 0, sourceLabels);
+        String[] strategies = { GraphReorder.BFS, GraphReorder.RCM,
+            GraphReorder.DEGREE };
+        for (int i = 0; i < strategies.length; i++) {
+            start = System.nanoTime();
+            CsrGraph reordered = signup.permute(GraphReorder.computeOrder(
+                signup, strategies[i]));
+            double reorderMs = (System.nanoTime() - start) / 1e6;
+            report(strategies[i], reordered, reorderMs, sourceLabels);
+        }
+    }
+
+
+    /**
+     * Builds a graph of friend groups. Every group has groupSize members
+     * with random labels; most friendships stay inside the group and one
+     * in eight goes to a random user.
+     *
+     * @param n
+     *            number of vertices
+     * @param groupSize
+     *            members per group
+     * @param degree
+     *            friendships created per vertex
+     * @param random
+     *            source of randomness
+     * @return generated graph
+     */
+    static Graph<Integer> buildGraph(
+        int n,
+        int groupSize,
+        int degree,
+        Random random) {
+        // labels[position] is the signup id of the member at position,
+        // so consecutive positions form a group
+        int[] labels = new int[n];
+        for (int i = 0; i < n; i++) {
+            labels[i] = i;
+        }
+        for (int i = n - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int temp = labels[i];
+            labels[i] = labels[j];
+            labels[j] = temp;
+        }
+
+        Graph<Integer> grph = new Graph<Integer>();
+        for (int i = 0; i < n; i++) {
+            grph.addVertex(i);
+        }
+        for (int pos = 0; pos < n; pos++) {
+            int groupStart = pos - pos % groupSize;
+            int groupEnd = Math.min(groupStart + groupSize, n);
+            for (int k = 0; k < degree / 2; k++) {
+                int other;
+                if (random.nextInt(8) == 0) {
+                    other = random.nextInt(n);
+                }
+                else {
+                    other = groupStart + random.nextInt(groupEnd
+                        - groupStart);
+                }
+                grph.addEdge(labels[pos], labels[other]);
+            }
+        }
+        return grph;
+    }
+
+
+    /**
+     * Times both workloads on a snapshot and prints one row.
+     *
+     * @param name
+     *            name of the order
+     * @param csr
+     *            snapshot to measure
+     * @param reorderMs
+     *            time taken to compute the order
+     * @param sourceLabels
+     *            labels of the traversal sources
+     */
+    private static void report(
+        String name,
+        CsrGraph csr,
+        double reorderMs,
+        int[] sourceLabels) {
+        int n = csr.getNumberOfVertices();
+        int[] distance = new int[n];
+        long checksum = 0;
+
+        long bestBfs = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < sourceLabels.length; i++) {
+                checksum += csr.getBreadthFirstTraversal(csr.toIndex(
+                    sourceLabels[i]), distance).length;
+            }
+            bestBfs = Math.min(bestBfs, System.nanoTime() - start);
+        }
+
+        // value of each vertex, indexed like the snapshot
+        long[] values = new long[n];
+        for (int v = 0; v < n; v++) {
+            values[v] = csr.toLabel(v);
+        }
+        int[] offsets = csr.getOffsets();
+        int[] targets = csr.getTargets();
+        long bestGather = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            long sum = 0;
+            for (int v = 0; v < n; v++) {
+                for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                    sum += values[targets[e]];
+                }
+            }
+            checksum += sum;
+            bestGather = Math.min(bestGather, System.nanoTime() - start);
+        }
+
+        System.out.printf("%-8s %10.1f %12.1f %14.3f %12.3f%n", name, csr
+            .getAverageEdgeGap(), reorderMs, bestBfs / 1e6
+                / sourceLabels.length, bestGather / 1e6);
+        if (checksum == 42) {
+            // keeps the work from being optimized away
+            System.out.println();
+        }
+    }
+}
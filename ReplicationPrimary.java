@@ -0,0 +1,572 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Primary of a replicated VTConnect on this machine. The primary owns
+ * the network and its ChangeLog and listens on two loopback ports:
+ *
+ * <pre>
+ * replication port  each connection is a ReadReplica; it gets a
+ *                   snapshot and then every batch of the change log
+ * client port       requests of an int length and the bytes, an opcode
+ *                   and its arguments as in VTConnectServer; replies
+ *                   are the status and result as in VTConnectServer,
+ *                   followed by the token, the sequence of the last
+ *                   mutation, as a varint
+ * </pre>
+ *
+ * The client port takes ADD_USER, REMOVE_USER, CREATE_FRIENDSHIP,
+ * REMOVE_FRIENDSHIP and ReadReplica.SET_STATUS, SET_NAME, FOLLOW and
+ * UNFOLLOW, and also the reads DISTANCE, SUGGESTIONS and
+ * ReadReplica.HAS_FRIENDSHIP. A client that
+ * passes the token of its last write to a replica reads its own writes.
+ *
+ * Every request runs under one lock, like in VTConnectServer. The log is
+ * flushed every flushMillis, so a replica that keeps up gets a frame at
+ * least that often. Each replica has a bounded queue of frames; a
+ * replica that falls so far behind that its queue is full is cut off,
+ * and may connect again for a new snapshot.
+ *
+ * main is a local stand-in for a deployment: it starts a primary with a
+ * generated network in this JVM and a number of ReadReplica processes,
+ * then runs clients that write to the primary and read from the replicas
+ * and checks that every client reads its own writes:
+ *
+ * <pre>
+ * java ReplicationPrimary --users 20000 --replicas 2 --duration 10
+ * </pre>
+ *
+ * @author Kerem Bozgan kerembozgan
+ * @version 2022-11-11
+ */
+class ReplicationPrimary implements AutoCloseable {
+
+    /** Frames a replica may have waiting before it is cut off */
+    private static final int REPLICA_QUEUE = 4096;
+
+    /** Network served, guarded by lock */
+    private final VTConnect network;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ChangeLog log;
+    private final ServerSocket replicationServer;
+    private final ServerSocket clientServer;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService flusher;
+
+    public static void main(String[] args) throws Exception {
+        HashMap<String, String> options = VTConnectServer.parseOptions(args);
+        int n = Integer.parseInt(options.getOrDefault("users", "20000"));
+        int degree = Integer.parseInt(options.getOrDefault("degree", "16"));
+        int replicaCount = Integer.parseInt(options.getOrDefault("replicas",
+            "2"));
+        int clients = Integer.parseInt(options.getOrDefault("clients", "4"));
+        double duration = Double.parseDouble(options.getOrDefault("duration",
+            "10"));
+        int readsPerWrite = Integer.parseInt(options.getOrDefault(
+            "reads-per-write", "50"));
+
+        VTConnect network = new VTConnect();
+        GraphGenerator.populate(network, n, GraphGenerator.generate(
+            GraphGenerator.BARABASI_ALBERT, n, degree, new Random(42)));
+        List<Process> replicas = new ArrayList<Process>();
+        try (ReplicationPrimary primary = new ReplicationPrimary(network, 0,
+            0, 256, 50)) {
+            int[] replicaPorts = new int[replicaCount];
+            for (int i = 0; i < replicaCount; i++) {
+                Process process = startReplica(primary
+                    .getReplicationPort());
+                replicas.add(process);
+                String line = new BufferedReader(new InputStreamReader(
+                    process.getInputStream())).readLine();
+                replicaPorts[i] = Integer.parseInt(line.substring(line
+                    .lastIndexOf(' ') + 1));
+            }
+            System.out.printf("Primary with %d users, %d replica processes"
+                + "%n", n, replicaCount);
+
+            LatencyHistogram readLatency = new LatencyHistogram();
+            // writes, reads, stale reads, read-your-writes failures
+            AtomicLongArray counts = new AtomicLongArray(4);
+            long end = System.nanoTime() + (long)(duration * 1e9);
+            try (ExecutorService clientThreads = Executors
+                .newVirtualThreadPerTaskExecutor()) {
+                for (int c = 0; c < clients; c++) {
+                    Random random = new Random(c);
+                    clientThreads.execute(() -> runClient(primary
+                        .getClientPort(), replicaPorts, n, readsPerWrite,
+                        end, random, readLatency, counts));
+                }
+            }
+            System.out.printf("writes %d, reads %d (%.0f/s), stale %d, "
+                + "read-your-writes failures %d%n", counts.get(0), counts
+                    .get(1), counts.get(1) / duration, counts.get(2), counts
+                        .get(3));
+            System.out.printf("replica read latency ms p50 %.2f p99 %.2f "
+                + "max %.2f%n", readLatency.getValueAtPercentile(50) / 1e6,
+                readLatency.getValueAtPercentile(99) / 1e6, readLatency
+                    .getMax() / 1e6);
+            System.out.println(primary.getStatistics());
+        }
+        finally {
+            for (Process process : replicas) {
+                process.destroy();
+            }
+        }
+    }
+
+
+    /**
+     * Starts a primary on the loopback address and starts recording the
+     * mutations of the network.
+     *
+     * @param network
+     *            network to serve; it must not be used by anything else
+     *            while the primary runs
+     * @param replicationPort
+     *            port for replicas, 0 for any free port
+     * @param clientPort
+     *            port for clients, 0 for any free port
+     * @param maxBatch
+     *            largest number of mutations in one batch of the log
+     * @param flushMillis
+     *            time between flushes of the log
+     */
+    ReplicationPrimary(
+        VTConnect network,
+        int replicationPort,
+        int clientPort,
+        int maxBatch,
+        long flushMillis)
+        throws IOException {
+        this.network = network;
+        this.log = network.enableChangeLog(maxBatch);
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        replicationServer = new ServerSocket(replicationPort, 50, loopback);
+        clientServer = new ServerSocket(clientPort, 50, loopback);
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        executor.execute(() -> accept(replicationServer,
+            this::serveReplica));
+        executor.execute(() -> accept(clientServer, this::serveClient));
+        flusher = Executors.newSingleThreadScheduledExecutor();
+        flusher.scheduleAtFixedRate(log::flush, flushMillis, flushMillis,
+            TimeUnit.MILLISECONDS);
+    }
+
+
+    /**
+     * Returns the port replicas connect to.
+     *
+     * @return replication port
+     */
+    public int getReplicationPort() {
+        return replicationServer.getLocalPort();
+    }
+
+
+    /**
+     * Returns the port clients connect to.
+     *
+     * @return client port
+     */
+    public int getClientPort() {
+        return clientServer.getLocalPort();
+    }
+
+
+    /**
+     * Returns the counters of the change log.
+     *
+     * @return statistics as text
+     */
+    public String getStatistics() {
+        return log.getStatistics();
+    }
+
+
+    /**
+     * Stops listening, cuts off the replicas and stops the flushes.
+     */
+    public void close() {
+        flusher.shutdownNow();
+        try {
+            replicationServer.close();
+            clientServer.close();
+        }
+        catch (IOException e) {
+            // closing anyway
+        }
+        executor.shutdownNow();
+    }
+
+
+    /**
+     * Accepts connections and serves each on its own virtual thread.
+     */
+    private void accept(ServerSocket server, Consumer<Socket> handler) {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                executor.execute(() -> handler.accept(socket));
+            }
+            catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * Subscribes a replica to the log and sends it the frames.
+     */
+    private void serveReplica(Socket socket) {
+        BlockingQueue<byte[]> queue = new ArrayBlockingQueue<byte[]>(
+            REPLICA_QUEUE);
+        Consumer<byte[]> subscriber = frame -> {
+            if (!queue.offer(frame)) {
+                // too far behind, the replica must start over
+                closeQuietly(socket);
+            }
+        };
+        lock.lock();
+        try {
+            log.subscribe(subscriber, network);
+        }
+        finally {
+            lock.unlock();
+        }
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream(), 65536));
+            while (true) {
+                ReadReplica.writeFrame(out, queue.take());
+            }
+        }
+        catch (IOException e) {
+            // the replica went away or was cut off
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            log.unsubscribe(subscriber);
+        }
+    }
+
+
+    /**
+     * Serves the requests of one client connection.
+     */
+    private void serveClient(Socket socket) {
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream()));
+            while (true) {
+                byte[] request;
+                try {
+                    request = ReadReplica.readFrame(in);
+                }
+                catch (EOFException e) {
+                    return;
+                }
+                ReadReplica.writeFrame(out, answer(request));
+            }
+        }
+        catch (IOException e) {
+            // the client went away
+        }
+    }
+
+
+    /**
+     * Runs one request under the lock and encodes the reply with the
+     * token.
+     */
+    private byte[] answer(byte[] request) {
+        VTConnectServer.Decoder in = new VTConnectServer.Decoder(request, 0,
+            request.length);
+        VTConnectServer.Encoder out = new VTConnectServer.Encoder();
+        lock.lock();
+        try {
+            int op = in.readByte();
+            switch (op) {
+                case VTConnectServer.ADD_USER:
+                    Profile added = new Profile(in.readString(), in
+                        .readString());
+                    network.addUser(added);
+                    if (added.network == network) {
+                        out.writeByte(VTConnectServer.OK);
+                        out.writeVarint(added.id);
+                    }
+                    else {
+                        out.writeByte(VTConnectServer.NO);
+                    }
+                    break;
+                case VTConnectServer.REMOVE_USER:
+                    Profile removed = network.getProfile(in.readVarint());
+                    status(out, removed != null && network.removeUser(
+                        removed) != null);
+                    break;
+                case VTConnectServer.CREATE_FRIENDSHIP:
+                    Profile a = network.getProfile(in.readVarint());
+                    Profile b = network.getProfile(in.readVarint());
+                    status(out, a != null && b != null && network
+                        .createFriendship(a, b));
+                    break;
+                case VTConnectServer.REMOVE_FRIENDSHIP:
+                    Profile c = network.getProfile(in.readVarint());
+                    Profile d = network.getProfile(in.readVarint());
+                    status(out, c != null && d != null && network
+                        .removeFriendship(c, d));
+                    break;
+                case ReadReplica.SET_STATUS:
+                    Profile p = network.getProfile(in.readVarint());
+                    String status = in.readString();
+                    if (p != null) {
+                        p.setStatus(status);
+                    }
+                    status(out, p != null);
+                    break;
+                case ReadReplica.SET_NAME:
+                    Profile named = network.getProfile(in.readVarint());
+                    String firstName = in.readString();
+                    String lastName = in.readString();
+                    if (named != null) {
+                        named.setName(firstName, lastName);
+                    }
+                    status(out, named != null);
+                    break;
+                case ReadReplica.FOLLOW:
+                    Profile follower = network.getProfile(in.readVarint());
+                    Profile followee = network.getProfile(in.readVarint());
+                    status(out, follower != null && followee != null
+                        && network.follow(follower, followee));
+                    break;
+                case ReadReplica.UNFOLLOW:
+                    Profile former = network.getProfile(in.readVarint());
+                    Profile formerFollowee = network.getProfile(in
+                        .readVarint());
+                    status(out, former != null && formerFollowee != null
+                        && network.unfollow(former, formerFollowee));
+                    break;
+                case ReadReplica.HAS_FRIENDSHIP:
+                    Profile e = network.getProfile(in.readVarint());
+                    Profile f = network.getProfile(in.readVarint());
+                    out.writeByte(VTConnectServer.OK);
+                    out.writeByte(e != null && f != null && network
+                        .hasFriendship(e, f) ? 1 : 0);
+                    break;
+                case VTConnectServer.DISTANCE:
+                    Profile g = network.getProfile(in.readVarint());
+                    Profile h = network.getProfile(in.readVarint());
+                    int distance = g == null || h == null
+                        ? -1
+                        : network.friendshipDistance(g, h);
+                    status(out, distance >= 0);
+                    if (distance >= 0) {
+                        out.writeVarint(distance);
+                    }
+                    break;
+                case VTConnectServer.SUGGESTIONS:
+                    Profile user = network.getProfile(in.readVarint());
+                    List<Profile> suggestions = user == null
+                        ? null
+                        : network.friendSuggestion(user);
+                    status(out, suggestions != null);
+                    if (suggestions != null) {
+                        out.writeVarint(suggestions.size());
+                        for (Profile s : suggestions) {
+                            out.writeVarint(s.id);
+                        }
+                    }
+                    break;
+                default:
+                    out.writeByte(VTConnectServer.BAD);
+                    break;
+            }
+        }
+        catch (IllegalArgumentException e) {
+            out.reset();
+            out.writeByte(VTConnectServer.BAD);
+        }
+        finally {
+            out.writeVarlong(log.getLastSequence());
+            lock.unlock();
+        }
+        return out.toByteArray();
+    }
+
+
+    private static void status(VTConnectServer.Encoder out, boolean ok) {
+        out.writeByte(ok ? VTConnectServer.OK : VTConnectServer.NO);
+    }
+
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        }
+        catch (IOException e) {
+            // already closed
+        }
+    }
+
+
+    /**
+     * Starts a ReadReplica process with the java and class path of this
+     * JVM.
+     */
+    private static Process startReplica(int primaryPort) throws IOException {
+        List<String> command = new ArrayList<String>();
+        command.add(System.getProperty("java.home") + File.separator + "bin"
+            + File.separator + "java");
+        if (ManagementFactory.getRuntimeMXBean().getInputArguments()
+            .contains("--enable-preview")) {
+            command.add("--enable-preview");
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("ReadReplica");
+        command.add("--primary-port");
+        command.add(String.valueOf(primaryPort));
+        return new ProcessBuilder(command).redirectError(
+            ProcessBuilder.Redirect.INHERIT).start();
+    }
+
+
+    /**
+     * Writes and reads until the end time. After each write that changed
+     * a friendship, the friendship is read back from a replica with the
+     * token of the write and must show the change.
+     */
+    private static void runClient(
+        int primaryPort,
+        int[] replicaPorts,
+        int n,
+        int readsPerWrite,
+        long end,
+        Random random,
+        LatencyHistogram readLatency,
+        AtomicLongArray counts) {
+        List<Socket> sockets = new ArrayList<Socket>();
+        try {
+            Connection primary = new Connection(primaryPort, sockets);
+            Connection[] replicas = new Connection[replicaPorts.length];
+            for (int i = 0; i < replicas.length; i++) {
+                replicas[i] = new Connection(replicaPorts[i], sockets);
+            }
+            while (System.nanoTime() < end) {
+                int a = random.nextInt(n);
+                int b = random.nextInt(n);
+                boolean create = random.nextBoolean();
+                VTConnectServer.Encoder write = new VTConnectServer.Encoder();
+                write.writeByte(create
+                    ? VTConnectServer.CREATE_FRIENDSHIP
+                    : VTConnectServer.REMOVE_FRIENDSHIP);
+                write.writeVarint(a);
+                write.writeVarint(b);
+                VTConnectServer.Decoder reply = primary.call(write);
+                boolean changed = reply.readByte() == VTConnectServer.OK;
+                long token = reply.readVarlong();
+                counts.incrementAndGet(0);
+
+                for (int r = 0; r < readsPerWrite; r++) {
+                    Connection replica = replicas[random.nextInt(
+                        replicas.length)];
+                    VTConnectServer.Encoder read =
+                        new VTConnectServer.Encoder();
+                    // the first read checks the write, the rest are
+                    // lookups and some distances without a token
+                    read.writeByte(r % 10 == 9
+                        ? VTConnectServer.DISTANCE
+                        : ReadReplica.HAS_FRIENDSHIP);
+                    if (r == 0) {
+                        read.writeVarint(a);
+                        read.writeVarint(b);
+                        read.writeVarlong(token);
+                    }
+                    else {
+                        read.writeVarint(random.nextInt(n));
+                        read.writeVarint(random.nextInt(n));
+                        read.writeVarlong(0);
+                    }
+                    long sent = System.nanoTime();
+                    VTConnectServer.Decoder answer = replica.call(read);
+                    readLatency.record(System.nanoTime() - sent);
+                    counts.incrementAndGet(1);
+                    int status = answer.readByte();
+                    if (status == ReadReplica.STALE) {
+                        counts.incrementAndGet(2);
+                    }
+                    else if (r == 0 && changed && a != b
+                        && (answer.readByte() == 1) != create) {
+                        counts.incrementAndGet(3);
+                    }
+                }
+            }
+        }
+        catch (IOException e) {
+            System.err.println("Client failed: " + e);
+        }
+        finally {
+            for (Socket socket : sockets) {
+                closeQuietly(socket);
+            }
+        }
+    }
+
+
+    /**
+     * Client side of a loopback connection to a primary or a replica.
+     */
+    private static class Connection {
+        private final DataInputStream in;
+        private final DataOutputStream out;
+
+        Connection(int port, List<Socket> sockets) throws IOException {
+            Socket socket = new Socket(InetAddress.getLoopbackAddress(),
+                port);
+            sockets.add(socket);
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(new BufferedInputStream(socket
+                .getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket
+                .getOutputStream()));
+        }
+
+
+        VTConnectServer.Decoder call(VTConnectServer.Encoder request)
+            throws IOException {
+            ReadReplica.writeFrame(out, request.toByteArray());
+            byte[] reply = ReadReplica.readFrame(in);
+            return new VTConnectServer.Decoder(reply, 0, reply.length);
+        }
+    }
+}
@@ -0,0 +1,1258 @@
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntConsumer;
+
+/**
+ * Compressed set of non-negative ints in the style of Roaring bitmaps,
+ * used for friend sets that are intersected and subtracted often.
+ *
+ * The values are split by their high 16 bits into chunks of 65536, and
+ * the low 16 bits of each chunk are kept in a container of one of three
+ * kinds, whichever is smaller:
+ *
+ * <pre>
+ * array   sorted chars, for at most ARRAY_MAX values, 2 bytes a value
+ * bitmap  1024 longs, one bit per possible value, 8 kB
+ * run     pairs of start and length - 1, 4 bytes per range of
+ *         consecutive values
+ * </pre>
+ *
+ * Array and bitmap containers are chosen as values are added and
+ * removed. Run containers are made by runOptimize and turn back into an
+ * array or bitmap when they are changed, so they suit sets that are
+ * built once, such as the friends of a hub after ids are reordered.
+ *
+ * AND, OR and ANDNOT go chunk by chunk and only combine the containers
+ * with the same key: two arrays are merged, an array is probed against
+ * any other container, two run containers are merged as ranges, and the
+ * rest is done a word at a time on bitmaps. The result of an operation
+ * never shares a container with its operands.
+ *
+ * The set is not thread-safe.
+ *
+ * Usage: java RoaringBitmap [sets] [seed]
+ *
+ * @author Kerem Bozgan kerembozgan
+ * @version 2022-11-11
+ */
+class RoaringBitmap {
+
+    /** Largest number of values of an array container */
+    static final int ARRAY_MAX = 4096;
+    /** Longs of a bitmap container */
+    private static final int WORDS = 1024;
+
+    /** Kinds of containers, for getContainerCounts */
+    static final int ARRAY = 0;
+    static final int BITMAP = 1;
+    static final int RUN = 2;
+
+    /** High 16 bits of the values of each container, increasing */
+    private char[] keys = new char[4];
+    /** Low 16 bits of the values, by key */
+    private Container[] containers = new Container[4];
+    /** Number of containers in use */
+    private int size;
+
+    public static void main(String[] args) {
+        int sets = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        Random random = new Random(args.length > 1
+            ? Long.parseLong(args[1])
+            : 1);
+        int mismatches = 0;
+        RoaringBitmap[] bitmaps = new RoaringBitmap[sets];
+        BitSet[] expected = new BitSet[sets];
+        for (int s = 0; s < sets; s++) {
+            expected[s] = randomSet(random);
+            bitmaps[s] = new RoaringBitmap();
+            expected[s].stream().forEach(bitmaps[s]::add);
+            if (random.nextBoolean()) {
+                bitmaps[s].runOptimize();
+            }
+            if (!Arrays.equals(bitmaps[s].toArray(), expected[s].stream()
+                .toArray())) {
+                mismatches++;
+            }
+        }
+        for (int s = 0; s + 1 < sets; s++) {
+            RoaringBitmap a = bitmaps[s];
+            RoaringBitmap b = bitmaps[s + 1];
+            BitSet and = (BitSet)expected[s].clone();
+            and.and(expected[s + 1]);
+            BitSet or = (BitSet)expected[s].clone();
+            or.or(expected[s + 1]);
+            BitSet andNot = (BitSet)expected[s].clone();
+            andNot.andNot(expected[s + 1]);
+            if (!Arrays.equals(and(a, b).toArray(), and.stream().toArray())
+                || !Arrays.equals(or(a, b).toArray(), or.stream().toArray())
+                || !Arrays.equals(andNot(a, b).toArray(), andNot.stream()
+                    .toArray()) || andCardinality(a, b) != and
+                        .cardinality()) {
+                mismatches++;
+            }
+            // changing a result must not change the operands
+            RoaringBitmap changed = or(a, b);
+            changed.add(random.nextInt(1 << 20));
+            changed.remove(a.isEmpty() ? 0 : a.toArray()[0]);
+            if (a.cardinality() != expected[s].cardinality()) {
+                mismatches++;
+            }
+        }
+        List<RoaringBitmap> all = Arrays.asList(bitmaps);
+        BitSet union = new BitSet();
+        for (BitSet set : expected) {
+            union.or(set);
+        }
+        if (!Arrays.equals(or(all).toArray(), union.stream().toArray())) {
+            mismatches++;
+        }
+
+        long values = 0;
+        long bytes = 0;
+        int[] counts = new int[3];
+        for (RoaringBitmap bitmap : bitmaps) {
+            values += bitmap.cardinality();
+            bytes += bitmap.getSizeInBytes();
+            int[] c = bitmap.getContainerCounts();
+            for (int k = 0; k < 3; k++) {
+                counts[k] += c[k];
+            }
+        }
+        System.out.printf("%d sets, %d values in %d bytes (%.2f bytes a "
+            + "value), containers: %d array, %d bitmap, %d run%n", sets,
+            values, bytes, (double)bytes / values, counts[ARRAY],
+            counts[BITMAP], counts[RUN]);
+        System.out.println("Mismatches with BitSet: " + mismatches);
+    }
+
+
+    /**
+     * Returns a set mixing sparse values, dense ranges and random
+     * halves of chunks, so every kind of container shows up.
+     */
+    private static BitSet randomSet(Random random) {
+        BitSet set = new BitSet();
+        int parts = 1 + random.nextInt(4);
+        for (int p = 0; p < parts; p++) {
+            int chunk = random.nextInt(8) << 16;
+            switch (random.nextInt(3)) {
+                case 0:
+                    for (int i = random.nextInt(3000); i > 0; i--) {
+                        set.set(chunk + random.nextInt(1 << 16));
+                    }
+                    break;
+                case 1:
+                    int from = chunk + random.nextInt(1 << 15);
+                    set.set(from, from + random.nextInt(1 << 15));
+                    break;
+                default:
+                    for (int i = 0; i < 1 << 16; i++) {
+                        if (random.nextBoolean()) {
+                            set.set(chunk + i);
+                        }
+                    }
+            }
+        }
+        return set;
+    }
+
+
+    /**
+     * Adds a value.
+     *
+     * @param value
+     *            value, not negative
+     * @return false if it was already in the set
+     */
+    public boolean add(int value) {
+        char key = (char)(value >>> 16);
+        int i = find(key);
+        if (i < 0) {
+            i = -i - 1;
+            insert(i, key, new ArrayContainer(4));
+        }
+        Container container = containers[i];
+        int before = container.cardinality();
+        containers[i] = container.add((char)value);
+        return containers[i].cardinality() > before;
+    }
+
+
+    /**
+     * Removes a value.
+     *
+     * @param value
+     *            value to remove
+     * @return false if it was not in the set
+     */
+    public boolean remove(int value) {
+        int i = find((char)(value >>> 16));
+        if (i < 0) {
+            return false;
+        }
+        Container container = containers[i];
+        int before = container.cardinality();
+        containers[i] = container.remove((char)value);
+        int after = containers[i].cardinality();
+        if (after == 0) {
+            System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+            System.arraycopy(containers, i + 1, containers, i, size - i - 1);
+            containers[--size] = null;
+        }
+        return after < before;
+    }
+
+
+    /**
+     * Sees whether a value is in the set.
+     *
+     * @param value
+     *            value to look for
+     * @return true if it is in the set
+     */
+    public boolean contains(int value) {
+        int i = find((char)(value >>> 16));
+        return i >= 0 && containers[i].contains((char)value);
+    }
+
+
+    /**
+     * Returns the number of values.
+     *
+     * @return cardinality of the set
+     */
+    public int cardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < size; i++) {
+            cardinality += containers[i].cardinality();
+        }
+        return cardinality;
+    }
+
+
+    /**
+     * Sees whether the set has no values.
+     *
+     * @return true if it is empty
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+
+    /**
+     * Calls an action on each value in increasing order.
+     *
+     * @param action
+     *            action to call
+     */
+    public void forEach(IntConsumer action) {
+        for (int i = 0; i < size; i++) {
+            containers[i].forEach(keys[i] << 16, action);
+        }
+    }
+
+
+    /**
+     * Returns the values in increasing order.
+     *
+     * @return array of the values
+     */
+    public int[] toArray() {
+        int[] values = new int[cardinality()];
+        int position = 0;
+        for (int i = 0; i < size; i++) {
+            position = containers[i].toInts(keys[i] << 16, values, position);
+        }
+        return values;
+    }
+
+
+    /**
+     * Replaces each container by the smallest of the three kinds, which
+     * makes run containers of ranges of consecutive values.
+     *
+     * @return true if some container is a run container afterwards
+     */
+    public boolean runOptimize() {
+        boolean runs = false;
+        for (int i = 0; i < size; i++) {
+            containers[i] = containers[i].optimize();
+            runs |= containers[i] instanceof RunContainer;
+        }
+        return runs;
+    }
+
+
+    /**
+     * Returns a copy that shares no container with this set.
+     *
+     * @return copy of the set
+     */
+    public RoaringBitmap copy() {
+        RoaringBitmap copy = new RoaringBitmap();
+        copy.keys = Arrays.copyOf(keys, Math.max(4, size));
+        copy.containers = new Container[copy.keys.length];
+        for (int i = 0; i < size; i++) {
+            copy.containers[i] = containers[i].copy();
+        }
+        copy.size = size;
+        return copy;
+    }
+
+
+    /**
+     * Returns the bytes taken by the values: two for each key and the
+     * payload of each container, without object headers.
+     *
+     * @return size of the set in bytes
+     */
+    public long getSizeInBytes() {
+        long bytes = 0;
+        for (int i = 0; i < size; i++) {
+            bytes += 2 + containers[i].sizeInBytes();
+        }
+        return bytes;
+    }
+
+
+    /**
+     * Returns the number of containers of each kind.
+     *
+     * @return counts indexed by ARRAY, BITMAP and RUN
+     */
+    public int[] getContainerCounts() {
+        int[] counts = new int[3];
+        for (int i = 0; i < size; i++) {
+            counts[containers[i].kind()]++;
+        }
+        return counts;
+    }
+
+
+    /**
+     * Returns the values in both sets.
+     *
+     * @param a
+     *            first set
+     * @param b
+     *            second set
+     * @return new set a AND b
+     */
+    public static RoaringBitmap and(RoaringBitmap a, RoaringBitmap b) {
+        RoaringBitmap result = new RoaringBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < a.size && j < b.size) {
+            if (a.keys[i] == b.keys[j]) {
+                result.append(a.keys[i], and(a.containers[i++],
+                    b.containers[j++]));
+            }
+            else if (a.keys[i] < b.keys[j]) {
+                i++;
+            }
+            else {
+                j++;
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Returns the values in either set.
+     *
+     * @param a
+     *            first set
+     * @param b
+     *            second set
+     * @return new set a OR b
+     */
+    public static RoaringBitmap or(RoaringBitmap a, RoaringBitmap b) {
+        RoaringBitmap result = new RoaringBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < a.size || j < b.size) {
+            if (j == b.size || i < a.size && a.keys[i] < b.keys[j]) {
+                result.append(a.keys[i], a.containers[i++].copy());
+            }
+            else if (i == a.size || b.keys[j] < a.keys[i]) {
+                result.append(b.keys[j], b.containers[j++].copy());
+            }
+            else {
+                result.append(a.keys[i], or(a.containers[i++],
+                    b.containers[j++]));
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Returns the values in any of many sets. The containers with the
+     * same key are ORed into one bitmap, instead of making a new set for
+     * each pair.
+     *
+     * @param bitmaps
+     *            sets to combine
+     * @return new set of the values in any of them
+     */
+    public static RoaringBitmap or(List<RoaringBitmap> bitmaps) {
+        int total = 0;
+        for (RoaringBitmap bitmap : bitmaps) {
+            total += bitmap.size;
+        }
+        char[] allKeys = new char[total];
+        int k = 0;
+        for (RoaringBitmap bitmap : bitmaps) {
+            System.arraycopy(bitmap.keys, 0, allKeys, k, bitmap.size);
+            k += bitmap.size;
+        }
+        Arrays.sort(allKeys);
+        k = 0;
+        for (int i = 0; i < total; i++) {
+            if (i == 0 || allKeys[i] != allKeys[i - 1]) {
+                allKeys[k++] = allKeys[i];
+            }
+        }
+        Container[] first = new Container[k];
+        long[][] words = new long[k][];
+        for (RoaringBitmap bitmap : bitmaps) {
+            for (int i = 0; i < bitmap.size; i++) {
+                int slot = Arrays.binarySearch(allKeys, 0, k,
+                    bitmap.keys[i]);
+                if (first[slot] == null) {
+                    first[slot] = bitmap.containers[i];
+                }
+                else {
+                    if (words[slot] == null) {
+                        words[slot] = first[slot].words();
+                    }
+                    bitmap.containers[i].setBits(words[slot]);
+                }
+            }
+        }
+        RoaringBitmap result = new RoaringBitmap();
+        for (int slot = 0; slot < k; slot++) {
+            result.append(allKeys[slot], words[slot] == null
+                ? first[slot].copy()
+                : fromWords(words[slot]));
+        }
+        return result;
+    }
+
+
+    /**
+     * Returns the values of the first set that are not in the second.
+     *
+     * @param a
+     *            first set
+     * @param b
+     *            second set
+     * @return new set a ANDNOT b
+     */
+    public static RoaringBitmap andNot(RoaringBitmap a, RoaringBitmap b) {
+        RoaringBitmap result = new RoaringBitmap();
+        int j = 0;
+        for (int i = 0; i < a.size; i++) {
+            while (j < b.size && b.keys[j] < a.keys[i]) {
+                j++;
+            }
+            result.append(a.keys[i], j < b.size && b.keys[j] == a.keys[i]
+                ? andNot(a.containers[i], b.containers[j])
+                : a.containers[i].copy());
+        }
+        return result;
+    }
+
+
+    /**
+     * Returns the number of values in both sets without making the
+     * intersection.
+     *
+     * @param a
+     *            first set
+     * @param b
+     *            second set
+     * @return cardinality of a AND b
+     */
+    public static int andCardinality(RoaringBitmap a, RoaringBitmap b) {
+        int cardinality = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.size && j < b.size) {
+            if (a.keys[i] == b.keys[j]) {
+                cardinality += andCardinality(a.containers[i++],
+                    b.containers[j++]);
+            }
+            else if (a.keys[i] < b.keys[j]) {
+                i++;
+            }
+            else {
+                j++;
+            }
+        }
+        return cardinality;
+    }
+
+
+    /**
+     * Returns the index of a key, or -(insertion point) - 1.
+     */
+    private int find(char key) {
+        // the last chunk is the usual one when ids grow
+        if (size > 0 && keys[size - 1] == key) {
+            return size - 1;
+        }
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+
+    private void insert(int i, char key, Container container) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, i, keys, i + 1, size - i);
+        System.arraycopy(containers, i, containers, i + 1, size - i);
+        keys[i] = key;
+        containers[i] = container;
+        size++;
+    }
+
+
+    /**
+     * Adds a container after the last one, unless it is null.
+     */
+    private void append(char key, Container container) {
+        if (container != null) {
+            insert(size, key, container);
+        }
+    }
+
+
+    private static Container and(Container x, Container y) {
+        if (x instanceof ArrayContainer && y instanceof ArrayContainer) {
+            return ((ArrayContainer)x).merge((ArrayContainer)y, true);
+        }
+        if (x instanceof ArrayContainer || y instanceof ArrayContainer) {
+            ArrayContainer array = (ArrayContainer)(x instanceof ArrayContainer
+                ? x
+                : y);
+            return array.filter(array == x ? y : x, true);
+        }
+        if (x instanceof RunContainer && y instanceof RunContainer) {
+            return ((RunContainer)x).and((RunContainer)y);
+        }
+        long[] words = x.words();
+        long[] other = y instanceof BitmapContainer
+            ? ((BitmapContainer)y).words
+            : y.words();
+        for (int i = 0; i < WORDS; i++) {
+            words[i] &= other[i];
+        }
+        return fromWords(words);
+    }
+
+
+    private static Container or(Container x, Container y) {
+        if (x instanceof ArrayContainer && y instanceof ArrayContainer && x
+            .cardinality() + y.cardinality() <= ARRAY_MAX) {
+            return ((ArrayContainer)x).merge((ArrayContainer)y, false);
+        }
+        if (x instanceof RunContainer && y instanceof RunContainer) {
+            return ((RunContainer)x).or((RunContainer)y);
+        }
+        long[] words = x.words();
+        y.setBits(words);
+        return fromWords(words);
+    }
+
+
+    private static Container andNot(Container x, Container y) {
+        if (x instanceof ArrayContainer) {
+            return ((ArrayContainer)x).filter(y, false);
+        }
+        long[] words = x.words();
+        y.clearBits(words);
+        return fromWords(words);
+    }
+
+
+    private static int andCardinality(Container x, Container y) {
+        if (x instanceof ArrayContainer || y instanceof ArrayContainer) {
+            ArrayContainer array = (ArrayContainer)(x instanceof ArrayContainer
+                ? x
+                : y);
+            Container other = array == x ? y : x;
+            int count = 0;
+            for (int i = 0; i < array.cardinality; i++) {
+                if (other.contains(array.values[i])) {
+                    count++;
+                }
+            }
+            return count;
+        }
+        if (x instanceof BitmapContainer && y instanceof BitmapContainer) {
+            long[] a = ((BitmapContainer)x).words;
+            long[] b = ((BitmapContainer)y).words;
+            int count = 0;
+            for (int i = 0; i < WORDS; i++) {
+                count += Long.bitCount(a[i] & b[i]);
+            }
+            return count;
+        }
+        Container result = and(x, y);
+        return result == null ? 0 : result.cardinality();
+    }
+
+
+    /**
+     * Returns an array or bitmap container of the bits set in 1024
+     * words, null if there are none. The words may become the bitmap.
+     */
+    private static Container fromWords(long[] words) {
+        int cardinality = 0;
+        for (long word : words) {
+            cardinality += Long.bitCount(word);
+        }
+        if (cardinality == 0) {
+            return null;
+        }
+        return cardinality <= ARRAY_MAX
+            ? ArrayContainer.of(words, cardinality)
+            : new BitmapContainer(words, cardinality);
+    }
+
+
+    /**
+     * Sets the bits from one position to another, both included.
+     */
+    private static void setRange(long[] words, int from, int to) {
+        int first = from >>> 6;
+        int last = to >>> 6;
+        long firstMask = -1L << from;
+        long lastMask = -1L >>> (63 - (to & 63));
+        if (first == last) {
+            words[first] |= firstMask & lastMask;
+            return;
+        }
+        words[first] |= firstMask;
+        for (int i = first + 1; i < last; i++) {
+            words[i] = -1L;
+        }
+        words[last] |= lastMask;
+    }
+
+
+    /**
+     * Clears the bits from one position to another, both included.
+     */
+    private static void clearRange(long[] words, int from, int to) {
+        int first = from >>> 6;
+        int last = to >>> 6;
+        long firstMask = -1L << from;
+        long lastMask = -1L >>> (63 - (to & 63));
+        if (first == last) {
+            words[first] &= ~(firstMask & lastMask);
+            return;
+        }
+        words[first] &= ~firstMask;
+        for (int i = first + 1; i < last; i++) {
+            words[i] = 0;
+        }
+        words[last] &= ~lastMask;
+    }
+
+
+    /**
+     * Low 16 bits of the values of one chunk.
+     */
+    private abstract static class Container {
+
+        abstract int kind();
+
+
+        abstract int cardinality();
+
+
+        abstract boolean contains(char value);
+
+
+        /**
+         * Adds a value and returns the container that holds the set now,
+         * which is another one if the kind changed.
+         */
+        abstract Container add(char value);
+
+
+        /**
+         * Removes a value and returns the container that holds the set
+         * now.
+         */
+        abstract Container remove(char value);
+
+
+        /** Sets the bits of the values in 1024 words */
+        abstract void setBits(long[] words);
+
+
+        /** Clears the bits of the values in 1024 words */
+        abstract void clearBits(long[] words);
+
+
+        abstract void forEach(int high, IntConsumer action);
+
+
+        /**
+         * Writes each value ORed with high into out from a position and
+         * returns the position after the last one.
+         */
+        abstract int toInts(int high, int[] out, int position);
+
+
+        abstract int numberOfRuns();
+
+
+        abstract int sizeInBytes();
+
+
+        abstract Container copy();
+
+
+        /** Returns the values as 1024 words of a new array */
+        long[] words() {
+            long[] words = new long[WORDS];
+            setBits(words);
+            return words;
+        }
+
+
+        /**
+         * Returns the smallest container of the values, this one if it
+         * is already the smallest.
+         */
+        Container optimize() {
+            int cardinality = cardinality();
+            int runBytes = 4 * numberOfRuns();
+            int otherBytes = cardinality <= ARRAY_MAX
+                ? 2 * cardinality
+                : 8 * WORDS;
+            if (runBytes < otherBytes) {
+                return this instanceof RunContainer
+                    ? this
+                    : RunContainer.of(words());
+            }
+            if (this instanceof RunContainer) {
+                return fromWords(words());
+            }
+            return this;
+        }
+    }
+
+
+    /**
+     * Sorted values, at most ARRAY_MAX of them.
+     */
+    private static final class ArrayContainer extends Container {
+        char[] values;
+        int cardinality;
+
+        ArrayContainer(int capacity) {
+            values = new char[capacity];
+        }
+
+
+        static ArrayContainer of(long[] words, int cardinality) {
+            ArrayContainer array = new ArrayContainer(cardinality);
+            for (int i = 0; i < WORDS; i++) {
+                for (long word = words[i]; word != 0; word &= word - 1) {
+                    array.values[array.cardinality++] = (char)(i * 64 + Long
+                        .numberOfTrailingZeros(word));
+                }
+            }
+            return array;
+        }
+
+
+        int kind() {
+            return ARRAY;
+        }
+
+
+        int cardinality() {
+            return cardinality;
+        }
+
+
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+        }
+
+
+        Container add(char value) {
+            int i = cardinality > 0 && values[cardinality - 1] < value
+                ? -cardinality - 1
+                : Arrays.binarySearch(values, 0, cardinality, value);
+            if (i >= 0) {
+                return this;
+            }
+            if (cardinality == ARRAY_MAX) {
+                long[] words = words();
+                return new BitmapContainer(words, cardinality).add(value);
+            }
+            i = -i - 1;
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_MAX, Math.max(
+                    4, cardinality * 2)));
+            }
+            System.arraycopy(values, i, values, i + 1, cardinality - i);
+            values[i] = value;
+            cardinality++;
+            return this;
+        }
+
+
+        Container remove(char value) {
+            int i = Arrays.binarySearch(values, 0, cardinality, value);
+            if (i >= 0) {
+                System.arraycopy(values, i + 1, values, i, cardinality - i
+                    - 1);
+                cardinality--;
+            }
+            return this;
+        }
+
+
+        void setBits(long[] words) {
+            for (int i = 0; i < cardinality; i++) {
+                words[values[i] >>> 6] |= 1L << values[i];
+            }
+        }
+
+
+        void clearBits(long[] words) {
+            for (int i = 0; i < cardinality; i++) {
+                words[values[i] >>> 6] &= ~(1L << values[i]);
+            }
+        }
+
+
+        void forEach(int high, IntConsumer action) {
+            for (int i = 0; i < cardinality; i++) {
+                action.accept(high | values[i]);
+            }
+        }
+
+
+        int toInts(int high, int[] out, int position) {
+            for (int i = 0; i < cardinality; i++) {
+                out[position++] = high | values[i];
+            }
+            return position;
+        }
+
+
+        int numberOfRuns() {
+            int runs = 0;
+            for (int i = 0; i < cardinality; i++) {
+                if (i == 0 || values[i] != values[i - 1] + 1) {
+                    runs++;
+                }
+            }
+            return runs;
+        }
+
+
+        int sizeInBytes() {
+            return 2 * cardinality;
+        }
+
+
+        Container copy() {
+            ArrayContainer copy = new ArrayContainer(0);
+            copy.values = Arrays.copyOf(values, cardinality);
+            copy.cardinality = cardinality;
+            return copy;
+        }
+
+
+        /**
+         * Merges with another array, keeping the common values or all
+         * of them. Null if nothing is kept.
+         */
+        Container merge(ArrayContainer other, boolean common) {
+            ArrayContainer result = new ArrayContainer(common
+                ? Math.min(cardinality, other.cardinality)
+                : cardinality + other.cardinality);
+            int i = 0;
+            int j = 0;
+            while (i < cardinality && j < other.cardinality) {
+                char a = values[i];
+                char b = other.values[j];
+                if (a == b) {
+                    result.values[result.cardinality++] = a;
+                    i++;
+                    j++;
+                }
+                else if (a < b) {
+                    if (!common) {
+                        result.values[result.cardinality++] = a;
+                    }
+                    i++;
+                }
+                else {
+                    if (!common) {
+                        result.values[result.cardinality++] = b;
+                    }
+                    j++;
+                }
+            }
+            if (!common) {
+                while (i < cardinality) {
+                    result.values[result.cardinality++] = values[i++];
+                }
+                while (j < other.cardinality) {
+                    result.values[result.cardinality++] = other.values[j++];
+                }
+            }
+            return result.cardinality == 0 ? null : result;
+        }
+
+
+        /**
+         * Keeps the values that are in another container, or the ones
+         * that are not. Null if nothing is kept.
+         */
+        Container filter(Container other, boolean in) {
+            ArrayContainer result = new ArrayContainer(cardinality);
+            for (int i = 0; i < cardinality; i++) {
+                if (other.contains(values[i]) == in) {
+                    result.values[result.cardinality++] = values[i];
+                }
+            }
+            return result.cardinality == 0 ? null : result;
+        }
+    }
+
+
+    /**
+     * One bit per possible value, for more than ARRAY_MAX values.
+     */
+    private static final class BitmapContainer extends Container {
+        final long[] words;
+        int cardinality;
+
+        BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+
+        int kind() {
+            return BITMAP;
+        }
+
+
+        int cardinality() {
+            return cardinality;
+        }
+
+
+        boolean contains(char value) {
+            return (words[value >>> 6] & 1L << value) != 0;
+        }
+
+
+        Container add(char value) {
+            long mask = 1L << value;
+            if ((words[value >>> 6] & mask) == 0) {
+                words[value >>> 6] |= mask;
+                cardinality++;
+            }
+            return this;
+        }
+
+
+        Container remove(char value) {
+            long mask = 1L << value;
+            if ((words[value >>> 6] & mask) == 0) {
+                return this;
+            }
+            words[value >>> 6] &= ~mask;
+            cardinality--;
+            return cardinality <= ARRAY_MAX
+                ? ArrayContainer.of(words, cardinality)
+                : this;
+        }
+
+
+        void setBits(long[] other) {
+            for (int i = 0; i < WORDS; i++) {
+                other[i] |= words[i];
+            }
+        }
+
+
+        void clearBits(long[] other) {
+            for (int i = 0; i < WORDS; i++) {
+                other[i] &= ~words[i];
+            }
+        }
+
+
+        void forEach(int high, IntConsumer action) {
+            for (int i = 0; i < WORDS; i++) {
+                for (long word = words[i]; word != 0; word &= word - 1) {
+                    action.accept(high | i * 64 + Long.numberOfTrailingZeros(
+                        word));
+                }
+            }
+        }
+
+
+        int toInts(int high, int[] out, int position) {
+            for (int i = 0; i < WORDS; i++) {
+                for (long word = words[i]; word != 0; word &= word - 1) {
+                    out[position++] = high | i * 64 + Long
+                        .numberOfTrailingZeros(word);
+                }
+            }
+            return position;
+        }
+
+
+        int numberOfRuns() {
+            int runs = 0;
+            long previous = 0;
+            for (long word : words) {
+                // a run starts at a set bit whose lower neighbor is clear
+                runs += Long.bitCount(word & ~(word << 1 | previous >>> 63));
+                previous = word;
+            }
+            return runs;
+        }
+
+
+        int sizeInBytes() {
+            return 8 * WORDS;
+        }
+
+
+        Container copy() {
+            return new BitmapContainer(words.clone(), cardinality);
+        }
+
+
+        long[] words() {
+            return words.clone();
+        }
+    }
+
+
+    /**
+     * Ranges of consecutive values as pairs of start and length - 1.
+     */
+    private static final class RunContainer extends Container {
+        char[] runs;
+        int count;
+        int cardinality;
+
+        RunContainer(int capacity) {
+            runs = new char[2 * capacity];
+        }
+
+
+        static RunContainer of(long[] words) {
+            RunContainer run = new RunContainer(8);
+            int start = -1;
+            for (int value = 0; value <= WORDS * 64; value++) {
+                boolean set = value < WORDS * 64 && (words[value >>> 6]
+                    & 1L << value) != 0;
+                if (set && start < 0) {
+                    start = value;
+                }
+                else if (!set && start >= 0) {
+                    run.append(start, value - 1);
+                    start = -1;
+                }
+            }
+            return run;
+        }
+
+
+        /**
+         * Adds a range after the last one, joining it if they touch.
+         */
+        void append(int from, int to) {
+            if (count > 0) {
+                int lastEnd = runs[2 * count - 2] + runs[2 * count - 1];
+                if (from <= lastEnd + 1) {
+                    if (to > lastEnd) {
+                        runs[2 * count - 1] = (char)(to - runs[2 * count
+                            - 2]);
+                        cardinality += to - lastEnd;
+                    }
+                    return;
+                }
+            }
+            if (2 * count == runs.length) {
+                runs = Arrays.copyOf(runs, Math.max(8, runs.length * 2));
+            }
+            runs[2 * count] = (char)from;
+            runs[2 * count + 1] = (char)(to - from);
+            count++;
+            cardinality += to - from + 1;
+        }
+
+
+        int kind() {
+            return RUN;
+        }
+
+
+        int cardinality() {
+            return cardinality;
+        }
+
+
+        boolean contains(char value) {
+            // last run that starts at or before the value
+            int low = 0;
+            int high = count - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                if (runs[2 * middle] <= value) {
+                    low = middle + 1;
+                }
+                else {
+                    high = middle - 1;
+                }
+            }
+            return high >= 0 && value <= runs[2 * high] + runs[2 * high + 1];
+        }
+
+
+        Container add(char value) {
+            return contains(value) ? this : fromWords(words()).add(value);
+        }
+
+
+        Container remove(char value) {
+            if (!contains(value)) {
+                return this;
+            }
+            Container container = fromWords(words());
+            return container.remove(value);
+        }
+
+
+        void setBits(long[] words) {
+            for (int r = 0; r < count; r++) {
+                setRange(words, runs[2 * r], runs[2 * r] + runs[2 * r + 1]);
+            }
+        }
+
+
+        void clearBits(long[] words) {
+            for (int r = 0; r < count; r++) {
+                clearRange(words, runs[2 * r], runs[2 * r] + runs[2 * r
+                    + 1]);
+            }
+        }
+
+
+        void forEach(int high, IntConsumer action) {
+            for (int r = 0; r < count; r++) {
+                int end = runs[2 * r] + runs[2 * r + 1];
+                for (int value = runs[2 * r]; value <= end; value++) {
+                    action.accept(high | value);
+                }
+            }
+        }
+
+
+        int toInts(int high, int[] out, int position) {
+            for (int r = 0; r < count; r++) {
+                int end = runs[2 * r] + runs[2 * r + 1];
+                for (int value = runs[2 * r]; value <= end; value++) {
+                    out[position++] = high | value;
+                }
+            }
+            return position;
+        }
+
+
+        int numberOfRuns() {
+            return count;
+        }
+
+
+        int sizeInBytes() {
+            return 4 * count;
+        }
+
+
+        Container copy() {
+            RunContainer copy = new RunContainer(0);
+            copy.runs = Arrays.copyOf(runs, 2 * count);
+            copy.count = count;
+            copy.cardinality = cardinality;
+            return copy;
+        }
+
+
+        /**
+         * Intersects the ranges of two run containers. Null if they do
+         * not overlap.
+         */
+        Container and(RunContainer other) {
+            RunContainer result = new RunContainer(Math.max(count,
+                other.count));
+            int i = 0;
+            int j = 0;
+            while (i < count && j < other.count) {
+                int aEnd = runs[2 * i] + runs[2 * i + 1];
+                int bEnd = other.runs[2 * j] + other.runs[2 * j + 1];
+                int from = Math.max(runs[2 * i], other.runs[2 * j]);
+                int to = Math.min(aEnd, bEnd);
+                if (from <= to) {
+                    result.append(from, to);
+                }
+                if (aEnd < bEnd) {
+                    i++;
+                }
+                else {
+                    j++;
+                }
+            }
+            return result.count == 0 ? null : result;
+        }
+
+
+        /**
+         * Joins the ranges of two run containers.
+         */
+        Container or(RunContainer other) {
+            RunContainer result = new RunContainer(count + other.count);
+            int i = 0;
+            int j = 0;
+            while (i < count || j < other.count) {
+                if (j == other.count || i < count && runs[2
+                    * i] <= other.runs[2 * j]) {
+                    result.append(runs[2 * i], runs[2 * i] + runs[2 * i
+                        + 1]);
+                    i++;
+                }
+                else {
+                    result.append(other.runs[2 * j], other.runs[2 * j]
+                        + other.runs[2 * j + 1]);
+                    j++;
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,268 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Closed-loop load generator for VTConnectServer. Each client is a
+ * virtual thread that sends a request, waits for the response and sends
+ * the next one; every request pipelines a number of random commands. The
+ * generator reports the requests and commands per second, the latency of
+ * the requests and how many results came back OK, NO or BAD.
+ *
+ * Without --url it starts a server on a free localhost port with a
+ * generated network, so the whole round trip runs on one machine:
+ *
+ * <pre>
+ * java ServerLoadGenerator --users 20000 --clients 64 --pipeline 16
+ * </pre>
+ *
+ * Options, each followed by a value:
+ *
+ * <pre>
+ * --url           URL of a running server's /vt, default start one
+ * --users         profiles of the generated network, or of the running
+ *                 server, whose ids are 0 to users - 1; default 20000
+ * --degree        average degree of the generated network, default 16
+ * --model         graph model of GraphGenerator, default ba
+ * --clients       concurrent clients, default 64
+ * --pipeline      commands per request, default 16
+ * --duration      seconds of load, default 10
+ * --mix           weights of the commands, default addUser=1,
+ *                 createFriendship=10,removeFriendship=4,distance=25,
+ *                 suggestions=45,traversalPage=15
+ * --max-concurrent requests the started server serves at once, default
+ *                 256
+ * --max-batch     mutations the started server applies under one lock,
+ *                 default 256
+ * </pre>
+ *
+ * @author Kerem Bozgan kerembozgan
+ * @version 2022-11-11
+ */
+class ServerLoadGenerator {
+
+    /** Commands in the mix */
+    static final String[] COMMANDS = { "addUser", "createFriendship",
+        "removeFriendship", "distance", "suggestions", "traversalPage" };
+
+    public static void main(String[] args) throws Exception {
+        HashMap<String, String> options = VTConnectServer.parseOptions(args);
+        int n = Integer.parseInt(options.getOrDefault("users", "20000"));
+        int clients = Integer.parseInt(options.getOrDefault("clients", "64"));
+        int pipeline = Integer.parseInt(options.getOrDefault("pipeline",
+            "16"));
+        double duration = Double.parseDouble(options.getOrDefault("duration",
+            "10"));
+        int[] weights = parseMix(options.getOrDefault("mix",
+            "addUser=1,createFriendship=10,removeFriendship=4,distance=25,"
+                + "suggestions=45,traversalPage=15"));
+
+        VTConnectServer server = null;
+        String url = options.get("url");
+        if (url == null) {
+            String model = options.getOrDefault("model",
+                GraphGenerator.BARABASI_ALBERT);
+            int degree = Integer.parseInt(options.getOrDefault("degree",
+                "16"));
+            VTConnect network = new VTConnect();
+            GraphGenerator.populate(network, n, GraphGenerator.generate(model,
+                n, degree, new Random(42)));
+            network.enableMetrics();
+            server = new VTConnectServer(network, 0, Integer.parseInt(options
+                .getOrDefault("max-concurrent", "256")), 1000, Integer
+                    .parseInt(options.getOrDefault("max-batch", "256")));
+            url = "http://localhost:" + server.getPort() + "/vt";
+            System.out.printf("Started server with a %s network of %d users"
+                + "%n", model, n);
+        }
+
+        HttpClient client = HttpClient.newBuilder().version(
+            HttpClient.Version.HTTP_1_1).executor(Executors
+                .newVirtualThreadPerTaskExecutor()).build();
+        URI endpoint = URI.create(url);
+        LatencyHistogram latency = new LatencyHistogram();
+        // results per status, then failed requests
+        AtomicLongArray outcomes = new AtomicLongArray(4);
+        long end = System.nanoTime() + (long)(duration * 1e9);
+        System.out.printf("Running %d clients with %d commands per request "
+            + "for %.0f s against %s%n", clients, pipeline, duration, url);
+
+        long start = System.nanoTime();
+        try (ExecutorService executor = Executors
+            .newVirtualThreadPerTaskExecutor()) {
+            for (int c = 0; c < clients; c++) {
+                Random random = new Random(c);
+                executor.execute(() -> runClient(client, endpoint, n,
+                    pipeline, weights, end, random, latency, outcomes));
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long count = latency.getCount();
+        System.out.printf("%d requests, %.0f requests/s, %.0f commands/s%n",
+            count, count / seconds, count * pipeline / seconds);
+        System.out.printf("latency ms p50 %.2f p90 %.2f p99 %.2f p99.9 %.2f "
+            + "max %.2f%n", latency.getValueAtPercentile(50) / 1e6, latency
+                .getValueAtPercentile(90) / 1e6, latency.getValueAtPercentile(
+                    99) / 1e6, latency.getValueAtPercentile(99.9) / 1e6,
+            latency.getMax() / 1e6);
+        System.out.printf("results OK %d NO %d BAD %d, failed requests %d%n",
+            outcomes.get(VTConnectServer.OK), outcomes.get(VTConnectServer.NO),
+            outcomes.get(VTConnectServer.BAD), outcomes.get(3));
+
+        if (server != null) {
+            HttpResponse<String> stats = client.send(HttpRequest.newBuilder(
+                URI.create("http://localhost:" + server.getPort() + "/stats"))
+                .build(), HttpResponse.BodyHandlers.ofString());
+            System.out.println();
+            System.out.print(stats.body());
+            server.close();
+        }
+    }
+
+
+    /**
+     * Sends requests until the end time, recording their latency and the
+     * status of each result.
+     */
+    private static void runClient(
+        HttpClient client,
+        URI endpoint,
+        int n,
+        int pipeline,
+        int[] weights,
+        long end,
+        Random random,
+        LatencyHistogram latency,
+        AtomicLongArray outcomes) {
+        int totalWeight = 0;
+        for (int weight : weights) {
+            totalWeight += weight;
+        }
+        VTConnectServer.Encoder body = new VTConnectServer.Encoder();
+        int added = 0;
+        while (System.nanoTime() < end) {
+            body.reset();
+            int[] ops = new int[pipeline];
+            for (int i = 0; i < pipeline; i++) {
+                int pick = random.nextInt(totalWeight);
+                int command = 0;
+                while (pick >= weights[command]) {
+                    pick -= weights[command++];
+                }
+                ops[i] = command;
+                int a = random.nextInt(n);
+                int b = random.nextInt(n);
+                switch (COMMANDS[command]) {
+                    case "addUser":
+                        body.addUser("load" + random.nextLong() + "-"
+                            + added++, "Hello.");
+                        break;
+                    case "createFriendship":
+                        body.createFriendship(a, b);
+                        break;
+                    case "removeFriendship":
+                        body.removeFriendship(a, b);
+                        break;
+                    case "distance":
+                        body.distance(a, b);
+                        break;
+                    case "suggestions":
+                        body.suggestions(a);
+                        break;
+                    case "traversalPage":
+                        body.traversalPage(a, random.nextInt(100), 20);
+                        break;
+                    default:
+                        throw new IllegalStateException();
+                }
+            }
+            long sent = System.nanoTime();
+            HttpResponse<byte[]> response;
+            try {
+                response = client.send(HttpRequest.newBuilder(endpoint).POST(
+                    HttpRequest.BodyPublishers.ofByteArray(body
+                        .toByteArray())).build(), HttpResponse.BodyHandlers
+                            .ofByteArray());
+            }
+            catch (IOException e) {
+                outcomes.incrementAndGet(3);
+                continue;
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            long received = System.nanoTime();
+            if (response.statusCode() != 200) {
+                outcomes.incrementAndGet(3);
+                continue;
+            }
+            synchronized (latency) {
+                latency.record(received - sent);
+            }
+            countResults(response.body(), ops, outcomes);
+        }
+    }
+
+
+    /**
+     * Reads the results of a response and counts their statuses.
+     */
+    private static void countResults(
+        byte[] bytes,
+        int[] ops,
+        AtomicLongArray outcomes) {
+        VTConnectServer.Decoder in = new VTConnectServer.Decoder(bytes, 0,
+            bytes.length);
+        for (int op : ops) {
+            int status = in.readByte();
+            outcomes.incrementAndGet(status);
+            if (status != VTConnectServer.OK) {
+                continue;
+            }
+            switch (COMMANDS[op]) {
+                case "addUser":
+                case "distance":
+                    in.readVarint();
+                    break;
+                case "suggestions":
+                case "traversalPage":
+                    int count = in.readVarint();
+                    for (int i = 0; i < count; i++) {
+                        in.readVarint();
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+
+    /**
+     * Parses a mix such as distance=2,suggestions=5 into a weight per
+     * command. Commands not named get weight zero.
+     */
+    private static int[] parseMix(String mix) {
+        int[] weights = new int[COMMANDS.length];
+        for (String part : mix.split(",")) {
+            String[] pair = part.split("=");
+            int index = Arrays.asList(COMMANDS).indexOf(pair[0].trim());
+            if (index < 0 || pair.length != 2) {
+                throw new IllegalArgumentException("Unknown mix entry: "
+                    + part);
+            }
+            weights[index] = Integer.parseInt(pair[1].trim());
+        }
+        return weights;
+    }
+}
@@ -0,0 +1,446 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * One shard of a ShardedVTConnect. A shard owns a part of the profiles
+ * and keeps them in its own profile map and Graph. A friendship between
+ * two profiles of the shard is an ordinary edge; a friendship with a
+ * profile of another shard is an edge to a ghost vertex, a vertex of the
+ * local graph that stands for the remote profile and remembers which
+ * shard owns it. Each cut friendship is therefore stored once on each of
+ * its two shards.
+ *
+ * The shard does nothing on its own: it answers request frames of the
+ * coordinator, one reply per request, encoded with the varints of
+ * VTConnectServer. The same handle method serves an in-process shard
+ * behind a pair of queues and a shard process behind a loopback socket:
+ *
+ * <pre>
+ * java ShardServer --port 0
+ * </pre>
+ *
+ * prints the port it listens on, serves a single coordinator connection
+ * and exits when the coordinator closes it. Frames on the socket are an
+ * int length followed by the bytes.
+ *
+ * A breadth first search runs in level-synchronous steps. Each step
+ * gets the vertices of this shard that other shards reached on the
+ * previous level, with their parents, and expands the vertices of the
+ * current level. Owned neighbors go into the next level here; ghost
+ * neighbors are batched by owner shard in the reply, each ghost at most
+ * once per search, and the coordinator hands the batches to their owners
+ * in the next step. The parents stay until the next search, so a path
+ * can be read back one hop at a time.
+ *
+ * @author Kerem Bozgan kerembozgan
+ * @version 2022-11-11
+ */
+class ShardServer {
+
+    /** Operations of the request frames */
+    static final int ADD_USERS = 1;
+    static final int REMOVE_USER = 2;
+    static final int ADD_EDGES = 3;
+    static final int REMOVE_EDGES = 4;
+    static final int HAS_EDGE = 5;
+    static final int NEIGHBORS = 6;
+    static final int SEARCH_STEP = 7;
+    static final int PARENT = 8;
+    static final int PROFILES = 9;
+    static final int STATS = 10;
+    static final int EXPORT = 11;
+    static final int CLEAR = 12;
+
+    /** Friendships of the owned profiles, with ghosts for remote ends */
+    private final Graph<Integer> graph = new Graph<Integer>();
+    /** Owned profiles by id */
+    private final HashMap<Integer, Profile> profiles =
+        new HashMap<Integer, Profile>();
+    /** Owner shard of each ghost vertex */
+    private final HashMap<Integer, Integer> ghostOwners =
+        new HashMap<Integer, Integer>();
+
+    /** Search the state below belongs to */
+    private int searchId = -1;
+    /** Parent of each owned vertex reached by the search, -1 at origin */
+    private HashMap<Integer, Integer> parents =
+        new HashMap<Integer, Integer>();
+    /** Ghosts already sent to their owners in this search */
+    private BreadthFirstCursor.IntHashSet sent;
+    /** Owned vertices of the next level found here */
+    private List<Integer> nextLevel = new ArrayList<Integer>();
+    /** True if the target is among them */
+    private boolean targetNext;
+
+    public static void main(String[] args) throws IOException {
+        HashMap<String, String> options = VTConnectServer.parseOptions(args);
+        int port = Integer.parseInt(options.getOrDefault("port", "0"));
+        ShardServer shard = new ShardServer();
+        try (ServerSocket server = new ServerSocket(port, 1, InetAddress
+            .getLoopbackAddress())) {
+            System.out.println("ShardServer listening on port " + server
+                .getLocalPort());
+            System.out.flush();
+            try (Socket socket = server.accept()) {
+                socket.setTcpNoDelay(true);
+                DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(socket.getInputStream(), 65536));
+                DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(socket.getOutputStream(),
+                        65536));
+                while (true) {
+                    byte[] request;
+                    try {
+                        request = new byte[in.readInt()];
+                    }
+                    catch (EOFException e) {
+                        return;
+                    }
+                    in.readFully(request);
+                    byte[] reply = shard.handle(request);
+                    out.writeInt(reply.length);
+                    out.write(reply);
+                    out.flush();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Carries out one request frame and returns the reply frame.
+     *
+     * @param request
+     *            encoded request
+     * @return encoded reply
+     */
+    byte[] handle(byte[] request) {
+        VTConnectServer.Decoder in = new VTConnectServer.Decoder(request, 0,
+            request.length);
+        VTConnectServer.Encoder out = new VTConnectServer.Encoder();
+        int op = in.readByte();
+        switch (op) {
+            case ADD_USERS:
+                addUsers(in);
+                break;
+            case REMOVE_USER:
+                removeUser(in.readVarint(), out);
+                break;
+            case ADD_EDGES:
+                out.writeVarint(addEdges(in));
+                break;
+            case REMOVE_EDGES:
+                out.writeVarint(removeEdges(in));
+                break;
+            case HAS_EDGE:
+                out.writeByte(graph.hasEdge(in.readVarint(), in.readVarint())
+                    ? 1
+                    : 0);
+                break;
+            case NEIGHBORS:
+                writeNeighbors(graph.getVertex(in.readVarint()), out);
+                break;
+            case SEARCH_STEP:
+                searchStep(in, out);
+                break;
+            case PARENT:
+                Integer parent = parents.get(in.readVarint());
+                out.writeVarint(parent == null ? 0 : parent + 1);
+                break;
+            case PROFILES:
+                writeProfiles(in, out);
+                break;
+            case STATS:
+                writeStats(out);
+                break;
+            case EXPORT:
+                export(out);
+                break;
+            case CLEAR:
+                graph.clear();
+                profiles.clear();
+                ghostOwners.clear();
+                searchId = -1;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown operation " + op);
+        }
+        return out.toByteArray();
+    }
+
+
+    /**
+     * Adds owned profiles: count, then id, name and status of each.
+     */
+    private void addUsers(VTConnectServer.Decoder in) {
+        int count = in.readVarint();
+        for (int i = 0; i < count; i++) {
+            int id = in.readVarint();
+            Profile p = new Profile(in.readString(), in.readString());
+            p.id = id;
+            profiles.put(id, p);
+            // the id may have been a ghost of a profile removed earlier
+            ghostOwners.remove(id);
+            graph.addVertex(id);
+        }
+    }
+
+
+    /**
+     * Removes an owned profile and writes the ids of its friends.
+     */
+    private void removeUser(int id, VTConnectServer.Encoder out) {
+        VertexInterface<Integer> vertex = graph.getVertex(id);
+        if (profiles.remove(id) == null || vertex == null) {
+            out.writeVarint(0);
+            return;
+        }
+        int[] friends = new int[vertex.getNumberOfNeighbors()];
+        for (int i = 0; i < friends.length; i++) {
+            friends[i] = vertex.getNeighbor(i).getLabel();
+        }
+        graph.removeVertex(id);
+        out.writeVarint(friends.length);
+        for (int friend : friends) {
+            out.writeVarint(friend);
+            dropGhostIfUnused(friend);
+        }
+    }
+
+
+    /**
+     * Adds edges from owned profiles: count, then the owned end, the
+     * other end and the shard owning the other end. Returns the number
+     * of edges that were new.
+     */
+    private int addEdges(VTConnectServer.Decoder in) {
+        int count = in.readVarint();
+        int created = 0;
+        for (int i = 0; i < count; i++) {
+            int a = in.readVarint();
+            int b = in.readVarint();
+            int owner = in.readVarint();
+            if (!profiles.containsKey(a)) {
+                continue;
+            }
+            if (!profiles.containsKey(b) && graph.getVertex(b) == null) {
+                graph.addVertex(b);
+                ghostOwners.put(b, owner);
+            }
+            if (graph.addEdge(a, b)) {
+                created++;
+            }
+        }
+        return created;
+    }
+
+
+    /**
+     * Removes edges: count, then both ends of each. Returns the number
+     * of edges that existed.
+     */
+    private int removeEdges(VTConnectServer.Decoder in) {
+        int count = in.readVarint();
+        int removed = 0;
+        for (int i = 0; i < count; i++) {
+            int a = in.readVarint();
+            int b = in.readVarint();
+            if (graph.removeEdge(a, b)) {
+                removed++;
+                dropGhostIfUnused(a);
+                dropGhostIfUnused(b);
+            }
+        }
+        return removed;
+    }
+
+
+    /**
+     * Removes a ghost vertex once no owned profile refers to it.
+     */
+    private void dropGhostIfUnused(int id) {
+        VertexInterface<Integer> vertex = graph.getVertex(id);
+        if (vertex != null && vertex.getNumberOfNeighbors() == 0
+            && ghostOwners.remove(id) != null) {
+            graph.removeVertex(id);
+        }
+    }
+
+
+    /**
+     * Runs one level of a search. The request has the search id, the
+     * target plus one (0 for none), whether to expand the level, whether
+     * to list the level, and the vertices reached by other shards with
+     * their parents. The reply has whether the target is on the level,
+     * the size of the level and its vertices if listed, the size of the
+     * next level found here, and the ghosts reached per owner shard with
+     * their parents.
+     */
+    private void searchStep(
+        VTConnectServer.Decoder in,
+        VTConnectServer.Encoder out) {
+        int id = in.readVarint();
+        int target = in.readVarint() - 1;
+        boolean expand = in.readByte() == 1;
+        boolean list = in.readByte() == 1;
+        if (id != searchId) {
+            searchId = id;
+            parents = new HashMap<Integer, Integer>();
+            sent = new BreadthFirstCursor.IntHashSet();
+            nextLevel = new ArrayList<Integer>();
+            targetNext = false;
+        }
+
+        List<Integer> level = nextLevel;
+        boolean found = targetNext;
+        nextLevel = new ArrayList<Integer>();
+        targetNext = false;
+        int count = in.readVarint();
+        for (int i = 0; i < count; i++) {
+            int vertex = in.readVarint();
+            int parent = in.readVarint() - 1;
+            if (profiles.containsKey(vertex) && !parents.containsKey(
+                vertex)) {
+                parents.put(vertex, parent);
+                level.add(vertex);
+                found |= vertex == target;
+            }
+        }
+
+        HashMap<Integer, VTConnectServer.Encoder> batches =
+            new HashMap<Integer, VTConnectServer.Encoder>();
+        HashMap<Integer, Integer> batchSizes = new HashMap<Integer, Integer>();
+        if (expand && !found) {
+            for (int i = 0; i < level.size(); i++) {
+                int vertex = level.get(i);
+                VertexInterface<Integer> v = graph.getVertex(vertex);
+                for (int j = 0; j < v.getNumberOfNeighbors(); j++) {
+                    int neighbor = v.getNeighbor(j).getLabel();
+                    Integer owner = ghostOwners.get(neighbor);
+                    if (owner == null) {
+                        if (!parents.containsKey(neighbor)) {
+                            parents.put(neighbor, vertex);
+                            nextLevel.add(neighbor);
+                            targetNext |= neighbor == target;
+                        }
+                    }
+                    else if (sent.add(neighbor)) {
+                        VTConnectServer.Encoder batch = batches.get(owner);
+                        if (batch == null) {
+                            batch = new VTConnectServer.Encoder();
+                            batches.put(owner, batch);
+                            batchSizes.put(owner, 0);
+                        }
+                        batch.writeVarint(neighbor);
+                        batch.writeVarint(vertex + 1);
+                        batchSizes.put(owner, batchSizes.get(owner) + 1);
+                    }
+                }
+            }
+        }
+
+        out.writeByte(found ? 1 : 0);
+        out.writeVarint(level.size());
+        if (list) {
+            for (int i = 0; i < level.size(); i++) {
+                out.writeVarint(level.get(i));
+            }
+        }
+        out.writeVarint(nextLevel.size());
+        out.writeVarint(batches.size());
+        for (Integer owner : batches.keySet()) {
+            VTConnectServer.Encoder batch = batches.get(owner);
+            out.writeVarint(owner);
+            out.writeVarint(batchSizes.get(owner));
+            for (int i = 0; i < batch.size(); i++) {
+                out.writeByte(batch.buffer()[i]);
+            }
+        }
+    }
+
+
+    /**
+     * Writes the number of neighbors of a vertex and their ids.
+     */
+    private static void writeNeighbors(
+        VertexInterface<Integer> vertex,
+        VTConnectServer.Encoder out) {
+        if (vertex == null) {
+            out.writeVarint(0);
+            return;
+        }
+        out.writeVarint(vertex.getNumberOfNeighbors());
+        for (int i = 0; i < vertex.getNumberOfNeighbors(); i++) {
+            out.writeVarint(vertex.getNeighbor(i).getLabel());
+        }
+    }
+
+
+    /**
+     * Writes the name and status of each requested id, empty strings for
+     * ids that are not owned here.
+     */
+    private void writeProfiles(
+        VTConnectServer.Decoder in,
+        VTConnectServer.Encoder out) {
+        int count = in.readVarint();
+        for (int i = 0; i < count; i++) {
+            Profile p = profiles.get(in.readVarint());
+            out.writeString(p == null ? "" : p.getName());
+            out.writeString(p == null ? "" : p.getStatus());
+        }
+    }
+
+
+    /**
+     * Writes the owned profiles, the ghosts, and the adjacency entries of
+     * owned profiles to owned profiles and to ghosts.
+     */
+    private void writeStats(VTConnectServer.Encoder out) {
+        long internal = 0;
+        long cut = 0;
+        for (Integer id : profiles.keySet()) {
+            VertexInterface<Integer> vertex = graph.getVertex(id);
+            for (int i = 0; i < vertex.getNumberOfNeighbors(); i++) {
+                if (ghostOwners.containsKey(vertex.getNeighbor(i)
+                    .getLabel())) {
+                    cut++;
+                }
+                else {
+                    internal++;
+                }
+            }
+        }
+        out.writeVarint(profiles.size());
+        out.writeVarint(ghostOwners.size());
+        out.writeVarint((int)internal);
+        out.writeVarint((int)cut);
+    }
+
+
+    /**
+     * Writes every owned profile with its name, status and friends.
+     */
+    private void export(VTConnectServer.Encoder out) {
+        out.writeVarint(profiles.size());
+        Iterator<Profile> itr = profiles.values().iterator();
+        while (itr.hasNext()) {
+            Profile p = itr.next();
+            out.writeVarint(p.id);
+            out.writeString(p.getName());
+            out.writeString(p.getStatus());
+            writeNeighbors(graph.getVertex(p.id), out);
+        }
+    }
+}
@@ -0,0 +1,1255 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Social network whose profiles are split over several shards, each a
+ * ShardServer with its own Graph and profile map. This coordinator hands
+ * out the ids, remembers which shard owns each id and talks to the
+ * shards only through request and reply frames, so the shards can be
+ * threads of this JVM, each behind a pair of queues, or separate
+ * processes on this machine behind loopback sockets.
+ *
+ * Profiles are placed on the shards by one of two partitionings:
+ *
+ * <pre>
+ * HASH       a hash of the id, needs no knowledge of the friendships
+ * EDGE_CUT   linear deterministic greedy: load places each profile on
+ *            the shard that holds most of its already placed friends,
+ *            weighed down by how full the shard is, so that few
+ *            friendships cross shards while the shards stay balanced
+ * </pre>
+ *
+ * A profile added on its own has no friends yet, so EDGE_CUT puts it on
+ * the shard with the fewest profiles; repartition places everything
+ * again from the current friendships.
+ *
+ * friendshipDistance, getShortestPath and friendSuggestion run as a
+ * breadth first search in level-synchronous steps. In each step every
+ * shard with work expands its current level and replies with the ghosts
+ * it reached, batched per owner shard; the coordinator hands each batch
+ * to its owner in the next step. The requests of a step are all sent
+ * before any reply is read, so the shards work on a step in parallel.
+ *
+ * Profiles returned by this class are copies read from their shards,
+ * with the id set; the Profile passed to addUser gets its id as well but
+ * is not connected to a network, so its friends are only known here.
+ * The coordinator is not thread-safe.
+ *
+ * @author Kerem Bozgan kerembozgan
+ * @version 2022-11-11
+ */
+class ShardedVTConnect implements AutoCloseable {
+
+    /** Partitionings */
+    static final String HASH = "hash";
+    static final String EDGE_CUT = "edge-cut";
+
+    /** Edges or profiles per frame of a bulk load */
+    private static final int BATCH = 16384;
+    /** Room above an even share that EDGE_CUT allows a shard */
+    private static final double SLACK = 1.05;
+
+    /** Channels to the shards */
+    private final Channel[] shards;
+    private final String partitioning;
+    /** Hands out the ids, reusing those of removed profiles */
+    private final IdAllocator ids = new IdAllocator();
+    /** Shard of each id, -1 for ids not in use */
+    private int[] owners = newOwners(1024);
+    /** Profiles on each shard */
+    private final int[] shardSizes;
+
+    /** Search id of the last search, and its steps and messages */
+    private int searchId;
+    private int lastSteps;
+    private long lastMessages;
+
+    public static void main(String[] args) throws IOException {
+        HashMap<String, String> options = VTConnectServer.parseOptions(args);
+        int n = Integer.parseInt(options.getOrDefault("users", "20000"));
+        int degree = Integer.parseInt(options.getOrDefault("degree", "16"));
+        int shardCount = Integer.parseInt(options.getOrDefault("shards",
+            "4"));
+        boolean processes = Boolean.parseBoolean(options.getOrDefault(
+            "processes", "false"));
+        String model = options.getOrDefault("model",
+            GraphGenerator.BARABASI_ALBERT);
+        int[] ends = GraphGenerator.generate(model, n, degree, new Random(
+            42));
+
+        // the same network in one VTConnect, to check the answers against
+        VTConnect single = new VTConnect();
+        Profile[] reference = GraphGenerator.populate(single, n, ends);
+
+        for (String strategy : new String[] { HASH, EDGE_CUT }) {
+            try (ShardedVTConnect sharded = processes
+                ? loopback(shardCount, strategy)
+                : inProcess(shardCount, strategy)) {
+                Profile[] profiles = new Profile[n];
+                for (int i = 0; i < n; i++) {
+                    profiles[i] = new Profile("user" + i, "");
+                }
+                long start = System.nanoTime();
+                sharded.load(profiles, ends);
+                double loadMillis = (System.nanoTime() - start) / 1e6;
+                System.out.printf("%s, %d shards %s, load %.0f ms%n",
+                    strategy, shardCount, processes
+                        ? "in processes"
+                        : "in process", loadMillis);
+                System.out.print(sharded.getPartitionReport());
+
+                Random random = new Random(7);
+                int queries = 100;
+                int mismatches = 0;
+                long steps = 0;
+                long messages = 0;
+                start = System.nanoTime();
+                for (int q = 0; q < queries; q++) {
+                    int a = random.nextInt(n);
+                    int b = random.nextInt(n);
+                    int distance = sharded.friendshipDistance(profiles[a],
+                        profiles[b]);
+                    steps += sharded.lastSteps;
+                    messages += sharded.lastMessages;
+                    if (distance != single.friendshipDistance(reference[a],
+                        reference[b])) {
+                        mismatches++;
+                    }
+                }
+                double queryMicros = (System.nanoTime() - start) / 1e3
+                    / queries;
+                System.out.printf("distance %.0f us, %.1f steps and %.0f "
+                    + "ghost messages per query, %d mismatches%n%n",
+                    queryMicros, steps / (double)queries, messages
+                        / (double)queries, mismatches);
+            }
+        }
+    }
+
+
+    /**
+     * Initializes a network over the given shards.
+     */
+    private ShardedVTConnect(Channel[] shards, String partitioning) {
+        if (!HASH.equals(partitioning) && !EDGE_CUT.equals(partitioning)) {
+            throw new IllegalArgumentException("Unknown partitioning: "
+                + partitioning);
+        }
+        this.shards = shards;
+        this.partitioning = partitioning;
+        this.shardSizes = new int[shards.length];
+    }
+
+
+    /**
+     * Returns an empty network whose shards run on threads of this JVM.
+     *
+     * @param count
+     *            number of shards
+     * @param partitioning
+     *            HASH or EDGE_CUT
+     * @return sharded network
+     */
+    public static ShardedVTConnect inProcess(int count, String partitioning) {
+        Channel[] shards = new Channel[count];
+        for (int i = 0; i < count; i++) {
+            shards[i] = new QueueChannel(i);
+        }
+        return new ShardedVTConnect(shards, partitioning);
+    }
+
+
+    /**
+     * Returns an empty network whose shards are ShardServer processes on
+     * this machine, started with the java and class path of this JVM and
+     * reached over loopback sockets.
+     *
+     * @param count
+     *            number of shards
+     * @param partitioning
+     *            HASH or EDGE_CUT
+     * @return sharded network
+     * @throws IOException
+     *             if a shard process cannot be started
+     */
+    public static ShardedVTConnect loopback(int count, String partitioning)
+        throws IOException {
+        Channel[] shards = new Channel[count];
+        try {
+            for (int i = 0; i < count; i++) {
+                shards[i] = new SocketChannel();
+            }
+        }
+        catch (IOException e) {
+            for (Channel shard : shards) {
+                if (shard != null) {
+                    shard.close();
+                }
+            }
+            throw e;
+        }
+        return new ShardedVTConnect(shards, partitioning);
+    }
+
+
+    /**
+     * Adds a profile and sets its id.
+     *
+     * @param p
+     *            profile to be added
+     */
+    public void addUser(Profile p) {
+        int id = ids.allocate();
+        int shard = HASH.equals(partitioning) ? hashShard(id) : leastLoaded();
+        setOwner(id, shard);
+        VTConnectServer.Encoder request = request(ShardServer.ADD_USERS);
+        request.writeVarint(1);
+        writeProfile(request, id, p);
+        call(shard, request);
+        p.id = id;
+    }
+
+
+    /**
+     * Adds many profiles with friendships among them at once. The
+     * profiles are placed with the partitioning of this network, using
+     * the friendships for EDGE_CUT, and sent to the shards in batches.
+     *
+     * @param profiles
+     *            profiles to be added, their ids are set
+     * @param ends
+     *            pairs of indices into profiles, one pair per friendship
+     */
+    public void load(Profile[] profiles, int[] ends) {
+        int[] profileIds = new int[profiles.length];
+        for (int i = 0; i < profiles.length; i++) {
+            profileIds[i] = ids.allocate();
+            profiles[i].id = profileIds[i];
+        }
+        String[] names = new String[profiles.length];
+        String[] statuses = new String[profiles.length];
+        for (int i = 0; i < profiles.length; i++) {
+            names[i] = profiles[i].getName();
+            statuses[i] = profiles[i].getStatus();
+        }
+        int[] placement = place(profiles.length, ends);
+        distribute(profileIds, names, statuses, ends, placement);
+    }
+
+
+    /**
+     * Places every profile again with the partitioning of this network
+     * and the current friendships, and moves the profiles accordingly.
+     */
+    public void repartition() {
+        List<Integer> idList = new ArrayList<Integer>();
+        List<String> names = new ArrayList<String>();
+        List<String> statuses = new ArrayList<String>();
+        List<int[]> friends = new ArrayList<int[]>();
+        for (int s = 0; s < shards.length; s++) {
+            VTConnectServer.Decoder reply = call(s, request(
+                ShardServer.EXPORT));
+            int count = reply.readVarint();
+            for (int i = 0; i < count; i++) {
+                idList.add(reply.readVarint());
+                names.add(reply.readString());
+                statuses.add(reply.readString());
+                int[] list = new int[reply.readVarint()];
+                for (int j = 0; j < list.length; j++) {
+                    list[j] = reply.readVarint();
+                }
+                friends.add(list);
+            }
+        }
+
+        // friendships as pairs of indices, each once
+        HashMap<Integer, Integer> indexOf = new HashMap<Integer, Integer>();
+        for (int i = 0; i < idList.size(); i++) {
+            indexOf.put(idList.get(i), i);
+        }
+        int pairs = 0;
+        for (int i = 0; i < friends.size(); i++) {
+            for (int friend : friends.get(i)) {
+                if (idList.get(i) < friend) {
+                    pairs++;
+                }
+            }
+        }
+        int[] ends = new int[2 * pairs];
+        int e = 0;
+        for (int i = 0; i < friends.size(); i++) {
+            for (int friend : friends.get(i)) {
+                if (idList.get(i) < friend) {
+                    ends[e++] = i;
+                    ends[e++] = indexOf.get(friend);
+                }
+            }
+        }
+
+        for (int s = 0; s < shards.length; s++) {
+            call(s, request(ShardServer.CLEAR));
+        }
+        Arrays.fill(shardSizes, 0);
+        int[] profileIds = new int[idList.size()];
+        for (int i = 0; i < profileIds.length; i++) {
+            profileIds[i] = idList.get(i);
+        }
+        distribute(profileIds, names.toArray(new String[0]), statuses
+            .toArray(new String[0]), ends, place(profileIds.length, ends));
+    }
+
+
+    /**
+     * Removes a profile with its friendships.
+     *
+     * @param p
+     *            profile to be removed
+     * @return true if the profile was in the network
+     */
+    public boolean removeUser(Profile p) {
+        if (!exists(p)) {
+            return false;
+        }
+        int id = p.id;
+        int shard = owners[id];
+        VTConnectServer.Encoder request = request(ShardServer.REMOVE_USER);
+        request.writeVarint(id);
+        VTConnectServer.Decoder reply = call(shard, request);
+        int count = reply.readVarint();
+
+        // remove the ghost edges of the friends on other shards
+        VTConnectServer.Encoder[] removals =
+            new VTConnectServer.Encoder[shards.length];
+        int[] removalCounts = new int[shards.length];
+        for (int i = 0; i < count; i++) {
+            int friend = reply.readVarint();
+            int friendShard = owners[friend];
+            if (friendShard != shard) {
+                if (removals[friendShard] == null) {
+                    removals[friendShard] = new VTConnectServer.Encoder();
+                }
+                removals[friendShard].writeVarint(friend);
+                removals[friendShard].writeVarint(id);
+                removalCounts[friendShard]++;
+            }
+        }
+        for (int s = 0; s < shards.length; s++) {
+            if (removals[s] != null) {
+                VTConnectServer.Encoder batch = request(
+                    ShardServer.REMOVE_EDGES);
+                batch.writeVarint(removalCounts[s]);
+                append(batch, removals[s]);
+                call(s, batch);
+            }
+        }
+        owners[id] = -1;
+        shardSizes[shard]--;
+        ids.release(id);
+        p.id = null;
+        return true;
+    }
+
+
+    /**
+     * Creates a friendship between two profiles.
+     *
+     * @param a
+     *            first profile
+     * @param b
+     *            second profile
+     * @return true if the friendship is new
+     */
+    public boolean createFriendship(Profile a, Profile b) {
+        if (!exists(a) || !exists(b) || a.id.equals(b.id)) {
+            return false;
+        }
+        int shardA = owners[a.id];
+        int shardB = owners[b.id];
+        VTConnectServer.Encoder request = request(ShardServer.ADD_EDGES);
+        request.writeVarint(1);
+        request.writeVarint(a.id);
+        request.writeVarint(b.id);
+        request.writeVarint(shardB);
+        if (shardA == shardB) {
+            return call(shardA, request).readVarint() == 1;
+        }
+        VTConnectServer.Encoder mirror = request(ShardServer.ADD_EDGES);
+        mirror.writeVarint(1);
+        mirror.writeVarint(b.id);
+        mirror.writeVarint(a.id);
+        mirror.writeVarint(shardA);
+        send(shardA, request);
+        send(shardB, mirror);
+        boolean created = receive(shardA).readVarint() == 1;
+        receive(shardB);
+        return created;
+    }
+
+
+    /**
+     * Removes a friendship between two profiles.
+     *
+     * @param a
+     *            first profile
+     * @param b
+     *            second profile
+     * @return true if the friendship existed
+     */
+    public boolean removeFriendship(Profile a, Profile b) {
+        if (!exists(a) || !exists(b)) {
+            return false;
+        }
+        int shardA = owners[a.id];
+        int shardB = owners[b.id];
+        VTConnectServer.Encoder request = request(ShardServer.REMOVE_EDGES);
+        request.writeVarint(1);
+        request.writeVarint(a.id);
+        request.writeVarint(b.id);
+        if (shardA == shardB) {
+            return call(shardA, request).readVarint() == 1;
+        }
+        VTConnectServer.Encoder mirror = request(ShardServer.REMOVE_EDGES);
+        mirror.writeVarint(1);
+        mirror.writeVarint(b.id);
+        mirror.writeVarint(a.id);
+        send(shardA, request);
+        send(shardB, mirror);
+        boolean removed = receive(shardA).readVarint() == 1;
+        receive(shardB);
+        return removed;
+    }
+
+
+    /**
+     * Returns true if two profiles are friends.
+     *
+     * @param a
+     *            first profile
+     * @param b
+     *            second profile
+     * @return true if they are friends
+     */
+    public boolean hasFriendship(Profile a, Profile b) {
+        if (!exists(a) || !exists(b)) {
+            return false;
+        }
+        VTConnectServer.Encoder request = request(ShardServer.HAS_EDGE);
+        request.writeVarint(a.id);
+        request.writeVarint(b.id);
+        return call(owners[a.id], request).readByte() == 1;
+    }
+
+
+    /**
+     * Returns true if the profile is in the network.
+     *
+     * @param p
+     *            profile
+     * @return true if it exists
+     */
+    public boolean exists(Profile p) {
+        return p.id != null && p.id >= 0 && p.id < owners.length
+            && owners[p.id] >= 0;
+    }
+
+
+    /**
+     * Returns the friends of a profile, read from its shard.
+     *
+     * @param p
+     *            profile
+     * @return friend profiles
+     */
+    public List<Profile> getFriends(Profile p) {
+        if (!exists(p)) {
+            return new ArrayList<Profile>();
+        }
+        VTConnectServer.Encoder request = request(ShardServer.NEIGHBORS);
+        request.writeVarint(p.id);
+        VTConnectServer.Decoder reply = call(owners[p.id], request);
+        int[] friends = new int[reply.readVarint()];
+        for (int i = 0; i < friends.length; i++) {
+            friends[i] = reply.readVarint();
+        }
+        return fetchProfiles(friends, friends.length);
+    }
+
+
+    /**
+     * Returns the number of hops between two profiles, -1 if there is
+     * no path, either profile is not in the network or both are the
+     * same, like VTConnect.friendshipDistance.
+     *
+     * @param a
+     *            first profile
+     * @param b
+     *            second profile
+     * @return distance or -1
+     */
+    public int friendshipDistance(Profile a, Profile b) {
+        if (!exists(a) || !exists(b) || a.id.equals(b.id)) {
+            return -1;
+        }
+        return search(a.id, b.id, Integer.MAX_VALUE, null);
+    }
+
+
+    /**
+     * Returns a shortest path between two profiles, both included, or an
+     * empty list if there is none. The path is read back from the
+     * parents the shards recorded during the search.
+     *
+     * @param a
+     *            first profile
+     * @param b
+     *            second profile
+     * @return profiles on the path
+     */
+    public List<Profile> getShortestPath(Profile a, Profile b) {
+        if (!exists(a) || !exists(b)) {
+            return new ArrayList<Profile>();
+        }
+        if (a.id.equals(b.id)) {
+            return fetchProfiles(new int[] { a.id }, 1);
+        }
+        int distance = search(a.id, b.id, Integer.MAX_VALUE, null);
+        if (distance < 0) {
+            return new ArrayList<Profile>();
+        }
+        int[] path = new int[distance + 1];
+        path[distance] = b.id;
+        for (int i = distance; i > 0; i--) {
+            VTConnectServer.Encoder request = request(ShardServer.PARENT);
+            request.writeVarint(path[i]);
+            path[i - 1] = call(owners[path[i]], request).readVarint() - 1;
+        }
+        return fetchProfiles(path, path.length);
+    }
+
+
+    /**
+     * Returns the friends of the friends of a profile that are not its
+     * friends, in no particular order, or null if there are none or the
+     * profile is not in the network, like VTConnect.friendSuggestion.
+     *
+     * @param user
+     *            profile
+     * @return suggested profiles or null
+     */
+    public List<Profile> friendSuggestion(Profile user) {
+        if (!exists(user)) {
+            return null;
+        }
+        List<Integer> found = new ArrayList<Integer>();
+        search(user.id, -1, 2, found);
+        if (found.isEmpty()) {
+            return null;
+        }
+        int[] suggested = new int[found.size()];
+        for (int i = 0; i < suggested.length; i++) {
+            suggested[i] = found.get(i);
+        }
+        return fetchProfiles(suggested, suggested.length);
+    }
+
+
+    /**
+     * Returns the profile with an id, read from its shard, or null.
+     *
+     * @param id
+     *            profile id
+     * @return copy of the profile or null
+     */
+    public Profile getProfile(int id) {
+        if (id < 0 || id >= owners.length || owners[id] < 0) {
+            return null;
+        }
+        return fetchProfiles(new int[] { id }, 1).get(0);
+    }
+
+
+    /**
+     * Returns the number of shards.
+     *
+     * @return number of shards
+     */
+    public int getNumberOfShards() {
+        return shards.length;
+    }
+
+
+    /**
+     * Returns the number of steps of the last search.
+     *
+     * @return steps
+     */
+    public int getLastSteps() {
+        return lastSteps;
+    }
+
+
+    /**
+     * Returns the number of ghost vertices sent between shards by the
+     * last search.
+     *
+     * @return messages
+     */
+    public long getLastMessages() {
+        return lastMessages;
+    }
+
+
+    /**
+     * Returns the profiles, ghosts and friendships of each shard, the
+     * edge cut, which is the share of friendships between profiles of
+     * different shards, and the balance, which is the largest shard
+     * divided by the average shard.
+     *
+     * @return report as text
+     */
+    public String getPartitionReport() {
+        StringBuilder report = new StringBuilder();
+        long internal = 0;
+        long cut = 0;
+        long largest = 0;
+        long total = 0;
+        for (int s = 0; s < shards.length; s++) {
+            send(s, request(ShardServer.STATS));
+        }
+        for (int s = 0; s < shards.length; s++) {
+            VTConnectServer.Decoder reply = receive(s);
+            int users = reply.readVarint();
+            int ghosts = reply.readVarint();
+            long shardInternal = reply.readVarint();
+            long shardCut = reply.readVarint();
+            report.append(String.format("shard %d: %d profiles, %d ghosts, "
+                + "%d local and %d cut friendship ends%n", s, users, ghosts,
+                shardInternal, shardCut));
+            internal += shardInternal;
+            cut += shardCut;
+            largest = Math.max(largest, users);
+            total += users;
+        }
+        // local friendships have two ends on one shard, cut ones one end
+        // on each of two shards
+        long friendships = internal / 2 + cut / 2;
+        report.append(String.format("edge cut %d of %d friendships (%.1f%%)"
+            + ", balance %.3f%n", cut / 2, friendships, friendships == 0
+                ? 0.0
+                : 100.0 * (cut / 2) / friendships, total == 0
+                    ? 1.0
+                    : largest / (total / (double)shards.length)));
+        return report.toString();
+    }
+
+
+    /**
+     * Stops the shards. In-process shards end their threads, shard
+     * processes exit.
+     */
+    public void close() {
+        for (Channel shard : shards) {
+            shard.close();
+        }
+    }
+
+
+    /**
+     * Runs a level-synchronous breadth first search from an origin.
+     * Stops at the target if it is not negative and returns its depth,
+     * or -1 if it is not reached. If found is given, the vertices at
+     * maxDepth are added to it.
+     */
+    private int search(
+        int origin,
+        int target,
+        int maxDepth,
+        List<Integer> found) {
+        int id = ++searchId;
+        VTConnectServer.Encoder[] incoming =
+            new VTConnectServer.Encoder[shards.length];
+        int[] incomingCounts = new int[shards.length];
+        boolean[] pending = new boolean[shards.length];
+        // the origin is the first vertex that its shard receives
+        incoming[owners[origin]] = new VTConnectServer.Encoder();
+        incoming[owners[origin]].writeVarint(origin);
+        incoming[owners[origin]].writeVarint(0);
+        incomingCounts[owners[origin]] = 1;
+
+        lastSteps = 0;
+        lastMessages = 0;
+        for (int depth = 0; depth <= maxDepth; depth++) {
+            boolean[] active = new boolean[shards.length];
+            boolean any = false;
+            for (int s = 0; s < shards.length; s++) {
+                if (!pending[s] && incomingCounts[s] == 0) {
+                    continue;
+                }
+                VTConnectServer.Encoder request = request(
+                    ShardServer.SEARCH_STEP);
+                request.writeVarint(id);
+                request.writeVarint(target + 1);
+                request.writeByte(depth < maxDepth ? 1 : 0);
+                request.writeByte(depth == maxDepth && found != null ? 1 : 0);
+                request.writeVarint(incomingCounts[s]);
+                if (incoming[s] != null) {
+                    append(request, incoming[s]);
+                }
+                send(s, request);
+                active[s] = true;
+                any = true;
+            }
+            if (!any) {
+                return -1;
+            }
+            lastSteps++;
+
+            Arrays.fill(incoming, null);
+            Arrays.fill(incomingCounts, 0);
+            Arrays.fill(pending, false);
+            boolean reached = false;
+            for (int s = 0; s < shards.length; s++) {
+                if (!active[s]) {
+                    continue;
+                }
+                VTConnectServer.Decoder reply = receive(s);
+                reached |= reply.readByte() == 1;
+                int levelSize = reply.readVarint();
+                if (depth == maxDepth && found != null) {
+                    for (int i = 0; i < levelSize; i++) {
+                        found.add(reply.readVarint());
+                    }
+                }
+                pending[s] = reply.readVarint() > 0;
+                int batches = reply.readVarint();
+                for (int b = 0; b < batches; b++) {
+                    int owner = reply.readVarint();
+                    int count = reply.readVarint();
+                    if (incoming[owner] == null) {
+                        incoming[owner] = new VTConnectServer.Encoder();
+                    }
+                    for (int i = 0; i < count; i++) {
+                        incoming[owner].writeVarint(reply.readVarint());
+                        incoming[owner].writeVarint(reply.readVarint());
+                    }
+                    incomingCounts[owner] += count;
+                    lastMessages += count;
+                }
+            }
+            if (reached) {
+                return depth;
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     * Places profiles on shards by the partitioning of this network.
+     */
+    private int[] place(int n, int[] ends) {
+        int[] placement = new int[n];
+        Arrays.fill(placement, -1);
+        if (HASH.equals(partitioning)) {
+            return placement;
+        }
+
+        // adjacency of the indices, as in CsrGraph
+        int[] offsets = new int[n + 1];
+        for (int end : ends) {
+            offsets[end + 1]++;
+        }
+        for (int i = 0; i < n; i++) {
+            offsets[i + 1] += offsets[i];
+        }
+        int[] targets = new int[ends.length];
+        int[] fill = Arrays.copyOf(offsets, n);
+        for (int e = 0; e < ends.length; e += 2) {
+            targets[fill[ends[e]]++] = ends[e + 1];
+            targets[fill[ends[e + 1]]++] = ends[e];
+        }
+
+        int[] sizes = shardSizes.clone();
+        long existing = 0;
+        for (int size : sizes) {
+            existing += size;
+        }
+        double capacity = SLACK * (existing + n) / shards.length + 1;
+        int[] friendsOn = new int[shards.length];
+        for (int v = 0; v < n; v++) {
+            Arrays.fill(friendsOn, 0);
+            for (int i = offsets[v]; i < offsets[v + 1]; i++) {
+                if (placement[targets[i]] >= 0) {
+                    friendsOn[placement[targets[i]]]++;
+                }
+            }
+            int best = 0;
+            double bestScore = -1;
+            for (int s = 0; s < shards.length; s++) {
+                double score = friendsOn[s] * (1 - sizes[s] / capacity);
+                if (score > bestScore || (score == bestScore
+                    && sizes[s] < sizes[best])) {
+                    best = s;
+                    bestScore = score;
+                }
+            }
+            placement[v] = best;
+            sizes[best]++;
+        }
+        return placement;
+    }
+
+
+    /**
+     * Sends profiles and their friendships to the shards of a placement,
+     * in batches. A placement of -1 means the shard is chosen by the
+     * hash of the id.
+     */
+    private void distribute(
+        int[] profileIds,
+        String[] names,
+        String[] statuses,
+        int[] ends,
+        int[] placement) {
+        int[] shardOf = new int[profileIds.length];
+        for (int i = 0; i < profileIds.length; i++) {
+            shardOf[i] = placement[i] >= 0
+                ? placement[i]
+                : hashShard(profileIds[i]);
+            setOwner(profileIds[i], shardOf[i]);
+        }
+
+        Batcher users = new Batcher(ShardServer.ADD_USERS);
+        for (int i = 0; i < profileIds.length; i++) {
+            VTConnectServer.Encoder batch = users.next(shardOf[i]);
+            batch.writeVarint(profileIds[i]);
+            batch.writeString(names[i]);
+            batch.writeString(statuses[i]);
+        }
+        users.flush();
+
+        // each friendship is stored on the shards of both ends
+        Batcher edges = new Batcher(ShardServer.ADD_EDGES);
+        for (int e = 0; e < ends.length; e += 2) {
+            int a = ends[e];
+            int b = ends[e + 1];
+            if (a == b) {
+                continue;
+            }
+            VTConnectServer.Encoder batch = edges.next(shardOf[a]);
+            batch.writeVarint(profileIds[a]);
+            batch.writeVarint(profileIds[b]);
+            batch.writeVarint(shardOf[b]);
+            if (shardOf[a] != shardOf[b]) {
+                batch = edges.next(shardOf[b]);
+                batch.writeVarint(profileIds[b]);
+                batch.writeVarint(profileIds[a]);
+                batch.writeVarint(shardOf[a]);
+            }
+        }
+        edges.flush();
+    }
+
+
+    /**
+     * Reads the name and status of the first count ids from their shards
+     * and returns them as profiles with the ids set.
+     */
+    private List<Profile> fetchProfiles(int[] profileIds, int count) {
+        VTConnectServer.Encoder[] requests =
+            new VTConnectServer.Encoder[shards.length];
+        int[] counts = new int[shards.length];
+        for (int i = 0; i < count; i++) {
+            int shard = owners[profileIds[i]];
+            if (requests[shard] == null) {
+                requests[shard] = new VTConnectServer.Encoder();
+            }
+            requests[shard].writeVarint(profileIds[i]);
+            counts[shard]++;
+        }
+        VTConnectServer.Decoder[] replies =
+            new VTConnectServer.Decoder[shards.length];
+        for (int s = 0; s < shards.length; s++) {
+            if (requests[s] != null) {
+                VTConnectServer.Encoder request = request(
+                    ShardServer.PROFILES);
+                request.writeVarint(counts[s]);
+                append(request, requests[s]);
+                send(s, request);
+            }
+        }
+        for (int s = 0; s < shards.length; s++) {
+            if (requests[s] != null) {
+                replies[s] = receive(s);
+            }
+        }
+        // replies come in the order of the requests of each shard
+        List<Profile> profiles = new ArrayList<Profile>(count);
+        for (int i = 0; i < count; i++) {
+            VTConnectServer.Decoder reply = replies[owners[profileIds[i]]];
+            Profile p = new Profile(reply.readString(), reply.readString());
+            p.id = profileIds[i];
+            profiles.add(p);
+        }
+        return profiles;
+    }
+
+
+    /**
+     * Returns a shard chosen by a hash of an id.
+     */
+    private int hashShard(int id) {
+        int h = id * 0x9E3779B9;
+        return Math.floorMod(h ^ (h >>> 16), shards.length);
+    }
+
+
+    /**
+     * Returns the shard with the fewest profiles.
+     */
+    private int leastLoaded() {
+        int best = 0;
+        for (int s = 1; s < shardSizes.length; s++) {
+            if (shardSizes[s] < shardSizes[best]) {
+                best = s;
+            }
+        }
+        return best;
+    }
+
+
+    /**
+     * Records the shard of an id.
+     */
+    private void setOwner(int id, int shard) {
+        if (id >= owners.length) {
+            int[] grown = newOwners(Math.max(id + 1, owners.length * 2));
+            System.arraycopy(owners, 0, grown, 0, owners.length);
+            owners = grown;
+        }
+        owners[id] = shard;
+        shardSizes[shard]++;
+    }
+
+
+    private static int[] newOwners(int length) {
+        int[] owners = new int[length];
+        Arrays.fill(owners, -1);
+        return owners;
+    }
+
+
+    /**
+     * Writes the name and status of a profile after its id.
+     */
+    private static void writeProfile(
+        VTConnectServer.Encoder request,
+        int id,
+        Profile p) {
+        request.writeVarint(id);
+        request.writeString(p.getName());
+        request.writeString(p.getStatus());
+    }
+
+
+    /**
+     * Starts a request with its operation.
+     */
+    private static VTConnectServer.Encoder request(int op) {
+        VTConnectServer.Encoder request = new VTConnectServer.Encoder();
+        request.writeByte(op);
+        return request;
+    }
+
+
+    /**
+     * Appends the bytes of one encoder to another.
+     */
+    private static void append(
+        VTConnectServer.Encoder to,
+        VTConnectServer.Encoder from) {
+        byte[] bytes = from.buffer();
+        for (int i = 0; i < from.size(); i++) {
+            to.writeByte(bytes[i]);
+        }
+    }
+
+
+    /**
+     * Sends a request and returns the reply.
+     */
+    private VTConnectServer.Decoder call(
+        int shard,
+        VTConnectServer.Encoder request) {
+        send(shard, request);
+        return receive(shard);
+    }
+
+
+    private void send(int shard, VTConnectServer.Encoder request) {
+        try {
+            shards[shard].send(request.toByteArray());
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Shard " + shard + " failed", e);
+        }
+    }
+
+
+    private VTConnectServer.Decoder receive(int shard) {
+        try {
+            byte[] reply = shards[shard].receive();
+            return new VTConnectServer.Decoder(reply, 0, reply.length);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Shard " + shard + " failed", e);
+        }
+    }
+
+
+    /**
+     * Collects the entries of a bulk request per shard and sends a frame
+     * whenever a shard has BATCH entries. Frames are sent without waiting
+     * for the reply, so the shards apply one batch while the next is
+     * being built; the replies are read before the next frame to the
+     * same shard and at the end.
+     */
+    private class Batcher {
+        private final int op;
+        private final VTConnectServer.Encoder[] batches =
+            new VTConnectServer.Encoder[shards.length];
+        private final int[] counts = new int[shards.length];
+        private final boolean[] waiting = new boolean[shards.length];
+
+        Batcher(int op) {
+            this.op = op;
+        }
+
+
+        /**
+         * Returns the batch of a shard to write one more entry to.
+         */
+        VTConnectServer.Encoder next(int shard) {
+            if (counts[shard] == BATCH) {
+                flush(shard);
+            }
+            if (batches[shard] == null) {
+                batches[shard] = new VTConnectServer.Encoder();
+            }
+            counts[shard]++;
+            return batches[shard];
+        }
+
+
+        /**
+         * Sends the remaining batches and reads every reply.
+         */
+        void flush() {
+            for (int s = 0; s < shards.length; s++) {
+                flush(s);
+            }
+            for (int s = 0; s < shards.length; s++) {
+                if (waiting[s]) {
+                    receive(s);
+                    waiting[s] = false;
+                }
+            }
+        }
+
+
+        private void flush(int shard) {
+            if (waiting[shard]) {
+                receive(shard);
+                waiting[shard] = false;
+            }
+            if (counts[shard] == 0) {
+                return;
+            }
+            VTConnectServer.Encoder frame = request(op);
+            frame.writeVarint(counts[shard]);
+            append(frame, batches[shard]);
+            send(shard, frame);
+            waiting[shard] = true;
+            batches[shard].reset();
+            counts[shard] = 0;
+        }
+    }
+
+
+    /**
+     * Connection to a shard: request frames go out, reply frames come
+     * back in the same order.
+     */
+    interface Channel {
+        void send(byte[] frame) throws IOException;
+
+
+        byte[] receive() throws IOException;
+
+
+        void close();
+    }
+
+
+    /**
+     * Shard on a thread of this JVM behind a queue of requests and a
+     * queue of replies.
+     */
+    private static class QueueChannel implements Channel {
+        /** Tells the thread of the shard to end */
+        private static final byte[] STOP = new byte[0];
+
+        private final BlockingQueue<byte[]> requests =
+            new LinkedBlockingQueue<byte[]>();
+        private final BlockingQueue<byte[]> replies =
+            new LinkedBlockingQueue<byte[]>();
+        private final Thread thread;
+
+        QueueChannel(int index) {
+            ShardServer shard = new ShardServer();
+            thread = new Thread(() -> {
+                try {
+                    while (true) {
+                        byte[] request = requests.take();
+                        if (request == STOP) {
+                            return;
+                        }
+                        byte[] reply;
+                        try {
+                            reply = shard.handle(request);
+                        }
+                        catch (RuntimeException e) {
+                            // STOP in the replies tells the coordinator
+                            reply = STOP;
+                        }
+                        replies.put(reply);
+                    }
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "shard-" + index);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+
+        public void send(byte[] frame) {
+            requests.add(frame);
+        }
+
+
+        public byte[] receive() throws IOException {
+            try {
+                byte[] reply = replies.take();
+                if (reply == STOP) {
+                    throw new IOException("Request failed on the shard");
+                }
+                return reply;
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted", e);
+            }
+        }
+
+
+        public void close() {
+            requests.add(STOP);
+        }
+    }
+
+
+    /**
+     * ShardServer process on this machine behind a loopback socket.
+     */
+    private static class SocketChannel implements Channel {
+        private final Process process;
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+
+        SocketChannel() throws IOException {
+            String java = System.getProperty("java.home") + File.separator
+                + "bin" + File.separator + "java";
+            List<String> command = new ArrayList<String>();
+            command.add(java);
+            // classes compiled for preview features need it in the child
+            if (ManagementFactory.getRuntimeMXBean().getInputArguments()
+                .contains("--enable-preview")) {
+                command.add("--enable-preview");
+            }
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add("ShardServer");
+            command.add("--port");
+            command.add("0");
+            process = new ProcessBuilder(command).redirectError(
+                ProcessBuilder.Redirect.INHERIT).start();
+            BufferedReader output = new BufferedReader(new InputStreamReader(
+                process.getInputStream()));
+            String line = output.readLine();
+            if (line == null) {
+                process.destroy();
+                throw new IOException("Shard process did not start");
+            }
+            int port = Integer.parseInt(line.substring(line.lastIndexOf(' ')
+                + 1));
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(new BufferedInputStream(socket
+                .getInputStream(), 65536));
+            out = new DataOutputStream(new BufferedOutputStream(socket
+                .getOutputStream(), 65536));
+        }
+
+
+        public void send(byte[] frame) throws IOException {
+            out.writeInt(frame.length);
+            out.write(frame);
+            out.flush();
+        }
+
+
+        public byte[] receive() throws IOException {
+            byte[] reply = new byte[in.readInt()];
+            in.readFully(reply);
+            return reply;
+        }
+
+
+        public void close() {
+            try {
+                socket.close();
+                if (!process.waitFor(5, TimeUnit.SECONDS)) {
+                    process.destroy();
+                }
+            }
+            catch (IOException e) {
+                process.destroy();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                process.destroy();
+            }
+        }
+    }
+}
@@ -0,0 +1,417 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * History of the statuses of the profiles of a VTConnect. Each profile
+ * id has a ring buffer of its latest statuses with the time they were
+ * set; once the ring is full, a new status replaces the oldest one. The
+ * times of a ring are kept in a long array apart from the strings, so a
+ * scan by time only reads primitives, and since statuses are appended
+ * in time order the first status of a range is found by binary search:
+ *
+ * <pre>
+ * statuses of a profile between two times   O(log capacity + found)
+ * profiles whose status changed since T     O(found)
+ * </pre>
+ *
+ * For the second query the ids are also kept in a doubly linked list of
+ * ints ordered by their last status, the most recent first. Setting a
+ * status moves the id to the front, so walking from the front until the
+ * first id older than T finds exactly the profiles updated since T
+ * without looking at the others.
+ *
+ * Times are in milliseconds since the epoch. A time earlier than the
+ * last recorded one, as when the clock is set back, is raised to it, so
+ * the rings and the list stay sorted. The history follows id compaction
+ * of its network through IdRemapListener.
+ *
+ * @author Kerem Bozgan kerembozgan
+ * @version 2022-11-11
+ */
+class StatusHistory implements IdRemapListener {
+
+    /** Statuses kept per profile */
+    private final int capacity;
+
+    /** Times and statuses of each id, null if it has no history */
+    private long[][] times = new long[1024][];
+    private String[][] statuses = new String[1024][];
+    /** Slot of the next status and number of statuses of each id */
+    private int[] heads = new int[1024];
+    private int[] sizes = new int[1024];
+
+    /** Links of the ids ordered by last status, -1 at the ends */
+    private int[] newer = new int[1024];
+    private int[] older = new int[1024];
+    /** Id with the most recent status, -1 if there is none */
+    private int newest = -1;
+    /** Latest recorded time */
+    private long lastTime = Long.MIN_VALUE;
+    /** Statuses recorded so far */
+    private long recorded;
+
+    public static void main(String[] args) {
+        int n = 200000;
+        StatusHistory history = new StatusHistory(16);
+        Random random = new Random(42);
+        long time = 0;
+        long start = System.nanoTime();
+        int count = 2000000;
+        for (int i = 0; i < count; i++) {
+            time += random.nextInt(3);
+            history.record(random.nextInt(n), time, "Status " + i);
+        }
+        double recordNanos = (System.nanoTime() - start) / (double)count;
+
+        start = System.nanoTime();
+        long found = 0;
+        int scans = 100000;
+        for (int i = 0; i < scans; i++) {
+            long from = random.nextInt((int)time);
+            found += history.range(random.nextInt(n), from, from + time / 8)
+                .size();
+        }
+        double rangeNanos = (System.nanoTime() - start) / (double)scans;
+
+        long since = time - 1000;
+        start = System.nanoTime();
+        int[] updated = history.updatedSince(since, Integer.MAX_VALUE);
+        double sinceNanos = System.nanoTime() - start;
+        // the same query by looking at the latest status of every id
+        start = System.nanoTime();
+        int scanned = 0;
+        for (int id = 0; id < n; id++) {
+            if (history.size(id) > 0 && history.latestTime(id) >= since) {
+                scanned++;
+            }
+        }
+        double fullNanos = System.nanoTime() - start;
+
+        System.out.printf("%d statuses of %d profiles, record %.0f ns%n",
+            count, n, recordNanos);
+        System.out.printf("range scan %.0f ns, %.1f statuses found on "
+            + "average%n", rangeNanos, found / (double)scans);
+        System.out.printf("updated since T: %d profiles in %.0f us, full "
+            + "scan found %d in %.0f us%n", updated.length, sinceNanos
+                / 1000, scanned, fullNanos / 1000);
+    }
+
+
+    /**
+     * Initializes an empty history.
+     *
+     * @param capacity
+     *            statuses kept per profile
+     */
+    StatusHistory(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.capacity = capacity;
+        Arrays.fill(newer, -1);
+        Arrays.fill(older, -1);
+    }
+
+
+    /**
+     * Appends a status of a profile id.
+     *
+     * @param id
+     *            profile id, not negative
+     * @param time
+     *            time the status was set
+     * @param status
+     *            new status
+     */
+    public void record(int id, long time, String status) {
+        ensureId(id);
+        if (times[id] == null) {
+            times[id] = new long[capacity];
+            statuses[id] = new String[capacity];
+        }
+        else {
+            unlink(id);
+        }
+        lastTime = Math.max(lastTime, time);
+        times[id][heads[id]] = lastTime;
+        statuses[id][heads[id]] = status;
+        heads[id] = heads[id] + 1 == capacity ? 0 : heads[id] + 1;
+        if (sizes[id] < capacity) {
+            sizes[id]++;
+        }
+        recorded++;
+
+        // the id now has the most recent status
+        older[id] = newest;
+        newer[id] = -1;
+        if (newest >= 0) {
+            newer[newest] = id;
+        }
+        newest = id;
+    }
+
+
+    /**
+     * Returns the number of statuses kept for a profile id.
+     *
+     * @param id
+     *            profile id
+     * @return number of statuses
+     */
+    public int size(int id) {
+        return id >= 0 && id < sizes.length ? sizes[id] : 0;
+    }
+
+
+    /**
+     * Returns the time of the latest status of a profile id, which must
+     * have at least one status.
+     *
+     * @param id
+     *            profile id
+     * @return time of the latest status
+     */
+    public long latestTime(int id) {
+        return times[id][slot(id, sizes[id] - 1)];
+    }
+
+
+    /**
+     * Returns the statuses of a profile id set between two times, both
+     * included, oldest first.
+     *
+     * @param id
+     *            profile id
+     * @param from
+     *            earliest time
+     * @param to
+     *            latest time
+     * @return statuses in the range
+     */
+    public List<Entry> range(int id, long from, long to) {
+        List<Entry> entries = new ArrayList<Entry>();
+        int size = size(id);
+        if (size == 0) {
+            return entries;
+        }
+        long[] idTimes = times[id];
+        // first status not earlier than from
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (idTimes[slot(id, middle)] < from) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        for (int i = low; i < size; i++) {
+            int slot = slot(id, i);
+            if (idTimes[slot] > to) {
+                break;
+            }
+            entries.add(new Entry(idTimes[slot], statuses[id][slot]));
+        }
+        return entries;
+    }
+
+
+    /**
+     * Returns the ids whose latest status was set at or after a time,
+     * the most recently updated first.
+     *
+     * @param since
+     *            earliest time
+     * @param max
+     *            largest number of ids returned
+     * @return ids updated since the time
+     */
+    public int[] updatedSince(long since, int max) {
+        int[] ids = new int[16];
+        int count = 0;
+        for (int id = newest; id >= 0 && count < max && latestTime(
+            id) >= since; id = older[id]) {
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+            }
+            ids[count++] = id;
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+
+    /**
+     * Forgets the history of a profile id, as when the profile is
+     * removed and the id may be reused.
+     *
+     * @param id
+     *            profile id
+     */
+    public void remove(int id) {
+        if (id < 0 || id >= times.length || times[id] == null) {
+            return;
+        }
+        unlink(id);
+        times[id] = null;
+        statuses[id] = null;
+        heads[id] = 0;
+        sizes[id] = 0;
+    }
+
+
+    /**
+     * Moves the history of each id to its new id.
+     *
+     * @param oldToNew
+     *            array mapping each old id to its new id
+     * @param newBound
+     *            number of ids in use
+     */
+    public void idsRemapped(int[] oldToNew, int newBound) {
+        int length = Math.max(1024, newBound);
+        long[][] newTimes = new long[length][];
+        String[][] newStatuses = new String[length][];
+        int[] newHeads = new int[length];
+        int[] newSizes = new int[length];
+        int[] newNewer = new int[length];
+        int[] newOlder = new int[length];
+        Arrays.fill(newNewer, -1);
+        Arrays.fill(newOlder, -1);
+
+        // rebuild the list in the same order under the new ids
+        int newNewest = -1;
+        int previous = -1;
+        for (int id = newest; id >= 0; id = older[id]) {
+            int moved = id < oldToNew.length ? oldToNew[id] : -1;
+            if (moved < 0) {
+                continue;
+            }
+            newTimes[moved] = times[id];
+            newStatuses[moved] = statuses[id];
+            newHeads[moved] = heads[id];
+            newSizes[moved] = sizes[id];
+            if (previous < 0) {
+                newNewest = moved;
+            }
+            else {
+                newOlder[previous] = moved;
+                newNewer[moved] = previous;
+            }
+            previous = moved;
+        }
+        times = newTimes;
+        statuses = newStatuses;
+        heads = newHeads;
+        sizes = newSizes;
+        newer = newNewer;
+        older = newOlder;
+        newest = newNewest;
+    }
+
+
+    /**
+     * Returns the number of statuses recorded and the capacity.
+     *
+     * @return statistics as text
+     */
+    public String getStatistics() {
+        return String.format("statuses recorded %d, capacity %d per profile",
+            recorded, capacity);
+    }
+
+
+    /**
+     * Returns the slot of the i-th oldest status of an id.
+     */
+    private int slot(int id, int i) {
+        int slot = heads[id] - sizes[id] + i;
+        return slot < 0 ? slot + capacity : slot;
+    }
+
+
+    /**
+     * Takes an id with a history out of the list.
+     */
+    private void unlink(int id) {
+        if (newer[id] >= 0) {
+            older[newer[id]] = older[id];
+        }
+        else {
+            newest = older[id];
+        }
+        if (older[id] >= 0) {
+            newer[older[id]] = newer[id];
+        }
+        newer[id] = -1;
+        older[id] = -1;
+    }
+
+
+    /**
+     * Grows the arrays so that they have a slot for an id.
+     */
+    private void ensureId(int id) {
+        if (id < times.length) {
+            return;
+        }
+        int length = Math.max(id + 1, times.length * 2);
+        int oldLength = times.length;
+        times = Arrays.copyOf(times, length);
+        statuses = Arrays.copyOf(statuses, length);
+        heads = Arrays.copyOf(heads, length);
+        sizes = Arrays.copyOf(sizes, length);
+        newer = Arrays.copyOf(newer, length);
+        older = Arrays.copyOf(older, length);
+        Arrays.fill(newer, oldLength, length, -1);
+        Arrays.fill(older, oldLength, length, -1);
+    }
+
+
+    /**
+     * Status with the time it was set.
+     */
+    static class Entry {
+        private final long time;
+        private final String status;
+
+        Entry(long time, String status) {
+            this.time = time;
+            this.status = status;
+        }
+
+
+        /**
+         * Returns the time the status was set, in milliseconds since the
+         * epoch.
+         *
+         * @return time
+         */
+        public long getTime() {
+            return time;
+        }
+
+
+        /**
+         * Returns the status.
+         *
+         * @return status
+         */
+        public String getStatus() {
+            return status;
+        }
+
+
+        /**
+         * Returns the time and the status.
+         *
+         * @return entry as text
+         */
+        public String toString() {
+            return time + " " + status;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * Limits on the work of one traversal: how many hops it may go from the
+ * origin, how many vertices it may visit, how many adjacency entries it
+ * may scan and how long it may run. A traversal that reaches a limit
+ * stops and returns what it found so far, with the limit that stopped it
+ * (see BudgetedResult). All limits are off until they are set.
+ *
+ * A budget holds no state of a traversal, so one budget may be used for
+ * any number of calls; the timeout starts anew with each call.
+ *
+ * <pre>
+ * TraversalBudget budget = new TraversalBudget().maxDepth(6)
+ *     .maxVisited(100000).timeoutMillis(50);
+ * BudgetedResult&lt;Integer&gt; d = network.friendshipDistance(a, b, budget);
+ * </pre>
+ *
+ * @author Kerem Bozgan kerembozgan
+ * @version 2022-11-11
+ */
+class TraversalBudget {
+
+    /** Reasons a traversal stopped, indexes into REASONS */
+    static final int COMPLETE = 0;
+    static final int MAX_DEPTH = 1;
+    static final int MAX_VISITED = 2;
+    static final int MAX_SCANNED = 3;
+    static final int DEADLINE = 4;
+
+    /** Names of the reasons */
+    static final String[] REASONS = { "complete", "max depth",
+        "max visited", "max scanned", "deadline" };
+
+    private int maxDepth = Integer.MAX_VALUE;
+    private long maxVisited = Long.MAX_VALUE;
+    private long maxScanned = Long.MAX_VALUE;
+    /** Time a call may take, negative for no limit */
+    private long timeoutNanos = -1;
+
+    /**
+     * Limits the number of hops from the origin.
+     *
+     * @param depth
+     *            largest depth that is visited
+     * @return this budget
+     */
+    public TraversalBudget maxDepth(int depth) {
+        maxDepth = depth;
+        return this;
+    }
+
+
+    /**
+     * Limits the number of vertices visited, the origin included.
+     *
+     * @param count
+     *            largest number of visited vertices
+     * @return this budget
+     */
+    public TraversalBudget maxVisited(long count) {
+        maxVisited = count;
+        return this;
+    }
+
+
+    /**
+     * Limits the number of adjacency entries scanned.
+     *
+     * @param count
+     *            largest number of scanned edges
+     * @return this budget
+     */
+    public TraversalBudget maxScanned(long count) {
+        maxScanned = count;
+        return this;
+    }
+
+
+    /**
+     * Limits the time of each call.
+     *
+     * @param millis
+     *            time a call may take in milliseconds
+     * @return this budget
+     */
+    public TraversalBudget timeoutMillis(long millis) {
+        timeoutNanos = millis * 1000000L;
+        return this;
+    }
+
+
+    /**
+     * Returns the largest depth that is visited.
+     *
+     * @return depth limit
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+
+    /**
+     * Applies the budget to a cursor that is about to start. The
+     * deadline is counted from now.
+     *
+     * @param cursor
+     *            cursor of the traversal
+     * @return the cursor
+     */
+    BreadthFirstCursor applyTo(BreadthFirstCursor cursor) {
+        cursor.maxDepth(maxDepth).limit(maxVisited).maxScanned(maxScanned);
+        if (timeoutNanos >= 0) {
+            cursor.deadline(System.nanoTime() + timeoutNanos);
+        }
+        return cursor;
+    }
+}
@@ -1,9 +1,13 @@
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Queue;
 import java.util.Stack;
+import java.util.stream.Stream;
 
 /**
  * Implementation of Vertex interface.
@@ -87,22 +91,93 @@ class VTConnect {
 }
     
     /** Dictionary of (id, vertex) pairs */
-    private Graph<Integer> grph;
+    private GraphInterface<Integer> grph;
     /** Dictionary of (id, profile) pairs */
     private HashMap<Integer, Profile> profileDictionary;
     /**
-     * Counts added profiles to
-     * assign unique id to each profile
+     * Assigns a unique id to each added profile,
+     * reusing the ids of removed profiles
      */
-    private Integer idCounter = 0;
+    private IdAllocator idAllocator;
+    /** Structures indexed by id that follow id renumbering */
+    private List<IdRemapListener> remapListeners;
+    /**
+     * Off-heap store of profile names and statuses, null if they are
+     * kept in the Profile objects
+     */
+    OffHeapProfileStore profileStore;
+    /** Latency and work of the operations, null if not collected */
+    private VTConnectMetrics metrics;
+    /** Cached distances and suggestions, null if there is no cache */
+    private FriendshipCache resultCache;
+    /** Feed of the statuses of friends, null if there is no feed */
+    private NewsFeed newsFeed;
+    /** Earlier statuses of the profiles, null if they are not kept */
+    private StatusHistory statusHistory;
+    /** Stream of the mutations for replicas, null if there is none */
+    private ChangeLog changeLog;
+    /** Maintained distances of hot sources, null if there are none */
+    private HotSourceDistances hotSources;
+    /** Similar friend sets by MinHash, null if they are not indexed */
+    private MinHashIndex minHash;
+    /** Friend sets as compressed bitmaps, null if they are not kept */
+    private BitmapAdjacency bitmapAdjacency;
 
     /**
      * Initializes social network with empty
      * dictionaries
      */
     public VTConnect() {
-        grph = new Graph<Integer>();
+        this(new Graph<Integer>(), null);
+    }
+
+
+    /**
+     * Initializes social network on top of the given graph, which must
+     * be empty. If a profile store is given, the names and statuses of
+     * added profiles are moved into it.
+     * 
+     * @param graph
+     *            graph that stores the friendships
+     * @param store
+     *            store for profile strings, or null to keep them in the
+     *            Profile objects
+     */
+    public VTConnect(GraphInterface<Integer> graph, OffHeapProfileStore store) {
+        grph = graph;
         profileDictionary = new HashMap<Integer, Profile>(101);
+        idAllocator = new IdAllocator();
+        remapListeners = new ArrayList<IdRemapListener>();
+        profileStore = store;
+        if (store != null) {
+            remapListeners.add(store);
+        }
+    }
+
+
+    /**
+     * Creates a social network whose friendships and profile strings are
+     * kept in native memory, out of reach of the garbage collector. Call
+     * close() to free the memory.
+     * 
+     * @return off-heap social network
+     */
+    public static VTConnect offHeap() {
+        return new VTConnect(new OffHeapGraph(), new OffHeapProfileStore());
+    }
+
+
+    /**
+     * Frees the native memory of an off-heap network. The network must
+     * not be used afterwards. Does nothing for an on-heap network.
+     */
+    public void close() {
+        if (grph instanceof OffHeapGraph) {
+            ((OffHeapGraph)grph).close();
+        }
+        if (profileStore != null) {
+            profileStore.close();
+        }
     }
 
 
@@ -115,6 +190,7 @@ class VTConnect {
      *            profile to be added
      */
     public void addUser(Profile p) {
+        long start = metrics == null ? 0 : System.nanoTime();
 
         // check if p matches any other profile in the
         // graph, in terms of name, status and friends
@@ -130,11 +206,67 @@ class VTConnect {
                 return;
             }
         }
+        loadUser(p);
+        if (metrics != null) {
+            metrics.record(VTConnectMetrics.ADD_USER, System.nanoTime()
+                - start);
+        }
+    }
+
+
+    /**
+     * Adds a new user without the duplicate check of addUser, which
+     * compares the profile with every other profile. Meant for bulk loads
+     * of profiles that are known to be distinct, such as generated
+     * networks and benchmark fixtures.
+     * 
+     * @param p
+     *            profile to be added
+     */
+    void loadUser(Profile p) {
+        register(p, idAllocator.allocate());
+    }
+
+
+    /**
+     * Adds a new user under a given id, as when a replica rebuilds the
+     * network of its primary, without the duplicate check of addUser.
+     * 
+     * @param p
+     *            profile to be added
+     * @param id
+     *            id of the profile
+     * @return false if the id is already in use
+     */
+    boolean loadUser(Profile p, int id) {
+        if (!idAllocator.allocate(id)) {
+            return false;
+        }
+        register(p, id);
+        return true;
+    }
 
-        Integer newId = idCounter++;
+
+    /**
+     * Adds a profile under an allocated id.
+     */
+    private void register(Profile p, Integer newId) {
         grph.addVertex(newId);
         p.id = newId;
+        p.network = this;
         profileDictionary.put(newId, p);
+        if (profileStore != null) {
+            profileStore.put(newId, p.name, p.status);
+            p.name = null;
+            p.status = null;
+        }
+        if (resultCache != null) {
+            // the id may have been used by a removed profile
+            resultCache.profileChanged(newId, null, 0);
+        }
+        if (changeLog != null) {
+            changeLog.userAdded(newId, p.getName(), p.getStatus());
+        }
     }
 
 
@@ -151,14 +283,193 @@ class VTConnect {
             return null;
         }
         else {
+            long start = metrics == null ? 0 : System.nanoTime();
+            int[] friends = resultCache == null && newsFeed == null
+                && minHash == null && bitmapAdjacency == null
+                ? null
+                : friendIds(p.id);
             grph.removeVertex(p.id);
+            if (resultCache != null) {
+                resultCache.profileChanged(p.id, friends, friends.length);
+            }
+            if (newsFeed != null) {
+                newsFeed.profileRemoved(p, friends);
+            }
+            if (statusHistory != null) {
+                statusHistory.remove(p.id);
+            }
+            if (changeLog != null) {
+                changeLog.userRemoved(p.id);
+            }
+            if (hotSources != null) {
+                hotSources.profileRemoved(p.id);
+            }
+            if (minHash != null) {
+                minHash.profileRemoved(p.id, friends);
+            }
+            if (bitmapAdjacency != null) {
+                bitmapAdjacency.profileRemoved(p.id, friends);
+            }
             Profile profileRemoved = profileDictionary.remove(p.id);
+            takeBackStrings(profileRemoved);
+            idAllocator.release(p.id);
+            // the id may be given to another profile later
+            profileRemoved.id = null;
+            profileRemoved.network = null;
+            if (metrics != null) {
+                metrics.record(VTConnectMetrics.REMOVE_USER, System
+                    .nanoTime() - start);
+            }
             return profileRemoved;
         }
 
     }
 
 
+    /**
+     * Removes several existing users from the social network at once.
+     * Friendships of all removed users are taken out of the graph in a
+     * single batch. Users that do not exist are ignored.
+     * 
+     * @param users
+     *            profiles to be removed
+     * @return list of removed profiles
+     */
+    public List<Profile> removeUsers(Collection<Profile> users) {
+        List<Integer> ids = new ArrayList<Integer>();
+        List<Profile> removedList = new ArrayList<Profile>();
+        for (Profile p : users) {
+            if (profileDictionary.get(p.id) == p) {
+                ids.add(p.id);
+            }
+        }
+        int[][] removedFriends = new int[ids.size()][];
+        if (resultCache != null || newsFeed != null || minHash != null
+            || bitmapAdjacency != null) {
+            for (int i = 0; i < ids.size(); i++) {
+                int[] friends = friendIds(ids.get(i));
+                removedFriends[i] = friends;
+                if (resultCache != null) {
+                    resultCache.profileChanged(ids.get(i), friends,
+                        friends.length);
+                }
+                if (newsFeed != null) {
+                    newsFeed.profileRemoved(profileDictionary.get(ids.get(i)),
+                        friends);
+                }
+            }
+        }
+        grph.removeVertices(ids);
+        for (int i = 0; i < ids.size(); i++) {
+            Profile profileRemoved = profileDictionary.remove(ids.get(i));
+            if (profileRemoved != null) {
+                takeBackStrings(profileRemoved);
+                if (statusHistory != null) {
+                    statusHistory.remove(ids.get(i));
+                }
+                if (changeLog != null) {
+                    changeLog.userRemoved(ids.get(i));
+                }
+                if (hotSources != null) {
+                    hotSources.profileRemoved(ids.get(i));
+                }
+                if (minHash != null) {
+                    minHash.profileRemoved(ids.get(i), removedFriends[i]);
+                }
+                if (bitmapAdjacency != null) {
+                    bitmapAdjacency.profileRemoved(ids.get(i),
+                        removedFriends[i]);
+                }
+                idAllocator.release(ids.get(i));
+                profileRemoved.id = null;
+                profileRemoved.network = null;
+                removedList.add(profileRemoved);
+            }
+        }
+        return removedList;
+    }
+
+
+    /**
+     * Returns the bound of the ids in use. Every profile id is smaller
+     * than this value, so arrays indexed by id need this many slots.
+     * 
+     * @return one more than the highest id in use
+     */
+    public int getIdBound() {
+        return idAllocator.getBound();
+    }
+
+
+    /**
+     * Registers a structure indexed by profile id, so that it is
+     * renumbered together with the network in compactIds().
+     * 
+     * @param listener
+     *            structure to notify
+     */
+    public void addIdRemapListener(IdRemapListener listener) {
+        remapListeners.add(listener);
+    }
+
+
+    /**
+     * Removes a structure registered with addIdRemapListener().
+     * 
+     * @param listener
+     *            structure to remove
+     */
+    public void removeIdRemapListener(IdRemapListener listener) {
+        remapListeners.remove(listener);
+    }
+
+
+    /**
+     * Renumbers the profiles so that their ids are exactly
+     * [0, number of users). Only the profiles with ids above that range
+     * are moved, into the ids freed by removed users. The profile ids,
+     * the graph, the profile dictionary and every registered listener are
+     * updated before this method returns.
+     * 
+     * @return array mapping each old id to its new id, -1 for ids that
+     *         were not in use, or null if the ids were already dense
+     */
+    public int[] compactIds() {
+        if (idAllocator.isDense()) {
+            return null;
+        }
+        int[] oldToNew = idAllocator.compactionMap();
+        HashMap<Integer, Integer> newLabels = new HashMap<Integer, Integer>();
+        List<Profile> moved = new ArrayList<Profile>();
+        for (int oldId = 0; oldId < oldToNew.length; oldId++) {
+            if (oldToNew[oldId] >= 0 && oldToNew[oldId] != oldId) {
+                newLabels.put(oldId, oldToNew[oldId]);
+                moved.add(profileDictionary.remove(oldId));
+            }
+        }
+
+        grph.relabelVertices(newLabels);
+        Profile p;
+        for (int i = 0; i < moved.size(); i++) {
+            p = moved.get(i);
+            p.id = oldToNew[p.id];
+            profileDictionary.put(p.id, p);
+        }
+        idAllocator.reset(profileDictionary.size());
+
+        for (int i = 0; i < remapListeners.size(); i++) {
+            remapListeners.get(i).idsRemapped(oldToNew, idAllocator
+                .getBound());
+        }
+        if (changeLog != null) {
+            // the renumbering only depends on the ids in use, so a
+            // replica with the same ids computes the same one
+            changeLog.idsCompacted();
+        }
+        return oldToNew;
+    }
+
+
     /**
      * Creates a
      * friendship between two users on VTConnect. If the friendship is created
@@ -177,12 +488,33 @@ class VTConnect {
             .containsKey(b.id) || a.id == b.id) {
             return false;
         }
-        boolean res = grph.addEdge(a.id, b.id);
-        if (res) {
-            a.friendProfiles.add(b);
-            b.friendProfiles.add(a);
+        long start = metrics == null ? 0 : System.nanoTime();
+        // friend lists are views over the graph, so only the graph
+        // needs to be updated
+        boolean created = grph.addEdge(a.id, b.id);
+        if (created && resultCache != null) {
+            resultCache.friendshipChanged(a.id, b.id);
+        }
+        if (created && newsFeed != null) {
+            newsFeed.friendshipCreated(a, b);
+        }
+        if (created && changeLog != null) {
+            changeLog.friendshipCreated(a.id, b.id);
+        }
+        if (created && hotSources != null) {
+            hotSources.friendshipCreated(a.id, b.id);
+        }
+        if (created && minHash != null) {
+            minHash.friendshipCreated(a.id, b.id);
         }
-        return res;
+        if (created && bitmapAdjacency != null) {
+            bitmapAdjacency.friendshipCreated(a.id, b.id);
+        }
+        if (metrics != null) {
+            metrics.record(VTConnectMetrics.CREATE_FRIENDSHIP, System
+                .nanoTime() - start);
+        }
+        return created;
     }
 
 
@@ -198,12 +530,31 @@ class VTConnect {
      * @return true if successful
      */
     public boolean removeFriendship(Profile a, Profile b) {
-        boolean res = grph.removeEdge(a.id, b.id);
-        if (res) {
-            a.friendProfiles.remove(b);
-            b.friendProfiles.remove(a);
+        long start = metrics == null ? 0 : System.nanoTime();
+        boolean removed = grph.removeEdge(a.id, b.id);
+        if (removed && resultCache != null) {
+            resultCache.friendshipChanged(a.id, b.id);
+        }
+        if (removed && newsFeed != null) {
+            newsFeed.friendshipRemoved(a, b);
+        }
+        if (removed && changeLog != null) {
+            changeLog.friendshipRemoved(a.id, b.id);
+        }
+        if (removed && hotSources != null) {
+            hotSources.friendshipRemoved(a.id, b.id);
+        }
+        if (removed && minHash != null) {
+            minHash.friendshipRemoved(a.id, b.id);
+        }
+        if (removed && bitmapAdjacency != null) {
+            bitmapAdjacency.friendshipRemoved(a.id, b.id);
+        }
+        if (metrics != null) {
+            metrics.record(VTConnectMetrics.REMOVE_FRIENDSHIP, System
+                .nanoTime() - start);
         }
-        return res;
+        return removed;
     }
 
 
@@ -222,6 +573,161 @@ class VTConnect {
     }
 
 
+    /**
+     * Makes a profile follow another. Following is one-way and separate
+     * from friendship.
+     * 
+     * @param follower
+     *            profile that follows
+     * @param followee
+     *            profile that is followed
+     * @return true if follower did not follow followee before
+     */
+    public boolean follow(Profile follower, Profile followee) {
+        boolean added = grph.addArc(follower.id, followee.id);
+        if (added && changeLog != null) {
+            changeLog.followed(follower.id, followee.id);
+        }
+        return added;
+    }
+
+
+    /**
+     * Makes a profile stop following another.
+     * 
+     * @param follower
+     *            profile that follows
+     * @param followee
+     *            profile that is followed
+     * @return true if follower followed followee
+     */
+    public boolean unfollow(Profile follower, Profile followee) {
+        boolean removed = grph.removeArc(follower.id, followee.id);
+        if (removed && changeLog != null) {
+            changeLog.unfollowed(follower.id, followee.id);
+        }
+        return removed;
+    }
+
+
+    /**
+     * Returns true if a profile follows another.
+     * 
+     * @param follower
+     *            profile that may follow
+     * @param followee
+     *            profile that may be followed
+     * @return true if follower follows followee
+     */
+    public boolean isFollowing(Profile follower, Profile followee) {
+        return grph.hasArc(follower.id, followee.id);
+    }
+
+
+    /**
+     * Returns a page of the profiles that follow a profile, in time
+     * proportional to the page size, however many followers it has.
+     * 
+     * @param p
+     *            profile whose followers are returned
+     * @param offset
+     *            index of the first follower of the page
+     * @param count
+     *            largest number of followers
+     * @return followers of the page
+     */
+    public List<Profile> followers(Profile p, int offset, int count) {
+        return toProfiles(grph.getInNeighbors(p.id, offset, count));
+    }
+
+
+    /**
+     * Returns a page of the profiles a profile follows, in time
+     * proportional to the page size.
+     * 
+     * @param p
+     *            profile whose followees are returned
+     * @param offset
+     *            index of the first followee of the page
+     * @param count
+     *            largest number of followees
+     * @return followees of the page
+     */
+    public List<Profile> following(Profile p, int offset, int count) {
+        return toProfiles(grph.getOutNeighbors(p.id, offset, count));
+    }
+
+
+    /**
+     * Returns the number of profiles that follow a profile.
+     * 
+     * @param p
+     *            profile to query
+     * @return number of followers
+     */
+    public int getNumberOfFollowers(Profile p) {
+        return grph.getInDegree(p.id);
+    }
+
+
+    /**
+     * Returns the number of profiles a profile follows.
+     * 
+     * @param p
+     *            profile to query
+     * @return number of followees
+     */
+    public int getNumberOfFollowing(Profile p) {
+        return grph.getOutDegree(p.id);
+    }
+
+
+    /**
+     * Returns the profiles of a list of ids.
+     */
+    private List<Profile> toProfiles(List<Integer> ids) {
+        List<Profile> profiles = new ArrayList<Profile>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            profiles.add(profileDictionary.get(ids.get(i)));
+        }
+        return profiles;
+    }
+
+
+    /**
+     * Returns a read-only view of the friends of the given profile. The
+     * view resolves friends from the graph adjacency on access, so it
+     * never goes stale and does not copy the adjacency. It reads the id
+     * of the profile on every access, so it follows the profile when ids
+     * are compacted, and it is empty while the profile is not in this
+     * network.
+     * 
+     * @param p
+     *            profile whose friends are returned
+     * @return friends of the profile
+     */
+    public List<Profile> getFriends(Profile p) {
+        return new FriendList(p);
+    }
+
+
+    /**
+     * Returns the number of friends of the given profile, 0 if the
+     * profile does not exist.
+     * 
+     * @param p
+     *            profile to query
+     * @return number of friends
+     */
+    public int getNumberOfFriends(Profile p) {
+        VertexInterface<Integer> vertex = grph.getVertex(p.id);
+        if (vertex == null) {
+            return 0;
+        }
+        return vertex.getNumberOfNeighbors();
+    }
+
+
     /**
      * this method displays each
      * profile's information and friends, starting from the startPoint
@@ -231,6 +737,7 @@ class VTConnect {
      *            start of traversal
      */
     public void traverse(Profile startPoint) {
+        long start = metrics == null ? 0 : System.nanoTime();
         Queue<Integer> traversalOrder = grph.getBreadthFirstTraversal(
             startPoint.id);
         int sizeList = traversalOrder.size();
@@ -242,7 +749,95 @@ class VTConnect {
             currentProfile.display();
             System.out.println();
         }
+        if (metrics != null) {
+            metrics.record(VTConnectMetrics.TRAVERSE, System.nanoTime()
+                - start, grph.getLastVisitedCount(), grph
+                    .getLastScannedEdgeCount());
+        }
+
+    }
+
+
+    /**
+     * Returns a lazy breadth first traversal of the ids of the network,
+     * starting from a profile. Its neighbors are only scanned as its
+     * vertices are consumed, and it may be limited by depth, count or a
+     * stop predicate. The network must not change while it is in use.
+     * 
+     * @param startPoint
+     *            start of traversal
+     * @return cursor over the ids, empty if the profile does not exist
+     */
+    public BreadthFirstCursor traversalCursor(Profile startPoint) {
+        return new BreadthFirstCursor(grph, startPoint.id == null
+            ? -1
+            : startPoint.id);
+    }
+
+
+    /**
+     * Returns the profiles reachable from a profile within a number of
+     * hops, in breadth first order, as a lazy stream. Taking the first k
+     * profiles with limit costs about as much as visiting k profiles.
+     * 
+     * @param startPoint
+     *            start of traversal
+     * @param maxDepth
+     *            largest number of hops from startPoint
+     * @return stream of profiles, startPoint first
+     */
+    public Stream<Profile> traversalStream(Profile startPoint, int maxDepth) {
+        return traversalCursor(startPoint).maxDepth(maxDepth).stream()
+            .mapToObj(profileDictionary::get);
+    }
+
+
+    /**
+     * Returns one page of the breadth first traversal from a profile. The
+     * cost grows with offset + count, not with the size of the network;
+     * to walk many pages, keep a traversalCursor instead, which resumes
+     * where the previous page ended.
+     * 
+     * @param startPoint
+     *            start of traversal
+     * @param offset
+     *            number of profiles to skip, startPoint being the first
+     * @param count
+     *            largest number of profiles to return
+     * @return profiles of the page, empty past the end
+     */
+    public List<Profile> traversalPage(
+        Profile startPoint,
+        int offset,
+        int count) {
+        long start = metrics == null ? 0 : System.nanoTime();
+        BreadthFirstCursor cursor = traversalCursor(startPoint).limit(
+            (long)offset + count);
+        List<Profile> page = new ArrayList<Profile>(Math.min(count, 1024));
+        for (int i = 0; cursor.hasNext(); i++) {
+            int id = cursor.nextInt();
+            if (i >= offset) {
+                page.add(profileDictionary.get(id));
+            }
+        }
+        if (metrics != null) {
+            metrics.record(VTConnectMetrics.TRAVERSE, System.nanoTime()
+                - start, cursor.getVisitedCount(), cursor
+                    .getScannedEdgeCount());
+        }
+        return page;
+    }
+
 
+    /**
+     * Returns the profile with the given id, null if there is none.
+     * 
+     * @param id
+     *            id of the profile
+     * @return profile or null
+     */
+    public Profile getProfile(int id) {
+        return profileDictionary.get(id);
     }
 
 
@@ -274,10 +869,30 @@ class VTConnect {
         if (!profileDictionary.containsKey(user.id)) {
             return null;
         }
+        long start = metrics == null ? 0 : System.nanoTime();
+        long version = 0;
+        if (resultCache != null) {
+            Profile[] cached = resultCache.getSuggestions(user.id);
+            if (cached != null) {
+                if (metrics != null) {
+                    metrics.record(VTConnectMetrics.FRIEND_SUGGESTION, System
+                        .nanoTime() - start, 0, 0);
+                }
+                return cached.length == 0
+                    ? null
+                    : new ArrayList<Profile>(Arrays.asList(cached));
+            }
+            version = resultCache.getVersion();
+        }
+        GraphEvents.FriendSuggestion event =
+            new GraphEvents.FriendSuggestion();
+        event.begin();
         resetVertices();
 
-        VertexInterface<Integer> originVertex = grph.vertices.get(user.id);
+        VertexInterface<Integer> originVertex = grph.getVertex(user.id);
         originVertex.visit();
+        int visited = 1;
+        long scanned = 0;
         Iterator<VertexInterface<Integer>> itrNeigh = originVertex
             .getNeighborIterator();
         Iterator<VertexInterface<Integer>> itrNeigh2;
@@ -289,6 +904,8 @@ class VTConnect {
         while (itrNeigh.hasNext()) {
             currentVertex = itrNeigh.next();
             currentVertex.visit();
+            visited++;
+            scanned++;
         }
         // reset iterator
         itrNeigh = originVertex.getNeighborIterator();
@@ -299,14 +916,37 @@ class VTConnect {
             itrNeigh2 = currentVertex.getNeighborIterator();
             while (itrNeigh2.hasNext()) {
                 currentVertex2 = itrNeigh2.next();
+                scanned++;
                 if (!currentVertex2.isVisited()) {
                     Integer id = currentVertex2.getLabel();
                     currentVertex2.visit();
+                    visited++;
                     Profile prof = profileDictionary.get(id);
                     suggestionList.add(prof);
                 }
             }
         }
+        if (resultCache != null) {
+            // the suggestions depend on the friend lists of the user and
+            // of its friends
+            int[] dependencies = friendIds(user.id);
+            dependencies = Arrays.copyOf(dependencies, dependencies.length
+                + 1);
+            dependencies[dependencies.length - 1] = user.id;
+            resultCache.putSuggestions(user.id, suggestionList.toArray(
+                new Profile[suggestionList.size()]), version, dependencies);
+        }
+        if (metrics != null) {
+            metrics.record(VTConnectMetrics.FRIEND_SUGGESTION, System
+                .nanoTime() - start, visited, scanned);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            // friends are one hop away, suggestions two
+            event.set(user.id, visited > 1 ? 2 : 0, visited, scanned,
+                suggestionList.size());
+            event.commit();
+        }
         if (suggestionList.size() == 0) {
             return null;
         }
@@ -332,23 +972,1061 @@ class VTConnect {
             .containsKey(b.id)) {
             return -1;
         }
+        long start = metrics == null ? 0 : System.nanoTime();
+        if (hotSources != null && !a.id.equals(b.id)) {
+            // distances are symmetric, so either side may be the source
+            int hot = hotSources.distance(a.id, b.id);
+            if (hot == HotSourceDistances.NOT_SOURCE) {
+                hot = hotSources.distance(b.id, a.id);
+            }
+            if (hot != HotSourceDistances.NOT_SOURCE) {
+                if (metrics != null) {
+                    metrics.record(VTConnectMetrics.FRIENDSHIP_DISTANCE,
+                        System.nanoTime() - start, 0, 0);
+                }
+                return hot;
+            }
+        }
+        long version = 0;
+        if (resultCache != null) {
+            int cached = resultCache.getDistance(a.id, b.id);
+            if (cached != FriendshipCache.MISS) {
+                if (metrics != null) {
+                    metrics.record(VTConnectMetrics.FRIENDSHIP_DISTANCE,
+                        System.nanoTime() - start, 0, 0);
+                }
+                return cached;
+            }
+            version = resultCache.getVersion();
+        }
         Stack<Integer> path = new Stack<Integer>();
-        return grph.getShortestPath(a.id, b.id, path);
+        int distance = grph.getShortestPath(a.id, b.id, path);
+        if (resultCache != null) {
+            resultCache.putDistance(a.id, b.id, distance, version,
+                distanceDependencies(a.id, b.id, distance));
+        }
+        if (metrics != null) {
+            metrics.record(VTConnectMetrics.FRIENDSHIP_DISTANCE, System
+                .nanoTime() - start, grph.getLastVisitedCount(), grph
+                    .getLastScannedEdgeCount());
+        }
+        return distance;
     }
 
 
     /**
-     * Reset vertices before traversals
+     * Returns friendshipDistance within a budget. If the budget runs out
+     * before b is found, the value is -1 and the result tells how many
+     * hops away b is known not to be.
+     * 
+     * @param a
+     *            first profile
+     * @param b
+     *            second profile
+     * @param budget
+     *            limits of the search
+     * @return distance, or -1 with the completed depth
      */
-    private void resetVertices() {
-        List<VertexInterface<Integer>> vertexList = grph.getVertices();
+    public BudgetedResult<Integer> friendshipDistance(
+        Profile a,
+        Profile b,
+        TraversalBudget budget) {
+        long start = System.nanoTime();
+        if (!profileDictionary.containsKey(b.id) || b.id.equals(a.id)) {
+            return new BudgetedResult<Integer>(-1, TraversalBudget.COMPLETE,
+                -1, 0, 0, System.nanoTime() - start);
+        }
+        int target = b.id;
+        BreadthFirstCursor cursor = budget.applyTo(traversalCursor(a))
+            .stopAfter(id -> id == target);
+        int distance = -1;
+        while (cursor.hasNext()) {
+            if (cursor.nextInt() == target) {
+                distance = cursor.getDepth();
+            }
+        }
+        return finishBudgeted(VTConnectMetrics.FRIENDSHIP_DISTANCE, distance,
+            distance >= 0 ? TraversalBudget.COMPLETE : cursor.getStopReason(),
+            cursor, start);
+    }
 
-        VertexInterface<Integer> current;
-        for (int i = 0; i < vertexList.size(); i++) {
-            current = vertexList.get(i);
-            current.unvisit();
-            current.setCost(0.0);
-            current.setPredecessor(null);
+
+    /**
+     * Returns the profiles reachable from a profile in breadth first
+     * order, within a budget. If the budget runs out, the list holds the
+     * profiles visited until then.
+     * 
+     * @param startPoint
+     *            start of traversal
+     * @param budget
+     *            limits of the traversal
+     * @return profiles in visiting order, startPoint first
+     */
+    public BudgetedResult<List<Profile>> breadthFirstTraversal(
+        Profile startPoint,
+        TraversalBudget budget) {
+        long start = System.nanoTime();
+        BreadthFirstCursor cursor = budget.applyTo(traversalCursor(
+            startPoint));
+        List<Profile> order = new ArrayList<Profile>();
+        while (cursor.hasNext()) {
+            order.add(profileDictionary.get(cursor.nextInt()));
+        }
+        return finishBudgeted(VTConnectMetrics.TRAVERSE, order, cursor
+            .getStopReason(), cursor, start);
+    }
+
+
+    /**
+     * Returns the friendSuggestion of a profile within a budget, empty
+     * instead of null when there are none. If the budget runs out, the
+     * list holds the suggestions found until then.
+     * 
+     * @param user
+     *            profile to suggest friends for
+     * @param budget
+     *            limits of the search
+     * @return suggestions in the order of friendSuggestion
+     */
+    public BudgetedResult<List<Profile>> friendSuggestion(
+        Profile user,
+        TraversalBudget budget) {
+        long start = System.nanoTime();
+        BreadthFirstCursor cursor = budget.applyTo(traversalCursor(user));
+        // suggestions are exactly the profiles two hops away
+        cursor.maxDepth(Math.min(2, budget.getMaxDepth()));
+        List<Profile> suggestions = new ArrayList<Profile>();
+        while (cursor.hasNext()) {
+            int id = cursor.nextInt();
+            if (cursor.getDepth() == 2) {
+                suggestions.add(profileDictionary.get(id));
+            }
+        }
+        int reason = cursor.getStopReason();
+        if (reason == TraversalBudget.MAX_DEPTH && budget.getMaxDepth() >= 2) {
+            reason = TraversalBudget.COMPLETE;
+        }
+        return finishBudgeted(VTConnectMetrics.FRIEND_SUGGESTION, suggestions,
+            reason, cursor, start);
+    }
+
+
+    /**
+     * Records the metrics of a budgeted call and returns its result.
+     */
+    private <T> BudgetedResult<T> finishBudgeted(
+        int operation,
+        T value,
+        int reason,
+        BreadthFirstCursor cursor,
+        long start) {
+        long elapsed = System.nanoTime() - start;
+        if (metrics != null) {
+            metrics.record(operation, elapsed, cursor.getVisitedCount(), cursor
+                .getScannedEdgeCount());
+        }
+        return new BudgetedResult<T>(value, reason, cursor
+            .getCompletedDepth(), cursor.getVisitedCount(), cursor
+                .getScannedEdgeCount(), elapsed);
+    }
+
+
+    /**
+     * Returns friendshipDistance of many pairs at once. The pairs are
+     * grouped by their first profile and the distances of 64 first
+     * profiles at a time are found in one multi-source breadth first
+     * search (see MultiSourceBfs), the groups running on several threads.
+     * As with friendshipDistance, the distance of a profile to itself, to
+     * an unreachable profile or to a profile not in the network is -1.
+     * 
+     * @param a
+     *            first profile of each pair
+     * @param b
+     *            second profile of each pair
+     * @param threads
+     *            number of threads to use
+     * @return distance of each pair
+     */
+    public int[] friendshipDistances(Profile[] a, Profile[] b, int threads) {
+        if (a.length != b.length) {
+            throw new IllegalArgumentException("Pair arrays differ in length");
+        }
+        CsrGraph csr = CsrGraph.fromGraph(grph);
+        int[] from = toIndices(csr, a);
+        int[] to = toIndices(csr, b);
+        int[] distances = new MultiSourceBfs(csr, 1, threads).pairDistances(
+            from, to);
+        for (int i = 0; i < distances.length; i++) {
+            if (from[i] == to[i]) {
+                distances[i] = -1;
+            }
+        }
+        return distances;
+    }
+
+
+    /**
+     * Returns friendshipDistance from every source to every target, found
+     * with multi-source breadth first searches on several threads.
+     * 
+     * @param sources
+     *            profiles of the rows
+     * @param targets
+     *            profiles of the columns
+     * @param threads
+     *            number of threads to use
+     * @return distances, one row per source and one column per target
+     */
+    public int[][] friendshipDistanceMatrix(
+        Profile[] sources,
+        Profile[] targets,
+        int threads) {
+        CsrGraph csr = CsrGraph.fromGraph(grph);
+        int[] rows = toIndices(csr, sources);
+        int[] columns = toIndices(csr, targets);
+        int[][] matrix = new MultiSourceBfs(csr, 1, threads).distanceMatrix(
+            rows, columns);
+        for (int i = 0; i < rows.length; i++) {
+            for (int j = 0; j < columns.length; j++) {
+                if (rows[i] == columns[j]) {
+                    matrix[i][j] = -1;
+                }
+            }
+        }
+        return matrix;
+    }
+
+
+    /**
+     * Returns a neighborhood similarity of two profiles, one of the
+     * measures of NeighborSimilarity, computed by intersecting their
+     * sorted friend ids.
+     * 
+     * @param a
+     *            first profile
+     * @param b
+     *            second profile
+     * @param measure
+     *            NeighborSimilarity.JACCARD, COSINE, COMMON_NEIGHBORS or
+     *            ADAMIC_ADAR
+     * @return score, 0 if a profile is not in the network
+     */
+    public double similarity(Profile a, Profile b, int measure) {
+        List<Profile> candidates = new ArrayList<Profile>(1);
+        candidates.add(b);
+        return similarities(a, candidates, measure)[0];
+    }
+
+
+    /**
+     * Returns a neighborhood similarity of a profile with each of many
+     * candidates. The friend ids of the profile, and for Adamic-Adar the
+     * weights of its friends, are found once for the whole batch.
+     * 
+     * @param user
+     *            profile to compare
+     * @param candidates
+     *            profiles to compare it with
+     * @param measure
+     *            NeighborSimilarity.JACCARD, COSINE, COMMON_NEIGHBORS or
+     *            ADAMIC_ADAR
+     * @return score of each candidate, 0 for candidates not in the
+     *         network, all 0 if the user is not in the network
+     */
+    public double[] similarities(
+        Profile user,
+        List<Profile> candidates,
+        int measure) {
+        if (!profileDictionary.containsKey(user.id)) {
+            return NeighborSimilarity.scores(measure, new int[0],
+                new int[candidates.size()][], id -> 0);
+        }
+        int[][] others = new int[candidates.size()][];
+        for (int i = 0; i < others.length; i++) {
+            Profile candidate = candidates.get(i);
+            if (profileDictionary.containsKey(candidate.id)) {
+                others[i] = sortedFriendIds(candidate.id);
+            }
+        }
+        return NeighborSimilarity.scores(measure, sortedFriendIds(user.id),
+            others, id -> grph.getVertex(id).getNumberOfNeighbors());
+    }
+
+
+    /**
+     * Returns the profiles whose friends are most like the friends of a
+     * profile. Candidates come from the MinHash index, which is built
+     * with the default shape if it is not enabled, and are kept if
+     * their exact Jaccard similarity reaches the minimum.
+     * 
+     * @param p
+     *            profile in the network
+     * @param max
+     *            largest number of profiles returned
+     * @param minJaccard
+     *            smallest Jaccard similarity of the friend sets
+     * @return similar profiles, most similar first
+     */
+    public List<Profile> similarUsers(Profile p, int max, double minJaccard) {
+        List<Profile> similar = new ArrayList<Profile>();
+        if (profileDictionary.get(p.id) != p) {
+            return similar;
+        }
+        if (minHash == null) {
+            enableMinHash(MinHashIndex.DEFAULT_BANDS,
+                MinHashIndex.DEFAULT_ROWS, Runtime.getRuntime()
+                    .availableProcessors());
+        }
+        // the estimate is loose, so candidates a little below the
+        // minimum are checked exactly as well
+        for (int id : minHash.candidates(p.id, Integer.MAX_VALUE, minJaccard
+            / 2)) {
+            similar.add(profileDictionary.get(id));
+        }
+        double[] scores = similarities(p, similar,
+            NeighborSimilarity.JACCARD);
+        Integer[] order = new Integer[scores.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (x, y) -> Double.compare(scores[y], scores[x]));
+        List<Profile> result = new ArrayList<Profile>();
+        for (int i = 0; i < order.length && result.size() < max; i++) {
+            if (scores[order[i]] >= minJaccard) {
+                result.add(similar.get(order[i]));
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Returns the friends two profiles have in common, in increasing
+     * order of id. The friend bitmaps are intersected if they are kept,
+     * the sorted friend ids otherwise.
+     * 
+     * @param a
+     *            first profile
+     * @param b
+     *            second profile
+     * @return mutual friends, empty if a profile is not in the network
+     */
+    public List<Profile> mutualFriends(Profile a, Profile b) {
+        List<Profile> mutual = new ArrayList<Profile>();
+        if (!profileDictionary.containsKey(a.id) || !profileDictionary
+            .containsKey(b.id)) {
+            return mutual;
+        }
+        if (bitmapAdjacency != null) {
+            bitmapAdjacency.mutualFriends(a.id, b.id).forEach(
+                id -> mutual.add(profileDictionary.get(id)));
+            return mutual;
+        }
+        int[] friendsA = sortedFriendIds(a.id);
+        int[] friendsB = sortedFriendIds(b.id);
+        int[] positions = new int[Math.min(friendsA.length,
+            friendsB.length)];
+        int count = NeighborSimilarity.intersect(friendsA, friendsA.length,
+            friendsB, friendsB.length, positions);
+        for (int i = 0; i < count; i++) {
+            mutual.add(profileDictionary.get(friendsA[positions[i]]));
+        }
+        return mutual;
+    }
+
+
+    /**
+     * Returns the number of friends two profiles have in common.
+     * 
+     * @param a
+     *            first profile
+     * @param b
+     *            second profile
+     * @return number of mutual friends, 0 if a profile is not in the
+     *         network
+     */
+    public int getNumberOfMutualFriends(Profile a, Profile b) {
+        if (!profileDictionary.containsKey(a.id) || !profileDictionary
+            .containsKey(b.id)) {
+            return 0;
+        }
+        if (bitmapAdjacency != null) {
+            return bitmapAdjacency.countMutualFriends(a.id, b.id);
+        }
+        int[] friendsA = sortedFriendIds(a.id);
+        int[] friendsB = sortedFriendIds(b.id);
+        return NeighborSimilarity.intersect(friendsA, friendsA.length,
+            friendsB, friendsB.length, null);
+    }
+
+
+    /**
+     * Returns the profiles two hops away: friends of friends that are
+     * not the profile or one of its friends, in increasing order of id.
+     * These are the profiles of friendSuggestion, which lists them in
+     * the order they are reached instead.
+     * 
+     * @param p
+     *            profile in the network
+     * @return friends of friends, empty if the profile is not in the
+     *         network
+     */
+    public List<Profile> friendsOfFriends(Profile p) {
+        List<Profile> result = new ArrayList<Profile>();
+        if (!profileDictionary.containsKey(p.id)) {
+            return result;
+        }
+        if (bitmapAdjacency != null) {
+            bitmapAdjacency.friendsOfFriends(p.id).forEach(
+                id -> result.add(profileDictionary.get(id)));
+            return result;
+        }
+        int[] friends = friendIds(p.id);
+        BreadthFirstCursor.IntHashSet seen =
+            new BreadthFirstCursor.IntHashSet();
+        seen.add(p.id);
+        for (int friend : friends) {
+            seen.add(friend);
+        }
+        int[] found = new int[16];
+        int count = 0;
+        for (int friend : friends) {
+            for (int id : friendIds(friend)) {
+                if (seen.add(id)) {
+                    if (count == found.length) {
+                        found = Arrays.copyOf(found, count * 2);
+                    }
+                    found[count++] = id;
+                }
+            }
+        }
+        Arrays.sort(found, 0, count);
+        for (int i = 0; i < count; i++) {
+            result.add(profileDictionary.get(found[i]));
+        }
+        return result;
+    }
+
+
+    /**
+     * Returns the ids of the friends of an id in increasing order.
+     */
+    private int[] sortedFriendIds(Integer id) {
+        int[] ids = friendIds(id);
+        Arrays.sort(ids);
+        return ids;
+    }
+
+
+    /**
+     * Returns the snapshot indices of profiles, -1 for profiles that are
+     * not in the network.
+     */
+    private int[] toIndices(CsrGraph csr, Profile[] profiles) {
+        int[] indices = new int[profiles.length];
+        for (int i = 0; i < profiles.length; i++) {
+            Integer id = profiles[i].id;
+            indices[i] = id == null || !profileDictionary.containsKey(id)
+                ? -1
+                : csr.toIndex(id);
+        }
+        return indices;
+    }
+
+
+    /**
+     * Starts caching the results of friendshipDistance and
+     * friendSuggestion, if that is not already the case, and returns the
+     * cache. Cached results are dropped as soon as a friendship they
+     * depend on changes, so the results are the same as without the
+     * cache.
+     * 
+     * @param maxBytes
+     *            approximate heap bytes the cache may take
+     * @return cache of this network
+     */
+    public FriendshipCache enableResultCache(long maxBytes) {
+        if (resultCache == null) {
+            resultCache = new FriendshipCache(maxBytes);
+            remapListeners.add(resultCache);
+        }
+        return resultCache;
+    }
+
+
+    /**
+     * Stops caching results and drops the cache.
+     */
+    public void disableResultCache() {
+        if (resultCache != null) {
+            remapListeners.remove(resultCache);
+            resultCache = null;
+        }
+    }
+
+
+    /**
+     * Returns the result cache of this network, null if there is none.
+     * 
+     * @return cache or null
+     */
+    public FriendshipCache getResultCache() {
+        return resultCache;
+    }
+
+
+    /**
+     * Starts keeping a news feed of the statuses of friends, if that is
+     * not already the case, and returns the feed. Only statuses set after
+     * this call are posted.
+     * 
+     * @param capacity
+     *            latest posts kept per profile, rounded up to a power of
+     *            two
+     * @param hubThreshold
+     *            friends at which the posts of a profile are merged into
+     *            the feeds of its friends on read instead of on write
+     * @return feed of this network
+     */
+    public NewsFeed enableNewsFeed(int capacity, int hubThreshold) {
+        if (newsFeed == null) {
+            newsFeed = new NewsFeed(this, capacity, hubThreshold);
+            remapListeners.add(newsFeed);
+        }
+        return newsFeed;
+    }
+
+
+    /**
+     * Stops keeping the news feed and drops it.
+     */
+    public void disableNewsFeed() {
+        if (newsFeed != null) {
+            remapListeners.remove(newsFeed);
+            newsFeed = null;
+        }
+    }
+
+
+    /**
+     * Returns the news feed of this network, null if there is none.
+     * 
+     * @return feed or null
+     */
+    public NewsFeed getNewsFeed() {
+        return newsFeed;
+    }
+
+
+    /**
+     * Returns the latest statuses posted by the friends of a profile,
+     * newest first. Empty if there is no news feed or the profile is not
+     * in the network.
+     * 
+     * @param reader
+     *            profile whose feed is read
+     * @param n
+     *            largest number of posts returned
+     * @return up to n posts
+     */
+    public List<NewsFeed.Post> getFeed(Profile reader, int n) {
+        if (newsFeed == null || profileDictionary.get(reader.id) != reader) {
+            return new ArrayList<NewsFeed.Post>();
+        }
+        return newsFeed.getFeed(reader, n);
+    }
+
+
+    /**
+     * Posts a new status of a profile of this network to the news feed.
+     * Called by Profile.setStatus.
+     * 
+     * @param p
+     *            profile whose status changed
+     * @param status
+     *            new status
+     */
+    void statusChanged(Profile p, String status) {
+        if (profileDictionary.get(p.id) != p) {
+            return;
+        }
+        if (newsFeed != null) {
+            newsFeed.statusChanged(p, status);
+        }
+        if (statusHistory != null) {
+            statusHistory.record(p.id, System.currentTimeMillis(), status);
+        }
+        if (changeLog != null) {
+            changeLog.statusChanged(p.id, status);
+        }
+    }
+
+
+    /**
+     * Records a new name of a profile of this network in the change log.
+     * Called by Profile.setName.
+     * 
+     * @param p
+     *            profile whose name changed
+     * @param firstName
+     *            new first name
+     * @param lastName
+     *            new last name
+     */
+    void nameChanged(Profile p, String firstName, String lastName) {
+        if (profileDictionary.get(p.id) != p) {
+            return;
+        }
+        if (changeLog != null) {
+            changeLog.nameChanged(p.id, firstName, lastName);
+        }
+    }
+
+
+    /**
+     * Starts keeping the earlier statuses of the profiles, if that is not
+     * already the case, and returns the history. Only statuses set after
+     * this call are kept.
+     * 
+     * @param capacity
+     *            latest statuses kept per profile
+     * @return status history of this network
+     */
+    public StatusHistory enableStatusHistory(int capacity) {
+        if (statusHistory == null) {
+            statusHistory = new StatusHistory(capacity);
+            remapListeners.add(statusHistory);
+        }
+        return statusHistory;
+    }
+
+
+    /**
+     * Stops keeping earlier statuses and drops the history.
+     */
+    public void disableStatusHistory() {
+        if (statusHistory != null) {
+            remapListeners.remove(statusHistory);
+            statusHistory = null;
+        }
+    }
+
+
+    /**
+     * Returns the status history of this network, null if there is none.
+     * 
+     * @return status history or null
+     */
+    public StatusHistory getStatusHistory() {
+        return statusHistory;
+    }
+
+
+    /**
+     * Returns the statuses a profile set between two times, both
+     * included, oldest first. Empty if there is no status history or the
+     * profile is not in the network.
+     * 
+     * @param p
+     *            profile
+     * @param from
+     *            earliest time in milliseconds since the epoch
+     * @param to
+     *            latest time in milliseconds since the epoch
+     * @return statuses in the range
+     */
+    public List<StatusHistory.Entry> statusHistory(
+        Profile p,
+        long from,
+        long to) {
+        if (statusHistory == null || profileDictionary.get(p.id) != p) {
+            return new ArrayList<StatusHistory.Entry>();
+        }
+        return statusHistory.range(p.id, from, to);
+    }
+
+
+    /**
+     * Returns the profiles that set a status at or after a time, the most
+     * recently updated first, without looking at the other profiles.
+     * Empty if there is no status history.
+     * 
+     * @param since
+     *            earliest time in milliseconds since the epoch
+     * @param max
+     *            largest number of profiles returned
+     * @return profiles updated since the time
+     */
+    public List<Profile> statusUpdatedSince(long since, int max) {
+        List<Profile> updated = new ArrayList<Profile>();
+        if (statusHistory == null) {
+            return updated;
+        }
+        for (int id : statusHistory.updatedSince(since, max)) {
+            updated.add(profileDictionary.get(id));
+        }
+        return updated;
+    }
+
+
+    /**
+     * Starts recording the mutations of this network in a change log, if
+     * that is not already the case, and returns the log. Replicas
+     * subscribed to the log get a snapshot and then every later mutation.
+     * 
+     * @param maxBatch
+     *            largest number of mutations in one batch of the log
+     * @return change log of this network
+     */
+    public ChangeLog enableChangeLog(int maxBatch) {
+        if (changeLog == null) {
+            changeLog = new ChangeLog(maxBatch);
+        }
+        return changeLog;
+    }
+
+
+    /**
+     * Stops recording mutations and drops the change log.
+     */
+    public void disableChangeLog() {
+        changeLog = null;
+    }
+
+
+    /**
+     * Returns the change log of this network, null if there is none.
+     * 
+     * @return change log or null
+     */
+    public ChangeLog getChangeLog() {
+        return changeLog;
+    }
+
+
+    /**
+     * Starts maintaining the distances from hot sources, if that is not
+     * already the case, and returns the index. Sources are added with
+     * addHotSource.
+     * 
+     * @return hot source index of this network
+     */
+    public HotSourceDistances enableHotSources() {
+        if (hotSources == null) {
+            hotSources = new HotSourceDistances(this, grph);
+            remapListeners.add(hotSources);
+        }
+        return hotSources;
+    }
+
+
+    /**
+     * Stops maintaining the distances from hot sources and drops them.
+     */
+    public void disableHotSources() {
+        if (hotSources != null) {
+            remapListeners.remove(hotSources);
+            hotSources = null;
+        }
+    }
+
+
+    /**
+     * Returns the hot source index of this network, null if there is
+     * none.
+     * 
+     * @return hot source index or null
+     */
+    public HotSourceDistances getHotSources() {
+        return hotSources;
+    }
+
+
+    /**
+     * Makes friendshipDistance from or to a profile a lookup, by keeping
+     * its distance to every profile up to date. Enables the hot source
+     * index if needed.
+     * 
+     * @param p
+     *            profile in the network
+     * @return false if the profile is not in the network or already a
+     *         hot source
+     */
+    public boolean addHotSource(Profile p) {
+        if (profileDictionary.get(p.id) != p) {
+            return false;
+        }
+        return enableHotSources().add(p.id);
+    }
+
+
+    /**
+     * Stops keeping the distances of a hot source.
+     * 
+     * @param p
+     *            hot source
+     * @return false if the profile was not a hot source
+     */
+    public boolean removeHotSource(Profile p) {
+        return hotSources != null && p.id != null && hotSources.remove(p.id);
+    }
+
+
+    /**
+     * Indexes the friend sets by MinHash signatures with locality
+     * sensitive hashing, replacing an index of another shape, and
+     * returns the index. The signatures follow later friendships.
+     * 
+     * @param bands
+     *            number of bands, more give more recall
+     * @param rows
+     *            signature values per band, more give more precision
+     * @param threads
+     *            number of threads for the build
+     * @return MinHash index of this network
+     */
+    public MinHashIndex enableMinHash(int bands, int rows, int threads) {
+        disableMinHash();
+        minHash = new MinHashIndex(this, grph, bands, rows, threads);
+        remapListeners.add(minHash);
+        return minHash;
+    }
+
+
+    /**
+     * Stops indexing the friend sets and drops the signatures.
+     */
+    public void disableMinHash() {
+        if (minHash != null) {
+            remapListeners.remove(minHash);
+            minHash = null;
+        }
+    }
+
+
+    /**
+     * Returns the MinHash index of this network, null if there is none.
+     * 
+     * @return MinHash index or null
+     */
+    public MinHashIndex getMinHash() {
+        return minHash;
+    }
+
+
+    /**
+     * Starts keeping the friend sets as compressed bitmaps, if that is
+     * not already the case, and returns them. mutualFriends and
+     * friendsOfFriends use them from then on.
+     * 
+     * @return bitmap adjacency of this network
+     */
+    public BitmapAdjacency enableBitmapAdjacency() {
+        if (bitmapAdjacency == null) {
+            bitmapAdjacency = new BitmapAdjacency(grph, getIdBound());
+            remapListeners.add(bitmapAdjacency);
+        }
+        return bitmapAdjacency;
+    }
+
+
+    /**
+     * Stops keeping the friend bitmaps and drops them.
+     */
+    public void disableBitmapAdjacency() {
+        if (bitmapAdjacency != null) {
+            remapListeners.remove(bitmapAdjacency);
+            bitmapAdjacency = null;
+        }
+    }
+
+
+    /**
+     * Returns the friend bitmaps of this network, null if they are not
+     * kept.
+     * 
+     * @return bitmap adjacency or null
+     */
+    public BitmapAdjacency getBitmapAdjacency() {
+        return bitmapAdjacency;
+    }
+
+
+    /**
+     * Starts collecting latency and work of the operations, if that is
+     * not already the case, and returns the metrics.
+     * 
+     * @return metrics of this network
+     */
+    public VTConnectMetrics enableMetrics() {
+        if (metrics == null) {
+            metrics = new VTConnectMetrics();
+        }
+        return metrics;
+    }
+
+
+    /**
+     * Stops collecting metrics and any periodic export of them.
+     */
+    public void disableMetrics() {
+        if (metrics != null) {
+            metrics.stopExport();
+            metrics = null;
+        }
+    }
+
+
+    /**
+     * Returns the metrics of this network, null if they are not
+     * collected.
+     * 
+     * @return metrics or null
+     */
+    public VTConnectMetrics getMetrics() {
+        return metrics;
+    }
+
+
+    /**
+     * Copies the name and status of a profile that leaves the network
+     * from the off-heap store back into the profile.
+     * 
+     * @param p
+     *            removed profile, still holding its id
+     */
+    private void takeBackStrings(Profile p) {
+        if (profileStore != null) {
+            p.name = profileStore.getName(p.id);
+            p.status = profileStore.getStatus(p.id);
+            profileStore.remove(p.id);
+        }
+    }
+
+
+    /**
+     * Returns the ids of the friends of an id.
+     * 
+     * @param id
+     *            id of a profile in the network
+     * @return ids of its friends
+     */
+    int[] friendIds(Integer id) {
+        VertexInterface<Integer> vertex = grph.getVertex(id);
+        int[] ids = new int[vertex.getNumberOfNeighbors()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = vertex.getNeighbor(i).getLabel();
+        }
+        return ids;
+    }
+
+
+    /**
+     * Returns the ids a distance depends on as described in
+     * FriendshipCache, null if it depends on the whole network.
+     * 
+     * @param a
+     *            id of the first profile
+     * @param b
+     *            id of the second profile
+     * @param distance
+     *            distance between them
+     * @return ids or null
+     */
+    private int[] distanceDependencies(int a, int b, int distance) {
+        if (distance == 1 || distance == 2) {
+            return new int[] { a, b };
+        }
+        if (distance != 3) {
+            return null;
+        }
+        // a shorter path needs a change next to one of the endpoints,
+        // watching the friends of the smaller side is enough
+        int smaller = grph.getVertex(a).getNumberOfNeighbors() <= grph
+            .getVertex(b).getNumberOfNeighbors() ? a : b;
+        int[] friends = friendIds(smaller);
+        if (friends.length > FriendshipCache.MAX_DEPENDENCIES) {
+            return null;
+        }
+        int[] dependencies = Arrays.copyOf(friends, friends.length + 2);
+        dependencies[friends.length] = a;
+        dependencies[friends.length + 1] = b;
+        return dependencies;
+    }
+
+
+    /**
+     * Reset vertices before traversals
+     */
+    private void resetVertices() {
+        List<VertexInterface<Integer>> vertexList = grph.getVertices();
+
+        VertexInterface<Integer> current;
+        for (int i = 0; i < vertexList.size(); i++) {
+            current = vertexList.get(i);
+            current.unvisit();
+            current.setCost(0.0);
+            current.setPredecessor(null);
+        }
+    }
+
+
+    /**
+     * Read-only list of the friends of a profile. Every access goes to
+     * the vertex of the profile in the graph, so friendship changes are
+     * visible immediately.
+     */
+    private class FriendList extends AbstractList<Profile> {
+        /** profile whose friends are listed */
+        private Profile profile;
+
+        private FriendList(Profile profile) {
+            this.profile = profile;
+        }
+
+
+        /**
+         * Returns the vertex of the profile, null if the profile is not
+         * in this network. Its id may have changed since the view was
+         * made, or have been given to another profile after it left.
+         */
+        private VertexInterface<Integer> vertex() {
+            if (profile.network != VTConnect.this || profile.id == null) {
+                return null;
+            }
+            return grph.getVertex(profile.id);
+        }
+
+
+        /**
+         * Returns the friend at the given position of the adjacency.
+         * 
+         * @param index
+         *            position of the friend
+         * @return friend profile
+         */
+        public Profile get(int index) {
+            VertexInterface<Integer> vertex = vertex();
+            if (vertex == null) {
+                throw new IndexOutOfBoundsException("Index: " + index
+                    + ", Size: 0");
+            }
+            return profileDictionary.get(vertex.getNeighbor(index)
+                .getLabel());
+        }
+
+
+        /**
+         * Returns the number of friends.
+         * 
+         * @return number of friends
+         */
+        public int size() {
+            VertexInterface<Integer> vertex = vertex();
+            if (vertex == null) {
+                return 0;
+            }
+            return vertex.getNumberOfNeighbors();
         }
     }
 }
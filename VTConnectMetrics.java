@@ -0,0 +1,357 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency and work of the operations of a VTConnect. For every operation
+ * it keeps a histogram of the latency in nanoseconds, and for the
+ * traversals also histograms of the vertices visited and the edges
+ * scanned per call. Recording is lock free and does not allocate, and
+ * the histograms may be read from another thread while the network is
+ * in use.
+ *
+ * A snapshot holds the values recorded since the last reset; a resetting
+ * snapshot starts a new interval. Snapshots print as text or JSON, and
+ * startExport writes one periodically to a file or posts it to an HTTP
+ * endpoint.
+ *
+ * @author Kerem Bozgan kerembozgan
+ * @version 2022-11-11
+ */
+class VTConnectMetrics {
+
+    /** Operations, indexes into NAMES */
+    static final int ADD_USER = 0;
+    static final int REMOVE_USER = 1;
+    static final int CREATE_FRIENDSHIP = 2;
+    static final int REMOVE_FRIENDSHIP = 3;
+    static final int TRAVERSE = 4;
+    static final int FRIEND_SUGGESTION = 5;
+    static final int FRIENDSHIP_DISTANCE = 6;
+
+    /** Names of the operations as they appear in exports */
+    static final String[] NAMES = { "addUser", "removeUser",
+        "createFriendship", "removeFriendship", "traverse",
+        "friendSuggestion", "friendshipDistance" };
+
+    /** Histograms per operation */
+    private final ConcurrentHistogram[] latency =
+        new ConcurrentHistogram[NAMES.length];
+    private final ConcurrentHistogram[] visited =
+        new ConcurrentHistogram[NAMES.length];
+    private final ConcurrentHistogram[] scanned =
+        new ConcurrentHistogram[NAMES.length];
+
+    /** Start of the current interval in milliseconds since the epoch */
+    private final AtomicLong intervalStart = new AtomicLong(System
+        .currentTimeMillis());
+
+    /** Runs the periodic export, null if there is none */
+    private ScheduledExecutorService exporter;
+
+    /**
+     * Initializes empty metrics.
+     */
+    VTConnectMetrics() {
+        for (int i = 0; i < NAMES.length; i++) {
+            latency[i] = new ConcurrentHistogram();
+            visited[i] = new ConcurrentHistogram();
+            scanned[i] = new ConcurrentHistogram();
+        }
+    }
+
+
+    /**
+     * Returns true if the operation is a traversal, whose visited
+     * vertices and scanned edges are recorded.
+     *
+     * @param operation
+     *            index in NAMES
+     * @return true for traversals
+     */
+    static boolean isTraversal(int operation) {
+        return operation == TRAVERSE || operation == FRIEND_SUGGESTION
+            || operation == FRIENDSHIP_DISTANCE;
+    }
+
+
+    /**
+     * Records one call of an operation that does not traverse.
+     *
+     * @param operation
+     *            index in NAMES
+     * @param nanos
+     *            latency of the call
+     */
+    public void record(int operation, long nanos) {
+        latency[operation].record(nanos);
+    }
+
+
+    /**
+     * Records one call of a traversal.
+     *
+     * @param operation
+     *            index in NAMES
+     * @param nanos
+     *            latency of the call
+     * @param vertices
+     *            vertices the call visited
+     * @param edges
+     *            edges the call scanned
+     */
+    public void record(int operation, long nanos, long vertices, long edges) {
+        latency[operation].record(nanos);
+        visited[operation].record(vertices);
+        scanned[operation].record(edges);
+    }
+
+
+    /**
+     * Returns the values recorded since the last reset.
+     *
+     * @param reset
+     *            true to start a new interval
+     * @return snapshot of the metrics
+     */
+    public Snapshot snapshot(boolean reset) {
+        long now = System.currentTimeMillis();
+        long start = reset ? intervalStart.getAndSet(now) : intervalStart
+            .get();
+        Snapshot snapshot = new Snapshot(start, now);
+        for (int i = 0; i < NAMES.length; i++) {
+            snapshot.latency[i] = latency[i].snapshot(reset);
+            snapshot.visited[i] = visited[i].snapshot(reset);
+            snapshot.scanned[i] = scanned[i].snapshot(reset);
+        }
+        return snapshot;
+    }
+
+
+    /**
+     * Starts exporting a resetting snapshot every period. A target that
+     * starts with http:// or https:// gets the snapshot posted as JSON,
+     * any other target is a file the snapshot is appended to. Failed
+     * exports are reported on the error stream and the export goes on.
+     * A running export is replaced.
+     *
+     * @param periodMillis
+     *            time between exports
+     * @param target
+     *            file name or URL
+     * @param json
+     *            true for JSON, false for text; posts are always JSON
+     */
+    public synchronized void startExport(
+        long periodMillis,
+        String target,
+        boolean json) {
+        stopExport();
+        exporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "vtconnect-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        exporter.scheduleAtFixedRate(() -> {
+            try {
+                Snapshot snapshot = snapshot(true);
+                if (target.startsWith("http://") || target.startsWith(
+                    "https://")) {
+                    snapshot.postTo(URI.create(target));
+                }
+                else {
+                    snapshot.appendTo(Paths.get(target), json);
+                }
+            }
+            catch (Exception e) {
+                // an exception would cancel the schedule, so report it
+                System.err.println("Metrics export to " + target
+                    + " failed: " + e);
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+
+    /**
+     * Stops the periodic export, if there is one.
+     */
+    public synchronized void stopExport() {
+        if (exporter != null) {
+            exporter.shutdownNow();
+            exporter = null;
+        }
+    }
+
+
+    /**
+     * Metrics of one interval.
+     */
+    static class Snapshot {
+
+        /** Interval in milliseconds since the epoch */
+        final long startMillis;
+        final long endMillis;
+        /** Histograms per operation, indexed like NAMES */
+        final LatencyHistogram[] latency =
+            new LatencyHistogram[NAMES.length];
+        final LatencyHistogram[] visited =
+            new LatencyHistogram[NAMES.length];
+        final LatencyHistogram[] scanned =
+            new LatencyHistogram[NAMES.length];
+
+        Snapshot(long startMillis, long endMillis) {
+            this.startMillis = startMillis;
+            this.endMillis = endMillis;
+        }
+
+
+        /**
+         * Returns the snapshot as a table with one row per operation,
+         * latencies in microseconds.
+         *
+         * @return text of the snapshot
+         */
+        public String toText() {
+            StringBuilder text = new StringBuilder();
+            text.append(String.format("Interval %.1f s%n", (endMillis
+                - startMillis) / 1e3));
+            text.append(String.format("%-18s %9s %9s %9s %9s %9s %10s %10s "
+                + "%12s%n", "operation", "count", "mean us", "p50 us",
+                "p99 us", "p99.9 us", "max us", "visited", "edges"));
+            for (int i = 0; i < NAMES.length; i++) {
+                LatencyHistogram h = latency[i];
+                text.append(String.format("%-18s %9d %9.1f %9.1f %9.1f %9.1f "
+                    + "%10.1f", NAMES[i], h.getCount(), h.getMean() / 1e3,
+                    micros(h, 50), micros(h, 99), micros(h, 99.9), h.getMax()
+                        / 1e3));
+                if (isTraversal(i)) {
+                    text.append(String.format(" %10.1f %12.1f", visited[i]
+                        .getMean(), scanned[i].getMean()));
+                }
+                text.append(String.format("%n"));
+            }
+            return text.toString();
+        }
+
+
+        /**
+         * Returns the snapshot as one line of JSON. Latencies are in
+         * microseconds; visited and edges describe the calls of a
+         * traversal.
+         *
+         * @return JSON of the snapshot
+         */
+        public String toJson() {
+            StringBuilder json = new StringBuilder();
+            json.append("{\"start\":").append(startMillis);
+            json.append(",\"end\":").append(endMillis);
+            json.append(",\"operations\":{");
+            for (int i = 0; i < NAMES.length; i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                LatencyHistogram h = latency[i];
+                json.append('"').append(NAMES[i]).append("\":{");
+                json.append("\"count\":").append(h.getCount());
+                appendStats(json, h, 1e3);
+                if (isTraversal(i)) {
+                    json.append(",\"visited\":{\"total\":").append(visited[i]
+                        .getSum());
+                    appendStats(json, visited[i], 1);
+                    json.append("},\"edges\":{\"total\":").append(scanned[i]
+                        .getSum());
+                    appendStats(json, scanned[i], 1);
+                    json.append('}');
+                }
+                json.append('}');
+            }
+            json.append("}}");
+            return json.toString();
+        }
+
+
+        /**
+         * Appends the snapshot to a file, which is created if needed.
+         *
+         * @param file
+         *            file to append to
+         * @param json
+         *            true for a line of JSON, false for text
+         */
+        public void appendTo(Path file, boolean json) throws IOException {
+            String content = json
+                ? toJson() + System.lineSeparator()
+                : toText() + System.lineSeparator();
+            Files.write(file, content.getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+
+
+        /**
+         * Posts the snapshot as JSON to an HTTP endpoint.
+         *
+         * @param endpoint
+         *            URL to post to
+         */
+        public void postTo(URI endpoint)
+            throws IOException, InterruptedException {
+            HttpRequest request = HttpRequest.newBuilder(endpoint).header(
+                "Content-Type", "application/json").POST(HttpRequest
+                    .BodyPublishers.ofString(toJson())).build();
+            HttpResponse<Void> response = HttpClient.newHttpClient().send(
+                request, HttpResponse.BodyHandlers.discarding());
+            if (response.statusCode() >= 300) {
+                throw new IOException("HTTP status " + response
+                    .statusCode());
+            }
+        }
+
+
+        /**
+         * Appends mean, percentiles and maximum of a histogram, divided
+         * by the given unit.
+         */
+        private static void appendStats(
+            StringBuilder json,
+            LatencyHistogram h,
+            double unit) {
+            json.append(",\"mean\":").append(round(h.getMean() / unit));
+            json.append(",\"p50\":").append(round(h.getValueAtPercentile(50)
+                / unit));
+            json.append(",\"p90\":").append(round(h.getValueAtPercentile(90)
+                / unit));
+            json.append(",\"p99\":").append(round(h.getValueAtPercentile(99)
+                / unit));
+            json.append(",\"p999\":").append(round(h.getValueAtPercentile(
+                99.9) / unit));
+            json.append(",\"max\":").append(round(h.getMax() / unit));
+        }
+
+
+        /**
+         * Returns a percentile of a latency histogram in microseconds.
+         */
+        private static double micros(LatencyHistogram h, double percentile) {
+            return h.getValueAtPercentile(percentile) / 1e3;
+        }
+
+
+        /**
+         * Rounds to one decimal.
+         */
+        private static double round(double value) {
+            return Math.round(value * 10) / 10.0;
+        }
+    }
+}
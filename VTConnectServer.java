@@ -0,0 +1,783 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Embedded HTTP server for a VTConnect on localhost, built on the JDK
+ * HttpServer with one virtual thread per request.
+ *
+ * Requests are POSTs to /vt whose body is a sequence of commands, so a
+ * client can pipeline any number of commands in one round trip; the
+ * response holds one result per command, in the same order. Commands
+ * and results use a compact binary encoding: an opcode byte followed by
+ * unsigned varints, strings as a varint length and UTF-8 bytes.
+ *
+ * <pre>
+ * op                   arguments                result on OK
+ * 1 ADD_USER           name, status             id
+ * 2 REMOVE_USER        id                       -
+ * 3 CREATE_FRIENDSHIP  id, id                   -
+ * 4 REMOVE_FRIENDSHIP  id, id                   -
+ * 5 DISTANCE           id, id                   distance
+ * 6 SUGGESTIONS        id                       count, ids
+ * 7 TRAVERSAL_PAGE     id, offset, count        count, ids
+ * 8 PROFILE            id                       name, status
+ * </pre>
+ *
+ * Every result starts with a status byte: OK, NO when the network said
+ * no (a duplicate user, an unknown id, an existing friendship, no path,
+ * no suggestions) or BAD for an unknown opcode. A body that cannot be
+ * decoded is answered with 400.
+ *
+ * VTConnect is not thread-safe, so every command runs under one lock.
+ * Mutations are not applied by the request threads: consecutive
+ * mutations of a request are handed to a single writer thread, which
+ * applies all the mutations waiting from all requests under one
+ * acquisition of the lock (group commit), up to maxBatch at a time. A
+ * request still sees its own mutations before its later commands.
+ *
+ * At most maxConcurrent requests are served at once; others wait up to
+ * queueTimeoutMillis for a slot and are then answered with 503. GET
+ * /stats reports the counters of the server and, if they are enabled,
+ * the metrics of the network.
+ *
+ * @author Kerem Bozgan kerembozgan
+ * @version 2022-11-11
+ */
+class VTConnectServer implements AutoCloseable {
+
+    /** Opcodes of the commands */
+    static final int ADD_USER = 1;
+    static final int REMOVE_USER = 2;
+    static final int CREATE_FRIENDSHIP = 3;
+    static final int REMOVE_FRIENDSHIP = 4;
+    static final int DISTANCE = 5;
+    static final int SUGGESTIONS = 6;
+    static final int TRAVERSAL_PAGE = 7;
+    static final int PROFILE = 8;
+
+    /** Status bytes of the results */
+    static final int OK = 0;
+    static final int NO = 1;
+    static final int BAD = 2;
+
+    /** Largest body accepted, in bytes */
+    static final int MAX_BODY = 1 << 20;
+    /** Largest page of a traversal */
+    static final int MAX_PAGE = 10000;
+
+    /** Network served, guarded by lock */
+    private final VTConnect network;
+    private final ReentrantLock lock = new ReentrantLock();
+    /** HTTP server and the executor of its requests */
+    private final HttpServer server;
+    private final ExecutorService executor;
+    /** Slots for requests served at once */
+    private final Semaphore slots;
+    private final long queueTimeoutMillis;
+
+    /** Runs of mutations waiting for the writer */
+    private final LinkedBlockingQueue<MutationRun> mutations =
+        new LinkedBlockingQueue<MutationRun>();
+    private final int maxBatch;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    /** Counters of the server */
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder commands = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder batchedMutations = new LongAdder();
+
+    /**
+     * Serves a generated network until the process is stopped.
+     *
+     * Usage: java VTConnectServer [--port 8080] [--users 100000]
+     * [--degree 16] [--model ba] [--max-concurrent 256] [--max-batch 256]
+     */
+    public static void main(String[] args) throws IOException {
+        HashMap<String, String> options = parseOptions(args);
+        int port = Integer.parseInt(options.getOrDefault("port", "8080"));
+        int n = Integer.parseInt(options.getOrDefault("users", "100000"));
+        int degree = Integer.parseInt(options.getOrDefault("degree", "16"));
+        String model = options.getOrDefault("model",
+            GraphGenerator.BARABASI_ALBERT);
+        int maxConcurrent = Integer.parseInt(options.getOrDefault(
+            "max-concurrent", "256"));
+        int maxBatch = Integer.parseInt(options.getOrDefault("max-batch",
+            "256"));
+
+        VTConnect network = new VTConnect();
+        GraphGenerator.populate(network, n, GraphGenerator.generate(model, n,
+            degree, new Random(42)));
+        network.enableMetrics();
+        VTConnectServer server = new VTConnectServer(network, port,
+            maxConcurrent, 1000, maxBatch);
+        System.out.printf("Serving %d users on http://localhost:%d/vt%n", n,
+            server.getPort());
+    }
+
+
+    /**
+     * Starts a server on the loopback address.
+     *
+     * @param network
+     *            network to serve; it must not be used by anything else
+     *            while the server runs
+     * @param port
+     *            port to listen on, 0 for any free port
+     * @param maxConcurrent
+     *            requests served at once
+     * @param queueTimeoutMillis
+     *            time a request may wait for a slot before it gets 503
+     * @param maxBatch
+     *            largest number of mutations applied under one lock
+     */
+    VTConnectServer(
+        VTConnect network,
+        int port,
+        int maxConcurrent,
+        long queueTimeoutMillis,
+        int maxBatch)
+        throws IOException {
+        this.network = network;
+        this.slots = new Semaphore(maxConcurrent);
+        this.queueTimeoutMillis = queueTimeoutMillis;
+        this.maxBatch = maxBatch;
+        server = HttpServer.create(new InetSocketAddress(InetAddress
+            .getLoopbackAddress(), port), 0);
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        server.createContext("/vt", this::handleCommands);
+        server.createContext("/stats", this::handleStats);
+        writer = Thread.ofPlatform().name("vtconnect-writer").daemon(true)
+            .start(this::writeMutations);
+        server.start();
+    }
+
+
+    /**
+     * Returns the port the server listens on.
+     *
+     * @return port
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+
+    /**
+     * Stops the server, waiting up to a second for running requests.
+     */
+    public void close() {
+        server.stop(1);
+        running = false;
+        writer.interrupt();
+        executor.shutdownNow();
+    }
+
+
+    /**
+     * Serves a POST of commands.
+     */
+    private void handleCommands(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            boolean acquired;
+            try {
+                acquired = slots.tryAcquire(queueTimeoutMillis,
+                    TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (!acquired) {
+                rejected.increment();
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+            try {
+                byte[] body = readBody(exchange.getRequestBody());
+                if (body == null) {
+                    exchange.sendResponseHeaders(413, -1);
+                    return;
+                }
+                List<Command> list;
+                try {
+                    list = decode(body);
+                }
+                catch (IllegalArgumentException e) {
+                    exchange.sendResponseHeaders(400, -1);
+                    return;
+                }
+                requests.increment();
+                commands.add(list.size());
+                execute(list);
+                Encoder response = new Encoder();
+                for (Command command : list) {
+                    command.writeResult(response);
+                }
+                exchange.getResponseHeaders().set("Content-Type",
+                    "application/octet-stream");
+                exchange.sendResponseHeaders(200, response.size());
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(response.buffer(), 0, response.size());
+                }
+            }
+            finally {
+                slots.release();
+            }
+        }
+    }
+
+
+    /**
+     * Serves the counters as text.
+     */
+    private void handleStats(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            StringBuilder text = new StringBuilder();
+            text.append(String.format("requests %d commands %d rejected %d "
+                + "mutation batches %d mutations %d%n", requests.sum(),
+                commands.sum(), rejected.sum(), batches.sum(),
+                batchedMutations.sum()));
+            if (network.getMetrics() != null) {
+                text.append(network.getMetrics().snapshot(false).toText());
+            }
+            byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type",
+                "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+
+
+    /**
+     * Runs the commands of a request in order. Reads run on the request
+     * thread under the lock; runs of mutations go to the writer.
+     */
+    private void execute(List<Command> list) {
+        int i = 0;
+        while (i < list.size()) {
+            int end = i;
+            while (end < list.size() && list.get(end).isMutation()) {
+                end++;
+            }
+            if (end > i) {
+                MutationRun run = new MutationRun(list.subList(i, end));
+                mutations.add(run);
+                run.done.join();
+                i = end;
+            }
+            else {
+                lock.lock();
+                try {
+                    while (i < list.size() && !list.get(i).isMutation()) {
+                        list.get(i++).apply(network);
+                    }
+                }
+                finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Loop of the writer thread: takes every waiting run of mutations
+     * and applies them under one acquisition of the lock.
+     */
+    private void writeMutations() {
+        List<MutationRun> taken = new ArrayList<MutationRun>();
+        while (running) {
+            try {
+                taken.add(mutations.take());
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+            int count = taken.get(0).commands.size();
+            while (count < maxBatch && mutations.peek() != null) {
+                MutationRun run = mutations.poll();
+                taken.add(run);
+                count += run.commands.size();
+            }
+            lock.lock();
+            try {
+                for (MutationRun run : taken) {
+                    for (Command command : run.commands) {
+                        command.apply(network);
+                    }
+                }
+            }
+            finally {
+                lock.unlock();
+            }
+            batches.increment();
+            batchedMutations.add(count);
+            for (MutationRun run : taken) {
+                run.done.complete(null);
+            }
+            taken.clear();
+        }
+    }
+
+
+    /**
+     * Reads a request body, null if it is larger than MAX_BODY.
+     */
+    private static byte[] readBody(InputStream in) throws IOException {
+        byte[] body = in.readNBytes(MAX_BODY + 1);
+        return body.length > MAX_BODY ? null : body;
+    }
+
+
+    /**
+     * Decodes the commands of a body.
+     *
+     * @throws IllegalArgumentException
+     *             if the body is malformed
+     */
+    static List<Command> decode(byte[] body) {
+        Decoder in = new Decoder(body, 0, body.length);
+        List<Command> list = new ArrayList<Command>();
+        while (in.hasMore()) {
+            Command command = new Command(in.readByte());
+            switch (command.op) {
+                case ADD_USER:
+                    command.name = in.readString();
+                    command.status = in.readString();
+                    break;
+                case REMOVE_USER:
+                case SUGGESTIONS:
+                case PROFILE:
+                    command.a = in.readVarint();
+                    break;
+                case CREATE_FRIENDSHIP:
+                case REMOVE_FRIENDSHIP:
+                case DISTANCE:
+                    command.a = in.readVarint();
+                    command.b = in.readVarint();
+                    break;
+                case TRAVERSAL_PAGE:
+                    command.a = in.readVarint();
+                    command.b = in.readVarint();
+                    command.c = in.readVarint();
+                    break;
+                default:
+                    // the arguments of an unknown opcode cannot be skipped
+                    command.result = BAD;
+                    list.add(command);
+                    return list;
+            }
+            list.add(command);
+        }
+        return list;
+    }
+
+
+    /**
+     * Parses options of the form --name value.
+     */
+    static HashMap<String, String> parseOptions(String[] args) {
+        HashMap<String, String> options = new HashMap<String, String>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unknown argument: "
+                    + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        return options;
+    }
+
+
+    /**
+     * Consecutive mutations of one request, completed by the writer.
+     */
+    private static class MutationRun {
+        final List<Command> commands;
+        final CompletableFuture<Void> done = new CompletableFuture<Void>();
+
+        MutationRun(List<Command> commands) {
+            this.commands = commands;
+        }
+    }
+
+
+    /**
+     * One decoded command and, once applied, its result.
+     */
+    static class Command {
+        final int op;
+        int a;
+        int b;
+        int c;
+        String name;
+        String status;
+        /** Status byte of the result, -1 until applied */
+        int result = -1;
+        /** Number or ids of the result */
+        int value;
+        int[] ids;
+
+        Command(int op) {
+            this.op = op;
+        }
+
+
+        /**
+         * Returns true for the commands that change the network.
+         */
+        boolean isMutation() {
+            return op >= ADD_USER && op <= REMOVE_FRIENDSHIP;
+        }
+
+
+        /**
+         * Applies the command to the network, with the lock held.
+         */
+        void apply(VTConnect network) {
+            if (result == BAD) {
+                return;
+            }
+            try {
+                result = perform(network) ? OK : NO;
+            }
+            catch (RuntimeException e) {
+                // a failing command must not take the others down
+                result = BAD;
+            }
+        }
+
+
+        /**
+         * Calls the network for the command, returns false if it said no.
+         */
+        private boolean perform(VTConnect network) {
+            Profile first = network.getProfile(a);
+            Profile second = network.getProfile(b);
+            boolean done;
+            switch (op) {
+                case ADD_USER:
+                    Profile p = new Profile(name, status);
+                    network.addUser(p);
+                    done = p.id != null;
+                    value = done ? p.id : 0;
+                    break;
+                case REMOVE_USER:
+                    done = first != null && network.removeUser(first) != null;
+                    break;
+                case CREATE_FRIENDSHIP:
+                    done = first != null && second != null && network
+                        .createFriendship(first, second);
+                    break;
+                case REMOVE_FRIENDSHIP:
+                    done = first != null && second != null && network
+                        .removeFriendship(first, second);
+                    break;
+                case DISTANCE:
+                    value = first == null || second == null
+                        ? -1
+                        : network.friendshipDistance(first, second);
+                    done = value >= 0;
+                    break;
+                case SUGGESTIONS:
+                    List<Profile> suggestions = first == null
+                        ? null
+                        : network.friendSuggestion(first);
+                    done = suggestions != null;
+                    if (done) {
+                        ids = idsOf(suggestions);
+                    }
+                    break;
+                case TRAVERSAL_PAGE:
+                    done = first != null;
+                    if (done) {
+                        ids = idsOf(network.traversalPage(first, b, Math.min(
+                            c, MAX_PAGE)));
+                    }
+                    break;
+                case PROFILE:
+                    done = first != null;
+                    if (done) {
+                        name = first.getName();
+                        status = first.getStatus();
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException();
+            }
+            return done;
+        }
+
+
+        /**
+         * Appends the result to a response.
+         */
+        void writeResult(Encoder out) {
+            out.writeByte(result);
+            if (result != OK) {
+                return;
+            }
+            switch (op) {
+                case ADD_USER:
+                case DISTANCE:
+                    out.writeVarint(value);
+                    break;
+                case SUGGESTIONS:
+                case TRAVERSAL_PAGE:
+                    out.writeVarint(ids.length);
+                    for (int id : ids) {
+                        out.writeVarint(id);
+                    }
+                    break;
+                case PROFILE:
+                    out.writeString(name);
+                    out.writeString(status);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+
+        private static int[] idsOf(List<Profile> profiles) {
+            int[] ids = new int[profiles.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = profiles.get(i).id;
+            }
+            return ids;
+        }
+    }
+
+
+    /**
+     * Growing buffer that commands and results are encoded into. Clients
+     * build request bodies with the methods named after the commands.
+     */
+    static class Encoder {
+        private byte[] bytes = new byte[64];
+        private int size;
+
+        Encoder addUser(String name, String status) {
+            writeByte(ADD_USER);
+            writeString(name);
+            writeString(status);
+            return this;
+        }
+
+
+        Encoder removeUser(int id) {
+            writeByte(REMOVE_USER);
+            writeVarint(id);
+            return this;
+        }
+
+
+        Encoder createFriendship(int a, int b) {
+            return pair(CREATE_FRIENDSHIP, a, b);
+        }
+
+
+        Encoder removeFriendship(int a, int b) {
+            return pair(REMOVE_FRIENDSHIP, a, b);
+        }
+
+
+        Encoder distance(int a, int b) {
+            return pair(DISTANCE, a, b);
+        }
+
+
+        Encoder suggestions(int id) {
+            writeByte(SUGGESTIONS);
+            writeVarint(id);
+            return this;
+        }
+
+
+        Encoder traversalPage(int id, int offset, int count) {
+            writeByte(TRAVERSAL_PAGE);
+            writeVarint(id);
+            writeVarint(offset);
+            writeVarint(count);
+            return this;
+        }
+
+
+        Encoder profile(int id) {
+            writeByte(PROFILE);
+            writeVarint(id);
+            return this;
+        }
+
+
+        private Encoder pair(int op, int a, int b) {
+            writeByte(op);
+            writeVarint(a);
+            writeVarint(b);
+            return this;
+        }
+
+
+        void writeByte(int value) {
+            if (size == bytes.length) {
+                bytes = Arrays.copyOf(bytes, size * 2);
+            }
+            bytes[size++] = (byte)value;
+        }
+
+
+        /**
+         * Writes a non-negative int in 7-bit groups, low group first.
+         */
+        void writeVarint(int value) {
+            while ((value & ~0x7F) != 0) {
+                writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            writeByte(value);
+        }
+
+
+        /**
+         * Writes a non-negative long in 7-bit groups, low group first.
+         */
+        void writeVarlong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                writeByte((int)(value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            writeByte((int)value);
+        }
+
+
+        void writeString(String value) {
+            byte[] utf8 = (value == null ? "" : value).getBytes(
+                StandardCharsets.UTF_8);
+            writeVarint(utf8.length);
+            for (byte b : utf8) {
+                writeByte(b);
+            }
+        }
+
+
+        byte[] buffer() {
+            return bytes;
+        }
+
+
+        int size() {
+            return size;
+        }
+
+
+        /**
+         * Returns a copy of the encoded bytes.
+         */
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+
+
+        void reset() {
+            size = 0;
+        }
+    }
+
+
+    /**
+     * Reader of the encoding of Encoder. Reading past the end or a
+     * malformed varint throws IllegalArgumentException.
+     */
+    static class Decoder {
+        private final byte[] bytes;
+        private int position;
+        private final int end;
+
+        Decoder(byte[] bytes, int offset, int length) {
+            this.bytes = bytes;
+            this.position = offset;
+            this.end = offset + length;
+        }
+
+
+        boolean hasMore() {
+            return position < end;
+        }
+
+
+        int readByte() {
+            if (position >= end) {
+                throw new IllegalArgumentException("Truncated input");
+            }
+            return bytes[position++] & 0xFF;
+        }
+
+
+        int readVarint() {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+
+        long readVarlong() {
+            long value = 0;
+            for (int shift = 0; shift < 70; shift += 7) {
+                int b = readByte();
+                value |= (long)(b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+
+        String readString() {
+            int length = readVarint();
+            if (length < 0 || length > end - position) {
+                throw new IllegalArgumentException("Truncated string");
+            }
+            String value = new String(bytes, position, length,
+                StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+    }
+}
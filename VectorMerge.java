@@ -0,0 +1,85 @@
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Block merge of NeighborSimilarity with the incubator Vector API. It is
+ * the only class that uses the module and is only reached by reflection,
+ * so it is compiled and run with --add-modules jdk.incubator.vector and
+ * the rest of the tree needs no such flag:
+ *
+ * <pre>
+ * javac --add-modules jdk.incubator.vector VectorMerge.java
+ * java --add-modules jdk.incubator.vector NeighborSimilarity
+ * </pre>
+ *
+ * @author Kerem Bozgan kerembozgan
+ * @version 2022-11-11
+ */
+class VectorMerge {
+
+    private static final VectorSpecies<Integer> SPECIES =
+        IntVector.SPECIES_PREFERRED;
+
+    /**
+     * Returns the number of ints in a block.
+     *
+     * @return lanes of the preferred int vector
+     */
+    static int lanes() {
+        return SPECIES.length();
+    }
+
+
+    /**
+     * Intersects by comparing blocks of lanes ints all against all.
+     *
+     * @param a
+     *            first sorted array
+     * @param aLength
+     *            number of ints used in a
+     * @param b
+     *            second sorted array
+     * @param bLength
+     *            number of ints used in b
+     * @param positions
+     *            receives the index in a of every common int, in order;
+     *            null to only count them
+     * @return number of common ints
+     */
+    static int merge(
+        int[] a,
+        int aLength,
+        int[] b,
+        int bLength,
+        int[] positions) {
+        int lanes = SPECIES.length();
+        int i = 0;
+        int j = 0;
+        int count = 0;
+        while (i + lanes <= aLength && j + lanes <= bLength) {
+            IntVector block = IntVector.fromArray(SPECIES, a, i);
+            for (int k = 0; k < lanes; k++) {
+                VectorMask<Integer> match = block.eq(b[j + k]);
+                if (match.anyTrue()) {
+                    if (positions != null) {
+                        positions[count] = i + match.firstTrue();
+                    }
+                    count++;
+                }
+            }
+            int lastA = a[i + lanes - 1];
+            int lastB = b[j + lanes - 1];
+            if (lastA <= lastB) {
+                i += lanes;
+            }
+            if (lastB <= lastA) {
+                j += lanes;
+            }
+        }
+        // ints before i and j were compared with every block they can
+        // match
+        return NeighborSimilarity.mergeTail(a, i, aLength, b, j, bLength,
+            positions, count);
+    }
+}
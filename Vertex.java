@@ -111,6 +111,13 @@ class Vertex<T> implements VertexInterface<T> {
      */
     protected List<Edge> edgeList;
 
+    /**
+     * Directed arcs that leave and enter this vertex, null until the
+     * first one is added
+     */
+    private List<Arc<T>> outArcs;
+    private List<Arc<T>> inArcs;
+
     /**
      * 
      * Inner Edge class that simply
@@ -126,6 +133,11 @@ class Vertex<T> implements VertexInterface<T> {
     private class Edge {
         private VertexInterface<T> vertex;
         private double weight;
+        /**
+         * Index of the reverse edge in the edge list of the end vertex,
+         * -1 if the reverse edge is not known
+         */
+        private int mirror = -1;
 
         private Edge(VertexInterface<T> endVertex) {
             vertex = endVertex;
@@ -139,6 +151,22 @@ class Vertex<T> implements VertexInterface<T> {
 
     }
 
+    /**
+     * One end of a directed arc. An arc is stored twice, in the out list
+     * of its source and the in list of its target, and each copy knows
+     * the index of the other, so either can be removed in O(1).
+     */
+    private static class Arc<T> {
+        private Vertex<T> vertex;
+        /** Index of the other copy of the arc */
+        private int mirror;
+
+        private Arc(Vertex<T> vertex, int mirror) {
+            this.vertex = vertex;
+            this.mirror = mirror;
+        }
+    }
+
     /**
      * initialize a vertex with given label
      * 
@@ -164,6 +192,18 @@ class Vertex<T> implements VertexInterface<T> {
     }
 
 
+    /**
+     * Changes the label of this vertex. Only the graph that holds the
+     * vertex may call this, since the graph keys its vertices by label.
+     * 
+     * @param newLabel
+     *            new label of the vertex
+     */
+    void setLabel(T newLabel) {
+        label = newLabel;
+    }
+
+
     /**
      * Marks the vertex as visited
      */
@@ -313,7 +353,7 @@ class Vertex<T> implements VertexInterface<T> {
         for (int i = 0; i < edgeList.size(); i++) {
             currentEdge = edgeList.get(i);
             if (endVertex.equals( currentEdge.vertex)) {
-                edgeList.remove(i);
+                removeEdgeAt(i);
                 return true;
             }
         }
@@ -338,7 +378,7 @@ class Vertex<T> implements VertexInterface<T> {
             currentEdge = edgeList.get(i);
             if (endVertex.equals( currentEdge.vertex)
                 && edgeWeight == currentEdge.weight) {
-                edgeList.remove(i);
+                removeEdgeAt(i);
                 return true;
             }
         }
@@ -347,6 +387,261 @@ class Vertex<T> implements VertexInterface<T> {
     }
 
 
+    /**
+     * Links the last edge of vertex a and the last edge of vertex b as
+     * reverse edges of each other. Called by the graph right after it
+     * connects the two vertices in both directions, so that the reverse
+     * edge can later be found without a scan.
+     * 
+     * @param a
+     *            first vertex
+     * @param b
+     *            second vertex
+     */
+    static <T> void pairLastEdges(Vertex<T> a, Vertex<T> b) {
+        int indexA = a.edgeList.size() - 1;
+        int indexB = b.edgeList.size() - 1;
+        a.edgeList.get(indexA).mirror = indexB;
+        b.edgeList.get(indexB).mirror = indexA;
+    }
+
+
+    /**
+     * Removes the edge at the given index in O(1) by moving the last edge
+     * into its place. The reverse edge of the removed edge is unlinked and
+     * the reverse edge of the moved edge is pointed at its new index.
+     * Note that this changes the order of the remaining neighbors.
+     * 
+     * @param index
+     *            index of the edge to remove
+     */
+    void removeEdgeAt(int index) {
+        Edge removed = edgeList.get(index);
+        if (removed.mirror >= 0) {
+            Vertex<T> end = (Vertex<T>)removed.vertex;
+            end.edgeList.get(removed.mirror).mirror = -1;
+        }
+
+        int last = edgeList.size() - 1;
+        if (index != last) {
+            Edge moved = edgeList.get(last);
+            edgeList.set(index, moved);
+            if (moved.mirror >= 0) {
+                Vertex<T> end = (Vertex<T>)moved.vertex;
+                end.edgeList.get(moved.mirror).mirror = index;
+            }
+        }
+        edgeList.remove(last);
+    }
+
+
+    /**
+     * Removes every reverse edge that points at this vertex from the edge
+     * lists of its neighbors. Linked reverse edges are removed in O(1)
+     * each, so the cost is proportional to the degree of this vertex.
+     * The edges of this vertex are kept so that the caller can still see
+     * its former neighbors.
+     * 
+     * @return number of reverse edges removed
+     */
+    int detachFromNeighbors() {
+        int removedCount = 0;
+        Edge currentEdge;
+        for (int i = 0; i < edgeList.size(); i++) {
+            currentEdge = edgeList.get(i);
+            if (currentEdge.mirror >= 0) {
+                // removeEdgeAt unlinks currentEdge as well
+                ((Vertex<T>)currentEdge.vertex).removeEdgeAt(
+                    currentEdge.mirror);
+                removedCount++;
+            }
+            else if (currentEdge.vertex.disconnect(this)) {
+                removedCount++;
+            }
+        }
+        return removedCount;
+    }
+
+
+    /**
+     * Returns the index of the reverse edge of the edge at the given
+     * index, -1 if the reverse edge is not linked.
+     * 
+     * @param index
+     *            index of the edge
+     * @return index of the reverse edge in the end vertex's edge list
+     */
+    int getMirrorIndex(int index) {
+        return edgeList.get(index).mirror;
+    }
+
+
+    /**
+     * Adds a directed arc from one vertex to another, unless the vertices
+     * are the same or the arc exists.
+     * 
+     * @param from
+     *            source of the arc
+     * @param to
+     *            target of the arc
+     * @return true if the arc was added
+     */
+    static <T> boolean addArc(Vertex<T> from, Vertex<T> to) {
+        if (from == to || findOutArc(from, to) >= 0) {
+            return false;
+        }
+        if (from.outArcs == null) {
+            from.outArcs = new ArrayList<Arc<T>>();
+        }
+        if (to.inArcs == null) {
+            to.inArcs = new ArrayList<Arc<T>>();
+        }
+        from.outArcs.add(new Arc<T>(to, to.inArcs.size()));
+        to.inArcs.add(new Arc<T>(from, from.outArcs.size() - 1));
+        return true;
+    }
+
+
+    /**
+     * Removes the directed arc from one vertex to another.
+     * 
+     * @param from
+     *            source of the arc
+     * @param to
+     *            target of the arc
+     * @return true if the arc was removed
+     */
+    static <T> boolean removeArc(Vertex<T> from, Vertex<T> to) {
+        int index = findOutArc(from, to);
+        if (index < 0) {
+            return false;
+        }
+        from.removeOutArcAt(index);
+        return true;
+    }
+
+
+    /**
+     * Returns the index of the arc from one vertex to another in the out
+     * list of the source, -1 if there is none. The shorter of the out list
+     * of the source and the in list of the target is searched.
+     * 
+     * @param from
+     *            source of the arc
+     * @param to
+     *            target of the arc
+     * @return index of the arc or -1
+     */
+    static <T> int findOutArc(Vertex<T> from, Vertex<T> to) {
+        if (from.getOutDegree() <= to.getInDegree()) {
+            for (int i = 0; i < from.getOutDegree(); i++) {
+                if (from.outArcs.get(i).vertex == to) {
+                    return i;
+                }
+            }
+        }
+        else {
+            for (int i = 0; i < to.getInDegree(); i++) {
+                Arc<T> arc = to.inArcs.get(i);
+                if (arc.vertex == from) {
+                    return arc.mirror;
+                }
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     * Returns the number of arcs that leave this vertex.
+     * 
+     * @return out-degree
+     */
+    int getOutDegree() {
+        return outArcs == null ? 0 : outArcs.size();
+    }
+
+
+    /**
+     * Returns the number of arcs that enter this vertex.
+     * 
+     * @return in-degree
+     */
+    int getInDegree() {
+        return inArcs == null ? 0 : inArcs.size();
+    }
+
+
+    /**
+     * Returns the target of the arc at the given index of the out list.
+     * 
+     * @param index
+     *            index in the out list
+     * @return target vertex
+     */
+    Vertex<T> getOutNeighbor(int index) {
+        return outArcs.get(index).vertex;
+    }
+
+
+    /**
+     * Returns the source of the arc at the given index of the in list.
+     * 
+     * @param index
+     *            index in the in list
+     * @return source vertex
+     */
+    Vertex<T> getInNeighbor(int index) {
+        return inArcs.get(index).vertex;
+    }
+
+
+    /**
+     * Removes every arc that leaves or enters this vertex, in time
+     * proportional to their number.
+     * 
+     * @return number of arcs removed
+     */
+    int detachArcs() {
+        int removed = getOutDegree() + getInDegree();
+        while (getOutDegree() > 0) {
+            removeOutArcAt(outArcs.size() - 1);
+        }
+        while (getInDegree() > 0) {
+            Arc<T> arc = inArcs.get(inArcs.size() - 1);
+            arc.vertex.removeOutArcAt(arc.mirror);
+        }
+        return removed;
+    }
+
+
+    /**
+     * Removes the arc at the given index of the out list together with
+     * its copy in the in list of the target. Both lists fill the hole
+     * with their last arc, whose other copy is pointed at the new index.
+     */
+    private void removeOutArcAt(int index) {
+        Arc<T> arc = outArcs.get(index);
+        Vertex<T> target = arc.vertex;
+
+        int lastIn = target.inArcs.size() - 1;
+        if (arc.mirror != lastIn) {
+            Arc<T> moved = target.inArcs.get(lastIn);
+            target.inArcs.set(arc.mirror, moved);
+            moved.vertex.outArcs.get(moved.mirror).mirror = arc.mirror;
+        }
+        target.inArcs.remove(lastIn);
+
+        int lastOut = outArcs.size() - 1;
+        if (index != lastOut) {
+            Arc<T> moved = outArcs.get(lastOut);
+            outArcs.set(index, moved);
+            moved.vertex.inArcs.get(moved.mirror).mirror = index;
+        }
+        outArcs.remove(lastOut);
+    }
+
+
     /**
      * Returns iterator for list of neighbor vertices.
      * 
@@ -364,6 +659,18 @@ class Vertex<T> implements VertexInterface<T> {
     }
 
 
+    /**
+     * Returns the neighbor at the given position of the edge list.
+     * 
+     * @param index
+     *            position of the neighbor
+     * @return neighbor vertex at the given position
+     */
+    public VertexInterface<T> getNeighbor(int index) {
+        return edgeList.get(index).vertex;
+    }
+
+
     /**
      * Returns true if vertex has a neighbor,
      * false otherwise.
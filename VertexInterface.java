@@ -111,6 +111,18 @@ public interface VertexInterface<T> {
     public Iterator<VertexInterface<T>> getNeighborIterator();
 
 
+    /**
+     * Returns the neighbor at the given position of this vertex's
+     * adjacency, without copying the adjacency.
+     * 
+     * @param index
+     *            position of the neighbor, between 0 and
+     *            getNumberOfNeighbors() - 1
+     * @return neighbor vertex at the given position
+     */
+    public VertexInterface<T> getNeighbor(int index);
+
+
     /**
      * Sees whether this vertex has at least one
      * neighbor.
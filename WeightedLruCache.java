@@ -0,0 +1,437 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded cache whose entries have a weight, such as their size in
+ * bytes. The total weight stays below the maximum by evicting the least
+ * recently used entries. A frequency sketch decides whether a new entry
+ * is worth an eviction: it only gets in when it was asked for more often
+ * than the entry it would evict (TinyLFU admission), so a burst of keys
+ * that are used once does not flush the keys that are used all the time.
+ *
+ * The keys are spread over segments by hash, each with its own lock,
+ * its own share of the maximum weight and its own sketch, so threads
+ * working on different keys rarely wait for each other.
+ *
+ * @param <K>
+ *            type of the keys
+ * @param <V>
+ *            type of the values
+ *
+ * @author Kerem Bozgan kerembozgan
+ * @version 2022-11-11
+ */
+class WeightedLruCache<K, V> {
+
+    public static void main(String[] args) {
+        WeightedLruCache<String, String> cache =
+            new WeightedLruCache<String, String>(100, 1);
+        cache.put("A", "cold", 50);
+        cache.put("B", "hot", 50);
+        for (int i = 0; i < 5; i++) {
+            cache.get("B");
+        }
+        System.out.println("Size " + cache.size() + ", weight " + cache
+            .getWeight() + ", evictions " + cache.getEvictions());
+
+        // C would have to evict A and B, and B is used more often
+        int size = cache.size();
+        long weight = cache.getWeight();
+        long evictions = cache.getEvictions();
+        System.out.println("C admitted: " + cache.put("C", "new", 60));
+        System.out.println("Unchanged after rejection: " + (cache.size()
+            == size && cache.getWeight() == weight && cache
+                .getEvictions() == evictions && cache.get("A") != null));
+
+        // once C is asked for more often than A and B, it evicts both
+        for (int i = 0; i < 10; i++) {
+            cache.get("C");
+        }
+        System.out.println("C admitted: " + cache.put("C", "new", 60));
+        System.out.println("Size " + cache.size() + ", weight " + cache
+            .getWeight() + ", evictions " + cache.getEvictions());
+    }
+
+
+    /** Segments, a power of two of them */
+    private final Segment<K, V>[] segments;
+
+    /** Statistics over all segments */
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    /**
+     * Initializes an empty cache.
+     *
+     * @param maxWeight
+     *            maximum total weight
+     * @param segmentCount
+     *            number of segments, rounded up to a power of two
+     */
+    @SuppressWarnings("unchecked")
+    WeightedLruCache(long maxWeight, int segmentCount) {
+        int count = 1;
+        while (count < segmentCount) {
+            count <<= 1;
+        }
+        segments = (Segment<K, V>[])new Segment<?, ?>[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment<K, V>(Math.max(1, maxWeight / count));
+        }
+    }
+
+
+    /**
+     * Returns the value of a key and marks it as recently used, or null
+     * if the key is not cached.
+     *
+     * @param key
+     *            key to look up
+     * @return cached value or null
+     */
+    public V get(K key) {
+        int hash = spread(key.hashCode());
+        Segment<K, V> segment = segmentOf(hash);
+        V value;
+        segment.lock.lock();
+        try {
+            segment.sketch.increment(hash);
+            Node<V> node = segment.map.get(key);
+            value = node == null ? null : node.value;
+        }
+        finally {
+            segment.lock.unlock();
+        }
+        if (value == null) {
+            misses.increment();
+        }
+        else {
+            hits.increment();
+        }
+        return value;
+    }
+
+
+    /**
+     * Caches a value, replacing any value of the key. If the cache is
+     * full, the least recently used entries that would have to make room
+     * are found first. They are evicted only if none of them was used
+     * more often than the new key; otherwise the new value is not cached
+     * and the segment stays as it was, with any older value of the key.
+     *
+     * @param key
+     *            key of the value
+     * @param value
+     *            value to cache, not null
+     * @param weight
+     *            weight of the entry
+     * @return true if the value was cached
+     */
+    public boolean put(K key, V value, long weight) {
+        int hash = spread(key.hashCode());
+        Segment<K, V> segment = segmentOf(hash);
+        segment.lock.lock();
+        try {
+            if (weight > segment.maxWeight) {
+                rejections.increment();
+                return false;
+            }
+            Node<V> old = segment.map.get(key);
+            long kept = segment.weight - (old == null ? 0 : old.weight);
+            // find the victims without removing them
+            int frequency = segment.sketch.frequency(hash);
+            int victims = 0;
+            long freed = 0;
+            Iterator<Map.Entry<K, Node<V>>> eldest = segment.map.entrySet()
+                .iterator();
+            while (kept - freed + weight > segment.maxWeight) {
+                Map.Entry<K, Node<V>> victim = eldest.next();
+                if (victim.getValue() == old) {
+                    continue;
+                }
+                if (segment.sketch.frequency(spread(victim.getKey()
+                    .hashCode())) > frequency) {
+                    rejections.increment();
+                    return false;
+                }
+                freed += victim.getValue().weight;
+                victims++;
+            }
+            eldest = segment.map.entrySet().iterator();
+            while (victims > 0) {
+                if (eldest.next().getValue() != old) {
+                    eldest.remove();
+                    evictions.increment();
+                    victims--;
+                }
+            }
+            segment.map.put(key, new Node<V>(value, weight));
+            segment.weight = kept - freed + weight;
+            return true;
+        }
+        finally {
+            segment.lock.unlock();
+        }
+    }
+
+
+    /**
+     * Removes a key from the cache.
+     *
+     * @param key
+     *            key to remove
+     */
+    public void remove(K key) {
+        Segment<K, V> segment = segmentOf(spread(key.hashCode()));
+        segment.lock.lock();
+        try {
+            Node<V> old = segment.map.remove(key);
+            if (old != null) {
+                segment.weight -= old.weight;
+            }
+        }
+        finally {
+            segment.lock.unlock();
+        }
+    }
+
+
+    /**
+     * Removes all entries. Frequencies and statistics are kept.
+     */
+    public void clear() {
+        for (Segment<K, V> segment : segments) {
+            segment.lock.lock();
+            try {
+                segment.map.clear();
+                segment.weight = 0;
+            }
+            finally {
+                segment.lock.unlock();
+            }
+        }
+    }
+
+
+    /**
+     * Returns the number of cached entries.
+     *
+     * @return number of entries
+     */
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            segment.lock.lock();
+            try {
+                size += segment.map.size();
+            }
+            finally {
+                segment.lock.unlock();
+            }
+        }
+        return size;
+    }
+
+
+    /**
+     * Returns the total weight of the cached entries.
+     *
+     * @return total weight
+     */
+    public long getWeight() {
+        long weight = 0;
+        for (Segment<K, V> segment : segments) {
+            segment.lock.lock();
+            try {
+                weight += segment.weight;
+            }
+            finally {
+                segment.lock.unlock();
+            }
+        }
+        return weight;
+    }
+
+
+    /**
+     * Returns the number of lookups that found a value.
+     *
+     * @return number of hits
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+
+    /**
+     * Returns the number of lookups that found nothing.
+     *
+     * @return number of misses
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+
+    /**
+     * Returns the number of entries evicted to make room.
+     *
+     * @return number of evictions
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+
+    /**
+     * Returns the number of values that were not admitted.
+     *
+     * @return number of rejections
+     */
+    public long getRejections() {
+        return rejections.sum();
+    }
+
+
+    /**
+     * Returns the segment of a spread hash.
+     */
+    private Segment<K, V> segmentOf(int hash) {
+        return segments[(hash >>> 16) & (segments.length - 1)];
+    }
+
+
+    /**
+     * Mixes the bits of a hash code, so keys that differ only in high or
+     * only in low bits are spread as well.
+     */
+    private static int spread(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 15);
+    }
+
+
+    /**
+     * Cached value with its weight.
+     */
+    private static class Node<V> {
+        final V value;
+        final long weight;
+
+        Node(V value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+
+    /**
+     * Part of the cache with its own lock.
+     */
+    private static class Segment<K, V> {
+        final ReentrantLock lock = new ReentrantLock();
+        /** Entries in access order, least recently used first */
+        final LinkedHashMap<K, Node<V>> map =
+            new LinkedHashMap<K, Node<V>>(16, 0.75f, true);
+        final long maxWeight;
+        long weight;
+        final FrequencySketch sketch;
+
+        Segment(long maxWeight) {
+            this.maxWeight = maxWeight;
+            // assume entries of about 64 units for the sketch width
+            sketch = new FrequencySketch((int)Math.min(1 << 20, Math.max(
+                64, maxWeight / 64)));
+        }
+    }
+
+
+    /**
+     * Count-min sketch of how often keys were asked for. Four rows of
+     * counters that saturate at 15; the frequency of a key is the
+     * smallest of its four counters. Once enough increments have been
+     * made all counters are halved, so old popularity fades.
+     */
+    static class FrequencySketch {
+
+        /** Number of rows */
+        private static final int ROWS = 4;
+        /** Multipliers that derive the index in each row */
+        private static final int[] SEEDS = { 0x97CB3127, 0xB6D1F3C5,
+            0x2A4D7E35, 0x5E6C3A1D };
+
+        /** Counters, row after row */
+        private final byte[] counters;
+        /** Width of a row minus one */
+        private final int mask;
+        /** Increments until the counters are halved */
+        private final int sampleSize;
+        private int additions;
+
+        /**
+         * Initializes a sketch for about the given number of keys.
+         *
+         * @param keys
+         *            expected number of distinct keys
+         */
+        FrequencySketch(int keys) {
+            int width = Integer.highestOneBit(Math.max(16, keys - 1)) << 1;
+            counters = new byte[ROWS * width];
+            mask = width - 1;
+            sampleSize = 10 * width;
+        }
+
+
+        /**
+         * Counts one request for a hash.
+         *
+         * @param hash
+         *            spread hash of the key
+         */
+        void increment(int hash) {
+            for (int row = 0; row < ROWS; row++) {
+                int index = indexOf(hash, row);
+                if (counters[index] < 15) {
+                    counters[index]++;
+                }
+            }
+            if (++additions >= sampleSize) {
+                for (int i = 0; i < counters.length; i++) {
+                    counters[i] >>>= 1;
+                }
+                additions /= 2;
+            }
+        }
+
+
+        /**
+         * Returns the estimated number of requests for a hash.
+         *
+         * @param hash
+         *            spread hash of the key
+         * @return estimated frequency, at most 15
+         */
+        int frequency(int hash) {
+            int min = 15;
+            for (int row = 0; row < ROWS; row++) {
+                min = Math.min(min, counters[indexOf(hash, row)]);
+            }
+            return min;
+        }
+
+
+        /**
+         * Returns the index of the counter of a hash in a row.
+         */
+        private int indexOf(int hash, int row) {
+            int h = hash * SEEDS[row];
+            h ^= h >>> 17;
+            return row * (mask + 1) + (h & mask);
+        }
+    }
+}